@@ -20,12 +20,19 @@
 package com.xwiki.analytics;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * The interface for the AnalyticManger.
@@ -47,4 +54,81 @@ public interface AnalyticsManager
      */
     JsonNode requestData(Map<String, String> parameters, Map<String, String> filters, String jsonNormaliserHint)
         throws IOException;
+
+    /**
+     * Request only a window of the rows of specific analytics data, e.g. a page of a live data. The window is taken
+     * from the rows that the current user can view. The default implementation requests all the rows and keeps the
+     * ones of the window.
+     *
+     * @param parameters a list of key, value pairs that will represent the parameters for the request
+     * @param filters holds the criteria for filtering a dataset
+     * @param jsonNormaliserHint hint to select the json normaliser
+     * @param offset the index of the first row to return
+     * @param limit the maximum number of rows to return
+     * @return a JSON object with the number of rows matching the filters that the current user can view, in the
+     *     {@code totalRows} field, and the processed rows of the window, in the {@code rows} field; the number of rows
+     *     may be an upper bound when the rights aren't checked for the rows after the window
+     * @since 1.1.1
+     */
+    default JsonNode requestData(Map<String, String> parameters, Map<String, String> filters,
+        String jsonNormaliserHint, long offset, int limit) throws IOException
+    {
+        JsonNode rows = requestData(parameters, filters, jsonNormaliserHint);
+        ObjectNode window = JsonNodeFactory.instance.objectNode();
+        window.put("totalRows", rows.size());
+        ArrayNode windowRows = window.putArray("rows");
+        long end = limit < 0 ? rows.size() : Math.min(rows.size(), Math.max(offset, 0) + limit);
+        for (long i = Math.max(offset, 0); i < end; i++) {
+            windowRows.add(rows.get((int) i));
+        }
+        return window;
+    }
+
+    /**
+     * Request the data for several requests at once, in order to reduce the number of round trips to the analytics
+     * backend. The failures are reported for each request, without affecting the others. The default implementation
+     * makes the requests one after the other.
+     *
+     * @param requests the requests to send
+     * @return the responses, in the same order as the requests
+     * @since 1.1.1
+     */
+    default List<AnalyticsResponse> requestBatch(List<AnalyticsRequest> requests)
+    {
+        List<AnalyticsResponse> responses = new ArrayList<>(requests.size());
+        for (AnalyticsRequest request : requests) {
+            try {
+                // The parameters are copied since they may be modified when the request is made.
+                Map<String, String> parameters =
+                    request.getParameters() == null ? null : new HashMap<>(request.getParameters());
+                responses.add(new AnalyticsResponse(request,
+                    requestData(parameters, request.getFilters(), request.getJsonNormaliserHint())));
+            } catch (Exception e) {
+                responses.add(new AnalyticsResponse(request, e));
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Request specific analytics data without blocking the calling thread. The default implementation makes the
+     * request synchronously.
+     *
+     * @param parameters a list of key, value pairs that will represent the parameters for the request
+     * @param filters holds the criteria for filtering a dataset
+     * @param jsonNormaliserHint hint to select the json normaliser
+     * @return the future processed data
+     * @since 1.1.1
+     */
+    default CompletableFuture<JsonNode> requestDataAsync(Map<String, String> parameters, Map<String, String> filters,
+        String jsonNormaliserHint)
+    {
+        CompletableFuture<JsonNode> future = new CompletableFuture<>();
+        try {
+            future.complete(requestData(parameters, filters, jsonNormaliserHint));
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
 }
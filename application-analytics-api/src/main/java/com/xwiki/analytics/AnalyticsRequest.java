@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * A request for analytics data, which can be sent along with other requests using
+ * {@link AnalyticsManager#requestBatch(java.util.List)}.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Unstable
+public class AnalyticsRequest
+{
+    private final Map<String, String> parameters;
+
+    private final Map<String, String> filters;
+
+    private final String jsonNormaliserHint;
+
+    /**
+     * @param parameters a list of key, value pairs that will represent the parameters for the request
+     * @param filters holds the criteria for filtering a dataset
+     * @param jsonNormaliserHint hint to select the json normaliser
+     */
+    public AnalyticsRequest(Map<String, String> parameters, Map<String, String> filters, String jsonNormaliserHint)
+    {
+        this.parameters = parameters != null ? new HashMap<>(parameters) : null;
+        this.filters = filters != null ? new HashMap<>(filters) : null;
+        this.jsonNormaliserHint = jsonNormaliserHint;
+    }
+
+    /**
+     * @return the parameters of the request
+     */
+    public Map<String, String> getParameters()
+    {
+        return this.parameters;
+    }
+
+    /**
+     * @return the criteria for filtering the dataset
+     */
+    public Map<String, String> getFilters()
+    {
+        return this.filters;
+    }
+
+    /**
+     * @return the hint of the json normaliser
+     */
+    public String getJsonNormaliserHint()
+    {
+        return this.jsonNormaliserHint;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics;
+
+import org.xwiki.stability.Unstable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The outcome of an {@link AnalyticsRequest}: either the normalised data or the error that prevented retrieving it.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Unstable
+public class AnalyticsResponse
+{
+    private final AnalyticsRequest request;
+
+    private final JsonNode data;
+
+    private final Exception error;
+
+    /**
+     * @param request the request for which this response was received
+     * @param data the normalised data
+     */
+    public AnalyticsResponse(AnalyticsRequest request, JsonNode data)
+    {
+        this.request = request;
+        this.data = data;
+        this.error = null;
+    }
+
+    /**
+     * @param request the request that failed
+     * @param error the error that prevented retrieving the data
+     */
+    public AnalyticsResponse(AnalyticsRequest request, Exception error)
+    {
+        this.request = request;
+        this.data = null;
+        this.error = error;
+    }
+
+    /**
+     * @return the request for which this response was received
+     */
+    public AnalyticsRequest getRequest()
+    {
+        return this.request;
+    }
+
+    /**
+     * @return the normalised data, or {@code null} if the request failed
+     */
+    public JsonNode getData()
+    {
+        return this.data;
+    }
+
+    /**
+     * @return the error that prevented retrieving the data, or {@code null} if the request succeeded
+     */
+    public Exception getError()
+    {
+        return this.error;
+    }
+
+    /**
+     * @return {@code true} if the data was retrieved, {@code false} otherwise
+     */
+    public boolean isSuccessful()
+    {
+        return this.error == null;
+    }
+}
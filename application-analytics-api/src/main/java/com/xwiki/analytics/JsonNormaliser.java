@@ -19,17 +19,32 @@
  */
 package com.xwiki.analytics;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.Map;
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Provides APIs for normalizing data received from Matomo, for easing the afterwards manipulations. Depending on what
  * was requested from Matomo, the response can have various formats, which are not consistent or need enhancement.
+ * <p>
+ * Since 1.1.1, the normalised data doesn't depend on the current user, so it can be shared between users (e.g.
+ * cached). The processing that depends on the current user, like the rights checks, is done by
+ * {@link #filterForCurrentUser(JsonNode)}, which must be called before displaying the data.
+ * <p>
+ * Since 1.1.1, the filter values may start with an operator: {@code >}, {@code >=}, {@code <} and {@code <=} compare
+ * numbers, {@code n..m} matches the numbers between {@code n} and {@code m}, {@code =} requires an exact match,
+ * {@code ^} a case-insensitive prefix and {@code ~} a case-insensitive partial match. The values without operator are
+ * matched partially, unless the normaliser needs to identify a specific entry.
  *
  * @version $Id$
  * @since 1.0
@@ -48,6 +63,70 @@ public interface JsonNormaliser
      */
     JsonNode normaliseData(String jsonString, Map<String, String> filters) throws JsonProcessingException;
 
+    /**
+     * Normalise the data read from the given stream, without loading the whole response in memory. The entries that
+     * don't match the filters are dropped as soon as they are read. The default implementation reads the whole stream
+     * and calls {@link #normaliseData(String, Map)}.
+     *
+     * @param inputStream the stream from which the JSON is read; it is not closed by this method
+     * @param filters holds the criteria for filtering a dataset
+     * @return a {@link JsonNode} with the root of the normalized JSON
+     * @throws IOException if the stream can't be read, the JSON is malformed or it describes an error
+     * @since 1.1.1
+     */
+    default JsonNode normaliseData(InputStream inputStream, Map<String, String> filters) throws IOException
+    {
+        return normaliseData(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8), filters);
+    }
+
+    /**
+     * Normalise the next JSON value read by the given parser, which allows normalising a value that is part of a
+     * bigger JSON (e.g. a bulk response). When this method returns normally, the parser is positioned on the last token
+     * of the value. The default implementation reads the whole value and calls {@link #normaliseData(String, Map)}.
+     *
+     * @param parser the parser positioned on the first token of the value to normalise, or before it if no token was
+     *     read yet
+     * @param filters holds the criteria for filtering a dataset
+     * @return a {@link JsonNode} with the root of the normalized JSON
+     * @throws IOException if the JSON is malformed or it describes an error
+     * @since 1.1.1
+     */
+    default JsonNode normaliseData(JsonParser parser, Map<String, String> filters) throws IOException
+    {
+        return normaliseData(String.valueOf(new ObjectMapper().readTree(parser)), filters);
+    }
+
+    /**
+     * Translate the filters that Matomo can apply itself into request parameters, so that Matomo returns only the
+     * matching rows (or a superset of them) instead of the whole report. All the filters are still applied when the
+     * response is normalised.
+     *
+     * @param filters holds the criteria for filtering a dataset
+     * @param parameters the parameters of the request
+     * @return the parameters to add to the request, empty if none of the filters can be applied by Matomo, which is
+     *     the case of the default implementation
+     * @since 1.1.1
+     */
+    default Map<String, String> getServerSideFilterParameters(Map<String, String> filters,
+        Map<String, String> parameters)
+    {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Apply on the normalised data the processing that depends on the current user, like removing the entries that
+     * the user is not allowed to view. The given data is not modified, since it may be shared between users. The
+     * default implementation returns the given data, for the normalisers that check the rights while normalising.
+     *
+     * @param normalisedData the data returned by one of the {@code normaliseData} methods
+     * @return the data that can be displayed to the current user
+     * @since 1.1.1
+     */
+    default JsonNode filterForCurrentUser(JsonNode normalisedData)
+    {
+        return normalisedData;
+    }
+
     /**
      * Retrieve the hint of a component.
      *
@@ -57,4 +57,177 @@ public interface AnalyticsConfiguration
      * @since 1.0.2
      */
     boolean isEnabled();
+
+    /**
+     * @return the maximum number of connections kept in the pool used to communicate with Matomo
+     * @since 1.1.1
+     */
+    int getMaxConnections();
+
+    /**
+     * @return the maximum number of pooled connections towards a single route (i.e. the Matomo host)
+     * @since 1.1.1
+     */
+    int getMaxConnectionsPerRoute();
+
+    /**
+     * @return the time, in milliseconds, to wait until a connection with Matomo is established
+     * @since 1.1.1
+     */
+    int getConnectTimeout();
+
+    /**
+     * @return the maximum time, in milliseconds, of inactivity between two data packets received from Matomo
+     * @since 1.1.1
+     */
+    int getSocketTimeout();
+
+    /**
+     * @return the time, in milliseconds, to wait for a free connection from the pool
+     * @since 1.1.1
+     */
+    int getConnectionRequestTimeout();
+
+    /**
+     * @return the time, in milliseconds, after which the idle pooled connections are evicted
+     * @since 1.1.1
+     */
+    int getIdleConnectionTimeout();
+
+    /**
+     * @return the time, in milliseconds, to keep a connection alive when Matomo doesn't specify it
+     * @since 1.1.1
+     */
+    int getKeepAliveDuration();
+
+    /**
+     * @return the maximum size, in bytes, of a response accepted from Matomo
+     * @since 1.1.1
+     */
+    long getMaxResponseSize();
+
+    /**
+     * @return {@code true} if Matomo is asked to compress its responses (with gzip or deflate), which are then
+     *     decompressed while they are read, {@code false} to receive them uncompressed
+     * @since 1.1.1
+     */
+    boolean isHttpCompressionEnabled();
+
+    /**
+     * @return the maximum number of normalised Matomo responses kept in the in-memory cache, or {@code 0} to disable
+     *     the cache
+     * @since 1.1.1
+     */
+    int getResponseCacheSize();
+
+    /**
+     * @return the time, in seconds, to cache the responses for periods that ended before today
+     * @since 1.1.1
+     */
+    int getClosedPeriodCacheDuration();
+
+    /**
+     * @return the time, in seconds, to cache the responses for periods that include today
+     * @since 1.1.1
+     */
+    int getCurrentPeriodCacheDuration();
+
+    /**
+     * @return the maximum size, in bytes, of the responses for periods that ended, kept on disk across restarts, or
+     *     {@code 0} to disable the persistent cache
+     * @since 1.1.1
+     */
+    long getPersistentCacheSize();
+
+    /**
+     * @return the time, in seconds, during which an expired response is still returned from the cache while it is
+     *     refreshed in the background
+     * @since 1.1.1
+     */
+    int getStaleCacheDuration();
+
+    /**
+     * @return the time, in seconds, between two refreshes of the cached responses of the recently displayed widgets,
+     *     or {@code 0} to disable the refresh
+     * @since 1.1.1
+     */
+    int getCacheWarmupInterval();
+
+    /**
+     * @return the maximum number of recently displayed widget requests that are kept to be refreshed in advance
+     * @since 1.1.1
+     */
+    int getCacheWarmupSize();
+
+    /**
+     * @return the maximum number of requests made in parallel to Matomo when refreshing the cached responses in advance
+     * @since 1.1.1
+     */
+    int getCacheWarmupMaxConcurrentRequests();
+
+    /**
+     * @return the maximum number of pages resolved from the URLs returned by Matomo kept in the in-memory cache, or
+     *     {@code 0} to disable the cache
+     * @since 1.1.1
+     */
+    int getPageReferenceCacheSize();
+
+    /**
+     * @return the maximum number of daily reports kept in memory to compute the reports for ranges of days without
+     *     asking Matomo to archive them, or {@code 0} to always request the ranges from Matomo
+     * @since 1.1.1
+     */
+    int getRollupMaxDays();
+
+    /**
+     * @return the maximum number of analytics requests executed in parallel by the asynchronous API
+     * @since 1.1.1
+     */
+    int getMaxConcurrentRequests();
+
+    /**
+     * @return the default time, in milliseconds, to wait for a group of requests executed in parallel
+     * @since 1.1.1
+     */
+    int getRequestsTimeout();
+
+    /**
+     * @return the maximum time, in milliseconds, that a request to Matomo can take, including reading the response,
+     *     after which it is aborted, or {@code 0} for no limit besides the connection and socket timeouts
+     * @since 1.1.1
+     */
+    int getRequestDeadline();
+
+    /**
+     * @return the maximum number of requests made to Matomo at the same time, so that a slow Matomo can't block all
+     *     the threads of the wiki, or {@code 0} for no limit
+     * @since 1.1.1
+     */
+    int getMaxConcurrentMatomoCalls();
+
+    /**
+     * @return the maximum time, in milliseconds, to wait for one of the {@link #getMaxConcurrentMatomoCalls()} requests
+     *     to finish before failing
+     * @since 1.1.1
+     */
+    int getBulkheadMaxWait();
+
+    /**
+     * @return the percentage of failed requests, among the last {@link #getCircuitBreakerMinimumCalls()} requests, over
+     *     which Matomo is considered unavailable and is not called for a while, or {@code 0} to always call Matomo
+     * @since 1.1.1
+     */
+    int getCircuitBreakerFailureRate();
+
+    /**
+     * @return the number of requests over which the failure rate is computed
+     * @since 1.1.1
+     */
+    int getCircuitBreakerMinimumCalls();
+
+    /**
+     * @return the time, in seconds, during which Matomo is not called after it was considered unavailable
+     * @since 1.1.1
+     */
+    int getCircuitBreakerOpenDuration();
 }
@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.rest;
+
+import javax.ws.rs.Encoded;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.xwiki.rest.XWikiRestException;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Exposes the normalised analytics data, written straight to the HTTP response instead of being rendered by a
+ * Velocity page. The {@code method} query parameter selects the Matomo report, among the ones displayed by the
+ * analytics macros, and {@code period}, {@code date}, {@code columns}, {@code expanded}, {@code flat} and the
+ * {@code filter_limit} and {@code filter_sort_*} parameters are sent to Matomo along with it. The other query
+ * parameters are ignored, except for {@code offset} and {@code limit}, which select a window of the rows, and the
+ * parameters prefixed with {@code filters.}, which filter the rows (e.g. {@code filters.label=~blog}).
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Path("/wikis/{wikiName}/analytics/{hint}")
+@Unstable
+public interface AnalyticsResource
+{
+    /**
+     * Request analytics data and normalise it with the given normaliser.
+     *
+     * @param wikiName the wiki for which the data is requested
+     * @param hint the hint of the {@link com.xwiki.analytics.JsonNormaliser} applied on the Matomo response
+     * @return the normalised data that the current user can view, or, when a window is requested, a JSON object with
+     *     the number of rows matching the filters, in the {@code totalRows} field, and the rows of the window, in the
+     *     {@code rows} field
+     * @throws XWikiRestException if the data couldn't be retrieved from Matomo; an unknown normaliser is reported with
+     *     the {@code 404} status code and a Matomo method that can't be requested with the normaliser with the
+     *     {@code 400} status code
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    Response getData(@PathParam("wikiName") @Encoded String wikiName, @PathParam("hint") String hint)
+        throws XWikiRestException;
+}
@@ -0,0 +1,176 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.benchmarks;
+
+import java.lang.reflect.Type;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.test.mockito.MockitoComponentManager;
+
+import com.xwiki.analytics.JsonNormaliser;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.MostViewedJsonNormaliser;
+import com.xwiki.analytics.internal.RowEvolutionJsonNormaliser;
+import com.xwiki.analytics.internal.ViewRightsChecker;
+import com.xwiki.analytics.internal.VisitsJsonNormaliser;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache;
+import com.xwiki.analytics.internal.cache.PageReferenceCache;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * The real analytics components, with their XWiki dependencies mocked like in the unit tests: all the URLs target a
+ * page and the current user can view all the pages.
+ *
+ * @version $Id$
+ */
+public final class BenchmarkComponents
+{
+    private static final int CACHE_SIZE = 200000;
+
+    private static final int CACHE_DURATION = 3600;
+
+    private final MockitoComponentManager componentManager = new MockitoComponentManager();
+
+    /**
+     * Register the components.
+     *
+     * @throws Exception if the components can't be registered
+     */
+    public BenchmarkComponents() throws Exception
+    {
+        AnalyticsConfiguration configuration =
+            this.componentManager.registerMockComponent(AnalyticsConfiguration.class);
+        when(configuration.getPageReferenceCacheSize()).thenReturn(CACHE_SIZE);
+        when(configuration.getResponseCacheSize()).thenReturn(CACHE_SIZE);
+        when(configuration.getClosedPeriodCacheDuration()).thenReturn(CACHE_DURATION);
+        when(configuration.getCurrentPeriodCacheDuration()).thenReturn(CACHE_DURATION);
+
+        CacheManager cacheManager = this.componentManager.registerMockComponent(CacheManager.class);
+        when(cacheManager.createNewLocalCache(any())).thenAnswer(invocation -> new MapCache<>());
+
+        Type resolverType = new DefaultParameterizedType(null, EntityReferenceResolver.class, String.class);
+        EntityReferenceResolver<String> urlResolver =
+            this.componentManager.registerMockComponent(resolverType, "resource/standardURL");
+        EntityReference pageReference = new EntityReference("Page", EntityType.DOCUMENT,
+            new EntityReference("Benchmarks", EntityType.SPACE));
+        when(urlResolver.resolve(any(), any())).thenReturn(pageReference);
+
+        ViewRightsChecker viewRightsChecker = this.componentManager.registerMockComponent(ViewRightsChecker.class);
+        when(viewRightsChecker.getViewable(any()))
+            .thenAnswer(invocation -> new HashSet<>(invocation.<Set<EntityReference>>getArgument(0)));
+
+        this.componentManager.registerComponent(PageReferenceCache.class);
+        this.componentManager.registerComponent(AnalyticsResponseCache.class);
+        this.componentManager.registerComponent(MostViewedJsonNormaliser.class);
+        this.componentManager.registerComponent(RowEvolutionJsonNormaliser.class);
+        this.componentManager.registerComponent(VisitsJsonNormaliser.class);
+    }
+
+    /**
+     * @param hint the hint of the normaliser
+     * @return the normaliser
+     * @throws Exception if the normaliser can't be created
+     */
+    public JsonNormaliser getNormaliser(String hint) throws Exception
+    {
+        return this.componentManager.getInstance(JsonNormaliser.class, hint);
+    }
+
+    /**
+     * @return the cache of the normalised responses
+     * @throws Exception if the cache can't be created
+     */
+    public AnalyticsResponseCache getResponseCache() throws Exception
+    {
+        return this.componentManager.getInstance(AnalyticsResponseCache.class);
+    }
+
+    /**
+     * Dispose the components.
+     */
+    public void dispose()
+    {
+        this.componentManager.dispose();
+    }
+
+    /**
+     * Unbounded cache, since the benchmarks don't fill the caches and shouldn't measure a mocked cache.
+     *
+     * @param <T> the type of the cached values
+     */
+    private static final class MapCache<T> implements Cache<T>
+    {
+        private final Map<String, T> entries = new ConcurrentHashMap<>();
+
+        @Override
+        public void set(String key, T value)
+        {
+            this.entries.put(key, value);
+        }
+
+        @Override
+        public T get(String key)
+        {
+            return this.entries.get(key);
+        }
+
+        @Override
+        public void remove(String key)
+        {
+            this.entries.remove(key);
+        }
+
+        @Override
+        public void removeAll()
+        {
+            this.entries.clear();
+        }
+
+        @Override
+        public void addCacheEntryListener(CacheEntryListener<T> listener)
+        {
+            // The entries are never evicted.
+        }
+
+        @Override
+        public void removeCacheEntryListener(CacheEntryListener<T> listener)
+        {
+            // The entries are never evicted.
+        }
+
+        @Override
+        public void dispose()
+        {
+            this.entries.clear();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Generates Matomo responses of the given size, with the same shape and the same kind of values as the real ones.
+ *
+ * @version $Id$
+ */
+public final class MatomoPayloads
+{
+    /**
+     * The number of dates of the date-keyed responses, among which the rows are spread.
+     */
+    public static final int DATES = 10;
+
+    private static final LocalDate FIRST_DATE = LocalDate.of(2020, 1, 1);
+
+    private static final int SPACES = 50;
+
+    private static final int PERCENT = 100;
+
+    private MatomoPayloads()
+    {
+    }
+
+    /**
+     * @param rows the number of rows
+     * @return a report returned for a single period (e.g. {@code period=range}): an array of rows
+     */
+    public static byte[] createArray(int rows)
+    {
+        StringBuilder json = new StringBuilder(rows * 256).append('[');
+        appendRows(json, 0, rows);
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param rows the total number of rows, spread evenly among {@link #DATES} dates
+     * @return a report returned for several periods: an object having the dates as keys and arrays of rows as values;
+     *     the same labels are returned for each date
+     */
+    public static byte[] createDateKeyed(int rows)
+    {
+        int rowsPerDate = Math.max(1, rows / DATES);
+        StringBuilder json = new StringBuilder(rows * 256).append('{');
+        for (int date = 0; date < DATES; date++) {
+            if (date > 0) {
+                json.append(',');
+            }
+            json.append('"').append(getDate(date)).append("\":[");
+            appendRows(json, 0, rowsPerDate);
+            json.append(']');
+        }
+        return json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param dates the number of dates
+     * @return a single metric returned for several periods, e.g. {@code VisitsSummary.getVisits}
+     */
+    public static byte[] createSeries(int dates)
+    {
+        StringBuilder json = new StringBuilder(dates * 24).append('{');
+        for (int date = 0; date < dates; date++) {
+            if (date > 0) {
+                json.append(',');
+            }
+            json.append('"').append(getDate(date)).append("\":").append(date % SPACES * 7 + 1);
+        }
+        return json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param dates the number of dates
+     * @return all the metrics returned by {@code VisitsSummary.get} for several periods
+     */
+    public static byte[] createVisitsSummary(int dates)
+    {
+        StringBuilder json = new StringBuilder(dates * 192).append('{');
+        for (int date = 0; date < dates; date++) {
+            if (date > 0) {
+                json.append(',');
+            }
+            int visits = date % SPACES * 7 + 1;
+            json.append('"').append(getDate(date)).append("\":{")
+                .append("\"nb_uniq_visitors\":").append(visits / 2 + 1)
+                .append(",\"nb_visits\":").append(visits)
+                .append(",\"nb_actions\":").append(visits * 3)
+                .append(",\"max_actions\":").append(visits % 11 + 1)
+                .append(",\"bounce_count\":").append(visits / 3)
+                .append(",\"sum_visit_length\":").append(visits * 95)
+                .append(",\"bounce_rate\":\"").append(visits * 13 % PERCENT).append("%\"")
+                .append(",\"nb_actions_per_visit\":").append(visits % 9 + 0.5)
+                .append(",\"avg_time_on_site\":").append(95)
+                .append('}');
+        }
+        return json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param index the index of a row
+     * @return the label of the row, as returned by {@code Actions.getPageUrls} with {@code flat=1}
+     */
+    public static String getLabel(int index)
+    {
+        return String.format("/xwiki/bin/view/Space%d/Page%d", index % SPACES, index);
+    }
+
+    private static String getDate(int index)
+    {
+        return FIRST_DATE.plusDays(index).toString();
+    }
+
+    private static void appendRows(StringBuilder json, int start, int end)
+    {
+        for (int index = start; index < end; index++) {
+            if (index > start) {
+                json.append(',');
+            }
+            int hits = index % 97 + 1;
+            json.append("{\"label\":\"").append(getLabel(index)).append('"')
+                .append(",\"nb_visits\":").append(hits / 2 + 1)
+                .append(",\"nb_uniq_visitors\":").append(hits / 3 + 1)
+                .append(",\"nb_hits\":").append(hits)
+                .append(",\"sum_time_spent\":").append(hits * 42)
+                .append(",\"entry_nb_visits\":").append(hits / 4)
+                .append(",\"exit_nb_visits\":").append(hits / 5)
+                .append(",\"avg_time_on_page\":").append(42)
+                .append(",\"bounce_rate\":\"").append(hits * 7 % PERCENT).append("%\"")
+                .append(",\"exit_rate\":\"").append(hits * 3 % PERCENT).append("%\"")
+                .append(",\"url\":\"http://localhost:8080").append(getLabel(index)).append("\"}");
+        }
+    }
+}
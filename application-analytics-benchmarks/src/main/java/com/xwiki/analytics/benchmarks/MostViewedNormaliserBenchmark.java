@@ -0,0 +1,136 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xwiki.analytics.internal.AbstractJsonNormaliser;
+import com.xwiki.analytics.internal.MostViewedJsonNormaliser;
+
+/**
+ * Measures the normalisation of the page reports (e.g. {@code Actions.getPageUrls}), used by most of the tables.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MostViewedNormaliserBenchmark
+{
+    private static final int PAGE_SIZE = 25;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * The number of rows of the response.
+     */
+    @Param({ "100", "1000", "10000", "100000" })
+    public int rows;
+
+    /**
+     * The shape of the response: {@code array} for a single period, {@code object} for several dates.
+     */
+    @Param({ "array", "object" })
+    public String shape;
+
+    /**
+     * Whether the rows are filtered, by a partial match on the label and a numeric comparison.
+     */
+    @Param({ "false", "true" })
+    public boolean filtered;
+
+    private BenchmarkComponents components;
+
+    private AbstractJsonNormaliser normaliser;
+
+    private byte[] payload;
+
+    private Map<String, String> filters;
+
+    /**
+     * Create the normaliser and the response.
+     *
+     * @throws Exception if the normaliser can't be created
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.components = new BenchmarkComponents();
+        this.normaliser = (AbstractJsonNormaliser) this.components.getNormaliser(MostViewedJsonNormaliser.HINT);
+        this.payload = "array".equals(this.shape) ? MatomoPayloads.createArray(this.rows)
+            : MatomoPayloads.createDateKeyed(this.rows);
+        this.filters = this.filtered ? Map.of("label", "~space1", "nb_hits", ">20") : Collections.emptyMap();
+    }
+
+    /**
+     * Dispose the components.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.components.dispose();
+    }
+
+    /**
+     * @return the whole normalised response
+     * @throws IOException if the response can't be read
+     */
+    @Benchmark
+    public JsonNode normalise() throws IOException
+    {
+        return this.normaliser.normaliseData(new ByteArrayInputStream(this.payload), this.filters);
+    }
+
+    /**
+     * @return a page of the normalised response that the current user can view, like for a live data
+     * @throws IOException if the response can't be read
+     */
+    @Benchmark
+    public JsonNode normaliseWindow() throws IOException
+    {
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(this.payload)) {
+            return this.normaliser.filterForCurrentUser(this.normaliser.normaliseData(parser, this.filters), 0,
+                PAGE_SIZE);
+        }
+    }
+}
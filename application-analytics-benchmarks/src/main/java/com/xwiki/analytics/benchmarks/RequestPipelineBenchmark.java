@@ -0,0 +1,154 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.benchmarks;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xwiki.analytics.internal.AbstractJsonNormaliser;
+import com.xwiki.analytics.internal.MostViewedJsonNormaliser;
+import com.xwiki.analytics.internal.cache.AnalyticsRequestKey;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache;
+
+/**
+ * Measures the processing done by the server for a page of a table, without the Matomo request: building the cache
+ * key, then either getting the cached response or normalising the response, and finally filtering the rows that the
+ * current user can view.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestPipelineBenchmark
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final int PAGE_SIZE = 25;
+
+    /**
+     * The number of rows of the response.
+     */
+    @Param({ "100", "1000", "10000", "100000" })
+    public int rows;
+
+    private BenchmarkComponents components;
+
+    private AbstractJsonNormaliser normaliser;
+
+    private AnalyticsResponseCache responseCache;
+
+    private byte[] payload;
+
+    private Map<String, String> parameters;
+
+    private Map<String, String> filters;
+
+    /**
+     * Create the components, the response and cache its normalised version.
+     *
+     * @throws Exception if the components can't be created
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.components = new BenchmarkComponents();
+        this.normaliser = (AbstractJsonNormaliser) this.components.getNormaliser(MostViewedJsonNormaliser.HINT);
+        this.responseCache = this.components.getResponseCache();
+        this.payload = MatomoPayloads.createArray(this.rows);
+        this.parameters = new HashMap<>();
+        this.parameters.put("module", "API");
+        this.parameters.put("method", "Actions.getPageUrls");
+        this.parameters.put("idSite", "1");
+        this.parameters.put("period", "range");
+        this.parameters.put("date", "last30");
+        this.parameters.put("format", "json");
+        this.parameters.put("flat", "1");
+        this.parameters.put("filter_limit", "-1");
+        this.parameters.put("token_auth", "secret");
+        this.filters = Map.of("label", "~space1");
+        this.responseCache.put(getCacheKey(), normalise(), false);
+    }
+
+    /**
+     * Dispose the components.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.components.dispose();
+    }
+
+    /**
+     * @return the page of the table, when the response is cached
+     */
+    @Benchmark
+    public JsonNode cachedResponse()
+    {
+        JsonNode result = this.responseCache.get(getCacheKey());
+        return this.normaliser.filterForCurrentUser(result, 0, PAGE_SIZE);
+    }
+
+    /**
+     * @return the page of the table, when the response has to be normalised
+     * @throws IOException if the response can't be read
+     */
+    @Benchmark
+    public JsonNode uncachedResponse() throws IOException
+    {
+        getCacheKey();
+        return this.normaliser.filterForCurrentUser(normalise(), 0, PAGE_SIZE);
+    }
+
+    private String getCacheKey()
+    {
+        return AnalyticsRequestKey.create("xwiki", this.parameters, this.filters, MostViewedJsonNormaliser.HINT,
+            LocalDate.now()).toString();
+    }
+
+    private JsonNode normalise() throws IOException
+    {
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(this.payload)) {
+            return this.normaliser.normaliseData(parser, this.filters);
+        }
+    }
+}
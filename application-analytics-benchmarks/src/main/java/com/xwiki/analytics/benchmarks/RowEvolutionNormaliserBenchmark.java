@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.xwiki.analytics.JsonNormaliser;
+import com.xwiki.analytics.internal.RowEvolutionJsonNormaliser;
+import com.xwiki.analytics.internal.filter.RowFilters;
+
+/**
+ * Measures the extraction of the evolution of rows from a date-keyed report.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowEvolutionNormaliserBenchmark
+{
+    /**
+     * The total number of rows of the response, spread among {@link MatomoPayloads#DATES} dates.
+     */
+    @Param({ "100", "1000", "10000", "100000" })
+    public int rows;
+
+    /**
+     * The rows whose evolution is extracted: {@code none} for the first row of each date (the report is for a
+     * segment), {@code single} for one row identified by its label, {@code multiple} for three rows.
+     */
+    @Param({ "none", "single", "multiple" })
+    public String filter;
+
+    private BenchmarkComponents components;
+
+    private JsonNormaliser normaliser;
+
+    private byte[] payload;
+
+    private Map<String, String> filters;
+
+    /**
+     * Create the normaliser and the response.
+     *
+     * @throws Exception if the normaliser can't be created
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.components = new BenchmarkComponents();
+        this.normaliser = this.components.getNormaliser(RowEvolutionJsonNormaliser.HINT);
+        this.payload = MatomoPayloads.createDateKeyed(this.rows);
+        int rowsPerDate = Math.max(1, this.rows / MatomoPayloads.DATES);
+        // The searched rows are in the second half of each date, so most of the entries are read.
+        String lastRow = MatomoPayloads.getLabel(rowsPerDate - 1);
+        if ("single".equals(this.filter)) {
+            this.filters = Map.of("label", lastRow);
+        } else if ("multiple".equals(this.filter)) {
+            this.filters = Map.of("label", String.join(RowFilters.ALTERNATIVE_SEPARATOR, lastRow,
+                MatomoPayloads.getLabel(rowsPerDate / 2), MatomoPayloads.getLabel(rowsPerDate * 3 / 4)));
+        } else {
+            this.filters = Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Dispose the components.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.components.dispose();
+    }
+
+    /**
+     * @return the evolution of the rows
+     * @throws IOException if the response can't be read
+     */
+    @Benchmark
+    public JsonNode normalise() throws IOException
+    {
+        return this.normaliser.normaliseData(new ByteArrayInputStream(this.payload), this.filters);
+    }
+}
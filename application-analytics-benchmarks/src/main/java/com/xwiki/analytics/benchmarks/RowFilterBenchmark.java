@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xwiki.analytics.internal.filter.RowFilter;
+import com.xwiki.analytics.internal.filter.RowFilters;
+
+/**
+ * Measures the filters applied on each row of the Matomo reports, without the cost of reading the rows.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowFilterBenchmark
+{
+    private static final String LABEL = "label";
+
+    /**
+     * The number of filtered rows.
+     */
+    @Param({ "100", "1000", "10000", "100000" })
+    public int rows;
+
+    private List<JsonNode> parsedRows;
+
+    private RowFilter textFilter;
+
+    private RowFilter numericFilter;
+
+    private RowFilter exactFilter;
+
+    /**
+     * Read the rows and compile the filters.
+     *
+     * @throws IOException if the rows can't be read
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        this.parsedRows = new ArrayList<>(this.rows);
+        new ObjectMapper().readTree(MatomoPayloads.createArray(this.rows)).forEach(this.parsedRows::add);
+        this.textFilter = RowFilters.compile(Map.of(LABEL, "~SPACE1"), false);
+        this.numericFilter = RowFilters.compile(Map.of("nb_hits", "20..60", "bounce_rate", ">=50"), false);
+        this.exactFilter = RowFilters.compile(Map.of(LABEL, MatomoPayloads.getLabel(this.rows - 1)), true);
+    }
+
+    /**
+     * @return the number of rows containing a text, ignoring the case
+     */
+    @Benchmark
+    public int matchText()
+    {
+        return count(this.textFilter);
+    }
+
+    /**
+     * @return the number of rows matching numeric comparisons, including a percentage
+     */
+    @Benchmark
+    public int matchNumbers()
+    {
+        return count(this.numericFilter);
+    }
+
+    /**
+     * @return the number of rows matching a label exactly
+     */
+    @Benchmark
+    public int matchExactly()
+    {
+        return count(this.exactFilter);
+    }
+
+    private int count(RowFilter rowFilter)
+    {
+        int count = 0;
+        for (JsonNode row : this.parsedRows) {
+            if (rowFilter.matches(row)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xwiki.analytics.internal.VisitsJsonNormaliser;
+import com.xwiki.analytics.internal.VisitsSummaryTable;
+
+/**
+ * Measures the creation of the series displayed by the visits graphs.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VisitsNormaliserBenchmark
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * The number of periods of the graph.
+     */
+    @Param({ "100", "1000", "10000", "100000" })
+    public int periods;
+
+    private BenchmarkComponents components;
+
+    private VisitsJsonNormaliser normaliser;
+
+    private byte[] series;
+
+    private byte[] visitsSummary;
+
+    private VisitsSummaryTable table;
+
+    /**
+     * Create the normaliser and the responses.
+     *
+     * @throws Exception if the normaliser can't be created
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.components = new BenchmarkComponents();
+        this.normaliser = (VisitsJsonNormaliser) this.components.getNormaliser(VisitsJsonNormaliser.HINT);
+        this.series = MatomoPayloads.createSeries(this.periods);
+        this.visitsSummary = MatomoPayloads.createVisitsSummary(this.periods);
+        this.table = readTable();
+    }
+
+    /**
+     * Dispose the components.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.components.dispose();
+    }
+
+    /**
+     * @return the series of a response holding a single metric
+     * @throws IOException if the response can't be read
+     */
+    @Benchmark
+    public JsonNode normaliseSeries() throws IOException
+    {
+        return this.normaliser.normaliseData(new ByteArrayInputStream(this.series), Collections.emptyMap());
+    }
+
+    /**
+     * @return the table of a response holding all the metrics
+     * @throws IOException if the response can't be read
+     */
+    @Benchmark
+    public VisitsSummaryTable readTable() throws IOException
+    {
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(this.visitsSummary)) {
+            return this.normaliser.readTable(parser);
+        }
+    }
+
+    /**
+     * @return the series of a metric, served from a stored table
+     */
+    @Benchmark
+    public JsonNode getSeriesFromTable()
+    {
+        return this.table.getSeries("nb_actions_per_visit");
+    }
+}
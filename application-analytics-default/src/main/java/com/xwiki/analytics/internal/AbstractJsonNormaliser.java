@@ -19,21 +19,32 @@
  */
 package com.xwiki.analytics.internal;
 
-import java.util.Iterator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.inject.Inject;
 
 import org.slf4j.Logger;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.xwiki.analytics.JsonNormaliser;
+import com.xwiki.analytics.internal.filter.RowFilter;
+import com.xwiki.analytics.internal.filter.RowFilters;
 
 /**
- * Abstract class for the JsonNormaliser that will serve as a bases for some of the normalisers.
+ * Abstract class for the JsonNormaliser that will serve as a bases for some of the normalisers. The Matomo response is
+ * read token by token, and the entries are read one at a time and dropped right away when they don't match the
+ * filters, so that the full response is never held in memory.
  *
  * @version $Id$
  * @since 1.0
@@ -44,6 +55,22 @@ public abstract class AbstractJsonNormaliser implements JsonNormaliser
 
     protected static final String LABEL = "label";
 
+    protected static final String TOTAL_ROWS = "totalRows";
+
+    protected static final String ROWS = "rows";
+
+    private static final String RESULT = "result";
+
+    private static final String ERROR = "error";
+
+    private static final String MESSAGE = "message";
+
+    private static final String FILTER_COLUMN = "filter_column";
+
+    private static final String FILTER_PATTERN = "filter_pattern";
+
+    private static final String RECURSIVE = "_recursive";
+
     @Inject
     protected Logger logger;
 
@@ -58,8 +85,29 @@ public abstract class AbstractJsonNormaliser implements JsonNormaliser
     @Override
     public JsonNode normaliseData(String jsonString, Map<String, String> filters) throws JsonProcessingException
     {
-        // Convert the string returned by Matomo in a JSON format to easily handle the processing of the nodes.
-        JsonNode jsonRoot = OBJECT_MAPPER.readTree(jsonString);
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(jsonString)) {
+            return normaliseData(parser, filters);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            // Reading from a string can only fail because of its content.
+            throw JsonMappingException.fromUnexpectedIOE(e);
+        }
+    }
+
+    @Override
+    public JsonNode normaliseData(InputStream inputStream, Map<String, String> filters) throws IOException
+    {
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(inputStream)) {
+            // The caller owns the stream, which may need to be consumed before being closed.
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            return normaliseData(parser, filters);
+        }
+    }
+
+    @Override
+    public JsonNode normaliseData(JsonParser parser, Map<String, String> filters) throws IOException
+    {
         // Matomo may return several variants of JSON formats. In one scenario, when the period is set to
         // day/week/month/year, it returns a JSON object with keys representing dates. The corresponding value for
         // each key is an array of JSON objects, each of which represents a page. However, if the user sets the
@@ -68,29 +116,71 @@ public abstract class AbstractJsonNormaliser implements JsonNormaliser
         // This normalized format is an array of JSON objects and each JSON object in this array will have a new
         // field called 'date'. This 'date' field will be set to N/A when Matomo returns an array instead of an
         // object. For both type of formats, the label field is also altered in order to contain the full page name
-        if (jsonRoot.isArray()) {
-            return processArrayNode(jsonRoot, filters);
+        RowFilter rowFilter = compileFilters(filters);
+        JsonToken token = parser.hasCurrentToken() ? parser.currentToken() : parser.nextToken();
+        if (token == JsonToken.START_ARRAY) {
+            return processArrayNode(parser, rowFilter);
+        } else if (token == JsonToken.START_OBJECT) {
+            return processObjectNode(parser, rowFilter);
         } else {
-            return processObjectNode(jsonRoot, filters);
+            // Empty responses and scalars are handled like an empty object.
+            JsonParser emptyObjectParser = OBJECT_MAPPER.treeAsTokens(OBJECT_MAPPER.createObjectNode());
+            emptyObjectParser.nextToken();
+            return processObjectNode(emptyObjectParser, rowFilter);
         }
     }
 
+    @Override
+    public JsonNode filterForCurrentUser(JsonNode normalisedData)
+    {
+        return normalisedData;
+    }
+
+    /**
+     * Take a window of the rows that the current user can view, without modifying the given data, which may be shared
+     * between users. Only the rows of the window are copied.
+     *
+     * @param normalisedData the normalised rows, shared between users
+     * @param offset the index of the first row to return
+     * @param limit the maximum number of rows to return, or a negative value to return all the rows after the offset
+     * @return a JSON object with the number of rows that the current user can view, in the {@code totalRows} field,
+     *     and the copied rows of the window, in the {@code rows} field
+     */
+    public JsonNode filterForCurrentUser(JsonNode normalisedData, long offset, int limit)
+    {
+        JsonNode userData = filterForCurrentUser(normalisedData);
+        ObjectNode window = OBJECT_MAPPER.createObjectNode();
+        window.put(TOTAL_ROWS, userData.size());
+        ArrayNode rows = window.putArray(ROWS);
+        long end = getWindowEnd(offset, limit);
+        for (long i = Math.max(offset, 0); i < Math.min(end, userData.size()); i++) {
+            rows.add(userData.get((int) i).deepCopy());
+        }
+        return window;
+    }
+
+    /**
+     * @param offset the index of the first row of a window
+     * @param limit the maximum number of rows of the window, or a negative value for all the rows after the offset
+     * @return the index of the row following the window
+     */
+    protected static long getWindowEnd(long offset, int limit)
+    {
+        return limit < 0 ? Long.MAX_VALUE : Math.max(offset, 0) + limit;
+    }
+
     /**
      * Handles each entry that was returned by Matomo and processes it.
      *
-     * @param jsonNode an array of jsons
-     * @param filters holds the criteria for filtering a dataset
+     * @param parser the parser positioned on the start of an array of jsons
+     * @param rowFilter the filter compiled from the criteria for filtering a dataset
      * @return array of jsons
+     * @throws IOException if the JSON is malformed
      */
-    protected JsonNode processArrayNode(JsonNode jsonNode, Map<String, String> filters)
+    protected JsonNode processArrayNode(JsonParser parser, RowFilter rowFilter) throws IOException
     {
         ArrayNode arrayNode = OBJECT_MAPPER.createArrayNode();
-        for (JsonNode objNode : jsonNode) {
-            if (objNode.isObject() && matchesAllFilters(objNode, filters)) {
-                // If the resultNode is null it should be skipped.
-                addNode(objNode, arrayNode);
-            }
-        }
+        processEntries(parser, rowFilter, arrayNode);
         return arrayNode;
     }
 
@@ -99,40 +189,133 @@ public abstract class AbstractJsonNormaliser implements JsonNormaliser
      * function extracts the date from the key and adds it to each page. Ultimately, it returns an array of JSON
      * objects.
      *
-     * @param jsonNode the response from Matomo that is a json
-     * @param filters holds the criteria for filtering a dataset
+     * @param parser the parser positioned on the start of the json object returned by Matomo
+     * @param rowFilter the filter compiled from the criteria for filtering a dataset
      * @return array of jsons that have been processed
+     * @throws IOException if the JSON is malformed or Matomo returned an error
      */
-    protected JsonNode processObjectNode(JsonNode jsonNode, Map<String, String> filters) throws JsonProcessingException
+    protected JsonNode processObjectNode(JsonParser parser, RowFilter rowFilter) throws IOException
     {
         ArrayNode arrayNode = OBJECT_MAPPER.createArrayNode();
-        Iterator<String> fieldNames = jsonNode.fieldNames();
-        while (fieldNames.hasNext()) {
-            String date = fieldNames.next();
-            JsonNode childNode = jsonNode.get(date);
-            for (JsonNode objNode : childNode) {
-                if (objNode.isObject() && matchesAllFilters(objNode, filters)) {
-                    // Handles the case when the processNode returns null and skip the node
+        while (nextField(parser)) {
+            if (parser.currentToken() == JsonToken.START_ARRAY) {
+                processEntries(parser, rowFilter, arrayNode);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return arrayNode;
+    }
+
+    /**
+     * Move the parser to the value of the next field of the current object.
+     *
+     * @param parser the parser positioned inside a json object
+     * @return {@code true} if the parser is positioned on the value of a field, {@code false} if the end of the object
+     *     was reached
+     * @throws IOException if the JSON is malformed or the object is a Matomo error
+     */
+    protected boolean nextField(JsonParser parser) throws IOException
+    {
+        if (parser.nextToken() != JsonToken.FIELD_NAME) {
+            return false;
+        }
+        String fieldName = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        // Matomo reports the errors with a successful status and a {"result":"error","message":"..."} body.
+        if (RESULT.equals(fieldName) && token == JsonToken.VALUE_STRING && ERROR.equals(parser.getText())) {
+            String message = null;
+            if (parser.nextToken() == JsonToken.FIELD_NAME && MESSAGE.equals(parser.getCurrentName())) {
+                parser.nextToken();
+                message = parser.getText();
+            }
+            throw new MatomoResponseException(String.format("Matomo returned an error: [%s]", message));
+        }
+        return true;
+    }
+
+    /**
+     * Read the entries of an array one by one and add to the given array the ones that match the filters, after
+     * processing them.
+     *
+     * @param parser the parser positioned on the start of an array of jsons
+     * @param rowFilter the filter compiled from the criteria for filtering a dataset
+     * @param arrayNode final list of nodes
+     * @throws IOException if the JSON is malformed
+     */
+    protected void processEntries(JsonParser parser, RowFilter rowFilter, ArrayNode arrayNode) throws IOException
+    {
+        JsonToken token = parser.nextToken();
+        while (token != null && token != JsonToken.END_ARRAY) {
+            if (token == JsonToken.START_OBJECT) {
+                JsonNode objNode = parser.readValueAsTree();
+                if (rowFilter.matches(objNode)) {
+                    // If the resultNode is null it should be skipped.
                     addNode(objNode, arrayNode);
                 }
+            } else {
+                parser.skipChildren();
             }
+            token = parser.nextToken();
         }
-        return arrayNode;
     }
 
-    protected boolean matchesAllFilters(JsonNode objNode, Map<String, String> filters)
+    /**
+     * Compile the criteria for filtering a dataset, once for all the rows of a response. The values are matched
+     * partially, and may start with an operator (see {@link RowFilters}).
+     *
+     * @param filters holds the criteria for filtering a dataset
+     * @return the compiled filter
+     */
+    protected RowFilter compileFilters(Map<String, String> filters)
+    {
+        return RowFilters.compile(filters, isExactMatch());
+    }
+
+    /**
+     * @return {@code true} if the filter values need to be matched exactly, without operators, {@code false} if they
+     *     are matched partially
+     */
+    protected boolean isExactMatch()
     {
-        if (filters == null) {
-            return true;
+        return false;
+    }
+
+    /**
+     * Matomo supports a single pattern for each request, so the filter that is the most likely to be selective (the
+     * longest one that can be translated) is applied by Matomo. The recursive variant is used for the hierarchical
+     * reports, so that the matching sub-rows are kept.
+     *
+     * @param filters holds the criteria for filtering a dataset
+     * @param parameters the parameters of the request
+     * @return the parameters to add to the request
+     */
+    @Override
+    public Map<String, String> getServerSideFilterParameters(Map<String, String> filters,
+        Map<String, String> parameters)
+    {
+        if (filters == null || parameters.containsKey(FILTER_PATTERN)
+            || parameters.containsKey(FILTER_PATTERN + RECURSIVE))
+        {
+            return Collections.emptyMap();
         }
+        String column = null;
+        String pattern = null;
         for (Map.Entry<String, String> entry : filters.entrySet()) {
-            String filterField = entry.getKey();
-            String filterValue = entry.getValue();
-            if (!(objNode.has(filterField) && objNode.get(filterField).asText().contains(filterValue))) {
-                return false;
+            String columnPattern = RowFilters.toMatomoPattern(entry.getValue(), isExactMatch());
+            if (columnPattern != null && (pattern == null || columnPattern.length() > pattern.length())) {
+                column = entry.getKey();
+                pattern = columnPattern;
             }
         }
-        return true;
+        if (pattern == null) {
+            return Collections.emptyMap();
+        }
+        String suffix = "1".equals(parameters.get("flat")) ? "" : RECURSIVE;
+        Map<String, String> filterParameters = new HashMap<>();
+        filterParameters.put(FILTER_COLUMN + suffix, column);
+        filterParameters.put(FILTER_PATTERN + suffix, pattern);
+        return filterParameters;
     }
 
     /**
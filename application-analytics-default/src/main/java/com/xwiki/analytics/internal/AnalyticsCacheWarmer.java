@@ -0,0 +1,304 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.WikiReference;
+
+import com.xwiki.analytics.AnalyticsManager;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.cache.MatomoDateRange;
+
+/**
+ * Refreshes in advance the cached responses of the widgets displayed recently, so that the first person opening a
+ * dashboard doesn't have to wait for all its widgets to be requested from Matomo. The requests made by the widgets
+ * are recorded, and every {@link AnalyticsConfiguration#getCacheWarmupInterval()} seconds the current and the previous
+ * periods of each of them are requested, if they are missing from the cache or stale. The dates of a widget showing
+ * the last days are moved to the current day, the same way the widget computes them when it is displayed. Each request
+ * is refreshed in the wiki where it was made, since each wiki may use its own Matomo instance.
+ * <p>
+ * The refresh is done with at most {@link AnalyticsConfiguration#getCacheWarmupMaxConcurrentRequests()} requests at
+ * the same time, so it doesn't overload Matomo. The requests that weren't made during the last week are forgotten.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component(roles = AnalyticsCacheWarmer.class)
+@Singleton
+public class AnalyticsCacheWarmer implements Initializable, Disposable
+{
+    private static final String THREAD_NAME = "Analytics cache warmer";
+
+    private static final String PERIOD = "period";
+
+    private static final String DATE = "date";
+
+    private static final String TOKEN_AUTH = "token_auth";
+
+    private static final long RETENTION_DAYS = 7;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    @Inject
+    private AnalyticsConfiguration configuration;
+
+    @Inject
+    @Named("Matomo")
+    private Provider<AnalyticsManager> analyticsManagerProvider;
+
+    @Inject
+    private AnalyticsTaskExecutor taskExecutor;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private ModelContext modelContext;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The recorded requests, the least recently recorded being forgotten first when there are too many. They are all
+     * read at each refresh, which the XWiki caches don't allow, hence the access-ordered map.
+     */
+    private Map<List<Object>, WarmupRequest> requests;
+
+    private int maxSize;
+
+    private ScheduledExecutorService scheduler;
+
+    @Override
+    public void initialize()
+    {
+        this.maxSize = this.configuration.getCacheWarmupSize();
+        this.requests = new LinkedHashMap<List<Object>, WarmupRequest>(INITIAL_CAPACITY, LOAD_FACTOR, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, WarmupRequest> eldest)
+            {
+                return size() > AnalyticsCacheWarmer.this.maxSize;
+            }
+        };
+        int interval = this.configuration.getCacheWarmupInterval();
+        if (interval > 0 && this.maxSize > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::warmUp, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Record a successful request made by a widget in the current wiki, so that its response is refreshed in advance.
+     *
+     * @param parameters the parameters of the Matomo request
+     * @param filters the filters applied on the response
+     * @param jsonNormaliserHint the hint of the normaliser applied on the response
+     */
+    public void record(Map<String, String> parameters, Map<String, String> filters, String jsonNormaliserHint)
+    {
+        if (this.scheduler == null) {
+            return;
+        }
+        Map<String, String> requestParameters = new HashMap<>(parameters);
+        requestParameters.remove(TOKEN_AUTH);
+        WarmupRequest request = new WarmupRequest(getCurrentWiki(), requestParameters,
+            filters == null ? null : new HashMap<>(filters), jsonNormaliserHint, LocalDate.now());
+        synchronized (this.requests) {
+            this.requests.put(request.getKey(), request);
+        }
+    }
+
+    /**
+     * Refresh the cached responses of the recorded requests, in a new execution context.
+     */
+    void warmUp()
+    {
+        try {
+            this.executionContextManager.initialize(new ExecutionContext());
+            try {
+                warmUp(LocalDate.now());
+            } finally {
+                this.execution.removeContext();
+            }
+        } catch (ExecutionContextException | RuntimeException e) {
+            // The scheduled refresh would stop if an exception was thrown.
+            this.logger.warn("Failed to refresh the cached analytics responses. Root cause is: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Refresh the cached responses of the recorded requests.
+     *
+     * @param today the current day
+     * @throws InterruptedException if the refresh is stopped
+     */
+    void warmUp(LocalDate today) throws InterruptedException
+    {
+        AnalyticsManager analyticsManager = this.analyticsManagerProvider.get();
+        if (!(analyticsManager instanceof MatomoAnalyticsManager)) {
+            return;
+        }
+        MatomoAnalyticsManager matomoAnalyticsManager = (MatomoAnalyticsManager) analyticsManager;
+        List<WarmupRequest> warmupRequests;
+        synchronized (this.requests) {
+            this.requests.values().removeIf(request -> request.day.plusDays(RETENTION_DAYS).isBefore(today));
+            warmupRequests = new ArrayList<>(this.requests.values());
+        }
+        int maxConcurrentRequests = Math.max(1, this.configuration.getCacheWarmupMaxConcurrentRequests());
+        Semaphore permits = new Semaphore(maxConcurrentRequests);
+        for (WarmupRequest request : warmupRequests) {
+            for (Map<String, String> parameters : request.getParameters(today)) {
+                permits.acquire();
+                this.taskExecutor.submit(() -> {
+                    // The task runs in its own execution context, so the wiki doesn't need to be restored.
+                    if (request.wiki != null) {
+                        this.modelContext.setCurrentEntityReference(new WikiReference(request.wiki));
+                    }
+                    matomoAnalyticsManager.refreshData(parameters, request.filters, request.jsonNormaliserHint);
+                    return null;
+                }).whenComplete((result, error) -> {
+                    if (error != null) {
+                        this.logger.debug("Failed to refresh the cached response of [{}].", parameters, error);
+                    }
+                    permits.release();
+                });
+            }
+        }
+        // Wait for the last requests, so that the next refresh doesn't start before they end.
+        permits.acquire(maxConcurrentRequests);
+    }
+
+    private String getCurrentWiki()
+    {
+        EntityReference currentReference = this.modelContext.getCurrentEntityReference();
+        EntityReference wikiReference =
+            currentReference != null ? currentReference.extractReference(EntityType.WIKI) : null;
+        return wikiReference != null ? wikiReference.getName() : null;
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * A request recorded in a given wiki on a given day.
+     */
+    private static final class WarmupRequest
+    {
+        private final String wiki;
+
+        private final Map<String, String> parameters;
+
+        private final Map<String, String> filters;
+
+        private final String jsonNormaliserHint;
+
+        private final LocalDate day;
+
+        WarmupRequest(String wiki, Map<String, String> parameters, Map<String, String> filters,
+            String jsonNormaliserHint, LocalDate day)
+        {
+            this.wiki = wiki;
+            this.parameters = parameters;
+            this.filters = filters;
+            this.jsonNormaliserHint = jsonNormaliserHint;
+            this.day = day;
+        }
+
+        List<Object> getKey()
+        {
+            return Arrays.asList(this.wiki, this.parameters, this.filters, this.jsonNormaliserHint);
+        }
+
+        /**
+         * @return the parameters of the requests for the current and the previous periods
+         */
+        List<Map<String, String>> getParameters(LocalDate today)
+        {
+            List<Map<String, String>> periodParameters = new ArrayList<>();
+            String period = this.parameters.get(PERIOD);
+            String date = this.parameters.get(DATE);
+            MatomoDateRange dateRange = MatomoDateRange.resolve(period, date, this.day);
+            if (dateRange == null) {
+                periodParameters.add(new HashMap<>(this.parameters));
+            } else {
+                // The relative dates and the periods that were not over when the request was made move with the days,
+                // while the past periods stay the same.
+                boolean relative = date.chars().anyMatch(Character::isLetter);
+                MatomoDateRange current = relative || !dateRange.isClosed(this.day)
+                    ? dateRange.moveTo(period, this.day, today) : dateRange;
+                periodParameters.add(withDate(current));
+                periodParameters.add(withDate(current.getPrevious(period)));
+            }
+            return periodParameters;
+        }
+
+        private Map<String, String> withDate(MatomoDateRange dateRange)
+        {
+            Map<String, String> dateParameters = new HashMap<>(this.parameters);
+            dateParameters.put(DATE, dateRange.toString());
+            return dateParameters;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+
+/**
+ * Executes the analytics requests in the background, so that the callers don't have to hold a thread while waiting
+ * for Matomo. Virtual threads are used when the JVM supports them, otherwise a thread pool is used. In both cases the
+ * number of requests executed at the same time is limited by {@link AnalyticsConfiguration#getMaxConcurrentRequests()}.
+ * The tasks are executed with a clone of the execution context of the caller, so they act on behalf of the same user.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component(roles = AnalyticsTaskExecutor.class)
+@Singleton
+public class AnalyticsTaskExecutor implements Initializable, Disposable
+{
+    private static final String THREAD_NAME = "Analytics request ";
+
+    private static final long KEEP_ALIVE_TIME = 60;
+
+    @Inject
+    private AnalyticsConfiguration configuration;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Logger logger;
+
+    private ExecutorService executorService;
+
+    private Semaphore permits;
+
+    @Override
+    public void initialize()
+    {
+        int maxConcurrentRequests = Math.max(1, this.configuration.getMaxConcurrentRequests());
+        this.permits = new Semaphore(maxConcurrentRequests);
+        this.executorService = createVirtualThreadExecutor();
+        if (this.executorService == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, THREAD_NAME + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            ThreadPoolExecutor threadPool = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests,
+                KEEP_ALIVE_TIME, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+            threadPool.allowCoreThreadTimeOut(true);
+            this.executorService = threadPool;
+        }
+    }
+
+    /**
+     * Virtual threads are available starting with Java 21, while this application still supports older versions, so
+     * they can only be used through reflection.
+     */
+    private ExecutorService createVirtualThreadExecutor()
+    {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            this.logger.debug("Virtual threads are not supported, using a thread pool for the analytics requests.");
+            return null;
+        }
+    }
+
+    /**
+     * Execute a task in the background, with a clone of the current execution context.
+     *
+     * @param task the task to execute
+     * @param <T> the type of the task result
+     * @return the future result of the task; cancelling it before the task starts prevents the task from running
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task)
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            ExecutionContext context = cloneContext();
+            this.executorService.execute(() -> run(task, context, future));
+        } catch (ExecutionContextException | RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private ExecutionContext cloneContext() throws ExecutionContextException
+    {
+        ExecutionContext context = this.execution.getContext();
+        return context == null ? new ExecutionContext() : this.executionContextManager.clone(context);
+    }
+
+    private <T> void run(Callable<T> task, ExecutionContext context, CompletableFuture<T> future)
+    {
+        try {
+            this.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return;
+        }
+        try {
+            // The result is no longer needed if the future was cancelled while waiting.
+            if (!future.isDone()) {
+                this.execution.setContext(context);
+                try {
+                    future.complete(task.call());
+                } finally {
+                    this.execution.removeContext();
+                }
+            }
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.executorService.shutdownNow();
+    }
+}
@@ -19,31 +19,141 @@
  */
 package com.xwiki.analytics.internal;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.stability.Unstable;
 
-import javax.inject.Singleton;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
 
 /**
- * Simple factory for creating a HttpClient to help testing.
+ * Factory for the HttpClient used to communicate with Matomo. A single pooled client is shared by all the requests, in
+ * order to reuse the connections (and avoid a new TCP and TLS handshake for each request), and it is closed when the
+ * component is disposed.
  *
- * @version  $Id$
+ * @version $Id$
  * @since 1.0
  */
 @Component(roles = HttpClientBuilderFactory.class)
 @Singleton
 @Unstable
-public class HttpClientBuilderFactory
+public class HttpClientBuilderFactory implements Disposable
 {
+    @Inject
+    private AnalyticsConfiguration configuration;
+
+    @Inject
+    private Logger logger;
+
+    private volatile CloseableHttpClient httpClient;
+
+    private volatile PoolingHttpClientConnectionManager connectionManager;
+
     /**
-     * Creates a HttpClient.
+     * Retrieves the shared HttpClient, creating it on the first call. The returned client must not be closed by the
+     * callers.
      *
-     * @return a new HttpClient
+     * @return the shared pooled HttpClient
+     * @since 1.1.1
+     */
+    public CloseableHttpClient getHttpClient()
+    {
+        CloseableHttpClient client = this.httpClient;
+        if (client == null) {
+            synchronized (this) {
+                client = this.httpClient;
+                if (client == null) {
+                    PoolingHttpClientConnectionManager sharedConnectionManager = createConnectionManager();
+                    client = create(sharedConnectionManager);
+                    this.connectionManager = sharedConnectionManager;
+                    this.httpClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Close the idle connections of the shared HttpClient, e.g. when the Matomo address changed, instead of keeping
+     * them until they expire. The connections in use are kept.
+     *
+     * @since 1.1.1
+     */
+    public void closeIdleConnections()
+    {
+        PoolingHttpClientConnectionManager sharedConnectionManager = this.connectionManager;
+        if (sharedConnectionManager != null) {
+            sharedConnectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private PoolingHttpClientConnectionManager createConnectionManager()
+    {
+        PoolingHttpClientConnectionManager newConnectionManager = new PoolingHttpClientConnectionManager();
+        newConnectionManager.setMaxTotal(this.configuration.getMaxConnections());
+        newConnectionManager.setDefaultMaxPerRoute(this.configuration.getMaxConnectionsPerRoute());
+        return newConnectionManager;
+    }
+
+    private CloseableHttpClient create(PoolingHttpClientConnectionManager pool)
+    {
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(this.configuration.getConnectTimeout())
+            .setSocketTimeout(this.configuration.getSocketTimeout())
+            .setConnectionRequestTimeout(this.configuration.getConnectionRequestTimeout())
+            .build();
+
+        return HttpClients.custom()
+            .setConnectionManager(pool)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(getKeepAliveStrategy(this.configuration.getKeepAliveDuration()))
+            // The responses are decompressed by the executor, while they are read, in order to measure the transfer.
+            .disableContentCompression()
+            .evictExpiredConnections()
+            .evictIdleConnections(this.configuration.getIdleConnectionTimeout(), TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        synchronized (this) {
+            if (this.httpClient != null) {
+                try {
+                    this.httpClient.close();
+                } catch (IOException e) {
+                    this.logger.warn("Failed to close the Matomo HTTP client. Root cause: [{}]",
+                        ExceptionUtils.getRootCauseMessage(e));
+                }
+                this.httpClient = null;
+                this.connectionManager = null;
+            }
+        }
+    }
+
+    /**
+     * Use the keep-alive duration sent by Matomo, limited by the configured one, which is also used when Matomo doesn't
+     * send any.
      */
-    public CloseableHttpClient create()
+    private ConnectionKeepAliveStrategy getKeepAliveStrategy(long defaultKeepAlive)
     {
-        return HttpClients.createDefault();
+        return (response, context) -> {
+            long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return keepAlive > 0 ? Math.min(keepAlive, defaultKeepAlive) : defaultKeepAlive;
+        };
     }
 }
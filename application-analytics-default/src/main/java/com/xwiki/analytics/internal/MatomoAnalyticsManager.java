@@ -20,31 +20,51 @@
 package com.xwiki.analytics.internal;
 
 import java.io.IOException;
-import java.net.URI;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
-import javax.ws.rs.core.UriBuilder;
 
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.util.EntityUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.stability.Unstable;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.xwiki.analytics.AnalyticsManager;
+import com.xwiki.analytics.AnalyticsRequest;
+import com.xwiki.analytics.AnalyticsResponse;
 import com.xwiki.analytics.JsonNormaliser;
-import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.cache.AnalyticsRequestKey;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache.CacheEntry;
+import com.xwiki.analytics.internal.cache.PersistentResponseStore;
+import com.xwiki.analytics.internal.configuration.MatomoEndpoint;
+import com.xwiki.analytics.internal.configuration.MatomoEndpointManager;
+import com.xwiki.analytics.internal.metrics.AnalyticsMetrics;
+import com.xwiki.analytics.internal.rollup.DailyRollupStore;
 
 /**
- * Handle Matomo request and response manipulation.
+ * Handle Matomo request and response manipulation. The normalised responses are cached and shared between users, and
+ * the identical requests made at the same time are coalesced into a single Matomo request. The responses for the
+ * periods that ended are also kept on disk, in the {@link PersistentResponseStore}. The stale cached responses
+ * are returned right away while they are refreshed in the background, and the responses of the recently displayed
+ * widgets are refreshed in advance by the {@link AnalyticsCacheWarmer}. The reports for ranges of days are computed
+ * from the daily reports by the {@link DailyRollupStore}, when possible, and the series of the visits graphs are
+ * served from the whole metric set of their periods by the {@link VisitsSummaryStore}.
  *
  * @version $Id$
  * @since 1.0
@@ -57,18 +77,58 @@ public class MatomoAnalyticsManager implements AnalyticsManager
 {
     private static final String FAIL_RETRIEVE = "Error occurred while retrieving Matomo statistic results.";
 
+    private static final String ID_SITE = "idSite";
+
+    private static final String METHOD = "method";
+
+    private static final String ROWS = "rows";
+
+    private static final String TOKEN_AUTH = "token_auth";
+
+    private static final String TOTAL_ROWS = "totalRows";
+
     @Inject
     private Logger logger;
 
     @Inject
-    private AnalyticsConfiguration configuration;
+    private MatomoEndpointManager endpointManager;
 
     @Inject
-    private HttpClientBuilderFactory httpClientBuilderFactory;
+    private MatomoRequestExecutor requestExecutor;
 
     @Inject
     private Provider<List<JsonNormaliser>> jsonNormalizerProvider;
 
+    @Inject
+    private AnalyticsResponseCache responseCache;
+
+    @Inject
+    private PersistentResponseStore persistentStore;
+
+    @Inject
+    private AnalyticsTaskExecutor taskExecutor;
+
+    @Inject
+    private AnalyticsCacheWarmer cacheWarmer;
+
+    @Inject
+    private DailyRollupStore rollupStore;
+
+    @Inject
+    private VisitsSummaryStore visitsSummaryStore;
+
+    @Inject
+    private AnalyticsMetrics metrics;
+
+    @Inject
+    private MatomoCallGuard callGuard;
+
+    /**
+     * The requests that are currently made to Matomo, so that the identical requests made meanwhile wait for their
+     * result instead of being sent again.
+     */
+    private final Map<String, CompletableFuture<JsonNode>> inFlightRequests = new ConcurrentHashMap<>();
+
     /**
      * Request specific data from Matomo and return an enhanced response.
      *
@@ -79,49 +139,394 @@ public class MatomoAnalyticsManager implements AnalyticsManager
     @Override
     public JsonNode requestData(Map<String, String> parameters, Map<String, String> filters, String jsonNormaliserHint)
         throws IOException
+    {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            JsonNormaliser jsonNormaliser = prepareRequest(parameters, filters, jsonNormaliserHint);
+            JsonNode result = getSharedData(parameters, filters, jsonNormaliser, jsonNormaliserHint, false);
+            // Only the requests that succeed are refreshed in advance.
+            this.cacheWarmer.record(parameters, filters, jsonNormaliserHint);
+            // The shared result must not be modified by the caller.
+            JsonNode userResult =
+                filterForCurrentUser(jsonNormaliser, jsonNormaliserHint, parameters, result.deepCopy());
+            failed = false;
+            return userResult;
+        } finally {
+            this.metrics.recordRequest(jsonNormaliserHint, getMethod(parameters), System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Request a window of the rows returned by Matomo. The window is taken from the rows that the current user can
+     * view, so that the pages are full. The whole normalised response is shared between the users, and the rights are
+     * checked for each user only until the rows of the window are found; only these rows are copied.
+     *
+     * @param parameters a list of key, value pairs that will represent the parameters for the request
+     * @param filters holds the criteria for filtering a dataset
+     * @param jsonNormaliserHint hint for the component that will alter the returned response
+     * @param offset the index of the first row to return
+     * @param limit the maximum number of rows to return
+     * @return the total number of rows and the rows of the window that the current user can view
+     */
+    @Override
+    public JsonNode requestData(Map<String, String> parameters, Map<String, String> filters, String jsonNormaliserHint,
+        long offset, int limit) throws IOException
+    {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            JsonNormaliser jsonNormaliser = prepareRequest(parameters, filters, jsonNormaliserHint);
+            JsonNode result = getSharedData(parameters, filters, jsonNormaliser, jsonNormaliserHint, false);
+            // Only the requests that succeed are refreshed in advance.
+            this.cacheWarmer.record(parameters, filters, jsonNormaliserHint);
+            long filteringStart = System.nanoTime();
+            JsonNode page = getWindowForCurrentUser(jsonNormaliser, result, offset, limit);
+            this.metrics.recordUserFiltering(jsonNormaliserHint, getMethod(parameters),
+                System.nanoTime() - filteringStart);
+            failed = false;
+            return page;
+        } finally {
+            this.metrics.recordRequest(jsonNormaliserHint, getMethod(parameters), System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Make sure that the cache holds a fresh response for the given request, requesting it from Matomo if it is
+     * missing or stale. This is used to refresh the cache before the users need it.
+     *
+     * @param parameters a list of key, value pairs that will represent the parameters for the request
+     * @param filters holds the criteria for filtering a dataset
+     * @param jsonNormaliserHint hint for the component that will alter the returned response
+     * @throws IOException if the request fails
+     */
+    public void refreshData(Map<String, String> parameters, Map<String, String> filters, String jsonNormaliserHint)
+        throws IOException
+    {
+        JsonNormaliser jsonNormaliser = prepareRequest(parameters, filters, jsonNormaliserHint);
+        getSharedData(parameters, filters, jsonNormaliser, jsonNormaliserHint, true);
+    }
+
+    /**
+     * The shared result must not be modified, neither here nor by the caller. The normalisers of this module check the
+     * rights only until the rows of the window are found, the others get a copy of the whole result.
+     */
+    private JsonNode getWindowForCurrentUser(JsonNormaliser jsonNormaliser, JsonNode result, long offset, int limit)
+    {
+        if (jsonNormaliser instanceof AbstractJsonNormaliser) {
+            return ((AbstractJsonNormaliser) jsonNormaliser).filterForCurrentUser(result, offset, limit);
+        }
+        JsonNode userResult = jsonNormaliser.filterForCurrentUser(result.deepCopy());
+        ObjectNode page = JsonNodeFactory.instance.objectNode();
+        page.put(TOTAL_ROWS, userResult.size());
+        ArrayNode rows = page.putArray(ROWS);
+        int from = (int) Math.min(Math.max(offset, 0), userResult.size());
+        int to = limit < 0 ? userResult.size() : (int) Math.min(userResult.size(), (long) from + limit);
+        for (int i = from; i < to; i++) {
+            rows.add(userResult.get(i));
+        }
+        return page;
+    }
+
+    private JsonNode filterForCurrentUser(JsonNormaliser jsonNormaliser, String jsonNormaliserHint,
+        Map<String, String> parameters, JsonNode result)
+    {
+        long start = System.nanoTime();
+        JsonNode userResult = jsonNormaliser.filterForCurrentUser(result);
+        this.metrics.recordUserFiltering(jsonNormaliserHint, getMethod(parameters), System.nanoTime() - start);
+        return userResult;
+    }
+
+    private String getMethod(Map<String, String> parameters)
+    {
+        return parameters != null ? parameters.get(METHOD) : null;
+    }
+
+    private JsonNormaliser prepareRequest(Map<String, String> parameters, Map<String, String> filters,
+        String jsonNormaliserHint)
     {
         if (parameters == null) {
             logger.warn("Parameters must not be null.");
             throw new RuntimeException(FAIL_RETRIEVE);
         }
-        parameters.put("idSite", configuration.getIdSite());
-        parameters.put("token_auth", configuration.getAuthenticationToken());
-        JsonNormaliser jsonNormaliser = this.selectNormaliser(jsonNormaliserHint);
-        getJsonNormaliser(jsonNormaliserHint);
-        return jsonNormaliser.normaliseData(executeHttpRequest(parameters), filters);
+        MatomoEndpoint endpoint = this.endpointManager.getEndpoint();
+        parameters.put(ID_SITE, endpoint.getIdSite());
+        parameters.put(TOKEN_AUTH, endpoint.getAuthenticationToken());
+        JsonNormaliser jsonNormaliser = getJsonNormaliser(jsonNormaliserHint);
+        // Let Matomo filter the rows when possible, to reduce the size of the response. The filters are still applied
+        // locally, for the filters that Matomo can't apply and because Matomo matches them ignoring the case.
+        parameters.putAll(jsonNormaliser.getServerSideFilterParameters(filters, parameters));
+        return jsonNormaliser;
     }
 
     /**
-     * Execute the HTTP request and returns the response body as a string.
-     *
-     * @param parameters the HTTP request parameters
-     * @return response body as string
-     * @throws IOException if there's a problem executing the HTTP request
+     * Get the normalised data from the cache, or wait for the identical request that is being made, or make the
+     * request. A stale cached response is returned right away and refreshed in the background, unless the refresh is
+     * explicitly requested.
      */
-    private String executeHttpRequest(Map<String, String> parameters) throws IOException
+    private JsonNode getSharedData(Map<String, String> parameters, Map<String, String> filters,
+        JsonNormaliser jsonNormaliser, String jsonNormaliserHint, boolean refresh) throws IOException
     {
-        try (CloseableHttpClient client = httpClientBuilderFactory.create()) {
-            HttpGet request = new HttpGet(buildURI(parameters));
-            try (CloseableHttpResponse response = client.execute(request)) {
-                return EntityUtils.toString(response.getEntity());
+        LocalDate today = LocalDate.now();
+        AnalyticsRequestKey requestKey = AnalyticsRequestKey.create(this.endpointManager.getCacheScope(), parameters,
+            filters, jsonNormaliserHint, today);
+        MatomoRequest unguardedRequest;
+        if (this.visitsSummaryStore.supports(parameters, jsonNormaliser)) {
+            unguardedRequest = () -> this.visitsSummaryStore.request(parameters, jsonNormaliser);
+        } else if (this.rollupStore.supports(parameters)) {
+            unguardedRequest = () -> this.rollupStore.request(parameters, filters, jsonNormaliser);
+        } else {
+            unguardedRequest = () -> this.requestExecutor.execute(parameters, filters, jsonNormaliser);
+        }
+        String cacheKey = requestKey.toString();
+        MatomoRequest matomoRequest = () -> this.callGuard.call(unguardedRequest::execute);
+        boolean closedPeriod = requestKey.isClosedPeriod(today);
+        JsonNode result = getCachedData(cacheKey, closedPeriod, matomoRequest, refresh);
+        if (result == null) {
+            CompletableFuture<JsonNode> future = new CompletableFuture<>();
+            CompletableFuture<JsonNode> inFlightFuture = this.inFlightRequests.putIfAbsent(cacheKey, future);
+            if (inFlightFuture != null) {
+                // The same request is already being made by another thread, so we wait for its result.
+                result = waitFor(inFlightFuture);
+            } else {
+                try {
+                    result = matomoRequest.execute();
+                    complete(cacheKey, closedPeriod, future, result, null);
+                } catch (IOException | RuntimeException e) {
+                    complete(cacheKey, closedPeriod, future, null, e);
+                    throw e;
+                }
             }
         }
+        return result;
     }
 
     /**
-     * Create URI for Matomo request.
+     * @return the cached response, or {@code null} if there is none or if it is stale and it has to be refreshed
+     *     right away
+     */
+    private JsonNode getCachedData(String cacheKey, boolean closedPeriod, MatomoRequest matomoRequest,
+        boolean refresh)
+    {
+        boolean matomoAvailable = this.callGuard.isAvailable();
+        // When Matomo is unavailable, an outdated response is better than none.
+        CacheEntry cacheEntry = matomoAvailable ? this.responseCache.lookup(cacheKey)
+            : this.responseCache.lookup(cacheKey, true);
+        if (cacheEntry == null) {
+            return closedPeriod ? getPersistedData(cacheKey) : null;
+        }
+        if (cacheEntry.isStale()) {
+            if (refresh) {
+                return null;
+            } else if (matomoAvailable) {
+                refreshInBackground(cacheKey, closedPeriod, matomoRequest);
+            }
+        }
+        return cacheEntry.getValue();
+    }
+
+    /**
+     * The responses for the periods that ended don't change, so they are also stored on disk to be reused after a
+     * restart, without contacting Matomo.
+     */
+    private JsonNode getPersistedData(String cacheKey)
+    {
+        JsonNode result = this.persistentStore.get(cacheKey);
+        if (result != null) {
+            this.responseCache.put(cacheKey, result, true);
+        }
+        return result;
+    }
+
+    /**
+     * Refresh a stale cached response in the background, unless the same request is already being made.
+     */
+    private void refreshInBackground(String cacheKey, boolean closedPeriod, MatomoRequest matomoRequest)
+    {
+        CompletableFuture<JsonNode> future = new CompletableFuture<>();
+        if (this.inFlightRequests.putIfAbsent(cacheKey, future) == null) {
+            this.taskExecutor.submit(matomoRequest::execute).whenComplete((result, error) -> {
+                if (error != null) {
+                    this.logger.warn("Failed to refresh a cached Matomo response. Root cause is: [{}]",
+                        ExceptionUtils.getRootCauseMessage(error));
+                }
+                complete(cacheKey, closedPeriod, future, result, error);
+            });
+        }
+    }
+
+    /**
+     * Request specific data from Matomo in the background, with at most
+     * {@link AnalyticsConfiguration#getMaxConcurrentRequests()} requests executed at the same time.
      *
-     * @param parameterList List of the url parameters
-     * @return The final URI in string format
+     * @param parameters a list of key, value pairs that will represent the parameters for the request
+     * @param filters holds the criteria for filtering a dataset
+     * @param jsonNormaliserHint hint for the component that will alter the returned response
+     * @return the future altered Matomo request response
+     */
+    @Override
+    public CompletableFuture<JsonNode> requestDataAsync(Map<String, String> parameters, Map<String, String> filters,
+        String jsonNormaliserHint)
+    {
+        // The parameters are copied since they are modified when the request is made, possibly after this returns.
+        Map<String, String> requestParameters = parameters == null ? null : new HashMap<>(parameters);
+        return this.taskExecutor.submit(() -> requestData(requestParameters, filters, jsonNormaliserHint));
+    }
+
+    /**
+     * Request the data for several requests using a single Matomo bulk request. The responses that are already cached
+     * or that are being requested by other threads are not requested again.
+     *
+     * @param requests the requests to send
+     * @return the responses, in the same order as the requests
+     */
+    @Override
+    public List<AnalyticsResponse> requestBatch(List<AnalyticsRequest> requests)
+    {
+        LocalDate today = LocalDate.now();
+        List<PendingRequest> pendingRequests = new ArrayList<>();
+        List<PendingRequest> waitingRequests = new ArrayList<>();
+        AnalyticsResponse[] responses = new AnalyticsResponse[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            AnalyticsRequest request = requests.get(i);
+            try {
+                PendingRequest pendingRequest = new PendingRequest(i, request, today);
+                JsonNode cachedResult = getCachedData(pendingRequest.requestKey.toString(),
+                    pendingRequest.requestKey.isClosedPeriod(today),
+                    () -> this.callGuard.call(pendingRequest::execute), false);
+                if (cachedResult != null) {
+                    responses[i] = new AnalyticsResponse(request,
+                        pendingRequest.jsonNormaliser.filterForCurrentUser(cachedResult.deepCopy()));
+                } else if (pendingRequest.register()) {
+                    pendingRequests.add(pendingRequest);
+                } else {
+                    // The same request is already being made, possibly as part of this batch.
+                    waitingRequests.add(pendingRequest);
+                }
+            } catch (Exception e) {
+                responses[i] = new AnalyticsResponse(request, e);
+            }
+        }
+        executeBulk(pendingRequests, today);
+        pendingRequests.addAll(waitingRequests);
+        for (PendingRequest pendingRequest : pendingRequests) {
+            AnalyticsRequest request = requests.get(pendingRequest.index);
+            try {
+                responses[pendingRequest.index] = new AnalyticsResponse(request,
+                    pendingRequest.jsonNormaliser.filterForCurrentUser(waitFor(pendingRequest.future).deepCopy()));
+            } catch (Exception e) {
+                responses[pendingRequest.index] = new AnalyticsResponse(request, e);
+            }
+        }
+        return Arrays.asList(responses);
+    }
+
+    private void executeBulk(List<PendingRequest> pendingRequests, LocalDate today)
+    {
+        List<PendingRequest> bulkPendingRequests = new ArrayList<>();
+        for (PendingRequest pendingRequest : pendingRequests) {
+            if (pendingRequest.series) {
+                // The lines of a graph share the same Matomo request, so they are not part of the bulk request.
+                executeSeries(pendingRequest, today);
+            } else {
+                bulkPendingRequests.add(pendingRequest);
+            }
+        }
+        if (bulkPendingRequests.isEmpty()) {
+            return;
+        }
+        List<AnalyticsRequest> bulkRequests = new ArrayList<>();
+        List<JsonNormaliser> jsonNormalisers = new ArrayList<>();
+        for (PendingRequest pendingRequest : bulkPendingRequests) {
+            bulkRequests.add(pendingRequest.preparedRequest);
+            jsonNormalisers.add(pendingRequest.jsonNormaliser);
+        }
+        try {
+            List<AnalyticsResponse> bulkResponses =
+                this.callGuard.call(() -> executeBulkRequest(bulkRequests, jsonNormalisers));
+            for (int i = 0; i < bulkResponses.size(); i++) {
+                AnalyticsResponse bulkResponse = bulkResponses.get(i);
+                PendingRequest pendingRequest = bulkPendingRequests.get(i);
+                complete(pendingRequest.requestKey.toString(), pendingRequest.requestKey.isClosedPeriod(today),
+                    pendingRequest.future, bulkResponse.getData(), bulkResponse.getError());
+            }
+        } catch (IOException e) {
+            for (PendingRequest pendingRequest : bulkPendingRequests) {
+                complete(pendingRequest.requestKey.toString(), pendingRequest.requestKey.isClosedPeriod(today),
+                    pendingRequest.future, null, e);
+            }
+        } finally {
+            // Make sure that nobody waits forever for a response that won't come.
+            for (PendingRequest pendingRequest : bulkPendingRequests) {
+                if (!pendingRequest.future.isDone()) {
+                    complete(pendingRequest.requestKey.toString(), pendingRequest.requestKey.isClosedPeriod(today),
+                        pendingRequest.future, null,
+                        new IOException("The bulk request didn't return a response for this request."));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the responses of the bulk request, unless the whole bulk request failed (e.g. because Matomo is
+     *     unavailable), in which case the shared error is thrown so that it is taken into account by the call guard
+     */
+    private List<AnalyticsResponse> executeBulkRequest(List<AnalyticsRequest> bulkRequests,
+        List<JsonNormaliser> jsonNormalisers) throws IOException
+    {
+        List<AnalyticsResponse> bulkResponses = this.requestExecutor.executeBulk(bulkRequests, jsonNormalisers);
+        Exception error = bulkResponses.isEmpty() ? null : bulkResponses.get(0).getError();
+        if (error != null && bulkResponses.stream().allMatch(response -> response.getError() == error)) {
+            throw error instanceof IOException ? (IOException) error : new IOException(error.getMessage(), error);
+        }
+        return bulkResponses;
+    }
+
+    private void executeSeries(PendingRequest pendingRequest, LocalDate today)
+    {
+        String cacheKey = pendingRequest.requestKey.toString();
+        boolean closedPeriod = pendingRequest.requestKey.isClosedPeriod(today);
+        try {
+            complete(cacheKey, closedPeriod, pendingRequest.future, this.callGuard.call(pendingRequest::execute),
+                null);
+        } catch (IOException | RuntimeException e) {
+            complete(cacheKey, closedPeriod, pendingRequest.future, null, e);
+        }
+    }
+
+    /**
+     * Cache the result of a request that was made, if it was successful, and pass it to the threads waiting for it.
      */
-    private URI buildURI(Map<String, String> parameterList)
+    private void complete(String cacheKey, boolean closedPeriod, CompletableFuture<JsonNode> future, JsonNode result,
+        Throwable error)
     {
-        UriBuilder uriBuilder = UriBuilder.fromUri(configuration.getRequestAddress()).path("index.php");
+        if (error == null) {
+            // The result is cached before the request is marked as done so that no other request is made meanwhile.
+            this.responseCache.put(cacheKey, result, closedPeriod);
+            future.complete(result);
+            if (closedPeriod) {
+                this.persistentStore.put(cacheKey, result);
+            }
+        } else {
+            future.completeExceptionally(error);
+        }
+        this.inFlightRequests.remove(cacheKey, future);
+    }
 
-        for (Map.Entry<String, String> entry : parameterList.entrySet()) {
-            uriBuilder.queryParam(entry.getKey(), entry.getValue());
+    private JsonNode waitFor(CompletableFuture<JsonNode> future) throws IOException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the Matomo response.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw new RuntimeException(cause.getMessage(), cause);
+            }
+            throw new IOException(cause.getMessage(), cause);
         }
-        return uriBuilder.build();
     }
 
     /**
@@ -150,4 +555,79 @@ public class MatomoAnalyticsManager implements AnalyticsManager
         }
         return null;
     }
+
+    /**
+     * A request of a batch that wasn't found in the cache.
+     */
+    private final class PendingRequest
+    {
+        private final int index;
+
+        private final AnalyticsRequest preparedRequest;
+
+        private final JsonNormaliser jsonNormaliser;
+
+        private final AnalyticsRequestKey requestKey;
+
+        /**
+         * Whether this request is served by the {@link VisitsSummaryStore}.
+         */
+        private final boolean series;
+
+        private CompletableFuture<JsonNode> future = new CompletableFuture<>();
+
+        PendingRequest(int index, AnalyticsRequest request, LocalDate today)
+        {
+            if (request.getParameters() == null) {
+                throw new IllegalArgumentException("Parameters must not be null.");
+            }
+            this.index = index;
+            this.jsonNormaliser = getJsonNormaliser(request.getJsonNormaliserHint());
+            Map<String, String> parameters = new HashMap<>(request.getParameters());
+            parameters.put(ID_SITE, endpointManager.getEndpoint().getIdSite());
+            parameters.putAll(this.jsonNormaliser.getServerSideFilterParameters(request.getFilters(), parameters));
+            this.preparedRequest =
+                new AnalyticsRequest(parameters, request.getFilters(), request.getJsonNormaliserHint());
+            this.requestKey = AnalyticsRequestKey.create(endpointManager.getCacheScope(), parameters,
+                request.getFilters(), request.getJsonNormaliserHint(), today);
+            this.series = visitsSummaryStore.supports(parameters, this.jsonNormaliser);
+        }
+
+        /**
+         * @return {@code true} if this request needs to be made, {@code false} if the same request is already being
+         *     made, in which case the future of that request is used instead
+         */
+        boolean register()
+        {
+            CompletableFuture<JsonNode> inFlightFuture =
+                inFlightRequests.putIfAbsent(this.requestKey.toString(), this.future);
+            if (inFlightFuture != null) {
+                this.future = inFlightFuture;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Make this request alone, outside of a bulk request.
+         */
+        JsonNode execute() throws IOException
+        {
+            Map<String, String> parameters = new HashMap<>(this.preparedRequest.getParameters());
+            parameters.put(TOKEN_AUTH, endpointManager.getEndpoint().getAuthenticationToken());
+            if (this.series) {
+                return visitsSummaryStore.request(parameters, this.jsonNormaliser);
+            }
+            return requestExecutor.execute(parameters, this.preparedRequest.getFilters(), this.jsonNormaliser);
+        }
+    }
+
+    /**
+     * A request to Matomo whose result can be shared.
+     */
+    @FunctionalInterface
+    private interface MatomoRequest
+    {
+        JsonNode execute() throws IOException;
+    }
 }
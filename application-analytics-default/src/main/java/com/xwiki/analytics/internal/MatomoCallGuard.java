@@ -0,0 +1,370 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.configuration.MatomoEndpointManager;
+
+/**
+ * Protects the wiki from a slow or unavailable Matomo. The number of requests made to Matomo at the same time is
+ * limited (bulkhead), so that the requests waiting for Matomo can't block all the threads of the wiki, and Matomo is
+ * not called anymore for a while once too many of the last requests failed (circuit breaker), so that the requests
+ * fail fast instead of waiting for the timeouts. After that while, a single trial request is made: Matomo is called
+ * again if it succeeds, or the wait starts over if it fails.
+ * <p>
+ * The state is kept for each Matomo instance, identified by the base URI of the endpoint of the current wiki, so that
+ * an unavailable instance doesn't block the wikis using another one.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component(roles = MatomoCallGuard.class)
+@Singleton
+public class MatomoCallGuard implements Initializable
+{
+    private static final int PERCENT = 100;
+
+    @Inject
+    private AnalyticsConfiguration configuration;
+
+    @Inject
+    private MatomoEndpointManager endpointManager;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The state of each Matomo instance, by base URI.
+     */
+    private final Map<URI, Circuit> circuits = new ConcurrentHashMap<>();
+
+    private int maxConcurrentCalls;
+
+    private int maxWait;
+
+    private int failureRate;
+
+    private long openDuration;
+
+    private int minimumCalls;
+
+    /**
+     * The states of the circuit breaker.
+     */
+    public enum State
+    {
+        /**
+         * Matomo is called.
+         */
+        CLOSED,
+
+        /**
+         * Matomo is considered unavailable and is not called.
+         */
+        OPEN,
+
+        /**
+         * A trial request is made to find out whether Matomo is available again.
+         */
+        HALF_OPEN
+    }
+
+    @Override
+    public void initialize()
+    {
+        this.maxConcurrentCalls = this.configuration.getMaxConcurrentMatomoCalls();
+        this.maxWait = Math.max(0, this.configuration.getBulkheadMaxWait());
+        this.failureRate = this.configuration.getCircuitBreakerFailureRate();
+        this.openDuration = TimeUnit.SECONDS.toNanos(Math.max(0, this.configuration.getCircuitBreakerOpenDuration()));
+        this.minimumCalls = Math.max(1, this.configuration.getCircuitBreakerMinimumCalls());
+    }
+
+    /**
+     * Call the Matomo instance of the current wiki, unless it is considered unavailable or too many calls are already
+     * being made to it.
+     *
+     * @param call the call to Matomo
+     * @param <T> the type of the call result
+     * @return the call result
+     * @throws IOException if the call failed, or if it was rejected
+     */
+    public <T> T call(MatomoCall<T> call) throws IOException
+    {
+        return getCircuit().call(call);
+    }
+
+    /**
+     * @param error an error thrown by a call to Matomo
+     * @return {@code true} if the error means that Matomo couldn't be reached or didn't answer in time (connection
+     *     error, timeout, aborted request or server error), {@code false} if Matomo answered with a response that
+     *     can't be used (error result, invalid JSON, response too large), which doesn't mean it is unavailable
+     */
+    public static boolean isTransportFailure(IOException error)
+    {
+        return !(error instanceof MatomoResponseException || error instanceof JsonProcessingException);
+    }
+
+    /**
+     * @return {@code true} if a call made now to the Matomo instance of the current wiki would be attempted,
+     *     {@code false} if it would be rejected because the instance is considered unavailable
+     */
+    public boolean isAvailable()
+    {
+        return getCircuit().isAvailable();
+    }
+
+    /**
+     * @return the state of the circuit breaker and of the bulkhead of the Matomo instance of the current wiki, for the
+     *     administrators
+     */
+    public Map<String, Object> getState()
+    {
+        return getCircuit().getState();
+    }
+
+    private Circuit getCircuit()
+    {
+        return this.circuits.computeIfAbsent(this.endpointManager.getEndpoint().getBaseURI(), uri -> new Circuit());
+    }
+
+    /**
+     * The circuit breaker and the bulkhead of a Matomo instance.
+     */
+    private final class Circuit
+    {
+        private final LongAdder rejectedCalls = new LongAdder();
+
+        private final LongAdder bulkheadRejections = new LongAdder();
+
+        private final Semaphore permits;
+
+        /**
+         * The outcomes of the last calls, {@code true} for the failures, used as a ring buffer.
+         */
+        private final boolean[] outcomes;
+
+        private int outcomeCount;
+
+        private int nextOutcome;
+
+        private int failureCount;
+
+        private State state = State.CLOSED;
+
+        private long openingTime;
+
+        private boolean trialInProgress;
+
+        Circuit()
+        {
+            this.permits = maxConcurrentCalls > 0 ? new Semaphore(maxConcurrentCalls) : null;
+            this.outcomes = new boolean[minimumCalls];
+        }
+
+        <T> T call(MatomoCall<T> call) throws IOException
+        {
+            boolean trial = acquireCircuit();
+            try {
+                acquirePermit();
+            } catch (IOException e) {
+                releaseTrial(trial);
+                throw e;
+            }
+            boolean recorded = false;
+            try {
+                T result = call.execute();
+                recorded = true;
+                recordOutcome(false, trial);
+                return result;
+            } catch (IOException e) {
+                if (isTransportFailure(e)) {
+                    recorded = true;
+                    recordOutcome(true, trial);
+                }
+                throw e;
+            } finally {
+                if (!recorded) {
+                    // The unexpected errors and the errors reported in the Matomo responses don't tell whether Matomo
+                    // is available.
+                    releaseTrial(trial);
+                }
+                if (this.permits != null) {
+                    this.permits.release();
+                }
+            }
+        }
+
+        synchronized boolean isAvailable()
+        {
+            switch (this.state) {
+                case OPEN:
+                    return System.nanoTime() - this.openingTime >= openDuration;
+                case HALF_OPEN:
+                    return !this.trialInProgress;
+                default:
+                    return true;
+            }
+        }
+
+        synchronized Map<String, Object> getState()
+        {
+            Map<String, Object> result = new HashMap<>();
+            result.put("state", this.state.name());
+            result.put("recentCalls", this.outcomeCount);
+            result.put("recentFailures", this.failureCount);
+            result.put("rejectedCalls", this.rejectedCalls.sum());
+            result.put("bulkheadRejections", this.bulkheadRejections.sum());
+            if (this.permits != null) {
+                result.put("availablePermits", this.permits.availablePermits());
+            }
+            if (this.state == State.OPEN) {
+                long remaining = openDuration - (System.nanoTime() - this.openingTime);
+                result.put("retryIn", TimeUnit.NANOSECONDS.toSeconds(Math.max(0, remaining)));
+            }
+            return result;
+        }
+
+        /**
+         * @return {@code true} if the call is the trial call, {@code false} if it is a regular call
+         * @throws IOException if the call is rejected because Matomo is considered unavailable
+         */
+        private synchronized boolean acquireCircuit() throws IOException
+        {
+            if (this.state == State.OPEN && System.nanoTime() - this.openingTime >= openDuration) {
+                this.state = State.HALF_OPEN;
+            }
+            if (this.state == State.HALF_OPEN && !this.trialInProgress) {
+                this.trialInProgress = true;
+                return true;
+            } else if (this.state != State.CLOSED) {
+                this.rejectedCalls.increment();
+                throw new IOException(
+                    "Matomo is considered unavailable because too many of the last requests failed.");
+            }
+            return false;
+        }
+
+        private synchronized void releaseTrial(boolean trial)
+        {
+            if (trial) {
+                this.trialInProgress = false;
+            }
+        }
+
+        private void acquirePermit() throws IOException
+        {
+            if (this.permits == null) {
+                return;
+            }
+            boolean acquired;
+            try {
+                acquired = this.permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting to call Matomo.", e);
+            }
+            if (!acquired) {
+                this.bulkheadRejections.increment();
+                throw new IOException(String.format("Too many requests are waiting for Matomo, the request waited "
+                    + "[%s] milliseconds for one of them to finish.", maxWait));
+            }
+        }
+
+        private synchronized void recordOutcome(boolean failed, boolean trial)
+        {
+            if (trial) {
+                this.trialInProgress = false;
+                if (failed) {
+                    logger.debug("Matomo is still unavailable.");
+                    open();
+                } else {
+                    logger.info("Matomo is available again.");
+                    close();
+                }
+            } else if (this.state == State.CLOSED && failureRate > 0) {
+                // The calls that started before the circuit was opened are ignored.
+                if (this.outcomeCount == this.outcomes.length) {
+                    this.failureCount -= this.outcomes[this.nextOutcome] ? 1 : 0;
+                } else {
+                    this.outcomeCount++;
+                }
+                this.outcomes[this.nextOutcome] = failed;
+                this.failureCount += failed ? 1 : 0;
+                this.nextOutcome = (this.nextOutcome + 1) % this.outcomes.length;
+                if (this.outcomeCount == this.outcomes.length
+                    && this.failureCount * PERCENT >= failureRate * this.outcomes.length)
+                {
+                    logger.warn("[{}] of the last [{}] requests to Matomo failed. Matomo won't be called for [{}] "
+                        + "seconds.", this.failureCount, this.outcomeCount,
+                        TimeUnit.NANOSECONDS.toSeconds(openDuration));
+                    open();
+                }
+            }
+        }
+
+        private void open()
+        {
+            this.state = State.OPEN;
+            this.openingTime = System.nanoTime();
+        }
+
+        private void close()
+        {
+            this.state = State.CLOSED;
+            this.outcomeCount = 0;
+            this.nextOutcome = 0;
+            this.failureCount = 0;
+        }
+    }
+
+    /**
+     * A call to Matomo.
+     *
+     * @param <T> the type of the call result
+     * @version $Id$
+     * @since 1.1.1
+     */
+    @FunctionalInterface
+    public interface MatomoCall<T>
+    {
+        /**
+         * @return the call result
+         * @throws IOException if the call failed
+         */
+        T execute() throws IOException;
+    }
+}
@@ -0,0 +1,526 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xwiki.analytics.AnalyticsRequest;
+import com.xwiki.analytics.AnalyticsResponse;
+import com.xwiki.analytics.JsonNormaliser;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.configuration.MatomoEndpoint;
+import com.xwiki.analytics.internal.configuration.MatomoEndpointManager;
+import com.xwiki.analytics.internal.metrics.AnalyticsMetrics;
+import com.xwiki.analytics.internal.metrics.RowCountingParser;
+
+/**
+ * Sends the requests to the Matomo HTTP API and normalises the responses while they are read.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component(roles = MatomoRequestExecutor.class)
+@Singleton
+public class MatomoRequestExecutor implements Disposable
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String TOKEN_AUTH = "token_auth";
+
+    private static final String MODULE = "module";
+
+    private static final String FORMAT = "format";
+
+    private static final String METHOD = "method";
+
+    private static final String BULK_REQUEST = "API.getBulkRequest";
+
+    private static final String VALUES = "values";
+
+    private static final String IDENTITY = "identity";
+
+    private static final String GZIP = "gzip";
+
+    /**
+     * The encodings decoded while the responses are read.
+     */
+    private static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+    private static final int DECODER_BUFFER_SIZE = 8192;
+
+    /**
+     * The number of bytes of an error response kept in the error message.
+     */
+    private static final int ERROR_BODY_MAX_SIZE = 4096;
+
+    @Inject
+    private AnalyticsConfiguration configuration;
+
+    @Inject
+    private HttpClientBuilderFactory httpClientBuilderFactory;
+
+    @Inject
+    private MatomoEndpointManager endpointManager;
+
+    @Inject
+    private AnalyticsMetrics metrics;
+
+    private final ScheduledThreadPoolExecutor deadlineScheduler = createDeadlineScheduler();
+
+    @Override
+    public void dispose()
+    {
+        this.deadlineScheduler.shutdownNow();
+    }
+
+    /**
+     * Execute the HTTP request and normalise the response body while it is being read.
+     *
+     * @param parameters the HTTP request parameters
+     * @param filters holds the criteria for filtering a dataset
+     * @param jsonNormaliser the normaliser applied on the response
+     * @return the normalised response
+     * @throws IOException if there's a problem executing the HTTP request or reading the response
+     */
+    public JsonNode execute(Map<String, String> parameters, Map<String, String> filters,
+        JsonNormaliser jsonNormaliser) throws IOException
+    {
+        return normalise(parameters, jsonNormaliser, parser -> jsonNormaliser.normaliseData(parser, filters));
+    }
+
+    /**
+     * Execute the HTTP request and read the response body with the given reader.
+     *
+     * @param parameters the HTTP request parameters
+     * @param responseReader reads the response body
+     * @param <T> the type of the result read from the response
+     * @return the result read from the response
+     * @throws IOException if there's a problem executing the HTTP request or reading the response
+     */
+    public <T> T execute(Map<String, String> parameters, ResponseReader<T> responseReader) throws IOException
+    {
+        HttpGet request = prepare(new HttpGet(this.endpointManager.getEndpoint().buildURI(parameters)));
+        long start = System.nanoTime();
+        long responseTime = -1;
+        SizeLimitedInputStream receivedStream = null;
+        SizeLimitedInputStream inputStream = null;
+        boolean failed = true;
+        ScheduledFuture<?> deadline = scheduleAbort(request);
+        // The client is shared and pooled, so only the response is closed in order to release the connection.
+        try (CloseableHttpResponse response = this.httpClientBuilderFactory.getHttpClient().execute(request)) {
+            responseTime = System.nanoTime() - start;
+            long maxSize = this.configuration.getMaxResponseSize();
+            HttpEntity entity = getEntity(response, maxSize);
+            receivedStream = new SizeLimitedInputStream(entity.getContent(), maxSize);
+            try (InputStream decodedStream = decode(entity, receivedStream)) {
+                inputStream = new SizeLimitedInputStream(decodedStream, maxSize);
+                T result = responseReader.read(inputStream);
+                // Read the end of the body, if any, so that the connection can be reused. When the normalisation fails
+                // the connection is simply discarded when the response is closed, without reading the rest of the body.
+                consume(entity, maxSize - receivedStream.getCount());
+                failed = false;
+                return result;
+            }
+        } catch (IOException e) {
+            throw checkDeadline(deadline, e);
+        } finally {
+            cancel(deadline);
+            this.metrics.recordMatomoRequest(parameters.get(METHOD),
+                responseTime < 0 ? System.nanoTime() - start : responseTime, getCount(receivedStream),
+                getCount(inputStream), failed);
+        }
+    }
+
+    /**
+     * Send several requests at once, using the Matomo {@code API.getBulkRequest} method, and normalise each part of the
+     * response with its own normaliser.
+     *
+     * @param requests the requests to send, having all the needed parameters
+     * @param jsonNormalisers the normalisers to apply on the responses, in the same order as the requests
+     * @return the responses, in the same order as the requests; a failure affects only its own response, unless the
+     *     whole bulk request failed
+     */
+    public List<AnalyticsResponse> executeBulk(List<AnalyticsRequest> requests, List<JsonNormaliser> jsonNormalisers)
+    {
+        List<AnalyticsResponse> responses = new ArrayList<>(requests.size());
+        long start = System.nanoTime();
+        long responseTime = -1;
+        SizeLimitedInputStream receivedStream = null;
+        SizeLimitedInputStream inputStream = null;
+        try {
+            MatomoEndpoint endpoint = this.endpointManager.getEndpoint();
+            HttpPost request = prepare(new HttpPost(endpoint.getBaseURI()));
+            request.setEntity(new UrlEncodedFormEntity(getBulkParameters(endpoint, requests), StandardCharsets.UTF_8));
+            ScheduledFuture<?> deadline = scheduleAbort(request);
+            try (CloseableHttpResponse response = this.httpClientBuilderFactory.getHttpClient().execute(request)) {
+                responseTime = System.nanoTime() - start;
+                // Each part of the bulk response is allowed to have the maximum size.
+                long maxSize = this.configuration.getMaxResponseSize() * requests.size();
+                HttpEntity entity = getEntity(response, maxSize);
+                receivedStream = new SizeLimitedInputStream(entity.getContent(), maxSize);
+                try (InputStream decodedStream = decode(entity, receivedStream)) {
+                    inputStream = new SizeLimitedInputStream(decodedStream, maxSize);
+                    readBulkResponse(inputStream, requests, jsonNormalisers, responses);
+                    consume(entity, maxSize - receivedStream.getCount());
+                }
+            } catch (IOException e) {
+                throw checkDeadline(deadline, e);
+            } finally {
+                cancel(deadline);
+            }
+            this.metrics.recordMatomoRequest(BULK_REQUEST, responseTime, getCount(receivedStream),
+                getCount(inputStream), false);
+        } catch (Exception e) {
+            this.metrics.recordMatomoRequest(BULK_REQUEST, responseTime < 0 ? System.nanoTime() - start : responseTime,
+                getCount(receivedStream), getCount(inputStream), true);
+            // The requests that didn't get a response yet fail with the error that stopped the bulk request.
+            for (int i = responses.size(); i < requests.size(); i++) {
+                responses.add(new AnalyticsResponse(requests.get(i), e));
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Abort the request if it takes longer than the configured deadline, since the socket timeout only limits the time
+     * between two packets, so a slow Matomo could still keep the request running for a long time.
+     *
+     * @return the scheduled abort, to be cancelled when the request is done, or {@code null} if there is no deadline
+     */
+    private ScheduledFuture<?> scheduleAbort(HttpRequestBase request)
+    {
+        int requestDeadline = this.configuration.getRequestDeadline();
+        if (requestDeadline <= 0) {
+            return null;
+        }
+        return this.deadlineScheduler.schedule(request::abort, requestDeadline, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ask Matomo to compress the response, when enabled, since the responses are decoded while they are read.
+     */
+    private <R extends HttpRequestBase> R prepare(R request)
+    {
+        if (this.configuration.isHttpCompressionEnabled()) {
+            request.setHeader(HttpHeaders.ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+        }
+        return request;
+    }
+
+    private void cancel(ScheduledFuture<?> deadline)
+    {
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+    }
+
+    /**
+     * @return the exception to throw, explaining that the request was aborted if the deadline was reached
+     */
+    private IOException checkDeadline(ScheduledFuture<?> deadline, IOException exception)
+    {
+        if (deadline != null && deadline.isDone() && !deadline.isCancelled()) {
+            return new IOException(String.format("The Matomo request was aborted after [%s] milliseconds.",
+                this.configuration.getRequestDeadline()), exception);
+        }
+        return exception;
+    }
+
+    private static ScheduledThreadPoolExecutor createDeadlineScheduler()
+    {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "Matomo request deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Most of the requests finish before their deadline, so the cancelled aborts shouldn't pile up.
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Normalise the response while it is being read, counting the rows read and kept.
+     */
+    private JsonNode normalise(Map<String, String> parameters, JsonNormaliser jsonNormaliser,
+        Normalisation normalisation) throws IOException
+    {
+        return execute(parameters, inputStream -> {
+            long start = System.nanoTime();
+            try (RowCountingParser parser =
+                new RowCountingParser(OBJECT_MAPPER.getFactory().createParser(inputStream)))
+            {
+                parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+                JsonNode result = normalisation.normalise(parser);
+                this.metrics.recordNormalisation(jsonNormaliser.getIdentifier(), parameters.get(METHOD),
+                    System.nanoTime() - start, parser.getRowCount(), countRows(result));
+                return result;
+            }
+        });
+    }
+
+    /**
+     * @return the number of rows of a normalised response: the entries of an array or the values of a series
+     */
+    private static int countRows(JsonNode result)
+    {
+        if (result == null) {
+            return 0;
+        } else if (result.has(VALUES)) {
+            return result.get(VALUES).size();
+        }
+        return result.isArray() ? result.size() : 0;
+    }
+
+    /**
+     * Decompress the response body while it is read, when Matomo compressed it. The size of the decompressed body is
+     * limited too, so that a small compressed response can't exhaust the memory.
+     *
+     * @return the decoded response body, which releases the decoder when it is closed, without closing the body
+     */
+    private static InputStream decode(HttpEntity entity, InputStream body) throws IOException
+    {
+        Header contentEncodingHeader = entity.getContentEncoding();
+        String contentEncoding = contentEncodingHeader != null ? contentEncodingHeader.getValue() : null;
+        InputStream unclosableBody = new UnclosableInputStream(body);
+        String encoding = contentEncoding != null ? contentEncoding.trim().toLowerCase(Locale.ROOT) : IDENTITY;
+        switch (encoding) {
+            case IDENTITY:
+            case "":
+                return unclosableBody;
+            case GZIP:
+            case "x-gzip":
+                return new GZIPInputStream(unclosableBody, DECODER_BUFFER_SIZE);
+            case "deflate":
+                // Handles both the zlib format and the raw deflate format sent by some servers.
+                return new DeflateInputStream(unclosableBody);
+            default:
+                throw new MatomoResponseException(
+                    String.format("Unsupported Matomo response encoding [%s].", contentEncoding));
+        }
+    }
+
+    private static long getCount(SizeLimitedInputStream inputStream)
+    {
+        return inputStream != null ? inputStream.getCount() : 0;
+    }
+
+    private HttpEntity getEntity(CloseableHttpResponse response, long maxSize) throws IOException
+    {
+        int statusCode = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        if (statusCode != HttpStatus.SC_OK) {
+            // The rest of the body is not read, the connection is discarded when the response is closed.
+            String body = readErrorBody(entity);
+            String message = String.format("Matomo responded with the [%s] status code.", statusCode);
+            if (!body.isEmpty()) {
+                message = String.format("%s Response: [%s]", message, body);
+            }
+            // Only the server errors mean that Matomo is unavailable.
+            throw statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR ? new IOException(message)
+                : new MatomoResponseException(message);
+        }
+        if (entity.getContentLength() > maxSize) {
+            throw new MatomoResponseException(String.format("The Matomo response of [%s] bytes exceeds the maximum "
+                + "allowed size of [%s] bytes.", entity.getContentLength(), maxSize));
+        }
+        return entity;
+    }
+
+    /**
+     * Read the end of the response body, if any, so that the connection can be reused. The body is not closed, since
+     * closing it would read the rest of the body without any limit: the connection is released once the end of the
+     * body is reached, or discarded when the response is closed, when the rest of the body is larger than the given
+     * size.
+     */
+    private static void consume(HttpEntity entity, long maxSize) throws IOException
+    {
+        new SizeLimitedInputStream(entity.getContent(), maxSize).transferTo(OutputStream.nullOutputStream());
+    }
+
+    /**
+     * @return the beginning of the body of an error response, which usually explains the error, or an empty string if
+     *     it can't be read (e.g. when only the beginning of a large compressed body was read)
+     */
+    private static String readErrorBody(HttpEntity entity)
+    {
+        try {
+            InputStream body = entity != null ? entity.getContent() : null;
+            if (body == null) {
+                return "";
+            }
+            byte[] beginning = body.readNBytes(ERROR_BODY_MAX_SIZE);
+            try (InputStream decodedBody = decode(entity, new ByteArrayInputStream(beginning))) {
+                return new String(decodedBody.readNBytes(ERROR_BODY_MAX_SIZE), StandardCharsets.UTF_8).trim();
+            }
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private List<NameValuePair> getBulkParameters(MatomoEndpoint endpoint, List<AnalyticsRequest> requests)
+    {
+        List<NameValuePair> parameters = new ArrayList<>();
+        parameters.add(new BasicNameValuePair(MODULE, "API"));
+        parameters.add(new BasicNameValuePair(METHOD, BULK_REQUEST));
+        parameters.add(new BasicNameValuePair(FORMAT, "json"));
+        // The authentication token is sent once, in the body of the main request.
+        parameters.add(new BasicNameValuePair(TOKEN_AUTH, endpoint.getAuthenticationToken()));
+        for (int i = 0; i < requests.size(); i++) {
+            List<NameValuePair> urlParameters = new ArrayList<>();
+            for (Map.Entry<String, String> entry : requests.get(i).getParameters().entrySet()) {
+                if (!TOKEN_AUTH.equals(entry.getKey()) && !MODULE.equals(entry.getKey())
+                    && !FORMAT.equals(entry.getKey()))
+                {
+                    urlParameters.add(new BasicNameValuePair(entry.getKey(), entry.getValue()));
+                }
+            }
+            parameters.add(new BasicNameValuePair(String.format("urls[%d]", i),
+                URLEncodedUtils.format(urlParameters, StandardCharsets.UTF_8)));
+        }
+        return parameters;
+    }
+
+    private void readBulkResponse(InputStream inputStream, List<AnalyticsRequest> requests,
+        List<JsonNormaliser> jsonNormalisers, List<AnalyticsResponse> responses) throws IOException
+    {
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(inputStream)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            JsonToken token = parser.nextToken();
+            if (token != JsonToken.START_ARRAY) {
+                // The whole bulk request failed, e.g. because of an invalid token.
+                JsonNode error = token != null ? parser.readValueAsTree() : null;
+                throw new MatomoResponseException(String.format("Matomo returned an error: [%s]",
+                    error != null ? error.path("message").asText() : null));
+            }
+            JsonStreamContext arrayContext = parser.getParsingContext();
+            for (int i = 0; i < requests.size(); i++) {
+                token = parser.nextToken();
+                if (token == null || token == JsonToken.END_ARRAY) {
+                    throw new MatomoResponseException(
+                        "The Matomo bulk response is missing some of the requested results.");
+                }
+                AnalyticsRequest request = requests.get(i);
+                try {
+                    responses.add(new AnalyticsResponse(request,
+                        jsonNormalisers.get(i).normaliseData(parser, request.getFilters())));
+                } catch (JsonParseException e) {
+                    // The rest of the response can't be read anymore.
+                    throw e;
+                } catch (IOException | RuntimeException e) {
+                    responses.add(new AnalyticsResponse(request, e));
+                    skipToContext(parser, arrayContext);
+                }
+            }
+        }
+    }
+
+    /**
+     * Skip the remaining tokens of a value that couldn't be normalised, until the parser gets back in the given
+     * context.
+     */
+    private void skipToContext(JsonParser parser, JsonStreamContext context) throws IOException
+    {
+        while (parser.getParsingContext() != context && parser.nextToken() != null) {
+            // Skip the token.
+        }
+    }
+
+    /**
+     * Normalises a Matomo response read by a parser.
+     */
+    @FunctionalInterface
+    private interface Normalisation
+    {
+        JsonNode normalise(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * The response body, which is released by the response instead of being closed along with the decoder.
+     */
+    private static final class UnclosableInputStream extends FilterInputStream
+    {
+        UnclosableInputStream(InputStream inputStream)
+        {
+            super(inputStream);
+        }
+
+        @Override
+        public void close()
+        {
+            // The body is released when the response is closed.
+        }
+    }
+
+    /**
+     * Reads the body of a Matomo response.
+     *
+     * @param <T> the type of the result read from the response
+     * @version $Id$
+     * @since 1.1.1
+     */
+    @FunctionalInterface
+    public interface ResponseReader<T>
+    {
+        /**
+         * @param inputStream the response body, which must not be closed by the reader
+         * @return the result read from the response
+         * @throws IOException if the response can't be read
+         */
+        T read(InputStream inputStream) throws IOException;
+    }
+}
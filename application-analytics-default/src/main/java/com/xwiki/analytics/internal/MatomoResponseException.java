@@ -0,0 +1,52 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.io.IOException;
+
+/**
+ * Signals that Matomo answered a request, but with a response that can't be used: an error reported by Matomo, a
+ * response that is too large or encoded in an unsupported way, or a client error status code. Such errors don't mean
+ * that Matomo is unavailable, so they are not counted as failures by the {@link MatomoCallGuard}.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public class MatomoResponseException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message the error message
+     */
+    public MatomoResponseException(String message)
+    {
+        super(message);
+    }
+
+    /**
+     * @param message the error message
+     * @param cause the cause of the error
+     */
+    public MatomoResponseException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
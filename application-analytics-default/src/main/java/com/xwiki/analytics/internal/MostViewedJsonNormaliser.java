@@ -19,7 +19,12 @@
  */
 package com.xwiki.analytics.internal;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -29,15 +34,17 @@ import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
-import org.xwiki.security.authorization.ContextualAuthorizationManager;
-import org.xwiki.security.authorization.Right;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.xwiki.analytics.JsonNormaliser;
+import com.xwiki.analytics.internal.cache.PageReferenceCache;
+import com.xwiki.analytics.internal.cache.PageReferenceCache.ResolvedPage;
 
 /**
- * Implementation for {@link JsonNormaliser}.
+ * Implementation for {@link JsonNormaliser} that replaces the page URLs with the page names. The view right is checked
+ * separately for each user, using the {@link ViewRightsChecker}, so that the normalised entries can be shared.
  *
  * @version $Id$
  * @since 1.0
@@ -54,13 +61,20 @@ public class MostViewedJsonNormaliser extends AbstractJsonNormaliser
 
     private static final String URL = "url";
 
+    /**
+     * The minimum number of rows whose rights are checked at once when looking for the rows of a window.
+     */
+    private static final int MIN_CHECKED_ROWS = 64;
+
     @Inject
     @Named("resource/standardURL")
     private EntityReferenceResolver<String> urlToReferenceResolver;
 
     @Inject
-    private ContextualAuthorizationManager contextualAuthorizationManager;
+    private ViewRightsChecker viewRightsChecker;
 
+    @Inject
+    private PageReferenceCache pageReferenceCache;
 
     @Override
     public String getIdentifier()
@@ -78,11 +92,11 @@ public class MostViewedJsonNormaliser extends AbstractJsonNormaliser
             if (!currentNode.has(URL)) {
                 return currentNode;
             }
-            EntityReference pageReference = getPageReferenceFromUrl((ObjectNode) currentNode);
-            if (pageReference == null) {
+            ResolvedPage resolvedPage = getResolvedPage(currentNode);
+            if (resolvedPage.getReference() == null) {
                 return null;
             }
-            updateNodeLabel((ObjectNode) currentNode, pageReference);
+            ((ObjectNode) currentNode).put(LABEL, resolvedPage.getLabel());
             return currentNode;
         } catch (Exception e) {
             return currentNode;
@@ -90,31 +104,102 @@ public class MostViewedJsonNormaliser extends AbstractJsonNormaliser
     }
 
     /**
-     * Get the page reference from the URL.
+     * Remove the entries targeting pages that the current user is not allowed to view. The rights are checked once
+     * for each distinct page.
      *
-     * @param objectNode a JSON object
-     * @return reference of the page if the resolver returned a valid value, otherwise {@code null}
+     * @param normalisedData the normalised entries, shared between users
+     * @return the entries that the current user is allowed to view
      */
-    private EntityReference getPageReferenceFromUrl(ObjectNode objectNode)
+    @Override
+    public JsonNode filterForCurrentUser(JsonNode normalisedData)
     {
-        String url = objectNode.get(URL).asText();
-        EntityReference entityReference = this.urlToReferenceResolver.resolve(url, EntityType.DOCUMENT);
-        if (entityReference == null || !contextualAuthorizationManager.hasAccess(Right.VIEW, entityReference)) {
+        List<EntityReference> pageReferences = new ArrayList<>();
+        for (JsonNode currentNode : normalisedData) {
+            pageReferences.add(getPageReference(currentNode));
+        }
+        Set<EntityReference> viewablePages = this.viewRightsChecker.getViewable(
+            pageReferences.stream().filter(Objects::nonNull).collect(Collectors.toSet()));
+
+        ArrayNode arrayNode = OBJECT_MAPPER.createArrayNode();
+        int index = 0;
+        for (JsonNode currentNode : normalisedData) {
+            EntityReference pageReference = pageReferences.get(index++);
+            // Same as for the normalisation, the entries for which the reference can't be resolved are displayed.
+            if (pageReference == null || viewablePages.contains(pageReference)) {
+                arrayNode.add(currentNode);
+            }
+        }
+        return arrayNode;
+    }
+
+    /**
+     * Walk the shared rows until the rows of the window that the current user can view are found, checking the rights
+     * as needed, and copy only the rows of the window. The rows after the window are not checked, so they are counted
+     * in the total as if the current user could view them: the total is exact when the window reaches the end of the
+     * rows, and is an upper bound otherwise.
+     *
+     * @param normalisedData the normalised entries, shared between users
+     * @param offset the index of the first row to return
+     * @param limit the maximum number of rows to return, or a negative value to return all the rows after the offset
+     * @return the number of rows that the current user can view, in the {@code totalRows} field, and the copied rows of
+     *     the window, in the {@code rows} field
+     */
+    @Override
+    public JsonNode filterForCurrentUser(JsonNode normalisedData, long offset, int limit)
+    {
+        long start = Math.max(offset, 0);
+        long end = getWindowEnd(offset, limit);
+        ArrayNode rows = OBJECT_MAPPER.createArrayNode();
+        int size = normalisedData.size();
+        long viewableCount = 0;
+        int index = 0;
+        while (index < size && viewableCount < end) {
+            // The rights of the rows that are still needed are checked at once.
+            int checkedEnd = index + (int) Math.min(size - index, Math.max(MIN_CHECKED_ROWS, end - viewableCount));
+            List<EntityReference> pageReferences = new ArrayList<>(checkedEnd - index);
+            for (int i = index; i < checkedEnd; i++) {
+                pageReferences.add(getPageReference(normalisedData.get(i)));
+            }
+            Set<EntityReference> viewablePages = this.viewRightsChecker.getViewable(
+                pageReferences.stream().filter(Objects::nonNull).collect(Collectors.toSet()));
+            for (EntityReference pageReference : pageReferences) {
+                if (pageReference == null || viewablePages.contains(pageReference)) {
+                    if (viewableCount >= start && viewableCount < end) {
+                        rows.add(normalisedData.get(index).deepCopy());
+                    }
+                    viewableCount++;
+                }
+                index++;
+            }
+        }
+        ObjectNode window = OBJECT_MAPPER.createObjectNode();
+        window.put(TOTAL_ROWS, viewableCount + size - index);
+        window.set(ROWS, rows);
+        return window;
+    }
+
+    private EntityReference getPageReference(JsonNode currentNode)
+    {
+        try {
+            return currentNode.has(URL) ? getResolvedPage(currentNode).getReference() : null;
+        } catch (Exception e) {
             return null;
         }
-        return entityReference;
     }
 
     /**
-     * Replace the url with the actual title of the page.
+     * Get the page targeted by the URL of the given entry. The pages are cached, since the same URLs are returned
+     * again and again by Matomo.
      *
-     * @param objectNode a JSON object
-     * @param entityReference reference of the page
+     * @param currentNode a JSON object having an URL
+     * @return the resolved page, with a {@code null} reference if the URL doesn't target a page
      */
-    private void updateNodeLabel(ObjectNode objectNode, EntityReference entityReference)
+    private ResolvedPage getResolvedPage(JsonNode currentNode)
     {
-        String pageName = getPageName(entityReference);
-        objectNode.put(LABEL, pageName);
+        return this.pageReferenceCache.get(currentNode.get(URL).asText(), url -> {
+            EntityReference pageReference = this.urlToReferenceResolver.resolve(url, EntityType.DOCUMENT);
+            return new ResolvedPage(pageReference, pageReference != null ? getPageName(pageReference) : null);
+        });
     }
 
     /**
@@ -19,8 +19,11 @@
  */
 package com.xwiki.analytics.internal;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import javax.inject.Named;
@@ -29,10 +32,13 @@ import javax.inject.Singleton;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.stability.Unstable;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.xwiki.analytics.internal.filter.RowFilter;
+import com.xwiki.analytics.internal.filter.RowFilters;
 
 /**
  * Normalizes the response needed by the RowEvolution feature.
@@ -53,6 +59,11 @@ public class RowEvolutionJsonNormaliser extends AbstractJsonNormaliser
 
     private static final String DATE = "date";
 
+    /**
+     * The row of the entry, when no row is requested.
+     */
+    private static final List<Integer> FIRST_ROW = Collections.singletonList(0);
+
     @Override
     public String getIdentifier()
     {
@@ -61,37 +72,44 @@ public class RowEvolutionJsonNormaliser extends AbstractJsonNormaliser
 
     /**
      * Transform the Matomo JSON response into an array of JSONs to simplify usage. Add a date to each entry to be able
-     * to identify from what period the statistics are.
+     * to identify from what period the statistics are. When the filters list several rows (see
+     * {@link RowFilters#ALTERNATIVE_SEPARATOR}), the evolution of each of them is returned, in the order of the filter
+     * values, all of them being read in the same pass over the response.
      *
-     * @param jsonNode JSON response from Matomo
-     * @param filters  holds the criteria for filtering a dataset
-     * @return filtered array of processed JSONs
+     * @param parser the parser positioned on the start of the JSON response from Matomo
+     * @param rowFilter the filter identifying the entries to keep for each date
+     * @return filtered array of processed JSONs, or an array holding such an array for each row when several rows are
+     *     requested
+     * @throws IOException if the JSON is malformed or Matomo returned an error
      */
     @Override
-    protected JsonNode processObjectNode(JsonNode jsonNode, Map<String, String> filters) throws JsonProcessingException
+    protected JsonNode processObjectNode(JsonParser parser, RowFilter rowFilter) throws IOException
     {
-        ArrayNode arrayNode = OBJECT_MAPPER.createArrayNode();
-        Iterator<String> fieldNames = jsonNode.fieldNames();
+        RowIndex rowIndex = rowFilter instanceof RowIndex ? (RowIndex) rowFilter : null;
+        int rowCount = rowIndex != null ? rowIndex.size() : 1;
+        ArrayNode[] evolutions = new ArrayNode[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            evolutions[i] = OBJECT_MAPPER.createArrayNode();
+        }
         Map<String, String> extraValues = new HashMap<>();
-        while (fieldNames.hasNext()) {
-            String date = fieldNames.next();
+        while (nextField(parser)) {
+            String date = parser.getCurrentName();
             extraValues.put(DATE, date);
-            JsonNode childNode = jsonNode.get(date);
-            boolean nodeFound = true;
-            for (JsonNode node : childNode) {
-                if (matchesAllFilters(node, filters)) {
-                    arrayNode.add(this.processNode(node, extraValues));
-                    nodeFound = false;
-                    break;
-                }
-            }
-            // When the node is empty or the entry wasn't found then we create a new node with the current date and
-            // add it to the array.
-            if (childNode.get(0) == null || nodeFound) {
-                arrayNode.add(processNode(OBJECT_MAPPER.createObjectNode(), extraValues));
+            JsonNode[] entries = findMatchingEntries(parser, rowIndex, rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                // When the entry isn't found, an empty entry is used, so that the date is still displayed.
+                JsonNode entry = entries[i] != null ? entries[i] : OBJECT_MAPPER.createObjectNode();
+                evolutions[i].add(processNode(entry, extraValues));
             }
         }
-        return arrayNode;
+        if (rowCount == 1) {
+            return evolutions[0];
+        }
+        ArrayNode result = OBJECT_MAPPER.createArrayNode();
+        for (ArrayNode evolution : evolutions) {
+            result.add(evolution);
+        }
+        return result;
     }
 
     @Override
@@ -102,19 +120,130 @@ public class RowEvolutionJsonNormaliser extends AbstractJsonNormaliser
     }
 
     @Override
-    protected boolean matchesAllFilters(JsonNode objNode, Map<String, String> filters)
+    protected RowFilter compileFilters(Map<String, String> filters)
     {
-        if (filters == null) {
-            return true;
-        }
-        for (Map.Entry<String, String> entry : filters.entrySet()) {
-            String filterField = entry.getKey();
-            String filterValue = entry.getValue();
-            // An exact match is needed instead of the partial one, because row evolution is done on a specific entry.
-            if (!(objNode.has(filterField) && objNode.get(filterField).asText().equals(filterValue))) {
-                return false;
+        return filters == null || filters.isEmpty() ? RowFilter.ALL : new RowIndex(filters);
+    }
+
+    /**
+     * Read the entries of the current date until the requested rows are found. The key of each entry is looked up
+     * once in the index of the requested rows, and the remaining entries are skipped without being read.
+     */
+    private JsonNode[] findMatchingEntries(JsonParser parser, RowIndex rowIndex, int rowCount) throws IOException
+    {
+        JsonNode[] entries = new JsonNode[rowCount];
+        int remaining = rowCount;
+        if (parser.currentToken() == JsonToken.START_ARRAY) {
+            JsonToken token = parser.nextToken();
+            while (token != null && token != JsonToken.END_ARRAY) {
+                if (remaining > 0 && token == JsonToken.START_OBJECT) {
+                    JsonNode node = parser.readValueAsTree();
+                    // Without filters, the first entry is the one of the row (e.g. the report is for a segment).
+                    List<Integer> indices = rowIndex != null ? rowIndex.indicesOf(node) : FIRST_ROW;
+                    boolean used = false;
+                    for (int index : indices) {
+                        if (entries[index] == null) {
+                            // The same row may be requested several times, and each evolution gets its own entry.
+                            entries[index] = used ? node.deepCopy() : node;
+                            used = true;
+                            remaining--;
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+                token = parser.nextToken();
             }
+        } else {
+            parser.skipChildren();
         }
+        return entries;
+    }
+
+    @Override
+    protected boolean isExactMatch()
+    {
+        // An exact match is needed instead of the partial one, because row evolution is done on a specific entry.
         return true;
     }
+
+    /**
+     * The rows requested by the filters, indexed by their key: the values of the filtered columns. A filter may list a
+     * value for each requested row, or a single value shared by all of them. The same row may be requested several
+     * times, so a key is mapped to the indexes of all the requests for it.
+     */
+    private static final class RowIndex implements RowFilter
+    {
+        private final String[] columns;
+
+        private final Map<String, List<Integer>> rows = new HashMap<>();
+
+        private final int size;
+
+        RowIndex(Map<String, String> filters)
+        {
+            this.columns = filters.keySet().toArray(new String[0]);
+            String[][] values = new String[this.columns.length][];
+            int rowCount = 1;
+            for (int i = 0; i < this.columns.length; i++) {
+                values[i] = filters.get(this.columns[i]).split(RowFilters.ALTERNATIVE_SEPARATOR, -1);
+                if (values[i].length > 1 && rowCount > 1 && values[i].length != rowCount) {
+                    throw new IllegalArgumentException("The filters must list the same number of rows.");
+                }
+                rowCount = Math.max(rowCount, values[i].length);
+            }
+            this.size = rowCount;
+            for (int row = 0; row < rowCount; row++) {
+                StringBuilder key = new StringBuilder();
+                for (int i = 0; i < this.columns.length; i++) {
+                    if (i > 0) {
+                        key.append(RowFilters.ALTERNATIVE_SEPARATOR);
+                    }
+                    key.append(values[i][values[i].length > 1 ? row : 0]);
+                }
+                this.rows.computeIfAbsent(key.toString(), rowKey -> new ArrayList<>()).add(row);
+            }
+        }
+
+        int size()
+        {
+            return this.size;
+        }
+
+        /**
+         * @return the indexes of the requested rows matching the given entry, empty if the entry isn't requested
+         */
+        List<Integer> indicesOf(JsonNode entry)
+        {
+            String key = getKey(entry);
+            List<Integer> indices = key != null ? this.rows.get(key) : null;
+            return indices != null ? indices : Collections.emptyList();
+        }
+
+        private String getKey(JsonNode entry)
+        {
+            if (this.columns.length == 1) {
+                JsonNode value = entry.get(this.columns[0]);
+                return value != null ? value.asText() : null;
+            }
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < this.columns.length; i++) {
+                JsonNode value = entry.get(this.columns[i]);
+                if (value == null) {
+                    return null;
+                }
+                if (i > 0) {
+                    key.append(RowFilters.ALTERNATIVE_SEPARATOR);
+                }
+                key.append(value.asText());
+            }
+            return key.toString();
+        }
+
+        @Override
+        public boolean matches(JsonNode entry)
+        {
+            return !indicesOf(entry).isEmpty();
+        }
+    }
 }
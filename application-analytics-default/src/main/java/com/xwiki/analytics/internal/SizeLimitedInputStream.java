@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream that fails as soon as more than a given number of bytes are read from the underlying stream. It protects
+ * against responses that are too big to be handled.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public class SizeLimitedInputStream extends FilterInputStream
+{
+    private final long maxSize;
+
+    private long count;
+
+    /**
+     * @param inputStream the underlying stream
+     * @param maxSize the maximum number of bytes that can be read
+     */
+    public SizeLimitedInputStream(InputStream inputStream, long maxSize)
+    {
+        super(inputStream);
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int value = super.read();
+        if (value != -1) {
+            count(1);
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException
+    {
+        int read = super.read(buffer, offset, length);
+        if (read > 0) {
+            count(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long length) throws IOException
+    {
+        long skipped = super.skip(length);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        // Resetting the stream would make the count inaccurate.
+        return false;
+    }
+
+    /**
+     * @return the number of bytes read so far
+     */
+    public long getCount()
+    {
+        return this.count;
+    }
+
+    private void count(long read) throws IOException
+    {
+        this.count += read;
+        if (this.count > this.maxSize) {
+            throw new MatomoResponseException(
+                String.format("The response exceeds the maximum allowed size of [%s] bytes.", this.maxSize));
+        }
+    }
+}
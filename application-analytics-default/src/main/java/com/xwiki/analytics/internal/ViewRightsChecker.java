@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+/**
+ * Checks the view right of the current user on the pages listed in a report. Each distinct page is checked once, and
+ * the decisions are kept for the rest of the current request, for each user, so the reports displayed by several
+ * widgets of the same dashboard don't check the same pages again.
+ * <p>
+ * The rights can be overridden on each page, so a space can't be checked for all its pages at once. The only right
+ * that holds for a whole hierarchy is the admin right on a wiki, which grants the view right on all its pages, so the
+ * wiki administrators are checked once per wiki.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component(roles = ViewRightsChecker.class)
+@Singleton
+public class ViewRightsChecker
+{
+    private static final String CONTEXT_KEY = "analytics.viewRights";
+
+    @Inject
+    private AuthorizationManager authorizationManager;
+
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    @Inject
+    private Execution execution;
+
+    /**
+     * Get the pages that the current user is allowed to view.
+     *
+     * @param references the references of the pages, possibly with duplicates
+     * @return the references of the given pages that the current user is allowed to view
+     */
+    public Set<EntityReference> getViewable(Collection<? extends EntityReference> references)
+    {
+        DocumentReference user = this.documentAccessBridge.getCurrentUserReference();
+        Map<EntityReference, Boolean> decisions = getDecisions(user);
+        Set<EntityReference> viewable = new HashSet<>();
+        for (EntityReference reference : references) {
+            Boolean decision = decisions.get(reference);
+            if (decision == null) {
+                decision = hasViewRight(user, reference, decisions);
+                decisions.put(reference, decision);
+            }
+            if (decision) {
+                viewable.add(reference);
+            }
+        }
+        return viewable;
+    }
+
+    private boolean hasViewRight(DocumentReference user, EntityReference reference,
+        Map<EntityReference, Boolean> decisions)
+    {
+        EntityReference wikiReference = reference.extractReference(EntityType.WIKI);
+        if (wikiReference != null && isWikiAdmin(user, wikiReference, decisions)) {
+            return true;
+        }
+        return this.authorizationManager.hasAccess(Right.VIEW, user, reference);
+    }
+
+    private boolean isWikiAdmin(DocumentReference user, EntityReference wikiReference,
+        Map<EntityReference, Boolean> decisions)
+    {
+        // The decisions for the wikis are stored along with the ones for the pages, since the references differ.
+        Boolean isAdmin = decisions.get(wikiReference);
+        if (isAdmin == null) {
+            isAdmin = this.authorizationManager.hasAccess(Right.ADMIN, user, wikiReference);
+            decisions.put(wikiReference, isAdmin);
+        }
+        return isAdmin;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<EntityReference, Boolean> getDecisions(DocumentReference user)
+    {
+        ExecutionContext context = this.execution.getContext();
+        if (context == null) {
+            return new ConcurrentHashMap<>();
+        }
+        Map<String, Map<EntityReference, Boolean>> decisionsByUser =
+            (Map<String, Map<EntityReference, Boolean>>) context.getProperty(CONTEXT_KEY);
+        if (decisionsByUser == null) {
+            decisionsByUser = new ConcurrentHashMap<>();
+            context.setProperty(CONTEXT_KEY, decisionsByUser);
+        }
+        return decisionsByUser.computeIfAbsent(String.valueOf(user), key -> new ConcurrentHashMap<>());
+    }
+}
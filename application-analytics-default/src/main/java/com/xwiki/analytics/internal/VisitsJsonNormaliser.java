@@ -19,9 +19,10 @@
  */
 package com.xwiki.analytics.internal;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.xwiki.analytics.internal.filter.RowFilter;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.stability.Unstable;
@@ -29,9 +30,7 @@ import org.xwiki.stability.Unstable;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
 
 /**
  * Normalizes the response required by macros, which consist of graphs.
@@ -50,9 +49,12 @@ public class VisitsJsonNormaliser extends AbstractJsonNormaliser
      */
     public static final String HINT = "VisitsSummary";
 
-    private static final String LABEL = "labels";
+    /**
+     * The column holding the values of the periods when a single metric is returned for each period.
+     */
+    private static final String VALUE = "value";
 
-    private static final String VALUES = "values";
+    private static final String PERCENT = "%";
 
     @Override
     public String getIdentifier()
@@ -60,25 +62,67 @@ public class VisitsJsonNormaliser extends AbstractJsonNormaliser
         return VisitsJsonNormaliser.HINT;
     }
 
+    /**
+     * Transform the Matomo response into a list of labels and a list of values, ready to be displayed in a graph.
+     *
+     * @param parser the parser positioned on the start of the JSON response from Matomo
+     * @param rowFilter the filter compiled from the criteria for filtering a dataset, not used
+     * @return the labels and the values
+     * @throws IOException if the JSON is malformed or Matomo returned an error
+     */
     @Override
-    protected JsonNode processObjectNode(JsonNode jsonNode, Map<String, String> filters) throws JsonProcessingException
+    protected JsonNode processObjectNode(JsonParser parser, RowFilter rowFilter) throws IOException
     {
-        ObjectNode result = OBJECT_MAPPER.createObjectNode();
-        List<String> labels = new ArrayList<>();
-        List<Integer> values = new ArrayList<>();
-        jsonNode.fieldNames().forEachRemaining(currentDate -> {
-            labels.add(currentDate);
-            JsonNode currentNode = jsonNode.get(currentDate);
-            // If there are missing values for a day, Matomo returns an empty array.
-            if (currentNode.isInt()) {
-                values.add(currentNode.asInt());
+        return readTable(parser).getSeries(VALUE);
+    }
+
+    /**
+     * Read the metrics returned by Matomo for a list of periods. Each period has either a single value, when a single
+     * metric was requested, which is stored in the {@code value} column, or an object holding all the metrics.
+     *
+     * @param parser the parser positioned on the start of the JSON response from Matomo, or before it
+     * @return the metrics of each period
+     * @throws IOException if the JSON is malformed or Matomo returned an error
+     * @since 1.1.1
+     */
+    public VisitsSummaryTable readTable(JsonParser parser) throws IOException
+    {
+        VisitsSummaryTable.Builder builder = new VisitsSummaryTable.Builder();
+        JsonToken token = parser.hasCurrentToken() ? parser.currentToken() : parser.nextToken();
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return builder.build();
+        }
+        while (nextField(parser)) {
+            builder.addPeriod(parser.getCurrentName());
+            if (parser.currentToken() == JsonToken.START_OBJECT) {
+                while (nextField(parser)) {
+                    readValue(parser, parser.getCurrentName(), builder);
+                }
             } else {
-                values.add(currentNode.isTextual()
-                    ? Integer.parseInt(currentNode.asText().replace("%", "")) : 0);
+                readValue(parser, VALUE, builder);
+            }
+        }
+        return builder.build();
+    }
+
+    private void readValue(JsonParser parser, String column, VisitsSummaryTable.Builder builder) throws IOException
+    {
+        JsonToken token = parser.currentToken();
+        if (token.isNumeric()) {
+            builder.set(column, parser.getDoubleValue());
+        } else if (token == JsonToken.VALUE_STRING) {
+            // The rates are returned as percentages, e.g. "45%".
+            String text = parser.getText();
+            int end = text.endsWith(PERCENT) ? text.length() - 1 : text.length();
+            try {
+                builder.set(column, Double.parseDouble(text.substring(0, end)));
+            } catch (NumberFormatException e) {
+                // Not a metric.
             }
-        });
-        result.set(LABEL, OBJECT_MAPPER.valueToTree(labels));
-        result.set(VALUES, OBJECT_MAPPER.valueToTree(values));
-        return result;
+        } else {
+            // If there are missing values for a period, Matomo returns an empty array.
+            parser.skipChildren();
+        }
     }
 }
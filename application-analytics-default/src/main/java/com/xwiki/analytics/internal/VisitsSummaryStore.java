@@ -0,0 +1,212 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.POJONode;
+import com.xwiki.analytics.JsonNormaliser;
+import com.xwiki.analytics.internal.cache.AnalyticsRequestKey;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache.CacheEntry;
+import com.xwiki.analytics.internal.configuration.MatomoEndpointManager;
+
+/**
+ * Serves the series of the visits graphs from the whole metric set of the requested periods. Each line of a graph is
+ * requested separately, for a single metric, so the first request of a graph fetches all the metrics of the periods
+ * (e.g. {@code VisitsSummary.get} without the {@code columns} parameter) and the other lines, as well as the other
+ * metrics displayed later for the same periods, are served from the stored {@link VisitsSummaryTable}. The tables are
+ * stored in the {@link AnalyticsResponseCache}, next to the responses, so they expire and are cleared with them.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component(roles = VisitsSummaryStore.class)
+@Singleton
+public class VisitsSummaryStore
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * Stands for the normaliser hint in the keys of the tables, which are not normalised responses.
+     */
+    private static final String TABLE_KEY_HINT = "visitsSummaryTable";
+
+    private static final String METHOD = "method";
+
+    private static final String COLUMNS = "columns";
+
+    private static final String PERIOD = "period";
+
+    private static final String DATE = "date";
+
+    private static final String VISITS_SUMMARY = "VisitsSummary.get";
+
+    /**
+     * The methods returning the whole metric set of the periods.
+     */
+    private static final Map<String, String> TABLE_METHODS = new HashMap<>();
+
+    /**
+     * The methods returning a single metric of {@code VisitsSummary.get}, mapped to that metric.
+     */
+    private static final Map<String, String> METRIC_METHODS = new HashMap<>();
+
+    static {
+        TABLE_METHODS.put(VISITS_SUMMARY, VISITS_SUMMARY);
+        TABLE_METHODS.put("VisitFrequency.get", "VisitFrequency.get");
+        METRIC_METHODS.put("VisitsSummary.getVisits", "nb_visits");
+        METRIC_METHODS.put("VisitsSummary.getUniqueVisitors", "nb_uniq_visitors");
+        METRIC_METHODS.put("VisitsSummary.getUsers", "nb_users");
+        METRIC_METHODS.put("VisitsSummary.getActions", "nb_actions");
+        METRIC_METHODS.put("VisitsSummary.getMaxActions", "max_actions");
+        METRIC_METHODS.put("VisitsSummary.getBounceCount", "bounce_count");
+        METRIC_METHODS.put("VisitsSummary.getVisitsConverted", "nb_visits_converted");
+        METRIC_METHODS.put("VisitsSummary.getSumVisitsLength", "sum_visit_length");
+    }
+
+    @Inject
+    private MatomoRequestExecutor requestExecutor;
+
+    @Inject
+    private MatomoEndpointManager endpointManager;
+
+    @Inject
+    private AnalyticsResponseCache responseCache;
+
+    /**
+     * The tables that are currently requested from Matomo, so that the lines of a graph, which are requested at the
+     * same time, wait for the same table.
+     */
+    private final Map<String, CompletableFuture<VisitsSummaryTable>> inFlightTables = new ConcurrentHashMap<>();
+
+    /**
+     * @param parameters the parameters of a Matomo request
+     * @param jsonNormaliser the normaliser applied on the response
+     * @return {@code true} if the request asks for a single metric of a list of periods, which can be served by
+     *     {@link #request}
+     */
+    public boolean supports(Map<String, String> parameters, JsonNormaliser jsonNormaliser)
+    {
+        if (!(jsonNormaliser instanceof VisitsJsonNormaliser) || getColumn(parameters) == null) {
+            return false;
+        }
+        // The table is indexed by period, so a single period (including a range) can't be served from it.
+        String date = parameters.get(DATE);
+        return !"range".equals(parameters.get(PERIOD)) && date != null
+            && (date.contains(",") || date.startsWith("last") || date.startsWith("previous"));
+    }
+
+    /**
+     * Get the series of the requested metric, fetching the whole metric set of the requested periods if it is not
+     * stored yet.
+     *
+     * @param parameters the parameters of a request supported by this store
+     * @param jsonNormaliser the normaliser that reads the metric set
+     * @return the labels of the periods and the values of the requested metric
+     * @throws IOException if the metric set can't be requested from Matomo
+     */
+    public JsonNode request(Map<String, String> parameters, JsonNormaliser jsonNormaliser) throws IOException
+    {
+        LocalDate today = LocalDate.now();
+        Map<String, String> tableParameters = new TreeMap<>(parameters);
+        tableParameters.remove(COLUMNS);
+        tableParameters.put(METHOD, TABLE_METHODS.getOrDefault(parameters.get(METHOD), VISITS_SUMMARY));
+        AnalyticsRequestKey requestKey = AnalyticsRequestKey.create(this.endpointManager.getCacheScope(),
+            tableParameters, null, TABLE_KEY_HINT, today);
+        String key = requestKey.toString();
+
+        CacheEntry cacheEntry = this.responseCache.lookup(key);
+        if (cacheEntry != null && !cacheEntry.isStale() && cacheEntry.getValue() instanceof POJONode) {
+            VisitsSummaryTable table = (VisitsSummaryTable) ((POJONode) cacheEntry.getValue()).getPojo();
+            return table.getSeries(getColumn(parameters));
+        }
+        CompletableFuture<VisitsSummaryTable> future = new CompletableFuture<>();
+        CompletableFuture<VisitsSummaryTable> inFlightFuture = this.inFlightTables.putIfAbsent(key, future);
+        if (inFlightFuture != null) {
+            return waitFor(inFlightFuture).getSeries(getColumn(parameters));
+        }
+        try {
+            VisitsSummaryTable table = fetch(tableParameters, (VisitsJsonNormaliser) jsonNormaliser);
+            this.responseCache.put(key, JsonNodeFactory.instance.pojoNode(table), requestKey.isClosedPeriod(today));
+            future.complete(table);
+            return table.getSeries(getColumn(parameters));
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.inFlightTables.remove(key, future);
+        }
+    }
+
+    private VisitsSummaryTable fetch(Map<String, String> tableParameters, VisitsJsonNormaliser jsonNormaliser)
+        throws IOException
+    {
+        return this.requestExecutor.execute(tableParameters, inputStream -> {
+            try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(inputStream)) {
+                parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+                return jsonNormaliser.readTable(parser);
+            }
+        });
+    }
+
+    private VisitsSummaryTable waitFor(CompletableFuture<VisitsSummaryTable> future) throws IOException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the Matomo response.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException && !MatomoCallGuard.isTransportFailure((IOException) cause)) {
+                // Keep the kind of error, so that the call guard doesn't count it as a failure.
+                throw new MatomoResponseException(cause.getMessage(), cause);
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private String getColumn(Map<String, String> parameters)
+    {
+        String method = parameters.get(METHOD);
+        if (TABLE_METHODS.containsKey(method)) {
+            String columns = parameters.get(COLUMNS);
+            return columns == null || columns.isEmpty() || columns.contains(",") ? null : columns;
+        }
+        return METRIC_METHODS.get(method);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The metrics returned by Matomo for a list of periods (e.g. by {@code VisitsSummary.get} for each day of a month),
+ * stored by column in primitive arrays indexed by period. Any column can be turned into the series displayed by a
+ * graph, so all the lines of the graphs can be served from a single Matomo response.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public final class VisitsSummaryTable
+{
+    private static final String LABELS = "labels";
+
+    private static final String VALUES = "values";
+
+    private final String[] labels;
+
+    private final Map<String, int[]> integerColumns;
+
+    private final Map<String, double[]> decimalColumns;
+
+    private VisitsSummaryTable(String[] labels, Map<String, int[]> integerColumns, Map<String, double[]> decimalColumns)
+    {
+        this.labels = labels;
+        this.integerColumns = integerColumns;
+        this.decimalColumns = decimalColumns;
+    }
+
+    /**
+     * @return the number of periods
+     */
+    public int size()
+    {
+        return this.labels.length;
+    }
+
+    /**
+     * @param column the name of a metric
+     * @return {@code true} if at least one period has a value for the given metric
+     */
+    public boolean hasColumn(String column)
+    {
+        return this.integerColumns.containsKey(column) || this.decimalColumns.containsKey(column);
+    }
+
+    /**
+     * Get the series of a metric, in the format expected by the graphs.
+     *
+     * @param column the name of the metric
+     * @return the {@code labels} of the periods and the {@code values} of the metric, which are {@code 0} for the
+     *     periods without value
+     */
+    public JsonNode getSeries(String column)
+    {
+        ObjectNode result = JsonNodeFactory.instance.objectNode();
+        ArrayNode labelsNode = result.putArray(LABELS);
+        for (String label : this.labels) {
+            labelsNode.add(label);
+        }
+        ArrayNode valuesNode = result.putArray(VALUES);
+        double[] decimalValues = this.decimalColumns.get(column);
+        if (decimalValues != null) {
+            for (double value : decimalValues) {
+                valuesNode.add(value);
+            }
+        } else {
+            int[] integerValues = this.integerColumns.getOrDefault(column, new int[this.labels.length]);
+            for (int value : integerValues) {
+                valuesNode.add(value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Collects the values of a table period by period.
+     *
+     * @version $Id$
+     * @since 1.1.1
+     */
+    public static final class Builder
+    {
+        private static final int INITIAL_CAPACITY = 32;
+
+        private final List<String> labels = new ArrayList<>();
+
+        private final Map<String, double[]> columns = new LinkedHashMap<>();
+
+        private final Set<String> decimalColumns = new HashSet<>();
+
+        /**
+         * Start a new period, whose values are {@code 0} until they are set.
+         *
+         * @param label the label of the period
+         */
+        public void addPeriod(String label)
+        {
+            this.labels.add(label);
+        }
+
+        /**
+         * Set the value of a metric for the last added period.
+         *
+         * @param column the name of the metric
+         * @param value the value of the metric
+         */
+        public void set(String column, double value)
+        {
+            int index = this.labels.size() - 1;
+            double[] values = this.columns.get(column);
+            if (values == null) {
+                values = new double[Math.max(INITIAL_CAPACITY, this.labels.size())];
+                this.columns.put(column, values);
+            } else if (values.length <= index) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, index + 1));
+                this.columns.put(column, values);
+            }
+            values[index] = value;
+            if (value != Math.rint(value) || Math.abs(value) > Integer.MAX_VALUE) {
+                this.decimalColumns.add(column);
+            }
+        }
+
+        /**
+         * @return the table holding the collected values
+         */
+        public VisitsSummaryTable build()
+        {
+            int size = this.labels.size();
+            Map<String, int[]> integerColumns = new HashMap<>();
+            Map<String, double[]> decimalValues = new HashMap<>();
+            for (Map.Entry<String, double[]> column : this.columns.entrySet()) {
+                double[] values = Arrays.copyOf(column.getValue(), size);
+                if (this.decimalColumns.contains(column.getKey())) {
+                    decimalValues.put(column.getKey(), values);
+                } else {
+                    int[] integerValues = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        integerValues[i] = (int) values[i];
+                    }
+                    integerColumns.put(column.getKey(), integerValues);
+                }
+            }
+            return new VisitsSummaryTable(this.labels.toArray(new String[0]), integerColumns, decimalValues);
+        }
+    }
+}
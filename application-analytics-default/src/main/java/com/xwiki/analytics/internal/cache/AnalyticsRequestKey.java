@@ -0,0 +1,144 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.cache;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Canonical identifier of a request made to Matomo, built from the scope of the request (the wiki and the Matomo
+ * instance), the request parameters, the filters and the hint of the normaliser. The parameters are sorted, the
+ * authentication token is left out and the relative dates are resolved, so that equivalent requests get the same key.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public final class AnalyticsRequestKey
+{
+    private static final String DATE = "date";
+
+    private static final String PERIOD = "period";
+
+    private static final String TOKEN_AUTH = "token_auth";
+
+    private static final char SEPARATOR = '|';
+
+    private final String key;
+
+    private final MatomoDateRange dateRange;
+
+    private AnalyticsRequestKey(String key, MatomoDateRange dateRange)
+    {
+        this.key = key;
+        this.dateRange = dateRange;
+    }
+
+    /**
+     * Build the canonical key of a request.
+     *
+     * @param scope identifies where the data comes from, so that the wikis using different Matomo instances, or the
+     *     same site identifier on different instances, don't share their responses
+     * @param parameters the parameters of the Matomo request
+     * @param filters the filters applied on the response
+     * @param jsonNormaliserHint the hint of the normaliser applied on the response
+     * @param today the current day, used to resolve the relative dates
+     * @return the key of the request
+     */
+    public static AnalyticsRequestKey create(String scope, Map<String, String> parameters,
+        Map<String, String> filters, String jsonNormaliserHint, LocalDate today)
+    {
+        Map<String, String> canonicalParameters = new TreeMap<>(parameters);
+        canonicalParameters.remove(TOKEN_AUTH);
+        MatomoDateRange dateRange =
+            MatomoDateRange.resolve(parameters.get(PERIOD), parameters.get(DATE), today);
+        if (dateRange != null) {
+            canonicalParameters.put(DATE, dateRange.toString());
+        }
+
+        StringBuilder builder = new StringBuilder(encode(scope));
+        builder.append(SEPARATOR).append(jsonNormaliserHint).append(SEPARATOR);
+        append(builder, canonicalParameters);
+        builder.append(SEPARATOR);
+        if (filters != null) {
+            append(builder, new TreeMap<>(filters));
+        }
+        return new AnalyticsRequestKey(builder.toString(), dateRange);
+    }
+
+    /**
+     * @param scopePrefix the beginning of a scope, e.g. the part identifying the wiki
+     * @return the beginning of the keys of all the requests whose scope starts with the given prefix
+     */
+    public static String getKeyPrefix(String scopePrefix)
+    {
+        return encode(scopePrefix);
+    }
+
+    /**
+     * @param today the current day
+     * @return {@code true} if the request targets only periods that ended before the given day, in which case the
+     *     response won't change anymore
+     */
+    public boolean isClosedPeriod(LocalDate today)
+    {
+        return this.dateRange != null && this.dateRange.isClosed(today);
+    }
+
+    /**
+     * @return the interval covered by the request, or {@code null} if it couldn't be resolved
+     */
+    public MatomoDateRange getDateRange()
+    {
+        return this.dateRange;
+    }
+
+    @Override
+    public boolean equals(Object object)
+    {
+        return object instanceof AnalyticsRequestKey && this.key.equals(((AnalyticsRequestKey) object).key);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return this.key.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.key;
+    }
+
+    private static void append(StringBuilder builder, Map<String, String> values)
+    {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            builder.append(encode(entry.getKey())).append('=').append(encode(entry.getValue())).append('&');
+        }
+    }
+
+    private static String encode(String value)
+    {
+        return value == null ? "" : URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+
+/**
+ * Bounded in-memory cache for the normalised Matomo responses. The least recently used entries are evicted by the
+ * underlying XWiki cache when it is full, and each entry expires after a duration that depends on whether the requested
+ * period is closed (the statistics won't change anymore) or includes the current day. An expired entry is still kept
+ * as stale during {@link AnalyticsConfiguration#getStaleCacheDuration()}, so that it can be returned while it is
+ * refreshed. The XWiki caches drop the expired entries and have a single lifespan, which is why the moments when an
+ * entry becomes stale and expires are kept in the entry itself.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component(roles = AnalyticsResponseCache.class)
+@Singleton
+public class AnalyticsResponseCache implements Initializable, Disposable
+{
+    private static final String CACHE_ID = "analytics.responses";
+
+    @Inject
+    private AnalyticsConfiguration configuration;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder staleHits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder expirations = new LongAdder();
+
+    private Cache<CacheEntry> entries;
+
+    private int maxSize;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.maxSize = this.configuration.getResponseCacheSize();
+        if (this.maxSize > 0) {
+            try {
+                this.entries = this.cacheManager.createNewLocalCache(new LRUCacheConfiguration(CACHE_ID, this.maxSize));
+            } catch (CacheException e) {
+                throw new InitializationException("Failed to create the analytics response cache.", e);
+            }
+        }
+    }
+
+    /**
+     * @param key the canonical key of the request
+     * @return the cached response, possibly stale, or {@code null} if there is no cache entry for the given key
+     */
+    public JsonNode get(String key)
+    {
+        CacheEntry entry = lookup(key);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * @param key the canonical key of the request
+     * @return the cache entry, possibly stale, or {@code null} if there is no cache entry for the given key
+     */
+    public CacheEntry lookup(String key)
+    {
+        return lookup(key, false);
+    }
+
+    /**
+     * @param key the canonical key of the request
+     * @param includeExpired {@code true} to return the expired entry instead of removing it, e.g. when Matomo is
+     *     unavailable and an outdated response is better than none
+     * @return the cache entry, possibly stale, or {@code null} if there is no cache entry for the given key
+     */
+    public CacheEntry lookup(String key, boolean includeExpired)
+    {
+        CacheEntry entry = this.entries != null ? this.entries.get(key) : null;
+        if (entry != null && !includeExpired && entry.isExpired()) {
+            this.entries.remove(key);
+            this.expirations.increment();
+            entry = null;
+        }
+        if (entry == null) {
+            this.misses.increment();
+        } else if (entry.isStale()) {
+            this.staleHits.increment();
+        } else {
+            this.hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Cache a normalised response.
+     *
+     * @param key the canonical key of the request
+     * @param value the normalised response
+     * @param closedPeriod {@code true} if the response is for a period that ended, in which case it is kept longer
+     */
+    public void put(String key, JsonNode value, boolean closedPeriod)
+    {
+        if (this.entries == null) {
+            return;
+        }
+        long duration = closedPeriod ? this.configuration.getClosedPeriodCacheDuration()
+            : this.configuration.getCurrentPeriodCacheDuration();
+        long staleTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+        this.entries.set(key, new CacheEntry(value, staleTime,
+            staleTime + TimeUnit.SECONDS.toNanos(Math.max(0, this.configuration.getStaleCacheDuration()))));
+    }
+
+    /**
+     * Remove all the entries from the cache.
+     */
+    public void clear()
+    {
+        if (this.entries != null) {
+            this.entries.removeAll();
+        }
+    }
+
+    /**
+     * @return the cache statistics: the number of hits, stale hits, misses and expirations, and the maximum number of
+     *     entries
+     */
+    public Map<String, Long> getStatistics()
+    {
+        Map<String, Long> statistics = new HashMap<>();
+        statistics.put("hits", this.hits.sum());
+        statistics.put("staleHits", this.staleHits.sum());
+        statistics.put("misses", this.misses.sum());
+        statistics.put("expirations", this.expirations.sum());
+        statistics.put("maxSize", (long) this.maxSize);
+        return statistics;
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.entries != null) {
+            this.entries.dispose();
+        }
+    }
+
+    /**
+     * A cached response, along with the moments when it becomes stale and when it expires.
+     */
+    public static class CacheEntry
+    {
+        private final JsonNode value;
+
+        private final long staleTime;
+
+        private final long expirationTime;
+
+        CacheEntry(JsonNode value, long staleTime, long expirationTime)
+        {
+            this.value = value;
+            this.staleTime = staleTime;
+            this.expirationTime = expirationTime;
+        }
+
+        /**
+         * @return the cached response
+         */
+        public JsonNode getValue()
+        {
+            return this.value;
+        }
+
+        /**
+         * @return {@code true} if the response should be refreshed, {@code false} if it is still fresh
+         */
+        public boolean isStale()
+        {
+            return System.nanoTime() - this.staleTime > 0;
+        }
+
+        boolean isExpired()
+        {
+            return System.nanoTime() - this.expirationTime > 0;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.cache;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * The absolute interval of days covered by the {@code period} and {@code date} parameters of a Matomo request. Relative
+ * dates like {@code today}, {@code yesterday}, {@code last30} or {@code previous7} are resolved against the given day,
+ * so that equivalent requests made on the same day share the same canonical date.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public final class MatomoDateRange
+{
+    private static final String DAY = "day";
+
+    private static final String WEEK = "week";
+
+    private static final String MONTH = "month";
+
+    private static final String YEAR = "year";
+
+    private static final String RANGE = "range";
+
+    private static final String LAST = "last";
+
+    private static final String PREVIOUS = "previous";
+
+    private static final String SEPARATOR = ",";
+
+    private final LocalDate start;
+
+    private final LocalDate end;
+
+    private final boolean multiplePeriods;
+
+    private MatomoDateRange(LocalDate start, LocalDate end, boolean multiplePeriods)
+    {
+        this.start = start;
+        this.end = end;
+        this.multiplePeriods = multiplePeriods;
+    }
+
+    /**
+     * Resolve the interval covered by a Matomo request.
+     *
+     * @param period the Matomo {@code period} parameter ({@code day}, {@code week}, {@code month}, {@code year} or
+     *     {@code range})
+     * @param date the Matomo {@code date} parameter
+     * @param today the current day, used to resolve the relative dates
+     * @return the resolved interval, or {@code null} if the parameters could not be resolved
+     */
+    public static MatomoDateRange resolve(String period, String date, LocalDate today)
+    {
+        if (period == null || date == null) {
+            return null;
+        }
+        try {
+            if (date.startsWith(LAST) || date.startsWith(PREVIOUS)) {
+                return resolveRelative(period, date, today);
+            }
+            String[] bounds = date.split(SEPARATOR);
+            if (bounds.length == 2) {
+                return new MatomoDateRange(getPeriodStart(period, resolveDate(bounds[0], today)),
+                    getPeriodEnd(period, resolveDate(bounds[1], today)), true);
+            } else if (bounds.length == 1 && !RANGE.equals(period)) {
+                LocalDate day = resolveDate(date, today);
+                return new MatomoDateRange(getPeriodStart(period, day), getPeriodEnd(period, day), false);
+            }
+        } catch (DateTimeParseException | NumberFormatException e) {
+            // Unknown format, the request will be handled as if the date couldn't be resolved.
+        }
+        return null;
+    }
+
+    /**
+     * @return the first day of the interval
+     */
+    public LocalDate getStart()
+    {
+        return this.start;
+    }
+
+    /**
+     * @return the last day of the interval
+     */
+    public LocalDate getEnd()
+    {
+        return this.end;
+    }
+
+    /**
+     * Move an interval requested on a given day to another day, keeping its position relative to the day it was
+     * requested on. For instance, the last 7 days requested yesterday become the last 7 days, today.
+     *
+     * @param period the Matomo {@code period} parameter used to resolve this interval
+     * @param from the day when this interval was requested
+     * @param to the day to move the interval to
+     * @return the moved interval, aligned on the requested periods
+     */
+    public MatomoDateRange moveTo(String period, LocalDate from, LocalDate to)
+    {
+        long count = getChronoUnit(period).between(getPeriodStart(period, from), getPeriodStart(period, to));
+        LocalDate movedEnd = getPeriodEnd(period, minus(period, this.end, -count));
+        return new MatomoDateRange(minus(period, this.start, -count), movedEnd, this.multiplePeriods);
+    }
+
+    /**
+     * @param period the Matomo {@code period} parameter used to resolve this interval
+     * @return the interval of the same length that ends right before this one, e.g. the previous month
+     */
+    public MatomoDateRange getPrevious(String period)
+    {
+        long count = Math.max(1, getChronoUnit(period).between(this.start, this.end.plusDays(1)));
+        return new MatomoDateRange(minus(period, this.start, count), this.start.minusDays(1), this.multiplePeriods);
+    }
+
+    /**
+     * @param today the current day
+     * @return {@code true} if the interval ended before the day before the given day, meaning that its statistics
+     *     won't change anymore (see {@link #isClosedDay})
+     */
+    public boolean isClosed(LocalDate today)
+    {
+        return isClosedDay(this.end, today);
+    }
+
+    /**
+     * The current day is taken from the clock of the wiki, while Matomo closes the days in the timezone of the site,
+     * which may be ahead or behind. A day is thus only considered closed one day after it ended, so that the
+     * statistics of a day that is still running in the timezone of the site are not kept as final.
+     *
+     * @param day a day
+     * @param today the current day
+     * @return {@code true} if the statistics of the given day won't change anymore
+     */
+    public static boolean isClosedDay(LocalDate day, LocalDate today)
+    {
+        return day.isBefore(today.minusDays(1));
+    }
+
+    /**
+     * @return the canonical form of the {@code date} parameter, which keeps the distinction between a single period
+     *     and a list of periods since Matomo returns different formats for them
+     */
+    @Override
+    public String toString()
+    {
+        return this.multiplePeriods ? this.start + SEPARATOR + this.end : this.start.toString();
+    }
+
+    private static MatomoDateRange resolveRelative(String period, String date, LocalDate today)
+    {
+        boolean last = date.startsWith(LAST);
+        int count = Integer.parseInt(date.substring(last ? LAST.length() : PREVIOUS.length()));
+        // For the range period, lastN and previousN are expressed in days.
+        String unit = RANGE.equals(period) ? DAY : period;
+        LocalDate currentPeriodStart = getPeriodStart(unit, today);
+        if (last) {
+            return new MatomoDateRange(minus(unit, currentPeriodStart, count - 1L), getPeriodEnd(unit, today), true);
+        } else {
+            return new MatomoDateRange(minus(unit, currentPeriodStart, count), currentPeriodStart.minusDays(1), true);
+        }
+    }
+
+    private static ChronoUnit getChronoUnit(String period)
+    {
+        switch (period) {
+            case WEEK:
+                return ChronoUnit.WEEKS;
+            case MONTH:
+                return ChronoUnit.MONTHS;
+            case YEAR:
+                return ChronoUnit.YEARS;
+            default:
+                return ChronoUnit.DAYS;
+        }
+    }
+
+    private static LocalDate resolveDate(String date, LocalDate today)
+    {
+        switch (date.trim()) {
+            case "today":
+            case "now":
+                return today;
+            case "yesterday":
+                return today.minusDays(1);
+            default:
+                return LocalDate.parse(date.trim());
+        }
+    }
+
+    private static LocalDate getPeriodStart(String period, LocalDate day)
+    {
+        switch (period) {
+            case WEEK:
+                return day.with(DayOfWeek.MONDAY);
+            case MONTH:
+                return day.withDayOfMonth(1);
+            case YEAR:
+                return day.withDayOfYear(1);
+            default:
+                return day;
+        }
+    }
+
+    private static LocalDate getPeriodEnd(String period, LocalDate day)
+    {
+        switch (period) {
+            case WEEK:
+                return day.with(DayOfWeek.SUNDAY);
+            case MONTH:
+                return day.with(TemporalAdjusters.lastDayOfMonth());
+            case YEAR:
+                return day.with(TemporalAdjusters.lastDayOfYear());
+            default:
+                return day;
+        }
+    }
+
+    private static LocalDate minus(String period, LocalDate day, long count)
+    {
+        switch (period) {
+            case WEEK:
+                return day.minusWeeks(count);
+            case MONTH:
+                return day.minusMonths(count);
+            case YEAR:
+                return day.minusYears(count);
+            default:
+                return day.minusDays(count);
+        }
+    }
+}
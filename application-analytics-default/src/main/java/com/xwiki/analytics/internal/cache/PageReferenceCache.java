@@ -0,0 +1,160 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.cache;
+
+import java.util.function.Function;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.EntityReference;
+
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+
+/**
+ * Bounded in-memory cache of the pages resolved from the URLs returned by Matomo, shared by all the requests. The
+ * least recently used entries are evicted when the cache is full, and the entries are removed when a page is deleted
+ * (see {@link PageReferenceCacheListener}).
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component(roles = PageReferenceCache.class)
+@Singleton
+public class PageReferenceCache implements Initializable, Disposable
+{
+    private static final String CACHE_ID = "analytics.pageReferences";
+
+    @Inject
+    private AnalyticsConfiguration configuration;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    private Cache<ResolvedPage> entries;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int maxSize = this.configuration.getPageReferenceCacheSize();
+        if (maxSize > 0) {
+            try {
+                this.entries = this.cacheManager.createNewLocalCache(new LRUCacheConfiguration(CACHE_ID, maxSize));
+            } catch (CacheException e) {
+                throw new InitializationException("Failed to create the analytics page reference cache.", e);
+            }
+        }
+    }
+
+    /**
+     * Get the page resolved from the given URL, resolving it if it isn't cached. The same URL may be resolved
+     * concurrently by several threads, which is harmless.
+     *
+     * @param url the URL of the page
+     * @param resolver the function resolving the page of an URL that is not cached
+     * @return the resolved page
+     */
+    public ResolvedPage get(String url, Function<String, ResolvedPage> resolver)
+    {
+        ResolvedPage resolvedPage = this.entries != null ? this.entries.get(url) : null;
+        if (resolvedPage == null) {
+            resolvedPage = resolver.apply(url);
+            if (this.entries != null) {
+                this.entries.set(url, resolvedPage);
+            }
+        }
+        return resolvedPage;
+    }
+
+    /**
+     * Remove the entries targeting the given page. The cache can't be searched by page, and the pages are rarely
+     * deleted compared to how often the URLs are resolved, so all the entries are removed.
+     *
+     * @param reference the reference of the page
+     */
+    public void invalidate(EntityReference reference)
+    {
+        clear();
+    }
+
+    /**
+     * Remove all the entries from the cache.
+     */
+    public void clear()
+    {
+        if (this.entries != null) {
+            this.entries.removeAll();
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.entries != null) {
+            this.entries.dispose();
+        }
+    }
+
+    /**
+     * A page resolved from an URL.
+     *
+     * @version $Id$
+     */
+    public static final class ResolvedPage
+    {
+        private final EntityReference reference;
+
+        private final String label;
+
+        /**
+         * @param reference the reference of the page, or {@code null} if the URL doesn't target a page
+         * @param label the label displayed for the page
+         */
+        public ResolvedPage(EntityReference reference, String label)
+        {
+            this.reference = reference;
+            this.label = label;
+        }
+
+        /**
+         * @return the reference of the page, or {@code null} if the URL doesn't target a page
+         */
+        public EntityReference getReference()
+        {
+            return this.reference;
+        }
+
+        /**
+         * @return the label displayed for the page
+         */
+        public String getLabel()
+        {
+            return this.label;
+        }
+    }
+}
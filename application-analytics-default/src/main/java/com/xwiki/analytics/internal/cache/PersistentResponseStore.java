@@ -0,0 +1,496 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.environment.Environment;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+
+/**
+ * Persistent store of the normalised Matomo responses for the periods that ended, which never change. The store lives
+ * in the permanent directory of XWiki, so these responses don't have to be requested from Matomo again after a
+ * restart.
+ * <p>
+ * The responses are appended to segment files, which are memory-mapped for reading, and indexed in memory by the
+ * canonical key of their request. The index is rebuilt by reading the segments when the store is initialized. When the
+ * store exceeds {@link AnalyticsConfiguration#getPersistentCacheSize()}, the oldest segment is compacted: the responses
+ * read since the segment was last compacted are appended again to the current segment, the others are evicted, and the
+ * segment is deleted. The responses of a wiki are removed when its configuration changes, by appending a record with an
+ * empty value for each of them, which is also taken into account when the index is rebuilt.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component(roles = PersistentResponseStore.class)
+@Singleton
+public class PersistentResponseStore implements Initializable, Disposable
+{
+    private static final String DIRECTORY = "analytics/responses";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private static final long MAX_SEGMENT_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * The minimum number of segments of a full store, so that a compaction doesn't evict too many responses at once.
+     */
+    private static final int MIN_SEGMENT_COUNT = 4;
+
+    /**
+     * A record starts with the length of the key, the length of the value and the checksum of the value.
+     */
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+    @Inject
+    private AnalyticsConfiguration configuration;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Logger logger;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<String, Location> index = new HashMap<>();
+
+    /**
+     * The segments, from the oldest to the current one, where the responses are appended.
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private File directory;
+
+    private long maxSize;
+
+    private long segmentSize;
+
+    private long size;
+
+    private int nextSegmentId;
+
+    @Override
+    public void initialize()
+    {
+        this.maxSize = this.configuration.getPersistentCacheSize();
+        if (this.maxSize <= 0) {
+            return;
+        }
+        this.segmentSize = Math.max(1, Math.min(MAX_SEGMENT_SIZE, this.maxSize / MIN_SEGMENT_COUNT));
+        this.directory = new File(this.environment.getPermanentDirectory(), DIRECTORY);
+        synchronized (this) {
+            try {
+                load();
+                compact();
+            } catch (IOException e) {
+                this.logger.warn("Failed to load the persistent analytics cache from [{}], it is disabled. "
+                    + "Root cause is: [{}]", this.directory, ExceptionUtils.getRootCauseMessage(e));
+                close();
+                this.maxSize = 0;
+            }
+        }
+    }
+
+    /**
+     * @param key the canonical key of the request
+     * @return the stored response, or {@code null} if there is no response stored for the given key
+     */
+    public JsonNode get(String key)
+    {
+        if (this.maxSize <= 0) {
+            return null;
+        }
+        try {
+            ByteBuffer value;
+            synchronized (this) {
+                Location location = this.index.get(key);
+                if (location == null) {
+                    this.misses.increment();
+                    return null;
+                }
+                location.read = true;
+                value = location.segment.read(location.valueOffset, location.valueLength);
+            }
+            this.hits.increment();
+            // The mapped buffer stays valid even if the segment is deleted meanwhile.
+            return this.objectMapper.readTree(new ByteBufferBackedInputStream(value));
+        } catch (IOException e) {
+            this.logger.warn("Failed to read a persisted analytics response. Root cause is: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+            return null;
+        }
+    }
+
+    /**
+     * Store the response of a request for a period that ended. The response is not stored again if it already is,
+     * since it can't change.
+     *
+     * @param key the canonical key of the request
+     * @param value the normalised response
+     */
+    public void put(String key, JsonNode value)
+    {
+        if (this.maxSize <= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (this.index.containsKey(key)) {
+                return;
+            }
+        }
+        try {
+            byte[] valueBytes = this.objectMapper.writeValueAsBytes(value);
+            synchronized (this) {
+                if (this.maxSize > 0 && !this.index.containsKey(key)) {
+                    append(key, ByteBuffer.wrap(valueBytes));
+                    compact();
+                }
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to persist an analytics response. Root cause is: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    /**
+     * Remove the stored responses whose key starts with the given prefix, e.g. the responses of a wiki whose Matomo
+     * configuration changed.
+     *
+     * @param keyPrefix the beginning of the keys of the responses to remove
+     */
+    public synchronized void invalidate(String keyPrefix)
+    {
+        if (this.maxSize <= 0) {
+            return;
+        }
+        List<String> keys = new ArrayList<>();
+        for (String key : this.index.keySet()) {
+            if (key.startsWith(keyPrefix)) {
+                keys.add(key);
+            }
+        }
+        try {
+            for (String key : keys) {
+                // The removal is stored too, otherwise the response would be loaded again after a restart.
+                append(key, ByteBuffer.allocate(0));
+                this.evictions.increment();
+            }
+            compact();
+        } catch (IOException e) {
+            this.logger.warn("Failed to remove the persisted analytics responses. Root cause is: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    /**
+     * @return the statistics of the persistent cache: the number of hits, misses and evictions, the number of stored
+     *     responses and their size on disk
+     */
+    public synchronized Map<String, Long> getStatistics()
+    {
+        Map<String, Long> statistics = new HashMap<>();
+        statistics.put("persistentHits", this.hits.sum());
+        statistics.put("persistentMisses", this.misses.sum());
+        statistics.put("persistentEvictions", this.evictions.sum());
+        statistics.put("persistentEntries", (long) this.index.size());
+        statistics.put("persistentSize", this.size);
+        statistics.put("persistentMaxSize", this.maxSize);
+        return statistics;
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        close();
+        this.maxSize = 0;
+    }
+
+    private void load() throws IOException
+    {
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Failed to create the directory " + this.directory);
+        }
+        // The segments are sorted by id, which is also the order in which they were written.
+        Map<Integer, File> segmentFiles = new TreeMap<>();
+        File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segmentFiles.put(Integer.parseInt(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+                    } catch (NumberFormatException e) {
+                        // Not a segment.
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Integer, File> segmentFile : segmentFiles.entrySet()) {
+            Segment segment = new Segment(segmentFile.getKey(), segmentFile.getValue());
+            this.segments.add(segment);
+            this.nextSegmentId = segment.id + 1;
+            loadRecords(segment);
+        }
+    }
+
+    private void loadRecords(Segment segment) throws IOException
+    {
+        ByteBuffer buffer = segment.read(0, (int) segment.size);
+        CRC32 checksum = new CRC32();
+        int offset = 0;
+        while (offset + HEADER_SIZE <= buffer.limit()) {
+            int keyLength = buffer.getInt(offset);
+            int valueLength = buffer.getInt(offset + Integer.BYTES);
+            long end = (long) offset + HEADER_SIZE + keyLength + valueLength;
+            if (keyLength < 0 || valueLength < 0 || end > buffer.limit()) {
+                break;
+            }
+            ByteBuffer value = slice(buffer, offset + HEADER_SIZE + keyLength, valueLength);
+            checksum.reset();
+            checksum.update(value);
+            if ((int) checksum.getValue() != buffer.getInt(offset + 2 * Integer.BYTES)) {
+                break;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            slice(buffer, offset + HEADER_SIZE, keyLength).get(keyBytes);
+            // A response stored again replaces the previous one, and an empty value marks its removal.
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            if (valueLength > 0) {
+                this.index.put(key, new Location(segment, offset + HEADER_SIZE + keyLength, valueLength));
+            } else {
+                this.index.remove(key);
+            }
+            offset = (int) end;
+        }
+        if (offset < segment.size) {
+            // The end of the segment wasn't completely written, most probably because XWiki was stopped meanwhile.
+            this.logger.warn("Ignoring the corrupted end of the analytics cache segment [{}].", segment.file);
+            segment.truncate(offset);
+        }
+        this.size += segment.size;
+    }
+
+    private void append(String key, ByteBuffer value) throws IOException
+    {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int recordSize = HEADER_SIZE + keyBytes.length + value.remaining();
+        Segment segment = this.segments.peekLast();
+        if (segment == null || (segment.size > 0 && segment.size + recordSize > this.segmentSize)) {
+            int id = this.nextSegmentId++;
+            segment = new Segment(id, new File(this.directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX));
+            this.segments.add(segment);
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(value.duplicate());
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.putInt(keyBytes.length).putInt(value.remaining()).putInt((int) checksum.getValue());
+        record.put(keyBytes).put(value);
+        record.flip();
+        long offset = segment.append(record);
+        this.size += recordSize;
+        if (recordSize > HEADER_SIZE + keyBytes.length) {
+            this.index.put(key, new Location(segment, offset + HEADER_SIZE + keyBytes.length,
+                recordSize - HEADER_SIZE - keyBytes.length));
+        } else {
+            this.index.remove(key);
+        }
+    }
+
+    /**
+     * Compact the oldest segments until the store fits its maximum size. The current segment is never compacted.
+     */
+    private void compact() throws IOException
+    {
+        while (this.size > this.maxSize && this.segments.size() > 1) {
+            Segment segment = this.segments.removeFirst();
+            List<Map.Entry<String, Location>> readEntries = new ArrayList<>();
+            Iterator<Map.Entry<String, Location>> iterator = this.index.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Location> entry = iterator.next();
+                if (entry.getValue().segment == segment) {
+                    iterator.remove();
+                    if (entry.getValue().read) {
+                        readEntries.add(entry);
+                    } else {
+                        this.evictions.increment();
+                    }
+                }
+            }
+            this.size -= segment.size;
+            // The responses read recently are kept, but they'll be evicted if they are not read again until their new
+            // segment is compacted.
+            for (Map.Entry<String, Location> entry : readEntries) {
+                Location location = entry.getValue();
+                append(entry.getKey(), location.segment.read(location.valueOffset, location.valueLength));
+            }
+            segment.delete();
+        }
+    }
+
+    private void close()
+    {
+        for (Segment segment : this.segments) {
+            segment.close();
+        }
+        this.segments.clear();
+        this.index.clear();
+        this.size = 0;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length)
+    {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.limit(offset + length);
+        return slice.slice();
+    }
+
+    /**
+     * The location of a stored response.
+     */
+    private static final class Location
+    {
+        private final Segment segment;
+
+        private final int valueOffset;
+
+        private final int valueLength;
+
+        /**
+         * Whether the response was read since its segment was last compacted.
+         */
+        private boolean read;
+
+        Location(Segment segment, long valueOffset, int valueLength)
+        {
+            this.segment = segment;
+            this.valueOffset = (int) valueOffset;
+            this.valueLength = valueLength;
+        }
+    }
+
+    /**
+     * A file where the responses are appended.
+     */
+    private final class Segment
+    {
+        private final int id;
+
+        private final File file;
+
+        private final FileChannel channel;
+
+        private long size;
+
+        private MappedByteBuffer mappedBuffer;
+
+        Segment(int id, File file) throws IOException
+        {
+            this.id = id;
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            this.size = this.channel.size();
+        }
+
+        long append(ByteBuffer record) throws IOException
+        {
+            long offset = this.size;
+            long position = offset;
+            while (record.hasRemaining()) {
+                position += this.channel.write(record, position);
+            }
+            this.size = position;
+            return offset;
+        }
+
+        ByteBuffer read(int offset, int length) throws IOException
+        {
+            // The segment is mapped again when it grew since it was last mapped.
+            if (this.mappedBuffer == null || offset + length > this.mappedBuffer.capacity()) {
+                this.mappedBuffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.size);
+            }
+            return slice(this.mappedBuffer, offset, length);
+        }
+
+        void truncate(long newSize) throws IOException
+        {
+            this.channel.truncate(newSize);
+            this.size = newSize;
+            this.mappedBuffer = null;
+        }
+
+        void close()
+        {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close the analytics cache segment [{}].", this.file, e);
+            }
+        }
+
+        void delete()
+        {
+            close();
+            // The file may still be mapped, in which case it is deleted when XWiki is stopped.
+            if (!this.file.delete()) {
+                this.file.deleteOnExit();
+            }
+        }
+    }
+}
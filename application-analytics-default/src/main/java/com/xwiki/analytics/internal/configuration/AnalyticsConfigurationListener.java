@@ -0,0 +1,99 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.configuration;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xwiki.analytics.internal.HttpClientBuilderFactory;
+import com.xwiki.analytics.internal.cache.AnalyticsRequestKey;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache;
+import com.xwiki.analytics.internal.cache.PersistentResponseStore;
+import com.xwiki.analytics.internal.rollup.DailyRollupStore;
+
+/**
+ * Replaces the {@link MatomoEndpoint} of a wiki when its analytics configuration changes, and resets what depends on
+ * the previous Matomo instance: the cached responses, the responses of the wiki stored on disk, the daily reports of
+ * the wiki and the idle connections. The state of the circuit breaker is kept, since it belongs to the Matomo instance,
+ * which may be used by other wikis, and a wiki using another instance gets the state of that instance.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component
+@Named(AnalyticsConfigurationListener.NAME)
+@Singleton
+public class AnalyticsConfigurationListener extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "com.xwiki.analytics.internal.configuration.AnalyticsConfigurationListener";
+
+    @Inject
+    private MatomoEndpointManager endpointManager;
+
+    @Inject
+    private AnalyticsResponseCache responseCache;
+
+    @Inject
+    private PersistentResponseStore persistentStore;
+
+    @Inject
+    private DailyRollupStore rollupStore;
+
+    @Inject
+    private HttpClientBuilderFactory httpClientBuilderFactory;
+
+    /**
+     * Default constructor.
+     */
+    public AnalyticsConfigurationListener()
+    {
+        super(NAME, Arrays.asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent()));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        DocumentReference reference = ((DocumentModelBridge) source).getDocumentReference();
+        if (AnalyticsConfigurationSource.DOCUMENT_REFERENCE.equals(reference.getLocalDocumentReference())) {
+            String wiki = reference.getWikiReference().getName();
+            this.endpointManager.invalidate(wiki);
+            this.responseCache.clear();
+            String keyPrefix = AnalyticsRequestKey.getKeyPrefix(this.endpointManager.getCacheScopePrefix(wiki));
+            this.persistentStore.invalidate(keyPrefix);
+            this.rollupStore.invalidate(keyPrefix);
+            this.httpClientBuilderFactory.closeIdleConnections();
+        }
+    }
+}
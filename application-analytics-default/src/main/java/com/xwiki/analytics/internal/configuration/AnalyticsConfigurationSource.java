@@ -20,7 +20,6 @@
 package com.xwiki.analytics.internal.configuration;
 
 import java.util.Arrays;
-import java.util.List;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -43,13 +42,14 @@ import org.xwiki.stability.Unstable;
 @Unstable
 public class AnalyticsConfigurationSource extends AbstractDocumentConfigurationSource
 {
-    private static final List<String> SPACE_NAMES = Arrays.asList("Analytics", "Code");
-
-    private static final LocalDocumentReference DOCUMENT_REFERENCE =
-        new LocalDocumentReference(SPACE_NAMES, "Configuration");
+    /**
+     * The reference of the configuration document, in each wiki.
+     */
+    public static final LocalDocumentReference DOCUMENT_REFERENCE =
+        new LocalDocumentReference(Arrays.asList("Analytics", "Code"), "Configuration");
 
     private static final LocalDocumentReference CLASS_REFERENCE =
-        new LocalDocumentReference(SPACE_NAMES, "ConfigurationClass");
+        new LocalDocumentReference("ConfigurationClass", DOCUMENT_REFERENCE.getParent());
 
     @Override
     protected DocumentReference getDocumentReference()
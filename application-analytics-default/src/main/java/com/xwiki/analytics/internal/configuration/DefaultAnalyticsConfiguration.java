@@ -32,7 +32,9 @@ import org.xwiki.stability.Unstable;
 import com.xwiki.analytics.configuration.AnalyticsConfiguration;
 
 /**
- * Default implementation of {@link AnalyticsConfiguration}.
+ * Default implementation of {@link AnalyticsConfiguration}. The Matomo connection details are stored in the
+ * {@code Analytics.Code.Configuration} document, while the technical tuning options are read from
+ * {@code xwiki.properties}, using the {@code analytics.} prefix.
  *
  * @version $Id$
  * @since 1.0
@@ -42,10 +44,68 @@ import com.xwiki.analytics.configuration.AnalyticsConfiguration;
 @Unstable
 public class DefaultAnalyticsConfiguration implements AnalyticsConfiguration
 {
+    private static final String PREFIX = "analytics.";
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+    private static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 5000;
+
+    private static final int DEFAULT_SOCKET_TIMEOUT = 30000;
+
+    private static final int DEFAULT_IDLE_CONNECTION_TIMEOUT = 30000;
+
+    private static final int DEFAULT_KEEP_ALIVE_DURATION = 60000;
+
+    private static final long DEFAULT_MAX_RESPONSE_SIZE = 50L * 1024 * 1024;
+
+    private static final int DEFAULT_RESPONSE_CACHE_SIZE = 1000;
+
+    private static final int DEFAULT_CLOSED_PERIOD_CACHE_DURATION = 86400;
+
+    private static final int DEFAULT_CURRENT_PERIOD_CACHE_DURATION = 300;
+
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 20;
+
+    private static final int DEFAULT_REQUESTS_TIMEOUT = 60000;
+
+    private static final long DEFAULT_PERSISTENT_CACHE_SIZE = 256L * 1024 * 1024;
+
+    private static final int DEFAULT_STALE_CACHE_DURATION = 3600;
+
+    private static final int DEFAULT_CACHE_WARMUP_INTERVAL = 3600;
+
+    private static final int DEFAULT_CACHE_WARMUP_SIZE = 100;
+
+    private static final int DEFAULT_CACHE_WARMUP_MAX_CONCURRENT_REQUESTS = 2;
+
+    private static final int DEFAULT_PAGE_REFERENCE_CACHE_SIZE = 10000;
+
+    private static final int DEFAULT_ROLLUP_MAX_DAYS = 366;
+
+    private static final int DEFAULT_REQUEST_DEADLINE = 45000;
+
+    private static final int DEFAULT_MAX_CONCURRENT_MATOMO_CALLS = 20;
+
+    private static final int DEFAULT_BULKHEAD_MAX_WAIT = 1000;
+
+    private static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE = 50;
+
+    private static final int DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS = 20;
+
+    private static final int DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = 30;
+
     @Inject
     @Named("analytics")
     private ConfigurationSource configDocument;
 
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource xwikiProperties;
+
     @Inject
     private Logger logger;
 
@@ -78,4 +138,177 @@ public class DefaultAnalyticsConfiguration implements AnalyticsConfiguration
     {
         return this.configDocument.getProperty("enabled", false);
     }
+
+    @Override
+    public int getMaxConnections()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "http.maxConnections", DEFAULT_MAX_CONNECTIONS);
+    }
+
+    @Override
+    public int getMaxConnectionsPerRoute()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "http.maxConnectionsPerRoute",
+            DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+    }
+
+    @Override
+    public int getConnectTimeout()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "http.connectTimeout", DEFAULT_CONNECT_TIMEOUT);
+    }
+
+    @Override
+    public int getSocketTimeout()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "http.socketTimeout", DEFAULT_SOCKET_TIMEOUT);
+    }
+
+    @Override
+    public int getConnectionRequestTimeout()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "http.connectionRequestTimeout",
+            DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+    }
+
+    @Override
+    public int getIdleConnectionTimeout()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "http.idleConnectionTimeout",
+            DEFAULT_IDLE_CONNECTION_TIMEOUT);
+    }
+
+    @Override
+    public int getKeepAliveDuration()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "http.keepAliveDuration", DEFAULT_KEEP_ALIVE_DURATION);
+    }
+
+    @Override
+    public long getMaxResponseSize()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "http.maxResponseSize", DEFAULT_MAX_RESPONSE_SIZE);
+    }
+
+    @Override
+    public boolean isHttpCompressionEnabled()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "http.compression", true);
+    }
+
+    @Override
+    public int getResponseCacheSize()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "cache.size", DEFAULT_RESPONSE_CACHE_SIZE);
+    }
+
+    @Override
+    public int getClosedPeriodCacheDuration()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "cache.closedPeriodDuration",
+            DEFAULT_CLOSED_PERIOD_CACHE_DURATION);
+    }
+
+    @Override
+    public int getCurrentPeriodCacheDuration()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "cache.currentPeriodDuration",
+            DEFAULT_CURRENT_PERIOD_CACHE_DURATION);
+    }
+
+    @Override
+    public long getPersistentCacheSize()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "cache.persistentSize", DEFAULT_PERSISTENT_CACHE_SIZE);
+    }
+
+    @Override
+    public int getStaleCacheDuration()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "cache.staleDuration", DEFAULT_STALE_CACHE_DURATION);
+    }
+
+    @Override
+    public int getCacheWarmupInterval()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "cache.warmup.interval", DEFAULT_CACHE_WARMUP_INTERVAL);
+    }
+
+    @Override
+    public int getCacheWarmupSize()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "cache.warmup.size", DEFAULT_CACHE_WARMUP_SIZE);
+    }
+
+    @Override
+    public int getCacheWarmupMaxConcurrentRequests()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "cache.warmup.maxConcurrentRequests",
+            DEFAULT_CACHE_WARMUP_MAX_CONCURRENT_REQUESTS);
+    }
+
+    @Override
+    public int getPageReferenceCacheSize()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "cache.pageReferenceSize", DEFAULT_PAGE_REFERENCE_CACHE_SIZE);
+    }
+
+    @Override
+    public int getRollupMaxDays()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "rollup.maxDays", DEFAULT_ROLLUP_MAX_DAYS);
+    }
+
+    @Override
+    public int getMaxConcurrentRequests()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "async.maxConcurrentRequests",
+            DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    @Override
+    public int getRequestsTimeout()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "async.timeout", DEFAULT_REQUESTS_TIMEOUT);
+    }
+
+    @Override
+    public int getRequestDeadline()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "http.requestDeadline", DEFAULT_REQUEST_DEADLINE);
+    }
+
+    @Override
+    public int getMaxConcurrentMatomoCalls()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "bulkhead.maxConcurrentCalls",
+            DEFAULT_MAX_CONCURRENT_MATOMO_CALLS);
+    }
+
+    @Override
+    public int getBulkheadMaxWait()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "bulkhead.maxWait", DEFAULT_BULKHEAD_MAX_WAIT);
+    }
+
+    @Override
+    public int getCircuitBreakerFailureRate()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "circuitBreaker.failureRate",
+            DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE);
+    }
+
+    @Override
+    public int getCircuitBreakerMinimumCalls()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "circuitBreaker.minimumCalls",
+            DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS);
+    }
+
+    @Override
+    public int getCircuitBreakerOpenDuration()
+    {
+        return this.xwikiProperties.getProperty(PREFIX + "circuitBreaker.openDuration",
+            DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION);
+    }
 }
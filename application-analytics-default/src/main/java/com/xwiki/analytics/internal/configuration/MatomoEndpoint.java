@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.configuration;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.ws.rs.core.UriBuilder;
+
+/**
+ * An immutable snapshot of the Matomo connection details of a wiki, with the request URI prefix computed once, so that
+ * building the URI of a request only appends its encoded parameters.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public final class MatomoEndpoint
+{
+    private static final String ID_SITE = "idSite";
+
+    private static final String TOKEN_AUTH = "token_auth";
+
+    private final String idSite;
+
+    private final String authenticationToken;
+
+    private final URI baseURI;
+
+    /**
+     * The base URI followed by the site and authentication parameters, already encoded.
+     */
+    private final String requestPrefix;
+
+    /**
+     * @param requestAddress the address of the Matomo instance
+     * @param idSite the id of the Matomo site
+     * @param authenticationToken the Matomo authentication token
+     * @throws IllegalArgumentException if the request address is not a valid URI
+     */
+    public MatomoEndpoint(String requestAddress, String idSite, String authenticationToken)
+    {
+        this.idSite = idSite;
+        this.authenticationToken = authenticationToken;
+        this.baseURI = UriBuilder.fromUri(requestAddress).path("index.php").build();
+        this.requestPrefix = this.baseURI + "?" + ID_SITE + '=' + encode(idSite) + '&' + TOKEN_AUTH + '='
+            + encode(authenticationToken);
+    }
+
+    /**
+     * @return the id of the Matomo site
+     */
+    public String getIdSite()
+    {
+        return this.idSite;
+    }
+
+    /**
+     * @return the Matomo authentication token
+     */
+    public String getAuthenticationToken()
+    {
+        return this.authenticationToken;
+    }
+
+    /**
+     * @return the URI of the Matomo API, without any parameter
+     */
+    public URI getBaseURI()
+    {
+        return this.baseURI;
+    }
+
+    /**
+     * Build the URI of a request to the Matomo API. The site and the authentication parameters are always the ones of
+     * this endpoint.
+     *
+     * @param parameters the request parameters
+     * @return the request URI
+     */
+    public URI buildURI(Map<String, String> parameters)
+    {
+        StringBuilder uri = new StringBuilder(this.requestPrefix);
+        for (Map.Entry<String, String> entry : parameters.entrySet()) {
+            if (!ID_SITE.equals(entry.getKey()) && !TOKEN_AUTH.equals(entry.getKey())) {
+                uri.append('&').append(encode(entry.getKey())).append('=').append(encode(entry.getValue()));
+            }
+        }
+        return URI.create(uri.toString());
+    }
+
+    private static String encode(String value)
+    {
+        return value == null ? "" : URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.configuration;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.EntityReference;
+
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+
+/**
+ * Holds the {@link MatomoEndpoint} of each wiki, read from the configuration the first time it is needed and replaced
+ * when the configuration is updated, instead of reading the configuration and parsing the Matomo address for each
+ * request.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component(roles = MatomoEndpointManager.class)
+@Singleton
+public class MatomoEndpointManager
+{
+    @Inject
+    private AnalyticsConfiguration configuration;
+
+    @Inject
+    private ModelContext modelContext;
+
+    private final Map<String, MatomoEndpoint> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * @return the Matomo endpoint configured for the current wiki
+     * @throws IllegalArgumentException if the configured Matomo address is not a valid URI
+     */
+    public MatomoEndpoint getEndpoint()
+    {
+        // The endpoint is created while holding the lock of its entry, so that an invalidation made meanwhile waits
+        // for it instead of being lost.
+        return this.endpoints.computeIfAbsent(getCurrentWiki(),
+            wiki -> new MatomoEndpoint(this.configuration.getRequestAddress(), this.configuration.getIdSite(),
+                this.configuration.getAuthenticationToken()));
+    }
+
+    /**
+     * @return the scope of the responses requested for the current wiki, made of the wiki and of the address of the
+     *     Matomo instance, so that the cached responses are never shared between wikis and are not reused after the
+     *     Matomo address changed
+     */
+    public String getCacheScope()
+    {
+        return getCacheScopePrefix(getCurrentWiki()) + getEndpoint().getBaseURI();
+    }
+
+    /**
+     * @param wiki the identifier of a wiki
+     * @return the beginning of the scopes of the responses requested for the given wiki, whatever its Matomo instance
+     */
+    public String getCacheScopePrefix(String wiki)
+    {
+        return wiki + '@';
+    }
+
+    /**
+     * Forget the endpoint of a wiki, so that it is created again from the configuration when it is needed.
+     *
+     * @param wiki the identifier of the wiki whose configuration changed
+     */
+    public void invalidate(String wiki)
+    {
+        this.endpoints.remove(wiki);
+    }
+
+    private String getCurrentWiki()
+    {
+        EntityReference currentReference = this.modelContext.getCurrentEntityReference();
+        EntityReference wikiReference =
+            currentReference != null ? currentReference.extractReference(EntityType.WIKI) : null;
+        return wikiReference != null ? wikiReference.getName() : "";
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.filter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A filter compiled from the filters of a request, applied on each row of a Matomo report.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@FunctionalInterface
+public interface RowFilter
+{
+    /**
+     * The filter accepting all the rows.
+     */
+    RowFilter ALL = row -> true;
+
+    /**
+     * @param row a row of a Matomo report
+     * @return {@code true} if the row matches the filter, {@code false} otherwise
+     */
+    boolean matches(JsonNode row);
+}
@@ -0,0 +1,314 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Compiles the filters of a request into a {@link RowFilter}, once per request instead of once per row. Each filter
+ * maps a column to a value, optionally prefixed by an operator:
+ * <ul>
+ * <li>{@code >n}, {@code >=n}, {@code <n}, {@code <=n}: numeric comparison, e.g. {@code >100} for {@code nb_hits}</li>
+ * <li>{@code n..m}: the numeric value is between {@code n} and {@code m}, inclusive</li>
+ * <li>{@code =text}: the value is exactly {@code text}</li>
+ * <li>{@code ^text}: the value starts with {@code text}, ignoring the case</li>
+ * <li>{@code ~text}: the value contains {@code text}, ignoring the case</li>
+ * </ul>
+ * A value without operator, or with a numeric operator followed by something else than a number, matches the rows
+ * containing it. The numbers are read without allocations, including the percentages returned as text by Matomo (e.g.
+ * {@code 45%}). The filters identifying a specific row (e.g. for the row evolution) can instead be compiled into exact
+ * matches, without operators, whose value may list several alternatives separated by
+ * {@link #ALTERNATIVE_SEPARATOR} (e.g. to compare several rows).
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public final class RowFilters
+{
+    /**
+     * Separates the alternative values of an exact match filter. The labels returned by Matomo never contain it.
+     */
+    public static final String ALTERNATIVE_SEPARATOR = "\n";
+
+    private static final String GREATER_OR_EQUAL = ">=";
+
+    private static final String LESS_OR_EQUAL = "<=";
+
+    private static final String BETWEEN = "..";
+
+    private static final char GREATER = '>';
+
+    private static final char LESS = '<';
+
+    private static final char EQUALS = '=';
+
+    private static final char PREFIX = '^';
+
+    private static final char CONTAINS_IGNORE_CASE = '~';
+
+    private static final char PERCENT = '%';
+
+    private static final int RADIX = 10;
+
+    /**
+     * The characters having a special meaning in the PCRE regular expressions used by Matomo. The delimiter of the
+     * patterns is escaped by Matomo itself.
+     */
+    private static final String REGEX_SPECIAL_CHARACTERS = "\\^$.|?*+()[]{}";
+
+    private RowFilters()
+    {
+    }
+
+    /**
+     * Compile the given filters into a filter matching the rows that match all of them.
+     *
+     * @param filters the filters, mapping a column to a value, possibly prefixed by an operator
+     * @param exactMatch {@code true} if the values need to be matched exactly, without operators, {@code false} if
+     *     the operators are applied
+     * @return the compiled filter
+     */
+    public static RowFilter compile(Map<String, String> filters, boolean exactMatch)
+    {
+        if (filters == null || filters.isEmpty()) {
+            return RowFilter.ALL;
+        }
+        List<RowFilter> columnFilters = new ArrayList<>(filters.size());
+        for (Map.Entry<String, String> entry : filters.entrySet()) {
+            String column = entry.getKey();
+            String value = entry.getValue();
+            columnFilters.add(exactMatch ? compileExactMatch(column, value) : compile(column, value));
+        }
+        if (columnFilters.size() == 1) {
+            return columnFilters.get(0);
+        }
+        RowFilter[] compiledFilters = columnFilters.toArray(new RowFilter[0]);
+        return row -> {
+            for (RowFilter columnFilter : compiledFilters) {
+                if (!columnFilter.matches(row)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Translate a filter value into a Matomo {@code filter_pattern} regular expression. Matomo matches the patterns
+     * ignoring the case, so the rows it returns are a superset of the rows matching the filter, which still needs to be
+     * applied on them.
+     *
+     * @param value the filter value, possibly prefixed by an operator
+     * @param exactMatch {@code true} if the value needs to be matched exactly, without operators
+     * @return the regular expression, or {@code null} if the filter can't be translated (e.g. numeric filters)
+     */
+    public static String toMatomoPattern(String value, boolean exactMatch)
+    {
+        if (exactMatch) {
+            String[] alternatives = value.split(ALTERNATIVE_SEPARATOR, -1);
+            if (alternatives.length == 1) {
+                return PREFIX + quote(value) + '$';
+            }
+            StringBuilder pattern = new StringBuilder().append(PREFIX).append('(');
+            for (int i = 0; i < alternatives.length; i++) {
+                pattern.append(i > 0 ? "|" : "").append(quote(alternatives[i]));
+            }
+            return pattern.append(")$").toString();
+        } else if (compileNumericFilter(null, value) != null) {
+            return null;
+        }
+        char operator = value.isEmpty() ? 0 : value.charAt(0);
+        String operand = value.isEmpty() ? value : value.substring(1);
+        if (operator == EQUALS) {
+            return PREFIX + quote(operand) + '$';
+        } else if (operator == PREFIX) {
+            return PREFIX + quote(operand);
+        } else if (operator == CONTAINS_IGNORE_CASE) {
+            return quote(operand);
+        } else {
+            return quote(value);
+        }
+    }
+
+    private static String quote(String text)
+    {
+        StringBuilder pattern = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char character = text.charAt(i);
+            if (REGEX_SPECIAL_CHARACTERS.indexOf(character) >= 0) {
+                pattern.append('\\');
+            }
+            pattern.append(character);
+        }
+        return pattern.toString();
+    }
+
+    private static RowFilter compileExactMatch(String column, String value)
+    {
+        if (!value.contains(ALTERNATIVE_SEPARATOR)) {
+            return textFilter(column, value::equals);
+        }
+        Set<String> alternatives = new HashSet<>(Arrays.asList(value.split(ALTERNATIVE_SEPARATOR, -1)));
+        return textFilter(column, alternatives::contains);
+    }
+
+    private static RowFilter compile(String column, String value)
+    {
+        RowFilter numericFilter = compileNumericFilter(column, value);
+        if (numericFilter != null) {
+            return numericFilter;
+        }
+        char operator = value.isEmpty() ? 0 : value.charAt(0);
+        String operand = value.isEmpty() ? value : value.substring(1);
+        if (operator == EQUALS) {
+            return textFilter(column, operand::equals);
+        } else if (operator == PREFIX) {
+            return textFilter(column, text -> text.regionMatches(true, 0, operand, 0, operand.length()));
+        } else if (operator == CONTAINS_IGNORE_CASE) {
+            return textFilter(column, text -> containsIgnoreCase(text, operand));
+        } else {
+            return textFilter(column, text -> text.contains(value));
+        }
+    }
+
+    private static RowFilter compileNumericFilter(String column, String value)
+    {
+        double min = Double.NEGATIVE_INFINITY;
+        double max = Double.POSITIVE_INFINITY;
+        boolean minInclusive = true;
+        boolean maxInclusive = true;
+        int betweenIndex = value.indexOf(BETWEEN);
+        if (value.startsWith(GREATER_OR_EQUAL)) {
+            min = parseNumber(value, 2, value.length());
+        } else if (value.startsWith(LESS_OR_EQUAL)) {
+            max = parseNumber(value, 2, value.length());
+        } else if (!value.isEmpty() && value.charAt(0) == GREATER) {
+            min = parseNumber(value, 1, value.length());
+            minInclusive = false;
+        } else if (!value.isEmpty() && value.charAt(0) == LESS) {
+            max = parseNumber(value, 1, value.length());
+            maxInclusive = false;
+        } else if (betweenIndex > 0) {
+            min = parseNumber(value, 0, betweenIndex);
+            max = parseNumber(value, betweenIndex + BETWEEN.length(), value.length());
+        } else {
+            return null;
+        }
+        if (Double.isNaN(min) || Double.isNaN(max)) {
+            return null;
+        }
+        return numberFilter(column, min, minInclusive, max, maxInclusive);
+    }
+
+    private static RowFilter numberFilter(String column, double min, boolean minInclusive, double max,
+        boolean maxInclusive)
+    {
+        return row -> {
+            double number = getNumber(row.get(column));
+            return !Double.isNaN(number) && (minInclusive ? number >= min : number > min)
+                && (maxInclusive ? number <= max : number < max);
+        };
+    }
+
+    private static RowFilter textFilter(String column, Predicate<String> predicate)
+    {
+        return row -> {
+            JsonNode node = row.get(column);
+            // The text of the textual nodes is returned without allocation.
+            return node != null && predicate.test(node.asText());
+        };
+    }
+
+    private static double getNumber(JsonNode node)
+    {
+        if (node == null) {
+            return Double.NaN;
+        } else if (node.isNumber()) {
+            return node.doubleValue();
+        } else if (node.isTextual()) {
+            String text = node.textValue();
+            int end = text.length();
+            if (end > 0 && text.charAt(end - 1) == PERCENT) {
+                end--;
+            }
+            return parseNumber(text, 0, end);
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Parse a decimal number without allocating a string, e.g. {@code -12.5}.
+     *
+     * @return the parsed number, or {@link Double#NaN} if the text is not a decimal number
+     */
+    private static double parseNumber(String text, int start, int end)
+    {
+        int index = start;
+        boolean negative = index < end && text.charAt(index) == '-';
+        if (negative) {
+            index++;
+        }
+        if (index == end) {
+            return Double.NaN;
+        }
+        double number = 0;
+        double scale = 0;
+        boolean hasDigits = false;
+        for (; index < end; index++) {
+            char character = text.charAt(index);
+            int digit = Character.digit(character, RADIX);
+            if (digit >= 0) {
+                hasDigits = true;
+                if (scale == 0) {
+                    number = number * RADIX + digit;
+                } else {
+                    number += digit / scale;
+                    scale *= RADIX;
+                }
+            } else if (character == '.' && scale == 0) {
+                scale = RADIX;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (!hasDigits) {
+            return Double.NaN;
+        }
+        return negative ? -number : number;
+    }
+
+    private static boolean containsIgnoreCase(String text, String part)
+    {
+        for (int i = 0; i <= text.length() - part.length(); i++) {
+            if (text.regionMatches(true, i, part, 0, part.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.livedata;
+
+import java.time.Duration;
+import java.util.Locale;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A column of an analytics table, mapped to a field of the normalised Matomo rows.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public final class AnalyticsColumn
+{
+    /**
+     * How the values of a column are displayed and compared.
+     */
+    public enum Type
+    {
+        /** A text, sorted ignoring the case. */
+        TEXT,
+
+        /** A number. */
+        NUMBER,
+
+        /** A percentage, which Matomo may return as a text like {@code 42%}. */
+        PERCENT,
+
+        /** A number of seconds, displayed as {@code days:hours:minutes:seconds}, which can't be filtered. */
+        DURATION,
+
+        /** The title of a page, displayed as a link to the page. */
+        PAGE,
+
+        /** The button opening the evolution of the row over time, which can't be sorted or filtered. */
+        ROW_EVOLUTION
+    }
+
+    private static final String PERCENT_SIGN = "%";
+
+    private final String id;
+
+    private final String field;
+
+    private final Type type;
+
+    /**
+     * @param id the identifier of the live data property
+     * @param field the field of the normalised rows holding the value of the column
+     * @param type how the values are displayed and compared
+     */
+    public AnalyticsColumn(String id, String field, Type type)
+    {
+        this.id = id;
+        this.field = field;
+        this.type = type;
+    }
+
+    /**
+     * @return the identifier of the live data property
+     */
+    public String getId()
+    {
+        return this.id;
+    }
+
+    /**
+     * @return the field of the normalised rows holding the value of the column
+     */
+    public String getField()
+    {
+        return this.field;
+    }
+
+    /**
+     * @return how the values are displayed and compared
+     */
+    public Type getType()
+    {
+        return this.type;
+    }
+
+    /**
+     * @return {@code true} if the values of this column are numbers
+     */
+    public boolean isNumeric()
+    {
+        return this.type == Type.NUMBER || this.type == Type.PERCENT || this.type == Type.DURATION;
+    }
+
+    /**
+     * @return {@code true} if the rows can be sorted on this column
+     */
+    public boolean isSortable()
+    {
+        return this.type != Type.ROW_EVOLUTION;
+    }
+
+    /**
+     * @return {@code true} if the rows can be filtered on this column. The durations can't be filtered, since they are
+     *     displayed as {@code days:hours:minutes:seconds} while the filters are applied on the number of seconds.
+     */
+    public boolean isFilterable()
+    {
+        return this.type != Type.ROW_EVOLUTION && this.type != Type.DURATION;
+    }
+
+    /**
+     * @param row a normalised row
+     * @return the value used to sort the row on this column, or {@code null} if the row has no value for it
+     */
+    public Comparable<?> getSortKey(JsonNode row)
+    {
+        JsonNode value = row.get(this.field);
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        return isNumeric() ? getNumber(value) : value.asText().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param row a normalised row
+     * @return the text displayed for the row in this column, before any HTML formatting
+     */
+    public String getText(JsonNode row)
+    {
+        JsonNode value = row.path(this.field);
+        switch (this.type) {
+            case DURATION:
+                Duration duration = Duration.ofSeconds(value.asLong());
+                return String.format("%d:%02d:%02d:%02d", duration.toDays(), duration.toHoursPart(),
+                    duration.toMinutesPart(), duration.toSecondsPart());
+            case PERCENT:
+                String text = value.asText();
+                return value.isNumber() && !text.endsWith(PERCENT_SIGN) ? text + PERCENT_SIGN : text;
+            default:
+                return value.asText();
+        }
+    }
+
+    private static Double getNumber(JsonNode value)
+    {
+        if (value.isNumber()) {
+            return value.asDouble();
+        }
+        String text = value.asText().trim();
+        if (text.endsWith(PERCENT_SIGN)) {
+            text = text.substring(0, text.length() - 1).trim();
+        }
+        try {
+            return Double.valueOf(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.livedata;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.InstantiationStrategy;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.icon.IconException;
+import org.xwiki.icon.IconManager;
+import org.xwiki.livedata.LiveData;
+import org.xwiki.livedata.LiveDataEntryStore;
+import org.xwiki.livedata.LiveDataException;
+import org.xwiki.livedata.LiveDataQuery;
+import org.xwiki.livedata.WithParameters;
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.xml.XMLUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.xwiki.analytics.AnalyticsManager;
+
+/**
+ * Provides the rows of the analytics table selected by the {@code table} source parameter. The whole report is
+ * requested, so that it is normalised and cached once for all the sort orders and pages, then the rows are sorted and
+ * paged in memory. Only the rows of the requested page are sorted completely and formatted, so the cost of displaying
+ * a page depends on the page size rather than on the size of the report. The rows are available to the users that can
+ * view the pages that display them, like with the analytics REST resource.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component
+@Named(AnalyticsLiveDataSource.HINT)
+@InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
+public class AnalyticsLiveDataEntryStore extends WithParameters implements LiveDataEntryStore
+{
+    private static final String PERIOD = "period";
+
+    private static final String DATE = "date";
+
+    private static final String URL = "url";
+
+    private static final String CONTAINS = "~";
+
+    private static final String[] HTTP_SCHEMES = {"http://", "https://"};
+
+    private static final Map<String, String> OPERATORS =
+        Map.of("equals", "=", "startsWith", "^", "contains", CONTAINS, "less", "<", "greater", ">");
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    @Named("Matomo")
+    private AnalyticsManager analyticsManager;
+
+    @Inject
+    private AnalyticsTableRegistry tableRegistry;
+
+    @Inject
+    private IconManager iconManager;
+
+    @Inject
+    private ContextualLocalizationManager localization;
+
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    @Inject
+    private ModelContext modelContext;
+
+    @Override
+    public Optional<Map<String, Object>> get(Object entryId)
+    {
+        // The rows of a report can't be retrieved individually.
+        return Optional.empty();
+    }
+
+    @Override
+    public LiveData get(LiveDataQuery query) throws LiveDataException
+    {
+        checkAccess();
+        AnalyticsTable table = this.tableRegistry.getTable(getParameters());
+        Map<String, String> parameters = new HashMap<>(table.getParameters());
+        parameters.put(PERIOD, getParameter(PERIOD));
+        parameters.put(DATE, getParameter(DATE));
+        Map<String, String> filters = new HashMap<>(table.getFilters());
+        filters.putAll(getFilters(table, query));
+
+        JsonNode rows;
+        try {
+            rows = this.analyticsManager.requestData(parameters, filters, table.getNormaliserHint());
+        } catch (IOException | RuntimeException e) {
+            throw new LiveDataException(String.format("Failed to get the rows of the [%s] table.", table.getId()), e);
+        }
+
+        LiveData liveData = new LiveData();
+        if (rows == null || !rows.isArray()) {
+            return liveData;
+        }
+        liveData.setCount(rows.size());
+        long offset = query.getOffset() != null ? query.getOffset() : 0;
+        int limit = query.getLimit() != null ? query.getLimit() : -1;
+        List<JsonNode> page = selectPage(rows, getComparator(table, query), offset, limit);
+        RowFormatter rowFormatter = new RowFormatter();
+        for (JsonNode row : page) {
+            liveData.getEntries().add(rowFormatter.format(table, row));
+        }
+        return liveData;
+    }
+
+    /**
+     * Select a page of the sorted rows. When the page is close to the start, only the rows up to the end of the page
+     * are kept in a bounded heap while the rows are read, instead of sorting all the rows.
+     *
+     * @param rows the rows to sort
+     * @param comparator the sort order, or {@code null} to keep the order of the rows
+     * @param offset the index of the first row of the page
+     * @param limit the maximum number of rows of the page, or a negative value to get all the rows after the offset
+     * @return the rows of the page, sorted
+     */
+    static List<JsonNode> selectPage(JsonNode rows, Comparator<JsonNode> comparator, long offset, int limit)
+    {
+        int size = rows.size();
+        int start = (int) Math.min(Math.max(offset, 0), size);
+        int end = limit < 0 ? size : (int) Math.min((long) start + limit, size);
+        List<IndexedRow> selectedRows = new ArrayList<>();
+        if (comparator == null) {
+            for (int i = start; i < end; i++) {
+                selectedRows.add(new IndexedRow(i, rows.get(i)));
+            }
+            return getRows(selectedRows);
+        }
+
+        // The index makes the order total, so that the pages don't overlap when several rows have the same value.
+        Comparator<IndexedRow> order =
+            Comparator.comparing((IndexedRow indexedRow) -> indexedRow.row, comparator)
+                .thenComparingInt(indexedRow -> indexedRow.index);
+        if (end < size) {
+            PriorityQueue<IndexedRow> topRows = new PriorityQueue<>(end + 1, order.reversed());
+            for (int i = 0; i < size; i++) {
+                topRows.offer(new IndexedRow(i, rows.get(i)));
+                if (topRows.size() > end) {
+                    topRows.poll();
+                }
+            }
+            selectedRows.addAll(topRows);
+        } else {
+            for (int i = 0; i < size; i++) {
+                selectedRows.add(new IndexedRow(i, rows.get(i)));
+            }
+        }
+        selectedRows.sort(order);
+        return getRows(selectedRows.subList(Math.min(start, selectedRows.size()), selectedRows.size()));
+    }
+
+    private static List<JsonNode> getRows(List<IndexedRow> indexedRows)
+    {
+        List<JsonNode> rows = new ArrayList<>(indexedRows.size());
+        for (IndexedRow indexedRow : indexedRows) {
+            rows.add(indexedRow.row);
+        }
+        return rows;
+    }
+
+    private static Comparator<JsonNode> getComparator(AnalyticsTable table, LiveDataQuery query)
+    {
+        if (query.getSort() == null || query.getSort().isEmpty()) {
+            return null;
+        }
+        LiveDataQuery.SortEntry sortEntry = query.getSort().get(0);
+        AnalyticsColumn column = table.getColumn(sortEntry.getProperty());
+        if (column == null || !column.isSortable()) {
+            return null;
+        }
+        Comparator<Comparable<?>> keyOrder = AnalyticsLiveDataEntryStore::compareKeys;
+        if (sortEntry.isDescending()) {
+            keyOrder = keyOrder.reversed();
+        }
+        // The rows without a value for the column are displayed last, whatever the sort direction.
+        return Comparator.comparing(column::getSortKey, Comparator.nullsLast(keyOrder));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareKeys(Comparable<?> key, Comparable<?> otherKey)
+    {
+        return ((Comparable<Object>) key).compareTo(otherKey);
+    }
+
+    private static Map<String, String> getFilters(AnalyticsTable table, LiveDataQuery query)
+    {
+        Map<String, String> filters = new HashMap<>();
+        if (query.getFilters() == null) {
+            return filters;
+        }
+        for (LiveDataQuery.Filter filter : query.getFilters()) {
+            AnalyticsColumn column = table.getColumn(filter.getProperty());
+            if (column == null || !column.isFilterable() || filter.getConstraints().isEmpty()) {
+                continue;
+            }
+            // The normalisers support a single criteria for each field.
+            LiveDataQuery.Constraint constraint = filter.getConstraints().get(0);
+            String value = constraint.getValue() != null ? constraint.getValue().toString() : "";
+            if (!value.isEmpty()) {
+                filters.put(column.getField(), OPERATORS.getOrDefault(constraint.getOperator(), CONTAINS) + value);
+            }
+        }
+        return filters;
+    }
+
+    private void checkAccess() throws LiveDataException
+    {
+        EntityReference currentReference = this.modelContext.getCurrentEntityReference();
+        EntityReference wikiReference =
+            currentReference != null ? currentReference.extractReference(EntityType.WIKI) : null;
+        if (wikiReference == null || !this.authorization.hasAccess(Right.VIEW,
+            new SpaceReference(wikiReference.getName(), "Analytics", "Code")))
+        {
+            throw new LiveDataException("You are not allowed to view the analytics data.");
+        }
+    }
+
+    private String getParameter(String name)
+    {
+        Object value = getParameters().get(name);
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * A row and its position in the report.
+     */
+    private static final class IndexedRow
+    {
+        private final int index;
+
+        private final JsonNode row;
+
+        IndexedRow(int index, JsonNode row)
+        {
+            this.index = index;
+            this.row = row;
+        }
+    }
+
+    /**
+     * Formats the rows of a page as HTML, like the Velocity macros used by the analytics tables did. The icon and the
+     * translations are rendered once for the whole page.
+     */
+    private final class RowFormatter
+    {
+        private final String unknownPageTitle =
+            XMLUtils.escape(localization.getTranslationPlain("analytics.extension.warning.message.others"));
+
+        private final String rowEvolutionTitle =
+            XMLUtils.escape(localization.getTranslationPlain("analytics.livedata.action.rowEvolution.title"));
+
+        private final String rowEvolutionIcon = renderIcon("eye");
+
+        Map<String, Object> format(AnalyticsTable table, JsonNode row)
+        {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            for (AnalyticsColumn column : table.getColumns()) {
+                String text = XMLUtils.escape(column.getText(row));
+                switch (column.getType()) {
+                    case PAGE:
+                        entry.put(column.getId(), formatPage(text, row.get(URL)));
+                        break;
+                    case ROW_EVOLUTION:
+                        entry.put(column.getId(), formatRowEvolution(text));
+                        break;
+                    default:
+                        entry.put(column.getId(), text);
+                }
+            }
+            return entry;
+        }
+
+        private String formatPage(String title, JsonNode url)
+        {
+            if (url == null || url.isNull()) {
+                return String.format("<div title=\"%s\">%s</div>", this.unknownPageTitle, title);
+            }
+            // The URLs are recorded from the visits, so only the web pages are linked, to prevent the execution of a
+            // javascript: URL.
+            String href = url.asText();
+            if (!StringUtils.startsWithAny(href.toLowerCase(Locale.ROOT), HTTP_SCHEMES)) {
+                return title;
+            }
+            return String.format("<a href=\"%s\">%s</a>", XMLUtils.escape(href), title);
+        }
+
+        private String formatRowEvolution(String rowIdentifier)
+        {
+            return String.format("<div class=\"analyticsActions\"><div class=\"analyticsRowEvolution\" "
+                + "data-row-identifier=\"%s\"><a class=\"action\" title=\"%s\" href=\"#\">"
+                + "<span class=\"action-icon\">%s</span></a></div></div>", rowIdentifier, this.rowEvolutionTitle,
+                this.rowEvolutionIcon);
+        }
+
+        private String renderIcon(String iconName)
+        {
+            try {
+                return iconManager.renderHTML(iconName);
+            } catch (IconException e) {
+                logger.warn("Failed to render the [{}] icon. Root cause is: [{}]", iconName,
+                    ExceptionUtils.getRootCauseMessage(e));
+                return "";
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.livedata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.InstantiationStrategy;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.livedata.LiveDataException;
+import org.xwiki.livedata.LiveDataPropertyDescriptor;
+import org.xwiki.livedata.LiveDataPropertyDescriptor.DisplayerDescriptor;
+import org.xwiki.livedata.LiveDataPropertyDescriptor.FilterDescriptor;
+import org.xwiki.livedata.LiveDataPropertyDescriptorStore;
+import org.xwiki.livedata.WithParameters;
+import org.xwiki.localization.ContextualLocalizationManager;
+
+/**
+ * Describes the columns of the analytics table selected by the {@code table} source parameter.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component
+@Named(AnalyticsLiveDataSource.HINT)
+@InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
+public class AnalyticsLiveDataPropertyStore extends WithParameters implements LiveDataPropertyDescriptorStore
+{
+    @Inject
+    private AnalyticsTableRegistry tableRegistry;
+
+    @Inject
+    private ContextualLocalizationManager localization;
+
+    @Override
+    public Collection<LiveDataPropertyDescriptor> get() throws LiveDataException
+    {
+        AnalyticsTable table = this.tableRegistry.getTable(getParameters());
+        List<LiveDataPropertyDescriptor> descriptors = new ArrayList<>();
+        for (AnalyticsColumn column : table.getColumns()) {
+            LiveDataPropertyDescriptor descriptor = new LiveDataPropertyDescriptor();
+            descriptor.setId(column.getId());
+            descriptor.setName(this.localization.getTranslationPlain(table.getTranslationPrefix() + column.getId()));
+            descriptor.setDescription(
+                this.localization.getTranslationPlain(table.getTranslationPrefix() + column.getId() + ".hint"));
+            descriptor.setType(column.isNumeric() ? "Number" : "String");
+            descriptor.setVisible(true);
+            descriptor.setSortable(column.isSortable());
+            descriptor.setFilterable(column.isFilterable());
+            if (column.isNumeric()) {
+                descriptor.setFilter(new FilterDescriptor("number"));
+            }
+            // The values are formatted as HTML by the entry store.
+            descriptor.setDisplayer(new DisplayerDescriptor("html"));
+            descriptors.add(descriptor);
+        }
+        return descriptors;
+    }
+}
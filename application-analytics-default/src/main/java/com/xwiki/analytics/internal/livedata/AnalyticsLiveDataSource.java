@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.livedata;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.InstantiationStrategy;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.livedata.AbstractLiveDataSource;
+import org.xwiki.livedata.LiveDataEntryStore;
+import org.xwiki.livedata.LiveDataPropertyDescriptorStore;
+import org.xwiki.livedata.WithParameters;
+
+/**
+ * Live data source for the analytics tables. The {@code table} source parameter selects one of the tables declared
+ * in {@link AnalyticsTableRegistry}, while the {@code period} and {@code date} parameters select the Matomo period.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component
+@Named(AnalyticsLiveDataSource.HINT)
+@InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
+public class AnalyticsLiveDataSource extends AbstractLiveDataSource
+{
+    /**
+     * The hint of the source and of its stores.
+     */
+    public static final String HINT = "analytics";
+
+    @Inject
+    @Named(HINT)
+    private LiveDataEntryStore entryStore;
+
+    @Inject
+    @Named(HINT)
+    private LiveDataPropertyDescriptorStore propertyStore;
+
+    @Override
+    public LiveDataEntryStore getEntries()
+    {
+        return withParameters(this.entryStore);
+    }
+
+    @Override
+    public LiveDataPropertyDescriptorStore getProperties()
+    {
+        return withParameters(this.propertyStore);
+    }
+
+    private <T> T withParameters(T store)
+    {
+        if (store instanceof WithParameters) {
+            ((WithParameters) store).getParameters().putAll(getParameters());
+        }
+        return store;
+    }
+}
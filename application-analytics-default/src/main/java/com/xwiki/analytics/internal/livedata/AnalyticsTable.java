@@ -0,0 +1,125 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.livedata;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The declaration of an analytics table displayed with live data: the Matomo request, the normaliser applied on the
+ * response and the mapping between the live data properties and the fields of the normalised rows.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public final class AnalyticsTable
+{
+    private final String id;
+
+    private final String normaliserHint;
+
+    private final String translationPrefix;
+
+    private final Map<String, String> parameters;
+
+    private final Map<String, String> filters;
+
+    private final Map<String, AnalyticsColumn> columns = new LinkedHashMap<>();
+
+    /**
+     * @param id the identifier of the table, used as live data source parameter
+     * @param normaliserHint the hint of the normaliser applied on the Matomo response
+     * @param translationPrefix the prefix of the translation keys of the column names
+     * @param parameters the parameters of the Matomo request, besides the period and the date
+     * @param filters the filters always applied on the rows, e.g. to keep only the entry pages
+     * @param columns the columns of the table
+     */
+    public AnalyticsTable(String id, String normaliserHint, String translationPrefix, Map<String, String> parameters,
+        Map<String, String> filters, List<AnalyticsColumn> columns)
+    {
+        this.id = id;
+        this.normaliserHint = normaliserHint;
+        this.translationPrefix = translationPrefix;
+        this.parameters = Collections.unmodifiableMap(new LinkedHashMap<>(parameters));
+        this.filters = Collections.unmodifiableMap(new LinkedHashMap<>(filters));
+        for (AnalyticsColumn column : columns) {
+            this.columns.put(column.getId(), column);
+        }
+    }
+
+    /**
+     * @return the identifier of the table, used as live data source parameter
+     */
+    public String getId()
+    {
+        return this.id;
+    }
+
+    /**
+     * @return the hint of the normaliser applied on the Matomo response
+     */
+    public String getNormaliserHint()
+    {
+        return this.normaliserHint;
+    }
+
+    /**
+     * @return the prefix of the translation keys of the column names
+     */
+    public String getTranslationPrefix()
+    {
+        return this.translationPrefix;
+    }
+
+    /**
+     * @return the parameters of the Matomo request, besides the period and the date
+     */
+    public Map<String, String> getParameters()
+    {
+        return this.parameters;
+    }
+
+    /**
+     * @return the filters always applied on the rows
+     */
+    public Map<String, String> getFilters()
+    {
+        return this.filters;
+    }
+
+    /**
+     * @return the columns of the table, in their display order
+     */
+    public List<AnalyticsColumn> getColumns()
+    {
+        return List.copyOf(this.columns.values());
+    }
+
+    /**
+     * @param columnId the identifier of a live data property
+     * @return the column, or {@code null} if the table has no such column
+     */
+    public AnalyticsColumn getColumn(String columnId)
+    {
+        return this.columns.get(columnId);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.livedata;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.livedata.LiveDataException;
+
+import com.xwiki.analytics.internal.livedata.AnalyticsColumn.Type;
+
+/**
+ * Holds the declarations of the analytics tables that are displayed with the {@code analytics} live data source. Only
+ * the page tables are declared, since the page reports are the ones that grow with the size of the wiki. The other
+ * tables (browsers, devices, countries, languages and site search) are small reports that are still sorted and paged by
+ * Matomo through their JSON pages, and their rows are identified by a Matomo segment rather than by a page URL.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component(roles = AnalyticsTableRegistry.class)
+@Singleton
+public class AnalyticsTableRegistry
+{
+    /**
+     * The live data source parameter holding the identifier of the displayed table.
+     */
+    public static final String TABLE = "table";
+
+    private static final String MOST_VIEWED_PAGES = "MostViewedPages";
+
+    private static final String PAGE_TITLE = "pageTitle";
+
+    private static final String LABEL = "label";
+
+    private static final String URL = "url";
+
+    private static final String VISITS = "visits";
+
+    private static final String NB_VISITS = "nb_visits";
+
+    private static final String BOUNCE_RATE = "bounceRate";
+
+    private static final String EXIT_RATE = "exitRate";
+
+    private static final String ROW_EVOLUTION = "rowEvolution";
+
+    private static final String BOUNCE_RATE_FIELD = "bounce_rate";
+
+    private static final String EXIT_RATE_FIELD = "exit_rate";
+
+    private static final String ENTRY_NB_VISITS = "entry_nb_visits";
+
+    private static final String EXIT_NB_VISITS = "exit_nb_visits";
+
+    private static final String ENABLED = "1";
+
+    private static final Map<String, String> PAGE_URLS_PARAMETERS =
+        Map.of("method", "Actions.getPageUrls", "expanded", ENABLED, "flat", ENABLED, "filter_limit", "-1");
+
+    private final Map<String, AnalyticsTable> tables = new ConcurrentHashMap<>();
+
+    /**
+     * Declare the built-in tables.
+     */
+    public AnalyticsTableRegistry()
+    {
+        register(new AnalyticsTable(MOST_VIEWED_PAGES, MOST_VIEWED_PAGES, "analytics.mostViewedPages.header.",
+            PAGE_URLS_PARAMETERS, Map.of(), Arrays.asList(
+                new AnalyticsColumn(PAGE_TITLE, LABEL, Type.PAGE),
+                new AnalyticsColumn("hits", "nb_hits", Type.NUMBER),
+                new AnalyticsColumn(VISITS, NB_VISITS, Type.NUMBER),
+                new AnalyticsColumn("timeSpent", "sum_time_spent", Type.DURATION),
+                new AnalyticsColumn(BOUNCE_RATE, BOUNCE_RATE_FIELD, Type.PERCENT),
+                new AnalyticsColumn(EXIT_RATE, EXIT_RATE_FIELD, Type.PERCENT),
+                new AnalyticsColumn(ROW_EVOLUTION, URL, Type.ROW_EVOLUTION))));
+        // Only the pages that started a visit have entry statistics.
+        register(new AnalyticsTable("EntryPages", MOST_VIEWED_PAGES, "analytics.entryPages.header.",
+            PAGE_URLS_PARAMETERS, Map.of(ENTRY_NB_VISITS, ""), Arrays.asList(
+                new AnalyticsColumn(PAGE_TITLE, LABEL, Type.PAGE),
+                new AnalyticsColumn("entrances", ENTRY_NB_VISITS, Type.NUMBER),
+                new AnalyticsColumn("bounces", "entry_bounce_count", Type.NUMBER),
+                new AnalyticsColumn(BOUNCE_RATE, BOUNCE_RATE_FIELD, Type.PERCENT),
+                new AnalyticsColumn(ROW_EVOLUTION, URL, Type.ROW_EVOLUTION))));
+        // Only the pages that ended a visit have exit statistics.
+        register(new AnalyticsTable("ExitPages", MOST_VIEWED_PAGES, "analytics.exitPages.header.",
+            PAGE_URLS_PARAMETERS, Map.of(EXIT_NB_VISITS, ""), Arrays.asList(
+                new AnalyticsColumn(PAGE_TITLE, LABEL, Type.PAGE),
+                new AnalyticsColumn("exitNbVisits", EXIT_NB_VISITS, Type.NUMBER),
+                new AnalyticsColumn(VISITS, NB_VISITS, Type.NUMBER),
+                new AnalyticsColumn(EXIT_RATE, EXIT_RATE_FIELD, Type.PERCENT),
+                new AnalyticsColumn(ROW_EVOLUTION, URL, Type.ROW_EVOLUTION))));
+    }
+
+    /**
+     * @param table the table to declare, replacing the table with the same identifier, if any
+     */
+    public void register(AnalyticsTable table)
+    {
+        this.tables.put(table.getId(), table);
+    }
+
+    /**
+     * @param sourceParameters the parameters of the live data source
+     * @return the table selected by the {@value #TABLE} source parameter
+     * @throws LiveDataException if the parameter doesn't select a declared table
+     */
+    public AnalyticsTable getTable(Map<String, Object> sourceParameters) throws LiveDataException
+    {
+        Object tableId = sourceParameters.get(TABLE);
+        AnalyticsTable table = tableId != null ? getTable(tableId.toString()) : null;
+        if (table == null) {
+            throw new LiveDataException(String.format("Unknown analytics table [%s].", tableId));
+        }
+        return table;
+    }
+
+    /**
+     * @param tableId the identifier of a table
+     * @return the declaration of the table, or {@code null} if there is no such table
+     */
+    public AnalyticsTable getTable(String tableId)
+    {
+        return tableId != null ? this.tables.get(tableId) : null;
+    }
+}
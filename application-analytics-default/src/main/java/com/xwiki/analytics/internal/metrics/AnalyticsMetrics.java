@@ -0,0 +1,251 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+
+import com.xwiki.analytics.internal.MostViewedJsonNormaliser;
+import com.xwiki.analytics.internal.RowEvolutionJsonNormaliser;
+import com.xwiki.analytics.internal.VisitsJsonNormaliser;
+
+/**
+ * Collects the latency and throughput metrics of the analytics requests, by normaliser hint and Matomo API method, and
+ * exposes them as JMX MBeans (in the {@code com.xwiki.analytics} domain) and through the script service. The metrics
+ * help to find out whether the time is spent waiting for Matomo, reading and normalising its responses or checking the
+ * view rights of the current user.
+ * <p>
+ * The methods and the hints can be chosen by the callers (e.g. through the script service), so only the ones used by
+ * the application get their own metrics, the others being collected under {@code other}. This keeps the number of
+ * MBeans bounded.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component(roles = AnalyticsMetrics.class)
+@Singleton
+public class AnalyticsMetrics implements Disposable
+{
+    private static final String DOMAIN = "com.xwiki.analytics";
+
+    private static final String TYPE = "type";
+
+    private static final String METHOD = "method";
+
+    private static final String OTHER = "other";
+
+    private static final Set<String> KNOWN_HINTS = new HashSet<>(
+        Arrays.asList(MostViewedJsonNormaliser.HINT, RowEvolutionJsonNormaliser.HINT, VisitsJsonNormaliser.HINT));
+
+    private static final Set<String> KNOWN_METHODS = new HashSet<>(Arrays.asList(
+        "API.getBulkRequest",
+        "Actions.getPageUrl",
+        "Actions.getPageUrls",
+        "Actions.getPageUrlsFollowingSiteSearch",
+        "Actions.getSiteSearchCategories",
+        "Actions.getSiteSearchKeywords",
+        "DevicesDetection.getBrand",
+        "DevicesDetection.getBrowserEngines",
+        "DevicesDetection.getBrowsers",
+        "DevicesDetection.getModel",
+        "DevicesDetection.getOsVersions",
+        "DevicesDetection.getType",
+        "Live.getLastVisitsDetails",
+        "Resolution.getConfiguration",
+        "Resolution.getResolution",
+        "UserCountry.getCountry",
+        "UserLanguage.getLanguage",
+        "VisitFrequency.get",
+        "VisitsSummary.get",
+        "VisitsSummary.getActions",
+        "VisitsSummary.getBounceCount",
+        "VisitsSummary.getMaxActions",
+        "VisitsSummary.getSumVisitsLength",
+        "VisitsSummary.getUniqueVisitors",
+        "VisitsSummary.getUsers",
+        "VisitsSummary.getVisits",
+        "VisitsSummary.getVisitsConverted"));
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, MatomoMetrics> matomoMetrics = new ConcurrentHashMap<>();
+
+    private final Map<List<String>, NormaliserMetrics> normaliserMetrics = new ConcurrentHashMap<>();
+
+    private final List<ObjectName> registeredNames = new CopyOnWriteArrayList<>();
+
+    /**
+     * Record a request made to Matomo.
+     *
+     * @param method the Matomo API method
+     * @param responseTime the time, in nanoseconds, until the response headers were received
+     * @param bytesReceived the number of bytes of the response body received from Matomo, possibly compressed
+     * @param uncompressedBytes the number of bytes of the response body once decompressed
+     * @param failed {@code true} if the request failed
+     */
+    public void recordMatomoRequest(String method, long responseTime, long bytesReceived, long uncompressedBytes,
+        boolean failed)
+    {
+        getMatomoMetrics(method).record(responseTime, bytesReceived, uncompressedBytes, failed);
+    }
+
+    /**
+     * Record a request made through the analytics manager.
+     *
+     * @param hint the hint of the normaliser
+     * @param method the Matomo API method
+     * @param latency the time, in nanoseconds, taken to get the data
+     * @param failed {@code true} if the request failed
+     */
+    public void recordRequest(String hint, String method, long latency, boolean failed)
+    {
+        getNormaliserMetrics(hint, method).recordRequest(latency, failed);
+    }
+
+    /**
+     * @param hint the hint of the normaliser
+     * @param method the Matomo API method
+     * @param duration the time, in nanoseconds, taken to keep only the rows that the current user can view
+     */
+    public void recordUserFiltering(String hint, String method, long duration)
+    {
+        getNormaliserMetrics(hint, method).recordUserFiltering(duration);
+    }
+
+    /**
+     * Record the normalisation of a Matomo response.
+     *
+     * @param hint the hint of the normaliser
+     * @param method the Matomo API method
+     * @param duration the time, in nanoseconds, taken to read and normalise the response
+     * @param rowsRead the number of rows read from the response
+     * @param rowsKept the number of rows kept
+     */
+    public void recordNormalisation(String hint, String method, long duration, long rowsRead, long rowsKept)
+    {
+        getNormaliserMetrics(hint, method).recordNormalisation(duration, rowsRead, rowsKept);
+    }
+
+    /**
+     * @return the metrics of the requests made to Matomo, by API method, in the {@code matomo} entry, and the metrics
+     *     of the requests made through the analytics manager, by normaliser hint and API method, in the
+     *     {@code normalisers} entry
+     */
+    public Map<String, Object> getMetrics()
+    {
+        Map<String, Map<String, Number>> matomo = new TreeMap<>();
+        this.matomoMetrics.forEach((method, metrics) -> matomo.put(method, metrics.toMap()));
+        Map<String, Map<String, Map<String, Number>>> normalisers = new TreeMap<>();
+        this.normaliserMetrics.forEach((key, metrics) -> normalisers
+            .computeIfAbsent(key.get(0), hint -> new TreeMap<>()).put(key.get(1), metrics.toMap()));
+
+        Map<String, Object> result = new TreeMap<>();
+        result.put("matomo", matomo);
+        result.put("normalisers", normalisers);
+        return result;
+    }
+
+    @Override
+    public void dispose()
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : this.registeredNames) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                this.logger.debug("Failed to unregister the MBean [{}]. Root cause: [{}]", name,
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+        this.registeredNames.clear();
+    }
+
+    private MatomoMetrics getMatomoMetrics(String method)
+    {
+        return this.matomoMetrics.computeIfAbsent(getBucket(method, KNOWN_METHODS), key -> {
+            MatomoMetrics metrics = new MatomoMetrics();
+            Hashtable<String, String> properties = new Hashtable<>();
+            properties.put(TYPE, "Matomo");
+            properties.put(METHOD, ObjectName.quote(key));
+            register(metrics, properties);
+            return metrics;
+        });
+    }
+
+    private NormaliserMetrics getNormaliserMetrics(String hint, String method)
+    {
+        List<String> metricsKey = Arrays.asList(getBucket(hint, KNOWN_HINTS), getBucket(method, KNOWN_METHODS));
+        return this.normaliserMetrics.computeIfAbsent(metricsKey, key -> {
+            NormaliserMetrics metrics = new NormaliserMetrics();
+            Hashtable<String, String> properties = new Hashtable<>();
+            properties.put(TYPE, "Normaliser");
+            properties.put("hint", ObjectName.quote(key.get(0)));
+            properties.put(METHOD, ObjectName.quote(key.get(1)));
+            register(metrics, properties);
+            return metrics;
+        });
+    }
+
+    private static String getBucket(String value, Set<String> knownValues)
+    {
+        return value != null && knownValues.contains(value) ? value : OTHER;
+    }
+
+    /**
+     * The metrics are collected even when they can't be exposed through JMX, since they are also available through the
+     * script service.
+     */
+    private void register(Object metrics, Hashtable<String, String> properties)
+    {
+        try {
+            ObjectName name = new ObjectName(DOMAIN, properties);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            // The MBean of a previous instance of this component, e.g. before the extension was upgraded.
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+            this.registeredNames.add(name);
+        } catch (JMException | SecurityException e) {
+            this.logger.warn("Failed to register the analytics metrics MBean for [{}]. Root cause: [{}]", properties,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations, with buckets growing exponentially from 100 microseconds to a few minutes.
+ * Recording a duration only increments a few counters, so it can be done on every request. The percentiles are
+ * approximated by the upper bound of the bucket holding them, which is at most twice the exact value.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public final class LatencyHistogram
+{
+    private static final long BUCKET_UNIT = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final int BUCKETS = 22;
+
+    private static final double NANOS_PER_MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param nanos the duration to record, in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        long duration = Math.max(0, nanos);
+        // Bucket i holds the durations up to 2^i units.
+        int bucket = 64 - Long.numberOfLeadingZeros((duration - 1) / BUCKET_UNIT);
+        this.buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        this.count.increment();
+        this.sum.add(duration);
+        this.max.accumulate(duration);
+    }
+
+    /**
+     * @return the number of recorded durations
+     */
+    public long getCount()
+    {
+        return this.count.sum();
+    }
+
+    /**
+     * @return the mean of the recorded durations, in milliseconds
+     */
+    public double getMean()
+    {
+        long total = this.count.sum();
+        return total == 0 ? 0 : this.sum.sum() / NANOS_PER_MILLISECOND / total;
+    }
+
+    /**
+     * @return the longest recorded duration, in milliseconds
+     */
+    public double getMax()
+    {
+        return this.max.get() / NANOS_PER_MILLISECOND;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 1
+     * @return the upper bound of the bucket holding the given percentile of the recorded durations, in milliseconds,
+     *     limited by the longest recorded duration
+     */
+    public double getPercentile(double percentile)
+    {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets.get(i);
+            total += counts[i];
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(BUCKET_UNIT * (1L << i), this.max.get()) / NANOS_PER_MILLISECOND;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the requests made to Matomo for an API method.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public class MatomoMetrics implements MatomoMetricsMBean
+{
+    private static final double P50 = 0.5;
+
+    private static final double P99 = 0.99;
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder bytesReceived = new LongAdder();
+
+    private final LongAdder uncompressedBytes = new LongAdder();
+
+    private final LatencyHistogram responseTime = new LatencyHistogram();
+
+    /**
+     * Record a request made to Matomo.
+     *
+     * @param responseTime the time, in nanoseconds, until the response headers were received
+     * @param received the number of bytes of the response body received from Matomo, possibly compressed
+     * @param uncompressed the number of bytes of the response body once decompressed
+     * @param failed {@code true} if the request failed
+     */
+    public void record(long responseTime, long received, long uncompressed, boolean failed)
+    {
+        this.requests.increment();
+        if (failed) {
+            this.failures.increment();
+        }
+        this.bytesReceived.add(received);
+        this.uncompressedBytes.add(uncompressed);
+        this.responseTime.record(responseTime);
+    }
+
+    @Override
+    public long getRequestCount()
+    {
+        return this.requests.sum();
+    }
+
+    @Override
+    public long getFailureCount()
+    {
+        return this.failures.sum();
+    }
+
+    @Override
+    public long getBytesReceived()
+    {
+        return this.bytesReceived.sum();
+    }
+
+    @Override
+    public long getUncompressedBytes()
+    {
+        return this.uncompressedBytes.sum();
+    }
+
+    @Override
+    public double getCompressionRatio()
+    {
+        long received = getBytesReceived();
+        return received > 0 ? (double) getUncompressedBytes() / received : 1;
+    }
+
+    @Override
+    public double getMeanResponseTime()
+    {
+        return this.responseTime.getMean();
+    }
+
+    @Override
+    public double getResponseTimeP50()
+    {
+        return this.responseTime.getPercentile(P50);
+    }
+
+    @Override
+    public double getResponseTimeP99()
+    {
+        return this.responseTime.getPercentile(P99);
+    }
+
+    @Override
+    public double getMaxResponseTime()
+    {
+        return this.responseTime.getMax();
+    }
+
+    /**
+     * @return the metrics, by name
+     */
+    public Map<String, Number> toMap()
+    {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("requestCount", getRequestCount());
+        metrics.put("failureCount", getFailureCount());
+        metrics.put("bytesReceived", getBytesReceived());
+        metrics.put("uncompressedBytes", getUncompressedBytes());
+        metrics.put("compressionRatio", getCompressionRatio());
+        metrics.put("meanResponseTime", getMeanResponseTime());
+        metrics.put("responseTimeP50", getResponseTimeP50());
+        metrics.put("responseTimeP99", getResponseTimeP99());
+        metrics.put("maxResponseTime", getMaxResponseTime());
+        return metrics;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.metrics;
+
+/**
+ * The JMX view of the requests made to Matomo for an API method.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public interface MatomoMetricsMBean
+{
+    /**
+     * @return the number of HTTP requests made to Matomo
+     */
+    long getRequestCount();
+
+    /**
+     * @return the number of HTTP requests that failed, because of the network, an error status or an unreadable
+     *     response
+     */
+    long getFailureCount();
+
+    /**
+     * @return the number of bytes of the Matomo responses received over the network, i.e. compressed when Matomo
+     *     compresses them
+     */
+    long getBytesReceived();
+
+    /**
+     * @return the number of bytes of the Matomo responses once decompressed, as read by the normalisers
+     */
+    long getUncompressedBytes();
+
+    /**
+     * @return the number of uncompressed bytes for each byte received, {@code 1} when the responses are not compressed
+     */
+    double getCompressionRatio();
+
+    /**
+     * @return the mean time, in milliseconds, taken by Matomo to respond, until the response headers are received
+     */
+    double getMeanResponseTime();
+
+    /**
+     * @return the median time, in milliseconds, taken by Matomo to respond
+     */
+    double getResponseTimeP50();
+
+    /**
+     * @return the 99th percentile of the time, in milliseconds, taken by Matomo to respond
+     */
+    double getResponseTimeP99();
+
+    /**
+     * @return the longest time, in milliseconds, taken by Matomo to respond
+     */
+    double getMaxResponseTime();
+}
@@ -0,0 +1,178 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the requests handled by a normaliser for a Matomo API method.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public class NormaliserMetrics implements NormaliserMetricsMBean
+{
+    private static final double P50 = 0.5;
+
+    private static final double P99 = 0.99;
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder rowsIn = new LongAdder();
+
+    private final LongAdder rowsOut = new LongAdder();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LatencyHistogram userFilteringTime = new LatencyHistogram();
+
+    private final LatencyHistogram normalisationTime = new LatencyHistogram();
+
+    /**
+     * Record a request made through the analytics manager.
+     *
+     * @param latency the time, in nanoseconds, taken to get the data
+     * @param failed {@code true} if the request failed
+     */
+    public void recordRequest(long latency, boolean failed)
+    {
+        if (failed) {
+            this.failures.increment();
+        }
+        this.latency.record(latency);
+    }
+
+    /**
+     * @param duration the time, in nanoseconds, taken to keep only the rows that the current user can view
+     */
+    public void recordUserFiltering(long duration)
+    {
+        this.userFilteringTime.record(duration);
+    }
+
+    /**
+     * Record the normalisation of a Matomo response.
+     *
+     * @param duration the time, in nanoseconds, taken to read and normalise the response
+     * @param rowsRead the number of rows read from the response
+     * @param rowsKept the number of rows kept
+     */
+    public void recordNormalisation(long duration, long rowsRead, long rowsKept)
+    {
+        this.normalisationTime.record(duration);
+        this.rowsIn.add(rowsRead);
+        this.rowsOut.add(rowsKept);
+    }
+
+    @Override
+    public long getRequestCount()
+    {
+        return this.latency.getCount();
+    }
+
+    @Override
+    public long getFailureCount()
+    {
+        return this.failures.sum();
+    }
+
+    @Override
+    public double getMeanLatency()
+    {
+        return this.latency.getMean();
+    }
+
+    @Override
+    public double getLatencyP50()
+    {
+        return this.latency.getPercentile(P50);
+    }
+
+    @Override
+    public double getLatencyP99()
+    {
+        return this.latency.getPercentile(P99);
+    }
+
+    @Override
+    public double getMeanUserFilteringTime()
+    {
+        return this.userFilteringTime.getMean();
+    }
+
+    @Override
+    public double getUserFilteringTimeP99()
+    {
+        return this.userFilteringTime.getPercentile(P99);
+    }
+
+    @Override
+    public long getNormalisationCount()
+    {
+        return this.normalisationTime.getCount();
+    }
+
+    @Override
+    public double getMeanNormalisationTime()
+    {
+        return this.normalisationTime.getMean();
+    }
+
+    @Override
+    public double getNormalisationTimeP99()
+    {
+        return this.normalisationTime.getPercentile(P99);
+    }
+
+    @Override
+    public long getRowsIn()
+    {
+        return this.rowsIn.sum();
+    }
+
+    @Override
+    public long getRowsOut()
+    {
+        return this.rowsOut.sum();
+    }
+
+    /**
+     * @return the metrics, by name
+     */
+    public Map<String, Number> toMap()
+    {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("requestCount", getRequestCount());
+        metrics.put("failureCount", getFailureCount());
+        metrics.put("meanLatency", getMeanLatency());
+        metrics.put("latencyP50", getLatencyP50());
+        metrics.put("latencyP99", getLatencyP99());
+        metrics.put("meanUserFilteringTime", getMeanUserFilteringTime());
+        metrics.put("userFilteringTimeP99", getUserFilteringTimeP99());
+        metrics.put("normalisationCount", getNormalisationCount());
+        metrics.put("meanNormalisationTime", getMeanNormalisationTime());
+        metrics.put("normalisationTimeP99", getNormalisationTimeP99());
+        metrics.put("rowsIn", getRowsIn());
+        metrics.put("rowsOut", getRowsOut());
+        return metrics;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.metrics;
+
+/**
+ * The JMX view of the requests handled by a normaliser for a Matomo API method.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public interface NormaliserMetricsMBean
+{
+    /**
+     * @return the number of requests made through the analytics manager, including the ones served from the cache
+     */
+    long getRequestCount();
+
+    /**
+     * @return the number of requests that failed
+     */
+    long getFailureCount();
+
+    /**
+     * @return the mean time, in milliseconds, taken to get the data of a request, from the cache or from Matomo
+     */
+    double getMeanLatency();
+
+    /**
+     * @return the median time, in milliseconds, taken to get the data of a request
+     */
+    double getLatencyP50();
+
+    /**
+     * @return the 99th percentile of the time, in milliseconds, taken to get the data of a request
+     */
+    double getLatencyP99();
+
+    /**
+     * @return the mean time, in milliseconds, taken to keep only the rows that the current user can view
+     */
+    double getMeanUserFilteringTime();
+
+    /**
+     * @return the 99th percentile of the time, in milliseconds, taken to keep only the rows that the current user can
+     *     view
+     */
+    double getUserFilteringTimeP99();
+
+    /**
+     * @return the number of Matomo responses normalised
+     */
+    long getNormalisationCount();
+
+    /**
+     * @return the mean time, in milliseconds, taken to read and normalise a Matomo response
+     */
+    double getMeanNormalisationTime();
+
+    /**
+     * @return the 99th percentile of the time, in milliseconds, taken to read and normalise a Matomo response
+     */
+    double getNormalisationTimeP99();
+
+    /**
+     * @return the number of rows read from the Matomo responses
+     */
+    long getRowsIn();
+
+    /**
+     * @return the number of rows kept after the normalisation and the filters
+     */
+    long getRowsOut();
+}
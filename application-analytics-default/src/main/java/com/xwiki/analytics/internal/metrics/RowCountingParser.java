@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.metrics;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+
+/**
+ * A parser counting the rows of a Matomo response while it is being read. The rows are the objects of the top level
+ * array, the objects of the arrays keyed by period, and the objects keyed by period (e.g. the metrics of each period
+ * returned by {@code VisitsSummary.get}). The sub-rows of the hierarchical reports are not counted. The rows skipped
+ * with {@link #skipChildren()} are still counted, since their start is read before skipping them.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+public class RowCountingParser extends JsonParserDelegate
+{
+    private static final int PERIOD_ROW_DEPTH = 2;
+
+    private static final int MAX_ROW_DEPTH = 3;
+
+    private long rowCount;
+
+    /**
+     * @param parser the parser reading the Matomo response
+     */
+    public RowCountingParser(JsonParser parser)
+    {
+        super(parser);
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException
+    {
+        JsonToken token = super.nextToken();
+        if (token == JsonToken.START_OBJECT && isRow(getParsingContext())) {
+            this.rowCount++;
+        }
+        return token;
+    }
+
+    /**
+     * @return the number of rows read so far
+     */
+    public long getRowCount()
+    {
+        return this.rowCount;
+    }
+
+    private boolean isRow(JsonStreamContext context)
+    {
+        int depth = 0;
+        for (JsonStreamContext current = context; current.getParent() != null; current = current.getParent()) {
+            depth++;
+        }
+        return depth <= MAX_ROW_DEPTH && (context.getParent().inArray() || depth == PERIOD_ROW_DEPTH);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.rest.XWikiRestComponent;
+import org.xwiki.rest.XWikiRestException;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xwiki.analytics.AnalyticsManager;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.MostViewedJsonNormaliser;
+import com.xwiki.analytics.internal.RowEvolutionJsonNormaliser;
+import com.xwiki.analytics.internal.VisitsJsonNormaliser;
+import com.xwiki.analytics.internal.cache.AnalyticsRequestKey;
+import com.xwiki.analytics.rest.AnalyticsResource;
+
+/**
+ * Default implementation of {@link AnalyticsResource}. The data goes through the same pipeline as the one used by the
+ * script service, including the caches and the rights checks, and the result is written with a {@link JsonGenerator}
+ * right to the response, so there is no per-row rendering or serialisation of intermediate maps. Since Matomo is called
+ * with the authentication token of the wiki, only the reports displayed by the analytics macros can be requested, with
+ * the parameters that select the period and the columns.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component
+@Named("com.xwiki.analytics.internal.rest.DefaultAnalyticsResource")
+public class DefaultAnalyticsResource implements AnalyticsResource, XWikiRestComponent
+{
+    private static final ObjectMapper OBJECT_MAPPER =
+        new ObjectMapper().configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+    private static final String OFFSET = "offset";
+
+    private static final String LIMIT = "limit";
+
+    private static final String FILTER_PREFIX = "filters.";
+
+    private static final String METHOD = "method";
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * The reports that the analytics macros display.
+     */
+    private static final Set<String> REPORTS = new HashSet<>(Arrays.asList(
+        "Actions.getPageUrls",
+        "Actions.getPageUrlsFollowingSiteSearch",
+        "Actions.getSiteSearchCategories",
+        "Actions.getSiteSearchKeywords",
+        "DevicesDetection.getBrand",
+        "DevicesDetection.getBrowserEngines",
+        "DevicesDetection.getBrowsers",
+        "DevicesDetection.getModel",
+        "DevicesDetection.getOsVersions",
+        "DevicesDetection.getType",
+        "Resolution.getConfiguration",
+        "Resolution.getResolution",
+        "UserCountry.getCountry",
+        "UserLanguage.getLanguage"));
+
+    /**
+     * The Matomo methods that can be requested with each normaliser. The other methods (e.g. the visitor logs or the
+     * administration methods) are refused.
+     */
+    private static final Map<String, Set<String>> NORMALISER_METHODS = createNormaliserMethods();
+
+    /**
+     * The query parameters sent to Matomo. The other ones are dropped, in particular the segments, which could select
+     * the visits of the pages that the current user can't view.
+     */
+    private static final Set<String> MATOMO_PARAMETERS = new HashSet<>(Arrays.asList(METHOD, "period", "date",
+        "columns", "expanded", "flat", "filter_limit", "filter_sort_column", "filter_sort_order"));
+
+    @Inject
+    @Named("Matomo")
+    private AnalyticsManager analyticsManager;
+
+    @Inject
+    private AnalyticsConfiguration configuration;
+
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    @Inject
+    private ModelContext modelContext;
+
+    @Context
+    private UriInfo uriInfo;
+
+    @Context
+    private Request request;
+
+    @Override
+    public Response getData(String wikiName, String hint) throws XWikiRestException
+    {
+        this.modelContext.setCurrentEntityReference(new WikiReference(wikiName));
+        // The data is available to the users that can view the pages that display it.
+        if (!this.authorization.hasAccess(Right.VIEW, new SpaceReference(wikiName, "Analytics", "Code"))) {
+            throw new WebApplicationException(Response.Status.FORBIDDEN);
+        }
+        Set<String> methods = NORMALISER_METHODS.get(hint);
+        if (methods == null) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+
+        MultivaluedMap<String, String> queryParameters = this.uriInfo.getQueryParameters();
+        Map<String, String> parameters = new HashMap<>();
+        Map<String, String> filters = new HashMap<>();
+        readQueryParameters(queryParameters, parameters, filters);
+        if (!methods.contains(parameters.get(METHOD))) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        long offset = parseLong(queryParameters.getFirst(OFFSET), 0);
+        int limit = (int) parseLong(queryParameters.getFirst(LIMIT), -1);
+        // The request key has to be computed before the parameters are completed with the authentication token.
+        LocalDate today = LocalDate.now();
+        boolean closedPeriod =
+            AnalyticsRequestKey.create(wikiName, parameters, filters, hint, today).isClosedPeriod(today);
+
+        JsonNode result;
+        try {
+            result = limit < 0 && offset == 0 ? this.analyticsManager.requestData(parameters, filters, hint)
+                : this.analyticsManager.requestData(parameters, filters, hint, offset, limit);
+        } catch (IOException e) {
+            throw new XWikiRestException(String.format("Failed to get the analytics data for [%s].", hint), e);
+        }
+
+        // The data is filtered for the current user, so it can be cached only by the user's browser. The tag lets the
+        // browser revalidate its copy without downloading the data again.
+        EntityTag entityTag = getEntityTag(result);
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setPrivate(true);
+        cacheControl.setMaxAge(closedPeriod ? this.configuration.getClosedPeriodCacheDuration()
+            : this.configuration.getCurrentPeriodCacheDuration());
+        Response.ResponseBuilder notModified = this.request.evaluatePreconditions(entityTag);
+        if (notModified != null) {
+            return notModified.tag(entityTag).cacheControl(cacheControl).build();
+        }
+        return Response.ok(write(result)).tag(entityTag).cacheControl(cacheControl).build();
+    }
+
+    private static Map<String, Set<String>> createNormaliserMethods()
+    {
+        Map<String, Set<String>> normaliserMethods = new HashMap<>();
+        normaliserMethods.put(MostViewedJsonNormaliser.HINT, REPORTS);
+        normaliserMethods.put(RowEvolutionJsonNormaliser.HINT, REPORTS);
+        normaliserMethods.put(VisitsJsonNormaliser.HINT, new HashSet<>(Arrays.asList(
+            "VisitFrequency.get",
+            "VisitsSummary.get",
+            "VisitsSummary.getActions",
+            "VisitsSummary.getBounceCount",
+            "VisitsSummary.getMaxActions",
+            "VisitsSummary.getSumVisitsLength",
+            "VisitsSummary.getUniqueVisitors",
+            "VisitsSummary.getUsers",
+            "VisitsSummary.getVisits",
+            "VisitsSummary.getVisitsConverted")));
+        return normaliserMethods;
+    }
+
+    private static void readQueryParameters(MultivaluedMap<String, String> queryParameters,
+        Map<String, String> parameters, Map<String, String> filters)
+    {
+        for (Map.Entry<String, List<String>> entry : queryParameters.entrySet()) {
+            String name = entry.getKey();
+            String value = entry.getValue().isEmpty() ? "" : entry.getValue().get(0);
+            if (name.startsWith(FILTER_PREFIX)) {
+                filters.put(name.substring(FILTER_PREFIX.length()), value);
+            } else if (MATOMO_PARAMETERS.contains(name)) {
+                parameters.put(name, value);
+            }
+        }
+        // The normalisers expect the JSON responses of the Matomo API.
+        parameters.put("module", "API");
+        parameters.put("format", "json");
+    }
+
+    private static long parseLong(String value, long defaultValue)
+    {
+        try {
+            return value != null ? Long.parseLong(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * @return a tag computed from the digest of the serialised data, which is written to a stream that discards it, so
+     *     that the data doesn't have to be kept in memory
+     */
+    private static EntityTag getEntityTag(JsonNode result) throws XWikiRestException
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            try (OutputStream outputStream = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+                writeTo(result, outputStream);
+            }
+            // The tag is weak since the servlet container may compress the response.
+            return new EntityTag(Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest()), true);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new XWikiRestException("Failed to compute the tag of the analytics data.", e);
+        }
+    }
+
+    private static StreamingOutput write(JsonNode result)
+    {
+        return outputStream -> writeTo(result, outputStream);
+    }
+
+    private static void writeTo(JsonNode result, OutputStream outputStream) throws IOException
+    {
+        try (JsonGenerator generator = OBJECT_MAPPER.getFactory().createGenerator(outputStream)) {
+            generator.writeTree(result);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.rollup;
+
+/**
+ * The rows of a daily report, stored by column: the identifier of the label of each row, and the values of each
+ * metric for each row. The identifiers are the ones of the {@link RollupReport} that created the columns.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+final class DailyColumns
+{
+    private final RollupReport report;
+
+    private final int[] labels;
+
+    /**
+     * The values of the metrics, indexed by metric identifier then by row, or {@code null} for the metrics that are
+     * missing from this report.
+     */
+    private final long[][] metrics;
+
+    DailyColumns(RollupReport report, int[] labels, long[][] metrics)
+    {
+        this.report = report;
+        this.labels = labels;
+        this.metrics = metrics;
+    }
+
+    RollupReport getReport()
+    {
+        return this.report;
+    }
+
+    int[] getLabels()
+    {
+        return this.labels;
+    }
+
+    long[][] getMetrics()
+    {
+        return this.metrics;
+    }
+}
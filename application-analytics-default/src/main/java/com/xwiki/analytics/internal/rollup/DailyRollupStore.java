@@ -0,0 +1,469 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.rollup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.xwiki.analytics.JsonNormaliser;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.MatomoRequestExecutor;
+import com.xwiki.analytics.internal.MatomoResponseException;
+import com.xwiki.analytics.internal.cache.AnalyticsRequestKey;
+import com.xwiki.analytics.internal.cache.MatomoDateRange;
+import com.xwiki.analytics.internal.configuration.MatomoEndpointManager;
+
+/**
+ * Computes the reports for ranges of days ({@code period=range}) from the daily reports, instead of asking Matomo to
+ * archive each requested range. Matomo archives the daily reports anyway, so they are cheap to request, while the
+ * archiving of a custom range is done on demand and is slow for long ranges. The daily reports of the closed days
+ * are kept in memory, by column, so that the next ranges covering them only need the missing days. The least recently
+ * used days are evicted by the underlying XWiki cache, which notifies the store so that the dictionaries of a report
+ * are dropped with its last stored day, and rebuilt when most of their labels only belonged to evicted days.
+ * <p>
+ * Only the flat reports whose metrics can be summed are supported; the other requests must be sent to Matomo.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+@Component(roles = DailyRollupStore.class)
+@Singleton
+public class DailyRollupStore implements Initializable, Disposable
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String CACHE_ID = "analytics.rollupDays";
+
+    private static final char DAY_SEPARATOR = ':';
+
+    private static final String METHOD = "method";
+
+    private static final String PERIOD = "period";
+
+    private static final String DATE = "date";
+
+    private static final String RANGE = "range";
+
+    private static final String FLAT = "flat";
+
+    private static final String FILTER_PREFIX = "filter_";
+
+    private static final String FILTER_LIMIT = "filter_limit";
+
+    private static final String FILTER_SORT_COLUMN = "filter_sort_column";
+
+    private static final String FILTER_SORT_ORDER = "filter_sort_order";
+
+    private static final String FILTER_PATTERN = "filter_pattern";
+
+    private static final String FILTER_PATTERN_RECURSIVE = "filter_pattern_recursive";
+
+    /**
+     * Stands for the normaliser hint in the report keys, since the daily reports are stored before being normalised.
+     */
+    private static final String REPORT_KEY_HINT = "rollup";
+
+    private static final String MESSAGE = "message";
+
+    /**
+     * The dictionaries smaller than this are not worth rebuilding.
+     */
+    private static final int MIN_REBUILT_LABEL_COUNT = 1024;
+
+    /**
+     * The methods returning reports whose rows can be summed day by day, mapped to whether they have to be flat.
+     */
+    private static final Map<String, Boolean> SUPPORTED_METHODS = new HashMap<>();
+
+    static {
+        SUPPORTED_METHODS.put("Actions.getPageUrls", true);
+        SUPPORTED_METHODS.put("UserCountry.getCountry", false);
+        SUPPORTED_METHODS.put("DevicesDetection.getType", false);
+        SUPPORTED_METHODS.put("DevicesDetection.getBrowsers", false);
+    }
+
+    @Inject
+    private AnalyticsConfiguration configuration;
+
+    @Inject
+    private MatomoRequestExecutor requestExecutor;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private MatomoEndpointManager endpointManager;
+
+    private final Object lock = new Object();
+
+    /**
+     * The dictionaries of each report, by report key.
+     */
+    private final Map<String, RollupReport> reports = new HashMap<>();
+
+    /**
+     * The days of each report that are stored in {@link #days}, so that the days of a report can be found.
+     */
+    private final Map<String, Set<LocalDate>> reportDays = new HashMap<>();
+
+    /**
+     * The daily reports of the closed days, by day and report key (see {@link #getDayKey}).
+     */
+    private Cache<DailyColumns> days;
+
+    /**
+     * The keys of the reports whose days were evicted since their dictionaries were last checked.
+     */
+    private final Set<String> evictedReports = new HashSet<>();
+
+    private int maxDays;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.maxDays = this.configuration.getRollupMaxDays();
+        if (this.maxDays > 0) {
+            try {
+                this.days = this.cacheManager.createNewLocalCache(new LRUCacheConfiguration(CACHE_ID, this.maxDays));
+            } catch (CacheException e) {
+                throw new InitializationException("Failed to create the analytics rollup cache.", e);
+            }
+            this.days.addCacheEntryListener(new EvictionListener());
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.days != null) {
+            this.days.dispose();
+        }
+    }
+
+    /**
+     * @param parameters the parameters of a Matomo request
+     * @return {@code true} if the request can be answered by {@link #request}, {@code false} if it has to be sent to
+     *     Matomo
+     */
+    public boolean supports(Map<String, String> parameters)
+    {
+        Boolean flat = SUPPORTED_METHODS.get(parameters.get(METHOD));
+        if (this.maxDays <= 0 || flat == null || (flat && !"1".equals(parameters.get(FLAT)))
+            || !RANGE.equals(parameters.get(PERIOD)))
+        {
+            return false;
+        }
+        MatomoDateRange range = MatomoDateRange.resolve(RANGE, parameters.get(DATE), LocalDate.now());
+        return range != null && !range.getEnd().isBefore(range.getStart())
+            && ChronoUnit.DAYS.between(range.getStart(), range.getEnd()) < this.maxDays;
+    }
+
+    /**
+     * Compute the report for a range of days from the daily reports, requesting from Matomo only the daily reports
+     * that are not stored yet.
+     *
+     * @param parameters the parameters of a request supported by this store
+     * @param filters holds the criteria for filtering a dataset
+     * @param jsonNormaliser the normaliser applied on the computed report
+     * @return the normalised report, in the same format as when the range is requested from Matomo
+     * @throws IOException if the daily reports can't be requested from Matomo
+     */
+    public JsonNode request(Map<String, String> parameters, Map<String, String> filters,
+        JsonNormaliser jsonNormaliser) throws IOException
+    {
+        LocalDate today = LocalDate.now();
+        MatomoDateRange range = MatomoDateRange.resolve(RANGE, parameters.get(DATE), today);
+        if (range == null) {
+            throw new IOException(String.format("Unsupported date [%s].", parameters.get(DATE)));
+        }
+        String reportKey = getReportKey(parameters, today);
+        LocalDate lastDay = range.getEnd().isAfter(today) ? today : range.getEnd();
+
+        Map<LocalDate, DailyColumns> rangeDays = new HashMap<>();
+        LocalDate firstMissingDay = null;
+        synchronized (this.lock) {
+            for (LocalDate day = range.getStart(); !day.isAfter(lastDay); day = day.plusDays(1)) {
+                DailyColumns columns =
+                    MatomoDateRange.isClosedDay(day, today) ? this.days.get(getDayKey(reportKey, day)) : null;
+                if (columns != null) {
+                    rangeDays.put(day, columns);
+                } else if (firstMissingDay == null) {
+                    firstMissingDay = day;
+                }
+            }
+        }
+        if (firstMissingDay != null) {
+            fetch(parameters, reportKey, firstMissingDay, lastDay, today, rangeDays);
+        }
+
+        ArrayNode rows;
+        synchronized (this.lock) {
+            rows = getReport(reportKey).aggregate(rangeDays.values(), parameters.get(FILTER_SORT_COLUMN),
+                "asc".equals(parameters.get(FILTER_SORT_ORDER)), getLimit(parameters));
+        }
+        try (JsonParser parser = OBJECT_MAPPER.treeAsTokens(rows)) {
+            return jsonNormaliser.normaliseData(parser, filters);
+        }
+    }
+
+    /**
+     * Drop the daily reports whose key starts with the given prefix, e.g. the reports of a wiki whose configuration
+     * changed.
+     *
+     * @param keyPrefix the beginning of the keys of the reports to drop, see
+     *     {@link AnalyticsRequestKey#getKeyPrefix(String)}
+     */
+    public void invalidate(String keyPrefix)
+    {
+        if (this.days == null) {
+            return;
+        }
+        synchronized (this.lock) {
+            List<String> reportKeys = new ArrayList<>(this.reports.keySet());
+            reportKeys.addAll(this.reportDays.keySet());
+            for (String reportKey : reportKeys) {
+                if (reportKey.startsWith(keyPrefix)) {
+                    this.reports.remove(reportKey);
+                    Set<LocalDate> storedDays = this.reportDays.remove(reportKey);
+                    for (LocalDate day : storedDays != null ? storedDays : Collections.<LocalDate>emptySet()) {
+                        this.days.remove(getDayKey(reportKey, day));
+                    }
+                    // The removed days are reported as evicted, but the report is already dropped.
+                    this.evictedReports.remove(reportKey);
+                }
+            }
+        }
+    }
+
+    private void fetch(Map<String, String> parameters, String reportKey, LocalDate start, LocalDate end,
+        LocalDate today, Map<LocalDate, DailyColumns> rangeDays) throws IOException
+    {
+        Map<String, String> dailyParameters = new HashMap<>();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (!parameter.getKey().startsWith(FILTER_PREFIX)) {
+                dailyParameters.put(parameter.getKey(), parameter.getValue());
+            }
+        }
+        dailyParameters.put(PERIOD, "day");
+        dailyParameters.put(DATE, start + "," + end);
+        dailyParameters.put(FILTER_LIMIT, "-1");
+        this.requestExecutor.execute(dailyParameters, inputStream -> {
+            ingest(inputStream, reportKey, today, rangeDays);
+            return null;
+        });
+    }
+
+    /**
+     * Read the daily reports returned by Matomo for several days, which have the {@code {"<day>": [rows]}} format,
+     * converting each day to columns as soon as it is read.
+     */
+    private void ingest(InputStream inputStream, String reportKey, LocalDate today,
+        Map<LocalDate, DailyColumns> rangeDays) throws IOException
+    {
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(inputStream)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new MatomoResponseException("Unexpected Matomo response for the daily reports.");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                LocalDate day = parseDay(fieldName);
+                if (day != null && token == JsonToken.START_ARRAY) {
+                    List<ObjectNode> rows = readRows(parser);
+                    synchronized (this.lock) {
+                        DailyColumns columns = getReport(reportKey).createColumns(rows);
+                        rangeDays.put(day, columns);
+                        if (MatomoDateRange.isClosedDay(day, today)) {
+                            this.reportDays.computeIfAbsent(reportKey, key -> new HashSet<>()).add(day);
+                            this.days.set(getDayKey(reportKey, day), columns);
+                        }
+                    }
+                } else if (MESSAGE.equals(fieldName)) {
+                    throw new MatomoResponseException(
+                        String.format("Matomo returned an error: [%s]", parser.getText()));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } finally {
+            synchronized (this.lock) {
+                compactReports();
+            }
+        }
+    }
+
+    /**
+     * Drop the dictionaries of the reports that have no stored day anymore, and rebuild the ones whose labels are
+     * mostly unused since some days were evicted. The stored days are translated to the rebuilt dictionaries, while
+     * the days being aggregated meanwhile are translated when they are aggregated.
+     */
+    private void compactReports()
+    {
+        // Storing the translated days may evict other days, whose reports are compacted the next time.
+        List<String> compactedReports = new ArrayList<>(this.evictedReports);
+        this.evictedReports.clear();
+        for (String reportKey : compactedReports) {
+            Map<String, DailyColumns> storedDays = new HashMap<>();
+            for (LocalDate day : this.reportDays.getOrDefault(reportKey, Collections.emptySet())) {
+                String dayKey = getDayKey(reportKey, day);
+                DailyColumns columns = this.days.get(dayKey);
+                if (columns != null) {
+                    storedDays.put(dayKey, columns);
+                }
+            }
+            RollupReport report = this.reports.get(reportKey);
+            if (storedDays.isEmpty()) {
+                this.reports.remove(reportKey);
+                this.reportDays.remove(reportKey);
+            } else if (report != null && report.getLabelCount() >= MIN_REBUILT_LABEL_COUNT
+                && report.getUsedLabelCount(storedDays.values()) * 2 < report.getLabelCount())
+            {
+                RollupReport rebuiltReport = new RollupReport();
+                for (Map.Entry<String, DailyColumns> entry : storedDays.entrySet()) {
+                    this.days.set(entry.getKey(), rebuiltReport.translate(entry.getValue()));
+                }
+                this.reports.put(reportKey, rebuiltReport);
+            }
+        }
+    }
+
+    private static String getDayKey(String reportKey, LocalDate day)
+    {
+        // The days don't contain the separator, so the report key is what follows its first occurrence.
+        return day.toString() + DAY_SEPARATOR + reportKey;
+    }
+
+    private List<ObjectNode> readRows(JsonParser parser) throws IOException
+    {
+        List<ObjectNode> rows = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            rows.add(OBJECT_MAPPER.readTree(parser));
+        }
+        return rows;
+    }
+
+    private LocalDate parseDay(String fieldName)
+    {
+        try {
+            return LocalDate.parse(fieldName);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private RollupReport getReport(String reportKey)
+    {
+        return this.reports.computeIfAbsent(reportKey, key -> new RollupReport());
+    }
+
+    /**
+     * The daily reports can be shared by all the ranges requested with the same parameters, regardless of the
+     * requested days and of the way the rows are sorted and truncated, but not between wikis or Matomo instances.
+     */
+    private String getReportKey(Map<String, String> parameters, LocalDate today)
+    {
+        Map<String, String> reportParameters = new HashMap<>(parameters);
+        reportParameters.remove(DATE);
+        reportParameters.remove(PERIOD);
+        reportParameters.keySet().removeIf(key -> key.startsWith(FILTER_PREFIX));
+        return AnalyticsRequestKey.create(this.endpointManager.getCacheScope(), reportParameters, null,
+            REPORT_KEY_HINT, today).toString();
+    }
+
+    private int getLimit(Map<String, String> parameters)
+    {
+        if (parameters.containsKey(FILTER_PATTERN) || parameters.containsKey(FILTER_PATTERN_RECURSIVE)) {
+            // Matomo filters the rows before truncating them, while the filters are applied here by the normaliser,
+            // after the rows are returned.
+            return -1;
+        }
+        try {
+            int limit = Integer.parseInt(parameters.getOrDefault(FILTER_LIMIT, "-1"));
+            return limit > 0 ? limit : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Keeps track of the reports whose days are evicted.
+     */
+    private final class EvictionListener implements CacheEntryListener<DailyColumns>
+    {
+        @Override
+        public void cacheEntryAdded(CacheEntryEvent<DailyColumns> event)
+        {
+            // The added days are tracked when they are stored.
+        }
+
+        @Override
+        public void cacheEntryRemoved(CacheEntryEvent<DailyColumns> event)
+        {
+            String dayKey = event.getEntry().getKey();
+            int separatorIndex = dayKey.indexOf(DAY_SEPARATOR);
+            LocalDate day = LocalDate.parse(dayKey.substring(0, separatorIndex));
+            String reportKey = dayKey.substring(separatorIndex + 1);
+            synchronized (DailyRollupStore.this.lock) {
+                Set<LocalDate> storedDays = DailyRollupStore.this.reportDays.get(reportKey);
+                if (storedDays != null) {
+                    storedDays.remove(day);
+                }
+                DailyRollupStore.this.evictedReports.add(reportKey);
+            }
+        }
+
+        @Override
+        public void cacheEntryModified(CacheEntryEvent<DailyColumns> event)
+        {
+            // The translated days stay in the same report.
+        }
+    }
+}
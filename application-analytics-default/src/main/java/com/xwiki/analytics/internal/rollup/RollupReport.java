@@ -0,0 +1,433 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.rollup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The dictionaries shared by the daily reports of a Matomo report (e.g. the page URLs of a site): the labels of the
+ * rows, along with their other attributes, and the names of the metrics. The daily reports are converted to
+ * {@link DailyColumns} using these dictionaries, and the report for a range of days is computed by summing the columns
+ * of its days. The ratios, like the bounce rate, can't be summed so they are computed again from the summed metrics.
+ * The minimums and maximums are aggregated as such, and the numbers of distinct visitors are summed under the
+ * {@code sum_daily_} names that Matomo uses for the ranges, since a visitor coming back on several days is counted
+ * several times.
+ * <p>
+ * The dictionaries only grow, so they are rebuilt when most of their labels are no longer used: the columns created
+ * with the previous dictionaries are {@link #translate translated} when they are aggregated.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @version $Id$
+ * @since 1.1.1
+ */
+final class RollupReport
+{
+    private static final String LABEL = "label";
+
+    private static final String NB_VISITS = "nb_visits";
+
+    private static final String MIN_PREFIX = "min_";
+
+    private static final String MAX_PREFIX = "max_";
+
+    private static final String SUM_DAILY_PREFIX = "sum_daily_";
+
+    /**
+     * The metrics counting distinct visitors, which can't be summed over several days.
+     */
+    private static final Set<String> DAILY_UNIQUE_METRICS =
+        new HashSet<>(Arrays.asList("nb_uniq_visitors", "nb_users"));
+
+    /**
+     * The integer columns that are attributes of the rows rather than metrics.
+     */
+    private static final Set<String> ATTRIBUTES = new LinkedHashSet<>(Arrays.asList(LABEL, "idsubdatatable"));
+
+    private static final List<DerivedMetric> DERIVED_METRICS = Arrays.asList(
+        new DerivedMetric("bounce_rate", "entry_bounce_count", "entry_nb_visits", DerivedMetric.PERCENT),
+        new DerivedMetric("bounce_rate", "bounce_count", NB_VISITS, DerivedMetric.PERCENT),
+        new DerivedMetric("exit_rate", "exit_nb_visits", NB_VISITS, DerivedMetric.PERCENT),
+        new DerivedMetric("avg_time_on_page", "sum_time_spent", "nb_hits", DerivedMetric.INTEGER),
+        new DerivedMetric("avg_time_on_site", "sum_visit_length", NB_VISITS, DerivedMetric.INTEGER),
+        new DerivedMetric("nb_actions_per_visit", "nb_actions", NB_VISITS, DerivedMetric.DECIMAL));
+
+    private final Map<String, Integer> labelIds = new HashMap<>();
+
+    private final List<ObjectNode> labelAttributes = new ArrayList<>();
+
+    private final Map<String, Integer> metricIds = new HashMap<>();
+
+    private final List<String> metricNames = new ArrayList<>();
+
+    private final Set<String> derivedMetricNames = new LinkedHashSet<>();
+
+    /**
+     * Convert the rows of a daily report to columns.
+     *
+     * @param rows the rows returned by Matomo for a day
+     * @return the columns of the daily report
+     */
+    DailyColumns createColumns(List<ObjectNode> rows)
+    {
+        int[] labels = new int[rows.size()];
+        List<long[]> metrics = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            ObjectNode row = rows.get(i);
+            labels[i] = getLabelId(row);
+            Iterator<Map.Entry<String, JsonNode>> fields = row.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (isDerivedMetric(field.getKey())) {
+                    this.derivedMetricNames.add(field.getKey());
+                } else if (isMetric(field.getKey(), field.getValue())) {
+                    int metricId = getMetricId(field.getKey());
+                    while (metrics.size() <= metricId) {
+                        metrics.add(null);
+                    }
+                    if (metrics.get(metricId) == null) {
+                        metrics.set(metricId, new long[rows.size()]);
+                    }
+                    metrics.get(metricId)[i] = field.getValue().longValue();
+                }
+            }
+        }
+        return new DailyColumns(this, labels, metrics.toArray(new long[0][]));
+    }
+
+    /**
+     * Convert the columns of a daily report created with other dictionaries, e.g. the ones this report replaces.
+     *
+     * @param columns the columns of a daily report
+     * @return the same columns, using the dictionaries of this report
+     */
+    DailyColumns translate(DailyColumns columns)
+    {
+        RollupReport source = columns.getReport();
+        if (source == this) {
+            return columns;
+        }
+        this.derivedMetricNames.addAll(source.derivedMetricNames);
+        int[] sourceLabels = columns.getLabels();
+        int[] labels = new int[sourceLabels.length];
+        for (int i = 0; i < sourceLabels.length; i++) {
+            labels[i] = getLabelId(source.labelAttributes.get(sourceLabels[i]));
+        }
+        long[][] sourceMetrics = columns.getMetrics();
+        List<long[]> metrics = new ArrayList<>();
+        for (int sourceMetricId = 0; sourceMetricId < sourceMetrics.length; sourceMetricId++) {
+            if (sourceMetrics[sourceMetricId] != null) {
+                int metricId = getMetricId(source.metricNames.get(sourceMetricId));
+                while (metrics.size() <= metricId) {
+                    metrics.add(null);
+                }
+                metrics.set(metricId, sourceMetrics[sourceMetricId]);
+            }
+        }
+        return new DailyColumns(this, labels, metrics.toArray(new long[0][]));
+    }
+
+    /**
+     * @return the number of labels of the dictionary
+     */
+    int getLabelCount()
+    {
+        return this.labelAttributes.size();
+    }
+
+    /**
+     * @param days the columns of the stored daily reports
+     * @return the number of labels of the dictionary that are used by the given daily reports
+     */
+    int getUsedLabelCount(Collection<DailyColumns> days)
+    {
+        boolean[] used = new boolean[this.labelAttributes.size()];
+        int usedCount = 0;
+        for (DailyColumns day : days) {
+            if (day.getReport() != this) {
+                continue;
+            }
+            for (int labelId : day.getLabels()) {
+                if (!used[labelId]) {
+                    used[labelId] = true;
+                    usedCount++;
+                }
+            }
+        }
+        return usedCount;
+    }
+
+    /**
+     * Compute the report of several days.
+     *
+     * @param days the columns of the daily reports to sum
+     * @param sortColumn the column used to sort the rows, in descending order by default
+     * @param ascending {@code true} to sort the rows in ascending order
+     * @param limit the maximum number of rows to return, or a negative value to return all the rows
+     * @return the rows, in the format returned by Matomo
+     */
+    ArrayNode aggregate(Collection<DailyColumns> days, String sortColumn, boolean ascending, int limit)
+    {
+        List<DailyColumns> translatedDays = new ArrayList<>(days.size());
+        for (DailyColumns day : days) {
+            translatedDays.add(translate(day));
+        }
+        int labelCount = this.labelAttributes.size();
+        long[][] totals = new long[this.metricNames.size()][];
+        boolean[] present = new boolean[labelCount];
+        for (DailyColumns day : translatedDays) {
+            add(day, totals, present, labelCount);
+        }
+        resetMissingMinimums(totals, labelCount);
+        Map<String, double[]> derivedMetrics = computeDerivedMetrics(totals, labelCount);
+
+        List<Integer> rows = new ArrayList<>();
+        for (int labelId = 0; labelId < labelCount; labelId++) {
+            if (present[labelId]) {
+                rows.add(labelId);
+            }
+        }
+        Comparator<Integer> comparator = getComparator(sortColumn, totals, derivedMetrics);
+        rows.sort(ascending ? comparator : comparator.reversed());
+
+        ArrayNode result = JsonNodeFactory.instance.arrayNode();
+        for (int labelId : limit < 0 || limit >= rows.size() ? rows : rows.subList(0, limit)) {
+            ObjectNode row = this.labelAttributes.get(labelId).deepCopy();
+            for (int metricId = 0; metricId < totals.length; metricId++) {
+                row.put(getRangeMetricName(this.metricNames.get(metricId)),
+                    totals[metricId] == null ? 0 : totals[metricId][labelId]);
+            }
+            for (DerivedMetric derivedMetric : DERIVED_METRICS) {
+                double[] values = derivedMetrics.get(derivedMetric.name);
+                if (values != null && !row.has(derivedMetric.name)) {
+                    derivedMetric.set(row, values[labelId]);
+                }
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
+    private void add(DailyColumns day, long[][] totals, boolean[] present, int labelCount)
+    {
+        int[] labels = day.getLabels();
+        for (int labelId : labels) {
+            present[labelId] = true;
+        }
+        long[][] metrics = day.getMetrics();
+        for (int metricId = 0; metricId < metrics.length; metricId++) {
+            long[] values = metrics[metricId];
+            if (values == null) {
+                continue;
+            }
+            String metricName = this.metricNames.get(metricId);
+            if (totals[metricId] == null) {
+                totals[metricId] = new long[labelCount];
+                if (metricName.startsWith(MIN_PREFIX)) {
+                    Arrays.fill(totals[metricId], Long.MAX_VALUE);
+                }
+            }
+            long[] total = totals[metricId];
+            if (metricName.startsWith(MAX_PREFIX)) {
+                for (int i = 0; i < labels.length; i++) {
+                    total[labels[i]] = Math.max(total[labels[i]], values[i]);
+                }
+            } else if (metricName.startsWith(MIN_PREFIX)) {
+                for (int i = 0; i < labels.length; i++) {
+                    total[labels[i]] = Math.min(total[labels[i]], values[i]);
+                }
+            } else {
+                for (int i = 0; i < labels.length; i++) {
+                    total[labels[i]] += values[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * The minimums start from the biggest value, which is left for the labels missing from all the days.
+     */
+    private void resetMissingMinimums(long[][] totals, int labelCount)
+    {
+        for (int metricId = 0; metricId < totals.length; metricId++) {
+            if (totals[metricId] != null && this.metricNames.get(metricId).startsWith(MIN_PREFIX)) {
+                for (int labelId = 0; labelId < labelCount; labelId++) {
+                    if (totals[metricId][labelId] == Long.MAX_VALUE) {
+                        totals[metricId][labelId] = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    private Map<String, double[]> computeDerivedMetrics(long[][] totals, int labelCount)
+    {
+        Map<String, double[]> derivedMetrics = new HashMap<>();
+        for (DerivedMetric derivedMetric : DERIVED_METRICS) {
+            Integer numeratorId = this.metricIds.get(derivedMetric.numerator);
+            Integer denominatorId = this.metricIds.get(derivedMetric.denominator);
+            if (!this.derivedMetricNames.contains(derivedMetric.name) || derivedMetrics.containsKey(derivedMetric.name)
+                || numeratorId == null || denominatorId == null)
+            {
+                continue;
+            }
+            double[] values = new double[labelCount];
+            long[] numerators = totals[numeratorId];
+            long[] denominators = totals[denominatorId];
+            if (numerators != null && denominators != null) {
+                for (int labelId = 0; labelId < labelCount; labelId++) {
+                    if (denominators[labelId] != 0) {
+                        values[labelId] = (double) numerators[labelId] / denominators[labelId];
+                    }
+                }
+            }
+            derivedMetrics.put(derivedMetric.name, values);
+        }
+        return derivedMetrics;
+    }
+
+    private Comparator<Integer> getComparator(String sortColumn, long[][] totals, Map<String, double[]> derivedMetrics)
+    {
+        String column = getDailyMetricName(sortColumn == null ? NB_VISITS : sortColumn);
+        Integer metricId = this.metricIds.get(column);
+        if (metricId != null) {
+            long[] values = totals[metricId] == null ? new long[this.labelAttributes.size()] : totals[metricId];
+            return (first, second) -> Long.compare(values[first], values[second]);
+        }
+        double[] derivedValues = derivedMetrics.get(column);
+        if (derivedValues != null) {
+            return (first, second) -> Double.compare(derivedValues[first], derivedValues[second]);
+        }
+        return Comparator.comparing(labelId -> this.labelAttributes.get(labelId).path(column).asText());
+    }
+
+    private int getLabelId(ObjectNode row)
+    {
+        String label = row.path(LABEL).asText();
+        Integer labelId = this.labelIds.get(label);
+        if (labelId == null) {
+            labelId = this.labelAttributes.size();
+            this.labelIds.put(label, labelId);
+            ObjectNode attributes = JsonNodeFactory.instance.objectNode();
+            Iterator<Map.Entry<String, JsonNode>> fields = row.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (!isDerivedMetric(field.getKey()) && !isMetric(field.getKey(), field.getValue())) {
+                    attributes.set(field.getKey(), field.getValue());
+                }
+            }
+            this.labelAttributes.add(attributes);
+        }
+        return labelId;
+    }
+
+    private int getMetricId(String name)
+    {
+        Integer metricId = this.metricIds.get(name);
+        if (metricId == null) {
+            metricId = this.metricNames.size();
+            this.metricIds.put(name, metricId);
+            this.metricNames.add(name);
+        }
+        return metricId;
+    }
+
+    private static String getRangeMetricName(String name)
+    {
+        return DAILY_UNIQUE_METRICS.contains(name) ? SUM_DAILY_PREFIX + name : name;
+    }
+
+    private static String getDailyMetricName(String name)
+    {
+        String dailyName = name.startsWith(SUM_DAILY_PREFIX) ? name.substring(SUM_DAILY_PREFIX.length()) : null;
+        return DAILY_UNIQUE_METRICS.contains(dailyName) ? dailyName : name;
+    }
+
+    private static boolean isMetric(String name, JsonNode value)
+    {
+        return value.isIntegralNumber() && !ATTRIBUTES.contains(name);
+    }
+
+    private static boolean isDerivedMetric(String name)
+    {
+        return name.startsWith("avg_") || name.endsWith("_rate") || name.endsWith("_per_visit");
+    }
+
+    /**
+     * A metric computed from the ratio of two other metrics.
+     */
+    private static final class DerivedMetric
+    {
+        static final int PERCENT = 0;
+
+        static final int INTEGER = 1;
+
+        static final int DECIMAL = 2;
+
+        private static final double PERCENT_FACTOR = 100;
+
+        private static final double DECIMAL_FACTOR = 10;
+
+        private final String name;
+
+        private final String numerator;
+
+        private final String denominator;
+
+        private final int format;
+
+        DerivedMetric(String name, String numerator, String denominator, int format)
+        {
+            this.name = name;
+            this.numerator = numerator;
+            this.denominator = denominator;
+            this.format = format;
+        }
+
+        /**
+         * Set the value of this metric on a row, using the format of Matomo.
+         */
+        void set(ObjectNode row, double ratio)
+        {
+            if (this.format == PERCENT) {
+                row.put(this.name, Math.round(ratio * PERCENT_FACTOR) + "%");
+            } else if (this.format == INTEGER) {
+                row.put(this.name, Math.round(ratio));
+            } else {
+                row.put(this.name, Math.round(ratio * DECIMAL_FACTOR) / DECIMAL_FACTOR);
+            }
+        }
+    }
+}
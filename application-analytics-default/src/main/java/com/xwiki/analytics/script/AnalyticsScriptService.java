@@ -19,7 +19,16 @@
  */
 package com.xwiki.analytics.script;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -27,11 +36,19 @@ import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.script.service.ScriptService;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
 import org.xwiki.stability.Unstable;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.xwiki.analytics.AnalyticsManager;
+import com.xwiki.analytics.AnalyticsRequest;
+import com.xwiki.analytics.AnalyticsResponse;
 import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.MatomoCallGuard;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache;
+import com.xwiki.analytics.internal.cache.PersistentResponseStore;
+import com.xwiki.analytics.internal.metrics.AnalyticsMetrics;
 
 /**
  * Script service for the Analytics Application.
@@ -52,6 +69,21 @@ public class AnalyticsScriptService implements ScriptService
     @Named("Matomo")
     private AnalyticsManager analyticsManager;
 
+    @Inject
+    private AnalyticsResponseCache responseCache;
+
+    @Inject
+    private PersistentResponseStore persistentStore;
+
+    @Inject
+    private AnalyticsMetrics metrics;
+
+    @Inject
+    private MatomoCallGuard callGuard;
+
+    @Inject
+    private ContextualAuthorizationManager contextualAuthorizationManager;
+
     /**
      * Get data from the analytics API, in normalized JSON format.
      *
@@ -71,6 +103,184 @@ public class AnalyticsScriptService implements ScriptService
         }
     }
 
+    /**
+     * Get a window of the rows returned by the analytics API, e.g. a page of a live data. The window is taken from the
+     * rows that the current user can view.
+     *
+     * @param parameters a map of the parameters needed for this request
+     * @param filters holds the criteria for filtering a dataset.
+     * @param jsonNormaliserHint hint specific to the component that will normalize the response
+     * @param offset the index of the first row to return
+     * @param limit the maximum number of rows to return
+     * @return a JSON object with the number of rows matching the filters that the current user can view, or an upper
+     *     bound of it, in the {@code totalRows} field, and the normalized rows of the window, in the {@code rows}
+     *     field
+     * @since 1.1.1
+     */
+    public JsonNode makeRequest(Map<String, String> parameters, Map<String, String> filters,
+        String jsonNormaliserHint, int offset, int limit)
+    {
+        try {
+            return analyticsManager.requestData(parameters, filters, jsonNormaliserHint, offset, limit);
+        } catch (Exception e) {
+            throw new RuntimeException(String.format("Failed to get data for [%s]", jsonNormaliserHint), e);
+        }
+    }
+
+    /**
+     * Create a request that can be sent along with others using {@link #makeBatchRequest(List)}.
+     *
+     * @param parameters a map of the parameters needed for this request
+     * @param filters holds the criteria for filtering a dataset.
+     * @param jsonNormaliserHint hint specific to the component that will normalize the response
+     * @return the request
+     * @since 1.1.1
+     */
+    public AnalyticsRequest createRequest(Map<String, String> parameters, Map<String, String> filters,
+        String jsonNormaliserHint)
+    {
+        return new AnalyticsRequest(parameters, filters, jsonNormaliserHint);
+    }
+
+    /**
+     * Get the data for several requests at once, using a single request to the analytics API. A failing request
+     * doesn't prevent getting the data for the others.
+     *
+     * @param requests the requests created with {@link #createRequest(Map, Map, String)}
+     * @return the responses, in the same order as the requests, holding either the normalized JSON or the error
+     * @since 1.1.1
+     */
+    public List<AnalyticsResponse> makeBatchRequest(List<AnalyticsRequest> requests)
+    {
+        return this.analyticsManager.requestBatch(requests);
+    }
+
+    /**
+     * Get data from the analytics API in the background, in normalized JSON format.
+     *
+     * @param parameters a map of the parameters needed for this request
+     * @param filters holds the criteria for filtering a dataset.
+     * @param jsonNormaliserHint hint specific to the component that will normalize the response
+     * @return the future normalized JSON
+     * @since 1.1.1
+     */
+    public CompletableFuture<JsonNode> makeRequestAsync(Map<String, String> parameters, Map<String, String> filters,
+        String jsonNormaliserHint)
+    {
+        return this.analyticsManager.requestDataAsync(parameters, filters, jsonNormaliserHint);
+    }
+
+    /**
+     * Get the data for several requests in parallel, waiting at most
+     * {@link AnalyticsConfiguration#getRequestsTimeout()} milliseconds for all of them.
+     *
+     * @param requests the requests created with {@link #createRequest(Map, Map, String)}
+     * @return the responses, in the same order as the requests, holding either the normalized JSON or the error
+     * @see #makeParallelRequests(List, long)
+     * @since 1.1.1
+     */
+    public List<AnalyticsResponse> makeParallelRequests(List<AnalyticsRequest> requests)
+    {
+        return makeParallelRequests(requests, this.configuration.getRequestsTimeout());
+    }
+
+    /**
+     * Get the data for several requests in parallel (e.g. for all the widgets of a dashboard), so that it takes about
+     * as long as the slowest request. The requests that didn't finish before the timeout are cancelled and reported as
+     * failed, without affecting the others.
+     *
+     * @param requests the requests created with {@link #createRequest(Map, Map, String)}
+     * @param timeout the maximum time, in milliseconds, to wait for all the requests
+     * @return the responses, in the same order as the requests, holding either the normalized JSON or the error
+     * @since 1.1.1
+     */
+    public List<AnalyticsResponse> makeParallelRequests(List<AnalyticsRequest> requests, long timeout)
+    {
+        List<CompletableFuture<JsonNode>> futures = new ArrayList<>(requests.size());
+        for (AnalyticsRequest request : requests) {
+            futures.add(this.analyticsManager.requestDataAsync(request.getParameters(), request.getFilters(),
+                request.getJsonNormaliserHint()));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // The failures are reported for each request.
+        }
+
+        List<AnalyticsResponse> responses = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            responses.add(getResponse(requests.get(i), futures.get(i), timeout));
+        }
+        return responses;
+    }
+
+    private AnalyticsResponse getResponse(AnalyticsRequest request, CompletableFuture<JsonNode> future, long timeout)
+    {
+        if (!future.isDone()) {
+            future.cancel(true);
+            return new AnalyticsResponse(request, new TimeoutException(
+                String.format("The request for [%s] didn't finish in [%s] milliseconds.",
+                    request.getJsonNormaliserHint(), timeout)));
+        }
+        try {
+            return new AnalyticsResponse(request, future.join());
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            return new AnalyticsResponse(request,
+                cause instanceof Exception ? (Exception) cause : new ExecutionException(cause));
+        } catch (CancellationException e) {
+            return new AnalyticsResponse(request, e);
+        }
+    }
+
+    /**
+     * @return the statistics of the cache holding the normalised responses (hits, stale hits, misses, expirations and
+     *     maximum size) and of the persistent cache (prefixed with {@code persistent}), useful to size the caches, or
+     *     an empty map if the current user is not an administrator
+     * @since 1.1.1
+     */
+    public Map<String, Long> getCacheStatistics()
+    {
+        if (!this.contextualAuthorizationManager.hasAccess(Right.ADMIN)) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> statistics = this.responseCache.getStatistics();
+        statistics.putAll(this.persistentStore.getStatistics());
+        return statistics;
+    }
+
+    /**
+     * @return the latency and throughput metrics of the requests made to Matomo, by API method (in the {@code matomo}
+     *     entry), and of the requests made through this service, by normaliser hint and API method (in the
+     *     {@code normalisers} entry), which are also available as JMX MBeans in the {@code com.xwiki.analytics} domain;
+     *     the durations are in milliseconds; an empty map if the current user is not an administrator
+     * @since 1.1.1
+     */
+    public Map<String, Object> getMetrics()
+    {
+        if (!this.contextualAuthorizationManager.hasAccess(Right.ADMIN)) {
+            return Collections.emptyMap();
+        }
+        return this.metrics.getMetrics();
+    }
+
+    /**
+     * @return the state of the circuit breaker protecting the wiki from an unavailable Matomo ({@code CLOSED},
+     *     {@code OPEN} or {@code HALF_OPEN}), the outcome of the last requests, the number of rejected requests and
+     *     the number of requests that can still be made to Matomo at the same time; an empty map if the current user
+     *     is not an administrator
+     * @since 1.1.1
+     */
+    public Map<String, Object> getMatomoAvailability()
+    {
+        if (!this.contextualAuthorizationManager.hasAccess(Right.ADMIN)) {
+            return Collections.emptyMap();
+        }
+        return this.callGuard.getState();
+    }
+
     /**
      * @return the analytics configuration.
      */
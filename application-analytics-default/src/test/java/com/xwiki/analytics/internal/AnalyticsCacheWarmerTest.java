@@ -0,0 +1,201 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.analytics.AnalyticsManager;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link AnalyticsCacheWarmer}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class AnalyticsCacheWarmerTest
+{
+    private static final String PERIOD = "period";
+
+    private static final String DATE = "date";
+
+    private static final String RANGE = "range";
+
+    @InjectMockComponents
+    private AnalyticsCacheWarmer cacheWarmer;
+
+    @MockComponent
+    private AnalyticsConfiguration configuration;
+
+    @MockComponent
+    @Named("Matomo")
+    private Provider<AnalyticsManager> analyticsManagerProvider;
+
+    @MockComponent
+    private AnalyticsTaskExecutor taskExecutor;
+
+    @MockComponent
+    private ModelContext modelContext;
+
+    private final MatomoAnalyticsManager analyticsManager = mock(MatomoAnalyticsManager.class);
+
+    @BeforeComponent
+    void configure()
+    {
+        when(this.configuration.getCacheWarmupInterval()).thenReturn(3600);
+        when(this.configuration.getCacheWarmupSize()).thenReturn(10);
+        when(this.configuration.getCacheWarmupMaxConcurrentRequests()).thenReturn(1);
+    }
+
+    @BeforeEach
+    void setUp()
+    {
+        when(this.analyticsManagerProvider.get()).thenReturn(this.analyticsManager);
+        when(this.taskExecutor.submit(any())).thenAnswer(invocation -> {
+            Callable<?> task = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(task.call());
+        });
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        this.cacheWarmer.dispose();
+    }
+
+    @Test
+    void warmUpRefreshesTheCurrentAndThePreviousPeriods() throws Exception
+    {
+        LocalDate today = LocalDate.now();
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(PERIOD, RANGE);
+        parameters.put(DATE, today.minusDays(6) + "," + today);
+        parameters.put("token_auth", "secret");
+        Map<String, String> filters = Collections.singletonMap("label", "Main");
+        this.cacheWarmer.record(parameters, filters, MostViewedJsonNormaliser.HINT, 0, 10);
+
+        this.cacheWarmer.warmUp(today.plusDays(2));
+
+        Map<String, String> current = new HashMap<>();
+        current.put(PERIOD, RANGE);
+        current.put(DATE, today.minusDays(4) + "," + today.plusDays(2));
+        verify(this.analyticsManager).refreshData(current, filters, MostViewedJsonNormaliser.HINT, 0, 10);
+        Map<String, String> previous = new HashMap<>();
+        previous.put(PERIOD, RANGE);
+        previous.put(DATE, today.minusDays(11) + "," + today.minusDays(5));
+        verify(this.analyticsManager).refreshData(previous, filters, MostViewedJsonNormaliser.HINT, 0, 10);
+    }
+
+    @Test
+    void warmUpForgetsTheOldRequests() throws Exception
+    {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(PERIOD, "day");
+        parameters.put(DATE, "yesterday");
+        this.cacheWarmer.record(parameters, null, MostViewedJsonNormaliser.HINT);
+
+        this.cacheWarmer.warmUp(LocalDate.now().plusDays(8));
+
+        verify(this.analyticsManager, never()).refreshData(any(), any(), any());
+    }
+
+    @Test
+    void warmUpKeepsThePastPeriods() throws Exception
+    {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(PERIOD, "month");
+        parameters.put(DATE, "2024-03-13");
+        this.cacheWarmer.record(parameters, null, MostViewedJsonNormaliser.HINT);
+
+        this.cacheWarmer.warmUp(LocalDate.now().plusDays(1));
+
+        Map<String, String> current = new HashMap<>(parameters);
+        current.put(DATE, "2024-03-01");
+        verify(this.analyticsManager).refreshData(current, null, MostViewedJsonNormaliser.HINT);
+        Map<String, String> previous = new HashMap<>(parameters);
+        previous.put(DATE, "2024-02-01");
+        verify(this.analyticsManager).refreshData(previous, null, MostViewedJsonNormaliser.HINT);
+    }
+
+    @Test
+    void warmUpMovesTheRelativeDates() throws Exception
+    {
+        LocalDate today = LocalDate.now();
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(PERIOD, "day");
+        parameters.put(DATE, "yesterday");
+        this.cacheWarmer.record(parameters, null, MostViewedJsonNormaliser.HINT);
+
+        this.cacheWarmer.warmUp(today.plusDays(1));
+
+        Map<String, String> current = new HashMap<>(parameters);
+        current.put(DATE, today.toString());
+        verify(this.analyticsManager).refreshData(current, null, MostViewedJsonNormaliser.HINT);
+        Map<String, String> previous = new HashMap<>(parameters);
+        previous.put(DATE, today.minusDays(1).toString());
+        verify(this.analyticsManager).refreshData(previous, null, MostViewedJsonNormaliser.HINT);
+    }
+
+    @Test
+    void warmUpRefreshesTheRequestsInTheirWiki() throws Exception
+    {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(PERIOD, RANGE);
+        parameters.put(DATE, "2024-03-01,2024-03-07");
+        when(this.modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("subwiki"));
+        this.cacheWarmer.record(parameters, null, MostViewedJsonNormaliser.HINT);
+        when(this.modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("xwiki"));
+        this.cacheWarmer.record(parameters, null, MostViewedJsonNormaliser.HINT);
+
+        this.cacheWarmer.warmUp(LocalDate.now());
+
+        InOrder inOrder = inOrder(this.modelContext, this.analyticsManager);
+        inOrder.verify(this.modelContext).setCurrentEntityReference(new WikiReference("subwiki"));
+        inOrder.verify(this.analyticsManager).refreshData(parameters, null, MostViewedJsonNormaliser.HINT);
+        inOrder.verify(this.modelContext).setCurrentEntityReference(new WikiReference("xwiki"));
+        inOrder.verify(this.analyticsManager).refreshData(parameters, null, MostViewedJsonNormaliser.HINT);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link AnalyticsTaskExecutor}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class AnalyticsTaskExecutorTest
+{
+    private static final long TIMEOUT = 5;
+
+    @InjectMockComponents
+    private AnalyticsTaskExecutor taskExecutor;
+
+    @MockComponent
+    private AnalyticsConfiguration configuration;
+
+    @MockComponent
+    private Execution execution;
+
+    @MockComponent
+    private ExecutionContextManager executionContextManager;
+
+    @BeforeComponent
+    void configure()
+    {
+        when(this.configuration.getMaxConcurrentRequests()).thenReturn(1);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        this.taskExecutor.dispose();
+    }
+
+    @Test
+    void submitRunsTheTaskWithAClonedContext() throws Exception
+    {
+        ExecutionContext context = new ExecutionContext();
+        ExecutionContext clonedContext = new ExecutionContext();
+        when(this.execution.getContext()).thenReturn(context);
+        when(this.executionContextManager.clone(context)).thenReturn(clonedContext);
+
+        assertEquals("result", this.taskExecutor.submit(() -> "result").get(TIMEOUT, TimeUnit.SECONDS));
+        verify(this.execution).setContext(clonedContext);
+        verify(this.execution, timeout(TimeUnit.SECONDS.toMillis(TIMEOUT))).removeContext();
+    }
+
+    @Test
+    void submitReportsTheTaskFailure()
+    {
+        CompletableFuture<Object> future = this.taskExecutor.submit(() -> {
+            throw new IOException("failure");
+        });
+
+        ExecutionException exception =
+            assertThrows(ExecutionException.class, () -> future.get(TIMEOUT, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, exception.getCause());
+    }
+
+    @Test
+    void submitDoesNotRunCancelledTasks() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch(1);
+        CompletableFuture<Boolean> blockingTask =
+            this.taskExecutor.submit(() -> latch.await(TIMEOUT, TimeUnit.SECONDS));
+        boolean[] executed = new boolean[1];
+        CompletableFuture<Boolean> cancelledTask = this.taskExecutor.submit(() -> executed[0] = true);
+
+        // Only one request is allowed at a time so the second task waits for the first one.
+        cancelledTask.cancel(true);
+        latch.countDown();
+
+        assertTrue(blockingTask.get(TIMEOUT, TimeUnit.SECONDS));
+        this.taskExecutor.submit(() -> null).get(TIMEOUT, TimeUnit.SECONDS);
+        assertFalse(executed[0]);
+    }
+}
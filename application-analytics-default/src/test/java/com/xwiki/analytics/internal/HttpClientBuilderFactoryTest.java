@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link HttpClientBuilderFactory}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class HttpClientBuilderFactoryTest
+{
+    @InjectMockComponents
+    private HttpClientBuilderFactory httpClientBuilderFactory;
+
+    @MockComponent
+    private AnalyticsConfiguration configuration;
+
+    @BeforeEach
+    void setUp()
+    {
+        when(this.configuration.getMaxConnections()).thenReturn(20);
+        when(this.configuration.getMaxConnectionsPerRoute()).thenReturn(10);
+        when(this.configuration.getConnectTimeout()).thenReturn(1000);
+        when(this.configuration.getSocketTimeout()).thenReturn(1000);
+        when(this.configuration.getConnectionRequestTimeout()).thenReturn(1000);
+        when(this.configuration.getIdleConnectionTimeout()).thenReturn(1000);
+        when(this.configuration.getKeepAliveDuration()).thenReturn(1000);
+    }
+
+    @Test
+    void getHttpClientIsShared()
+    {
+        CloseableHttpClient client = this.httpClientBuilderFactory.getHttpClient();
+        assertSame(client, this.httpClientBuilderFactory.getHttpClient());
+    }
+
+    @Test
+    void disposeClosesTheSharedClient() throws Exception
+    {
+        CloseableHttpClient client = this.httpClientBuilderFactory.getHttpClient();
+        this.httpClientBuilderFactory.dispose();
+        assertNotSame(client, this.httpClientBuilderFactory.getHttpClient());
+        this.httpClientBuilderFactory.dispose();
+    }
+}
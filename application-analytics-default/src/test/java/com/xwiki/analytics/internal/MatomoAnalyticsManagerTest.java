@@ -21,15 +21,18 @@ package com.xwiki.analytics.internal;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import javax.inject.Named;
 import javax.inject.Provider;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.xwiki.component.util.ReflectionUtils;
@@ -37,18 +40,32 @@ import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.xwiki.analytics.AnalyticsRequest;
+import com.xwiki.analytics.AnalyticsResponse;
 import com.xwiki.analytics.JsonNormaliser;
-import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache.CacheEntry;
+import com.xwiki.analytics.internal.cache.PersistentResponseStore;
+import com.xwiki.analytics.internal.configuration.MatomoEndpoint;
+import com.xwiki.analytics.internal.configuration.MatomoEndpointManager;
+import com.xwiki.analytics.internal.rollup.DailyRollupStore;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Unit test for {@link MatomoAnalyticsManager}
@@ -66,7 +83,7 @@ public class MatomoAnalyticsManagerTest
     private JsonNormaliser jsonNormaliser;
 
     @MockComponent
-    private AnalyticsConfiguration configuration;
+    private MatomoEndpointManager endpointManager;
 
     @MockComponent
     private Logger logger;
@@ -75,7 +92,38 @@ public class MatomoAnalyticsManagerTest
     private Provider<List<JsonNormaliser>> jsonNormalizerProvider;
 
     @MockComponent
-    private HttpClientBuilderFactory builderFactory;
+    private MatomoRequestExecutor requestExecutor;
+
+    @MockComponent
+    private AnalyticsResponseCache responseCache;
+
+    @MockComponent
+    private AnalyticsTaskExecutor taskExecutor;
+
+    @MockComponent
+    private AnalyticsCacheWarmer cacheWarmer;
+
+    @MockComponent
+    private PersistentResponseStore persistentStore;
+
+    @MockComponent
+    private DailyRollupStore rollupStore;
+
+    @MockComponent
+    private VisitsSummaryStore visitsSummaryStore;
+
+    @MockComponent
+    private MatomoCallGuard callGuard;
+
+    @BeforeEach
+    void setUp() throws IOException
+    {
+        when(this.endpointManager.getEndpoint()).thenReturn(new MatomoEndpoint("https://matomo-url/", "3", "token"));
+        when(this.endpointManager.getCacheScope()).thenReturn("xwiki@https://matomo-url/");
+        when(this.callGuard.isAvailable()).thenReturn(true);
+        when(this.callGuard.call(any()))
+            .thenAnswer(invocation -> invocation.<MatomoCallGuard.MatomoCall<?>>getArgument(0).execute());
+    }
 
     /**
      * Will test the Manager with a valid hint.
@@ -84,21 +132,132 @@ public class MatomoAnalyticsManagerTest
     void requestDataWithCorrectHintForNormaliser() throws IOException
     {
         List<JsonNormaliser> normalisers = new ArrayList<>();
-        CloseableHttpClient mockClient = mock(CloseableHttpClient.class);
-        CloseableHttpResponse mockResponse = mock(CloseableHttpResponse.class);
-        HttpEntity mockEntity = mock(HttpEntity.class);
-
         normalisers.add(this.jsonNormaliser);
-        when(this.configuration.getAuthenticationToken()).thenReturn("token");
-        when(this.configuration.getRequestAddress()).thenReturn("https://matomo-url/");
-        when(this.configuration.getIdSite()).thenReturn("3");
         when(this.jsonNormalizerProvider.get()).thenReturn(normalisers);
         when(this.jsonNormaliser.getIdentifier()).thenReturn(MostViewedJsonNormaliser.HINT);
-        when(this.builderFactory.create()).thenReturn(mockClient);
-        when(mockClient.execute(any())).thenReturn(mockResponse);
-        when(mockResponse.getEntity()).thenReturn(mockEntity);
         this.matomoAnalyticsManager.requestData(new HashMap<>(), new HashMap<>(), MostViewedJsonNormaliser.HINT);
-        verify(this.jsonNormaliser).normaliseData(any(), eq(new HashMap<>()));
+        verify(this.requestExecutor).execute(any(), eq(new HashMap<>()), eq(this.jsonNormaliser));
+    }
+
+    /**
+     * Will test that a cached response is returned without contacting Matomo.
+     */
+    @Test
+    void requestDataFromCache() throws IOException
+    {
+        List<JsonNormaliser> normalisers = new ArrayList<>();
+        normalisers.add(this.jsonNormaliser);
+        JsonNode cachedResponse = mockResponse();
+        when(this.jsonNormalizerProvider.get()).thenReturn(normalisers);
+        when(this.jsonNormaliser.getIdentifier()).thenReturn(MostViewedJsonNormaliser.HINT);
+        when(this.jsonNormaliser.filterForCurrentUser(cachedResponse)).thenReturn(cachedResponse);
+        CacheEntry cacheEntry = mock(CacheEntry.class);
+        when(cacheEntry.getValue()).thenReturn(cachedResponse);
+        when(this.responseCache.lookup(any())).thenReturn(cacheEntry);
+
+        assertSame(cachedResponse,
+            this.matomoAnalyticsManager.requestData(new HashMap<>(), new HashMap<>(), MostViewedJsonNormaliser.HINT));
+        verify(this.requestExecutor, never()).execute(any(), any(), any());
+        verify(this.taskExecutor, never()).submit(any());
+        verify(this.cacheWarmer).record(any(), eq(new HashMap<>()), eq(MostViewedJsonNormaliser.HINT));
+    }
+
+    /**
+     * Will test that the caller gets its own copy of the cached response, which it can modify.
+     */
+    @Test
+    void requestDataDoesNotExposeTheCachedResponse() throws IOException
+    {
+        ArrayNode cachedResponse = new ObjectMapper().createArrayNode();
+        cachedResponse.addObject().put("label", "a");
+        when(this.jsonNormalizerProvider.get()).thenReturn(Collections.singletonList(this.jsonNormaliser));
+        when(this.jsonNormaliser.getIdentifier()).thenReturn(MostViewedJsonNormaliser.HINT);
+        when(this.jsonNormaliser.filterForCurrentUser(any())).then(invocation -> invocation.getArgument(0));
+        CacheEntry cacheEntry = mock(CacheEntry.class);
+        when(cacheEntry.getValue()).thenReturn(cachedResponse);
+        when(this.responseCache.lookup(any())).thenReturn(cacheEntry);
+
+        JsonNode response =
+            this.matomoAnalyticsManager.requestData(new HashMap<>(), new HashMap<>(), MostViewedJsonNormaliser.HINT);
+        ((ObjectNode) response.get(0)).put("label", "b");
+
+        assertEquals("a", cachedResponse.get(0).get("label").asText());
+    }
+
+    /**
+     * Will test that the responses for the periods that ended are read from and written to the persistent store.
+     */
+    @Test
+    void requestDataForClosedPeriod() throws IOException
+    {
+        JsonNode persistedResponse = mockResponse();
+        JsonNode response = mockResponse();
+        when(this.jsonNormalizerProvider.get()).thenReturn(Collections.singletonList(this.jsonNormaliser));
+        when(this.jsonNormaliser.getIdentifier()).thenReturn(MostViewedJsonNormaliser.HINT);
+        when(this.jsonNormaliser.filterForCurrentUser(any())).then(invocation -> invocation.getArgument(0));
+        when(this.persistentStore.get(any())).thenReturn(persistedResponse, (JsonNode) null);
+        when(this.requestExecutor.execute(any(), any(), any())).thenReturn(response);
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("period", "month");
+        parameters.put("date", "2024-03-01");
+
+        assertSame(persistedResponse, this.matomoAnalyticsManager.requestData(new HashMap<>(parameters),
+            new HashMap<>(), MostViewedJsonNormaliser.HINT));
+        verify(this.responseCache).put(any(), eq(persistedResponse), eq(true));
+        verify(this.requestExecutor, never()).execute(any(), any(), any());
+
+        assertSame(response, this.matomoAnalyticsManager.requestData(new HashMap<>(parameters), new HashMap<>(),
+            MostViewedJsonNormaliser.HINT));
+        verify(this.persistentStore).put(any(), eq(response));
+    }
+
+    /**
+     * Will test that a stale cached response is returned right away and refreshed in the background.
+     */
+    @Test
+    void requestDataRefreshesStaleResponse() throws Exception
+    {
+        JsonNode staleResponse = mockResponse();
+        JsonNode freshResponse = mockResponse();
+        when(this.jsonNormalizerProvider.get()).thenReturn(Collections.singletonList(this.jsonNormaliser));
+        when(this.jsonNormaliser.getIdentifier()).thenReturn(MostViewedJsonNormaliser.HINT);
+        when(this.jsonNormaliser.filterForCurrentUser(staleResponse)).thenReturn(staleResponse);
+        CacheEntry cacheEntry = mock(CacheEntry.class);
+        when(cacheEntry.getValue()).thenReturn(staleResponse);
+        when(cacheEntry.isStale()).thenReturn(true);
+        when(this.responseCache.lookup(any())).thenReturn(cacheEntry);
+        when(this.requestExecutor.execute(any(), any(), any())).thenReturn(freshResponse);
+        when(this.taskExecutor.submit(any())).thenAnswer(invocation -> {
+            Callable<?> task = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(task.call());
+        });
+
+        assertSame(staleResponse,
+            this.matomoAnalyticsManager.requestData(new HashMap<>(), new HashMap<>(), MostViewedJsonNormaliser.HINT));
+        verify(this.responseCache).put(any(), eq(freshResponse), eq(false));
+    }
+
+    /**
+     * Will test that the explicit refresh requests a stale response right away, and leaves a fresh one untouched.
+     */
+    @Test
+    void refreshData() throws IOException
+    {
+        JsonNode freshResponse = mockResponse();
+        when(this.jsonNormalizerProvider.get()).thenReturn(Collections.singletonList(this.jsonNormaliser));
+        when(this.jsonNormaliser.getIdentifier()).thenReturn(MostViewedJsonNormaliser.HINT);
+        CacheEntry cacheEntry = mock(CacheEntry.class);
+        when(cacheEntry.isStale()).thenReturn(true, false);
+        when(this.responseCache.lookup(any())).thenReturn(cacheEntry);
+        when(this.requestExecutor.execute(any(), any(), any())).thenReturn(freshResponse);
+
+        this.matomoAnalyticsManager.refreshData(new HashMap<>(), null, MostViewedJsonNormaliser.HINT);
+        this.matomoAnalyticsManager.refreshData(new HashMap<>(), null, MostViewedJsonNormaliser.HINT);
+
+        verify(this.requestExecutor).execute(any(), any(), any());
+        verify(this.responseCache).put(any(), eq(freshResponse), eq(false));
+        verify(this.taskExecutor, never()).submit(any());
+        verify(this.cacheWarmer, never()).record(any(), any(), any());
     }
 
     /**
@@ -108,9 +267,6 @@ public class MatomoAnalyticsManagerTest
     void requestDataWithNullParameters()
     {
         ReflectionUtils.setFieldValue(this.matomoAnalyticsManager, "logger", this.logger);
-        when(configuration.getAuthenticationToken()).thenReturn("token");
-        when(configuration.getRequestAddress()).thenReturn("https://matomo-url/");
-        when(configuration.getIdSite()).thenReturn("3");
         RuntimeException exception = assertThrows(RuntimeException.class, () -> {
             matomoAnalyticsManager.requestData(null, new HashMap<>(), MostViewedJsonNormaliser.HINT);
         });
@@ -125,9 +281,6 @@ public class MatomoAnalyticsManagerTest
     void requestDataWithInvalidNormaliser()
     {
         ReflectionUtils.setFieldValue(this.matomoAnalyticsManager, "logger", this.logger);
-        when(this.configuration.getAuthenticationToken()).thenReturn("token");
-        when(this.configuration.getRequestAddress()).thenReturn("https://matomo-url/");
-        when(this.configuration.getIdSite()).thenReturn("3");
         when(this.jsonNormalizerProvider.get()).thenReturn(new ArrayList<>());
         RuntimeException exception = assertThrows(RuntimeException.class, () -> {
             matomoAnalyticsManager.requestData(new HashMap<>(), new HashMap<>(), "RANDOM_NORMALISER");
@@ -136,4 +289,123 @@ public class MatomoAnalyticsManagerTest
         verify(logger).warn("There is no JSON normalizer associated with the [{}] hint you provided.",
             "RANDOM_NORMALISER");
     }
+
+    /**
+     * Will test that the batch requests report the failures for each request.
+     */
+    @Test
+    void requestBatchReportsFailuresPerRequest()
+    {
+        JsonNode result = mockResponse();
+        when(this.jsonNormalizerProvider.get()).thenReturn(Collections.singletonList(this.jsonNormaliser));
+        when(this.jsonNormaliser.getIdentifier()).thenReturn(MostViewedJsonNormaliser.HINT);
+        when(this.requestExecutor.executeBulk(anyList(), anyList())).thenAnswer(invocation -> {
+            List<AnalyticsRequest> requests = invocation.getArgument(0);
+            return Collections.singletonList(new AnalyticsResponse(requests.get(0), result));
+        });
+        when(this.jsonNormaliser.filterForCurrentUser(result)).thenReturn(result);
+
+        AnalyticsRequest validRequest =
+            new AnalyticsRequest(new HashMap<>(), new HashMap<>(), MostViewedJsonNormaliser.HINT);
+        AnalyticsRequest invalidRequest = new AnalyticsRequest(new HashMap<>(), new HashMap<>(), "RANDOM_NORMALISER");
+        List<AnalyticsResponse> responses =
+            this.matomoAnalyticsManager.requestBatch(Arrays.asList(invalidRequest, validRequest));
+
+        assertEquals(2, responses.size());
+        assertFalse(responses.get(0).isSuccessful());
+        assertSame(invalidRequest, responses.get(0).getRequest());
+        assertSame(result, responses.get(1).getData());
+        assertSame(validRequest, responses.get(1).getRequest());
+        verify(this.responseCache).put(any(), eq(result), eq(false));
+    }
+
+    /**
+     * Will test that the identical requests of a batch are sent only once to Matomo.
+     */
+    @Test
+    void requestBatchCoalescesIdenticalRequests()
+    {
+        JsonNode result = mockResponse();
+        when(this.jsonNormalizerProvider.get()).thenReturn(Collections.singletonList(this.jsonNormaliser));
+        when(this.jsonNormaliser.getIdentifier()).thenReturn(MostViewedJsonNormaliser.HINT);
+        when(this.jsonNormaliser.filterForCurrentUser(result)).thenReturn(result);
+        when(this.requestExecutor.executeBulk(anyList(), anyList())).thenAnswer(invocation -> {
+            List<AnalyticsRequest> requests = invocation.getArgument(0);
+            assertEquals(1, requests.size());
+            return Collections.singletonList(new AnalyticsResponse(requests.get(0), result));
+        });
+
+        AnalyticsRequest request =
+            new AnalyticsRequest(new HashMap<>(), new HashMap<>(), MostViewedJsonNormaliser.HINT);
+        List<AnalyticsResponse> responses =
+            this.matomoAnalyticsManager.requestBatch(Arrays.asList(request, request));
+
+        assertEquals(2, responses.size());
+        assertSame(result, responses.get(0).getData());
+        assertSame(result, responses.get(1).getData());
+        verify(this.requestExecutor).executeBulk(anyList(), anyList());
+    }
+
+    /**
+     * Will test that the asynchronous requests are made by the task executor, without modifying the parameters.
+     */
+    @Test
+    void requestDataAsync() throws Exception
+    {
+        JsonNode result = mockResponse();
+        when(this.jsonNormalizerProvider.get()).thenReturn(Collections.singletonList(this.jsonNormaliser));
+        when(this.jsonNormaliser.getIdentifier()).thenReturn(MostViewedJsonNormaliser.HINT);
+        when(this.jsonNormaliser.filterForCurrentUser(result)).thenReturn(result);
+        when(this.requestExecutor.execute(any(), any(), any())).thenReturn(result);
+        when(this.taskExecutor.submit(any())).thenAnswer(invocation -> {
+            Callable<?> task = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(task.call());
+        });
+
+        Map<String, String> parameters = new HashMap<>();
+        assertSame(result, this.matomoAnalyticsManager.requestDataAsync(parameters, new HashMap<>(),
+            MostViewedJsonNormaliser.HINT).get());
+        assertTrue(parameters.isEmpty());
+    }
+
+    /**
+     * Will test that the window is taken from the rows that the current user can view, without modifying the shared
+     * result.
+     */
+    @Test
+    void requestDataWindow() throws IOException
+    {
+        ArrayNode sharedResult = new ObjectMapper().createArrayNode();
+        for (int i = 0; i < 6; i++) {
+            sharedResult.addObject().put("label", "page" + i);
+        }
+        when(this.jsonNormalizerProvider.get()).thenReturn(Collections.singletonList(this.jsonNormaliser));
+        when(this.jsonNormaliser.getIdentifier()).thenReturn(MostViewedJsonNormaliser.HINT);
+        // The user can't view the first and the last pages.
+        when(this.jsonNormaliser.filterForCurrentUser(any())).then(invocation -> {
+            ArrayNode rows = invocation.getArgument(0);
+            rows.remove(5);
+            rows.remove(0);
+            return rows;
+        });
+        when(this.requestExecutor.execute(any(), any(), any())).thenReturn(sharedResult);
+
+        JsonNode result = this.matomoAnalyticsManager.requestData(new HashMap<>(), new HashMap<>(),
+            MostViewedJsonNormaliser.HINT, 1, 2);
+
+        assertEquals(4, result.get("totalRows").asInt());
+        assertEquals(2, result.get("rows").size());
+        assertEquals("page2", result.get("rows").get(0).get("label").asText());
+        assertEquals("page3", result.get("rows").get(1).get("label").asText());
+        assertEquals(6, sharedResult.size());
+        verify(this.responseCache).put(any(), eq(sharedResult), eq(false));
+    }
+
+    private JsonNode mockResponse()
+    {
+        JsonNode response = mock(JsonNode.class);
+        // The responses are copied before being returned, since the cached ones are shared.
+        when(response.deepCopy()).thenReturn(response);
+        return response;
+    }
 }
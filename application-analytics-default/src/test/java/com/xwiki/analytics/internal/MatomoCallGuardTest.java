@@ -0,0 +1,218 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.configuration.MatomoEndpoint;
+import com.xwiki.analytics.internal.configuration.MatomoEndpointManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link MatomoCallGuard}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class MatomoCallGuardTest
+{
+    private static final String STATE = "state";
+
+    private static final String UNAVAILABLE =
+        "Matomo is considered unavailable because too many of the last requests failed.";
+
+    @InjectMockComponents
+    private MatomoCallGuard callGuard;
+
+    @MockComponent
+    private AnalyticsConfiguration configuration;
+
+    @MockComponent
+    private MatomoEndpointManager endpointManager;
+
+    private final MatomoEndpoint endpoint = new MatomoEndpoint("https://matomo.example.org/", "1", "token");
+
+    @BeforeComponent
+    void configure()
+    {
+        when(this.configuration.getMaxConcurrentMatomoCalls()).thenReturn(1);
+        when(this.configuration.getBulkheadMaxWait()).thenReturn(10);
+        when(this.configuration.getCircuitBreakerFailureRate()).thenReturn(50);
+        when(this.configuration.getCircuitBreakerMinimumCalls()).thenReturn(4);
+        when(this.configuration.getCircuitBreakerOpenDuration()).thenReturn(3600);
+        when(this.endpointManager.getEndpoint()).thenReturn(this.endpoint);
+    }
+
+    @Test
+    void callReturnsTheResult() throws IOException
+    {
+        assertEquals("result", this.callGuard.call(() -> "result"));
+        assertTrue(this.callGuard.isAvailable());
+        assertEquals(MatomoCallGuard.State.CLOSED.name(), this.callGuard.getState().get(STATE));
+        assertEquals(1, this.callGuard.getState().get("recentCalls"));
+    }
+
+    @Test
+    void circuitOpensWhenTooManyCallsFail() throws IOException
+    {
+        this.callGuard.call(() -> "result");
+        failCall();
+        this.callGuard.call(() -> "result");
+        assertTrue(this.callGuard.isAvailable());
+        failCall();
+
+        assertFalse(this.callGuard.isAvailable());
+        IOException exception = assertThrows(IOException.class, () -> this.callGuard.call(() -> "result"));
+        assertEquals(UNAVAILABLE, exception.getMessage());
+        Map<String, Object> state = this.callGuard.getState();
+        assertEquals(MatomoCallGuard.State.OPEN.name(), state.get(STATE));
+        assertEquals(2, state.get("recentFailures"));
+        assertEquals(1L, state.get("rejectedCalls"));
+    }
+
+    @Test
+    void unexpectedErrorsAreNotCounted()
+    {
+        for (int i = 0; i < 4; i++) {
+            assertThrows(IllegalStateException.class, () -> this.callGuard.call(() -> {
+                throw new IllegalStateException();
+            }));
+        }
+        assertTrue(this.callGuard.isAvailable());
+        assertEquals(0, this.callGuard.getState().get("recentCalls"));
+    }
+
+    @Test
+    void matomoErrorsAreNotCounted()
+    {
+        for (int i = 0; i < 4; i++) {
+            assertThrows(MatomoResponseException.class, () -> this.callGuard.call(() -> {
+                throw new MatomoResponseException("Matomo returned an error: [Invalid token]");
+            }));
+            assertThrows(JsonParseException.class, () -> this.callGuard.call(() -> {
+                throw new JsonParseException(null, "Unexpected character");
+            }));
+        }
+        assertTrue(this.callGuard.isAvailable());
+        assertEquals(0, this.callGuard.getState().get("recentCalls"));
+    }
+
+    @Test
+    void trialCallClosesTheCircuit() throws IOException
+    {
+        when(this.configuration.getCircuitBreakerOpenDuration()).thenReturn(0);
+        this.callGuard.initialize();
+        for (int i = 0; i < 4; i++) {
+            failCall();
+        }
+        assertEquals(MatomoCallGuard.State.OPEN.name(), this.callGuard.getState().get(STATE));
+
+        // The trial call fails, so the circuit is opened again.
+        failCall();
+        assertEquals(MatomoCallGuard.State.OPEN.name(), this.callGuard.getState().get(STATE));
+
+        assertEquals("result", this.callGuard.call(() -> "result"));
+        assertEquals(MatomoCallGuard.State.CLOSED.name(), this.callGuard.getState().get(STATE));
+        assertEquals(0, this.callGuard.getState().get("recentFailures"));
+    }
+
+    @Test
+    void circuitIsKeptForEachMatomoInstance() throws IOException
+    {
+        for (int i = 0; i < 4; i++) {
+            failCall();
+        }
+        assertFalse(this.callGuard.isAvailable());
+
+        // The wikis using another Matomo instance are not affected.
+        when(this.endpointManager.getEndpoint())
+            .thenReturn(new MatomoEndpoint("https://other.example.org/matomo/", "1", "token"));
+        assertTrue(this.callGuard.isAvailable());
+        assertEquals("result", this.callGuard.call(() -> "result"));
+        assertEquals(1, this.callGuard.getState().get("recentCalls"));
+
+        // The same instance is shared by the wikis using it, whatever their site and token.
+        when(this.endpointManager.getEndpoint())
+            .thenReturn(new MatomoEndpoint("https://matomo.example.org/", "2", "other"));
+        assertFalse(this.callGuard.isAvailable());
+        assertEquals(MatomoCallGuard.State.OPEN.name(), this.callGuard.getState().get(STATE));
+    }
+
+    @Test
+    void callsAreRejectedWhenTheBulkheadIsFull() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> pending = CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.callGuard.call(() -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "first";
+                });
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        try {
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(0, this.callGuard.getState().get("availablePermits"));
+            IOException exception = assertThrows(IOException.class, () -> this.callGuard.call(() -> "second"));
+            assertEquals("Too many requests are waiting for Matomo, the request waited [10] milliseconds for one of "
+                + "them to finish.", exception.getMessage());
+            assertEquals(1L, this.callGuard.getState().get("bulkheadRejections"));
+        } finally {
+            release.countDown();
+        }
+
+        assertEquals("first", pending.get(5, TimeUnit.SECONDS));
+        assertEquals(1, this.callGuard.getState().get("availablePermits"));
+        // The rejections don't count as Matomo failures.
+        assertEquals(0, this.callGuard.getState().get("recentFailures"));
+    }
+
+    private void failCall()
+    {
+        assertThrows(IOException.class, () -> this.callGuard.call(() -> {
+            throw new IOException("Matomo failure");
+        }));
+    }
+}
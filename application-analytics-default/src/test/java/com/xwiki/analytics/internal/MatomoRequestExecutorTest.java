@@ -0,0 +1,233 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHeader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.xwiki.analytics.AnalyticsRequest;
+import com.xwiki.analytics.AnalyticsResponse;
+import com.xwiki.analytics.JsonNormaliser;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.configuration.MatomoEndpoint;
+import com.xwiki.analytics.internal.configuration.MatomoEndpointManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link MatomoRequestExecutor}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class MatomoRequestExecutorTest
+{
+    @InjectMockComponents
+    private MatomoRequestExecutor requestExecutor;
+
+    @MockComponent
+    private AnalyticsConfiguration configuration;
+
+    @MockComponent
+    private HttpClientBuilderFactory builderFactory;
+
+    @MockComponent
+    private MatomoEndpointManager endpointManager;
+
+    private final RowEvolutionJsonNormaliser jsonNormaliser = new RowEvolutionJsonNormaliser();
+
+    private CloseableHttpClient client;
+
+    private CloseableHttpResponse response;
+
+    private HttpEntity entity;
+
+    private StatusLine statusLine;
+
+    @BeforeEach
+    void setUp() throws IOException
+    {
+        this.client = mock(CloseableHttpClient.class);
+        this.response = mock(CloseableHttpResponse.class);
+        this.entity = mock(HttpEntity.class);
+        this.statusLine = mock(StatusLine.class);
+        when(this.endpointManager.getEndpoint()).thenReturn(new MatomoEndpoint("https://matomo-url/", "3", "token"));
+        when(this.configuration.getMaxResponseSize()).thenReturn(1024L);
+        when(this.builderFactory.getHttpClient()).thenReturn(this.client);
+        when(this.client.execute(any())).thenReturn(this.response);
+        when(this.response.getEntity()).thenReturn(this.entity);
+        when(this.response.getStatusLine()).thenReturn(this.statusLine);
+        when(this.statusLine.getStatusCode()).thenReturn(200);
+        when(this.entity.getContentLength()).thenReturn(-1L);
+    }
+
+    @Test
+    void executeNormalisesTheResponse() throws IOException
+    {
+        JsonNormaliser mockNormaliser = mock(JsonNormaliser.class);
+        when(this.entity.getContent()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        this.requestExecutor.execute(new HashMap<>(), new HashMap<>(), mockNormaliser);
+        verify(mockNormaliser).normaliseData(any(JsonParser.class), eq(new HashMap<>()));
+    }
+
+    @Test
+    void executeSendsTheParametersAfterTheEndpointPrefix() throws IOException
+    {
+        when(this.entity.getContent()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("idSite", "3");
+        parameters.put("token_auth", "token");
+        parameters.put("method", "Actions.getPageUrls");
+        parameters.put("segment", "pageUrl=@a b&c");
+        this.requestExecutor.execute(parameters, new HashMap<>(), mock(JsonNormaliser.class));
+
+        ArgumentCaptor<HttpUriRequest> request = ArgumentCaptor.forClass(HttpUriRequest.class);
+        verify(this.client).execute(request.capture());
+        assertEquals("https://matomo-url/index.php?idSite=3&token_auth=token&method=Actions.getPageUrls"
+            + "&segment=pageUrl%3D%40a+b%26c", request.getValue().getURI().toString());
+        assertEquals("GET", request.getValue().getMethod());
+        verify(this.response).close();
+    }
+
+    @Test
+    void executeWithErrorStatus()
+    {
+        when(this.statusLine.getStatusCode()).thenReturn(500);
+        IOException exception = assertThrows(IOException.class,
+            () -> this.requestExecutor.execute(new HashMap<>(), new HashMap<>(), this.jsonNormaliser));
+        assertEquals("Matomo responded with the [500] status code.", exception.getMessage());
+        assertTrue(MatomoCallGuard.isTransportFailure(exception));
+    }
+
+    @Test
+    void executeWithClientErrorStatus() throws IOException
+    {
+        when(this.statusLine.getStatusCode()).thenReturn(404);
+        ByteArrayInputStream body = new ByteArrayInputStream(("Not found" + " ".repeat(10000)).getBytes());
+        when(this.entity.getContent()).thenReturn(body);
+        IOException exception = assertThrows(IOException.class,
+            () -> this.requestExecutor.execute(new HashMap<>(), new HashMap<>(), this.jsonNormaliser));
+        assertEquals("Matomo responded with the [404] status code. Response: [Not found]", exception.getMessage());
+        assertFalse(MatomoCallGuard.isTransportFailure(exception));
+        // Only the beginning of the body is read, the connection is discarded.
+        assertEquals(10009 - 4096, body.available());
+        verify(this.response).close();
+    }
+
+    @Test
+    void executeWithTooBigResponse()
+    {
+        when(this.entity.getContentLength()).thenReturn(2048L);
+        IOException exception = assertThrows(IOException.class,
+            () -> this.requestExecutor.execute(new HashMap<>(), new HashMap<>(), this.jsonNormaliser));
+        assertEquals("The Matomo response of [2048] bytes exceeds the maximum allowed size of [1024] bytes.",
+            exception.getMessage());
+        assertFalse(MatomoCallGuard.isTransportFailure(exception));
+    }
+
+    @Test
+    void executeDecodesTheCompressedResponse() throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+            gzipStream.write("{\"value\":1}".getBytes(StandardCharsets.UTF_8));
+        }
+        when(this.configuration.isHttpCompressionEnabled()).thenReturn(true);
+        when(this.entity.getContentEncoding()).thenReturn(new BasicHeader(HttpHeaders.CONTENT_ENCODING, "gzip"));
+        ByteArrayInputStream body = new ByteArrayInputStream(compressed.toByteArray());
+        when(this.entity.getContent()).thenReturn(body);
+
+        String result = this.requestExecutor.execute(new HashMap<>(),
+            inputStream -> new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+
+        assertEquals("{\"value\":1}", result);
+        assertEquals(0, body.available());
+        ArgumentCaptor<HttpUriRequest> request = ArgumentCaptor.forClass(HttpUriRequest.class);
+        verify(this.client).execute(request.capture());
+        assertEquals("gzip, deflate", request.getValue().getFirstHeader(HttpHeaders.ACCEPT_ENCODING).getValue());
+    }
+
+    @Test
+    void executeWithUnsupportedEncoding()
+    {
+        when(this.entity.getContentEncoding()).thenReturn(new BasicHeader(HttpHeaders.CONTENT_ENCODING, "br"));
+        when(this.entity.getContent()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        IOException exception = assertThrows(IOException.class,
+            () -> this.requestExecutor.execute(new HashMap<>(), new HashMap<>(), this.jsonNormaliser));
+        assertEquals("Unsupported Matomo response encoding [br].", exception.getMessage());
+    }
+
+    @Test
+    void executeBulkReportsFailuresPerRequest() throws IOException
+    {
+        String bulkResponse = "[{\"2024-01-01\":[{\"label\":\"a\"}]}, {\"result\":\"error\",\"message\":\"Failure\"},"
+            + " {\"2024-01-01\":[]}]";
+        when(this.entity.getContent())
+            .thenReturn(new ByteArrayInputStream(bulkResponse.getBytes(StandardCharsets.UTF_8)));
+        List<AnalyticsRequest> requests = Arrays.asList(new AnalyticsRequest(new HashMap<>(), null, "RowEvolution"),
+            new AnalyticsRequest(new HashMap<>(), null, "RowEvolution"),
+            new AnalyticsRequest(new HashMap<>(), null, "RowEvolution"));
+
+        List<AnalyticsResponse> responses = this.requestExecutor.executeBulk(requests,
+            Arrays.asList(this.jsonNormaliser, this.jsonNormaliser, this.jsonNormaliser));
+
+        assertEquals(3, responses.size());
+        assertEquals("[{\"label\":\"a\",\"date\":\"2024-01-01\"}]", responses.get(0).getData().toString());
+        assertFalse(responses.get(1).isSuccessful());
+        assertEquals("Matomo returned an error: [Failure]", responses.get(1).getError().getMessage());
+        assertTrue(responses.get(2).isSuccessful());
+        assertEquals("[{\"date\":\"2024-01-01\"}]", responses.get(2).getData().toString());
+        ArgumentCaptor<HttpUriRequest> request = ArgumentCaptor.forClass(HttpUriRequest.class);
+        verify(this.client).execute(request.capture());
+        assertEquals("POST", request.getValue().getMethod());
+        assertEquals("https://matomo-url/index.php", request.getValue().getURI().toString());
+    }
+}
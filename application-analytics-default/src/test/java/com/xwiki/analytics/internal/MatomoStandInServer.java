@@ -0,0 +1,408 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.xwiki.analytics.internal.cache.MatomoDateRange;
+
+/**
+ * An embedded HTTP server standing in for Matomo, used to test the whole request pipeline without a Matomo instance.
+ * It answers the {@code index.php?module=API&method=...} requests, including {@code API.getBulkRequest}, with either
+ * the payloads registered for each method (e.g. responses recorded from a real Matomo instance) or generated ones, and
+ * can simulate a slow or failing Matomo with a configurable latency, jitter and error rate.
+ *
+ * @version $Id$
+ */
+public class MatomoStandInServer implements AutoCloseable
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String METHOD = "method";
+
+    private static final String BULK_REQUEST = "API.getBulkRequest";
+
+    private static final String URLS = "urls[";
+
+    private static final String PERIOD = "period";
+
+    private static final String DATE = "date";
+
+    private static final String RANGE = "range";
+
+    private static final String LABEL = "label";
+
+    private static final String NB_VISITS = "nb_visits";
+
+    private static final String JSON_EXTENSION = ".json";
+
+    private static final String GZIP = "gzip";
+
+    private static final String[] VISITS_METRICS = { NB_VISITS, "nb_uniq_visitors", "nb_actions", "bounce_count",
+        "sum_visit_length", "max_actions", "nb_visits_converted" };
+
+    private final HttpServer server;
+
+    private final ExecutorService executorService;
+
+    private final Map<String, String> payloads = new ConcurrentHashMap<>();
+
+    private final AtomicLong httpRequestCount = new AtomicLong();
+
+    private final AtomicLong apiCallCount = new AtomicLong();
+
+    private volatile long latency;
+
+    private volatile long jitter;
+
+    private volatile double httpErrorRate;
+
+    private volatile double matomoErrorRate;
+
+    private volatile int rows = 100;
+
+    /**
+     * Start the server on a free port of the loopback interface.
+     *
+     * @throws IOException if the server can't be started
+     */
+    public MatomoStandInServer() throws IOException
+    {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/index.php", this::handle);
+        // Each request gets its own thread so that the simulated latency doesn't limit the throughput.
+        this.executorService = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Matomo stand-in");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(this.executorService);
+        this.server.start();
+    }
+
+    /**
+     * @return the address of the server, to be used as the Matomo request address
+     */
+    public String getAddress()
+    {
+        return String.format("http://%s:%d/", this.server.getAddress().getHostString(),
+            this.server.getAddress().getPort());
+    }
+
+    /**
+     * Respond to a Matomo API method with the given payload, whatever the other parameters are.
+     *
+     * @param method the Matomo API method, e.g. {@code Actions.getPageUrls}
+     * @param payload the JSON response
+     */
+    public void setPayload(String method, String payload)
+    {
+        this.payloads.put(method, payload);
+    }
+
+    /**
+     * Register the responses recorded in the given directory, one file per Matomo API method, named after the method
+     * (e.g. {@code Actions.getPageUrls.json}).
+     *
+     * @param directory the directory holding the recorded responses
+     * @throws IOException if the responses can't be read
+     */
+    public void loadPayloads(Path directory) throws IOException
+    {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, '*' + JSON_EXTENSION)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                setPayload(fileName.substring(0, fileName.length() - JSON_EXTENSION.length()),
+                    new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * @param latency the time, in milliseconds, taken to respond to each HTTP request
+     * @param jitter the maximum time, in milliseconds, randomly added to or removed from the latency
+     */
+    public void setLatency(long latency, long jitter)
+    {
+        this.latency = latency;
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param httpErrorRate the probability, between 0 and 1, that an HTTP request fails with the 500 status code
+     * @param matomoErrorRate the probability, between 0 and 1, that an API call fails with a Matomo error response,
+     *     which affects only its own part of a bulk request
+     */
+    public void setErrorRates(double httpErrorRate, double matomoErrorRate)
+    {
+        this.httpErrorRate = httpErrorRate;
+        this.matomoErrorRate = matomoErrorRate;
+    }
+
+    /**
+     * @param rows the number of rows of the generated reports, for each period
+     */
+    public void setRows(int rows)
+    {
+        this.rows = rows;
+    }
+
+    /**
+     * @return the number of HTTP requests received, a bulk request being counted once
+     */
+    public long getHttpRequestCount()
+    {
+        return this.httpRequestCount.get();
+    }
+
+    /**
+     * @return the number of API calls received, each part of a bulk request being counted
+     */
+    public long getApiCallCount()
+    {
+        return this.apiCallCount.get();
+    }
+
+    @Override
+    public void close()
+    {
+        this.server.stop(0);
+        this.executorService.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try {
+            this.httpRequestCount.incrementAndGet();
+            Map<String, String> parameters = getParameters(exchange);
+            simulateLatency();
+            if (ThreadLocalRandom.current().nextDouble() < this.httpErrorRate) {
+                respond(exchange, 500, "Internal Server Error");
+            } else if (BULK_REQUEST.equals(parameters.get(METHOD))) {
+                respond(exchange, 200, getBulkResponse(parameters));
+            } else {
+                respond(exchange, 200, getResponse(parameters));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Map<String, String> getParameters(HttpExchange exchange) throws IOException
+    {
+        Map<String, String> parameters = parse(exchange.getRequestURI().getRawQuery());
+        try (InputStream body = exchange.getRequestBody()) {
+            parameters.putAll(parse(new String(body.readAllBytes(), StandardCharsets.UTF_8)));
+        }
+        return parameters;
+    }
+
+    private Map<String, String> parse(String query)
+    {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (NameValuePair pair : URLEncodedUtils.parse(query, StandardCharsets.UTF_8)) {
+                parameters.put(pair.getName(), pair.getValue());
+            }
+        }
+        return parameters;
+    }
+
+    private void simulateLatency()
+    {
+        long delay = this.latency;
+        if (this.jitter > 0) {
+            delay += ThreadLocalRandom.current().nextLong(-this.jitter, this.jitter + 1);
+        }
+        if (delay > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains(GZIP)) {
+            // Compress like a Matomo instance served behind a web server with compression enabled.
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+                gzipStream.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", GZIP);
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    private String getBulkResponse(Map<String, String> parameters)
+    {
+        StringBuilder response = new StringBuilder("[");
+        for (int i = 0; parameters.containsKey(URLS + i + ']'); i++) {
+            if (i > 0) {
+                response.append(',');
+            }
+            response.append(getResponse(parse(parameters.get(URLS + i + ']'))));
+        }
+        return response.append(']').toString();
+    }
+
+    private String getResponse(Map<String, String> parameters)
+    {
+        this.apiCallCount.incrementAndGet();
+        String method = parameters.get(METHOD);
+        if (ThreadLocalRandom.current().nextDouble() < this.matomoErrorRate) {
+            return getError(String.format("Simulated failure of [%s].", method));
+        }
+        String payload = method != null ? this.payloads.get(method) : null;
+        if (payload != null) {
+            return payload;
+        }
+        MatomoDateRange dateRange =
+            MatomoDateRange.resolve(parameters.get(PERIOD), parameters.get(DATE), LocalDate.now());
+        if (method == null || dateRange == null) {
+            return getError("The method, the period or the date parameter is invalid.");
+        }
+        return generate(method, parameters, dateRange).toString();
+    }
+
+    private String getError(String message)
+    {
+        ObjectNode error = OBJECT_MAPPER.createObjectNode();
+        error.put("result", "error");
+        error.put("message", message);
+        return error.toString();
+    }
+
+    /**
+     * Generate a response having the format of the Matomo one: the report of each period, keyed by period when
+     * several periods are requested.
+     */
+    private JsonNode generate(String method, Map<String, String> parameters, MatomoDateRange dateRange)
+    {
+        String period = parameters.get(PERIOD);
+        List<String> periods = getPeriods(period, dateRange);
+        if (!RANGE.equals(period) && dateRange.toString().contains(",")) {
+            ObjectNode response = OBJECT_MAPPER.createObjectNode();
+            for (String label : periods) {
+                response.set(label, generateReport(method, parameters, label));
+            }
+            return response;
+        }
+        return generateReport(method, parameters, periods.get(0));
+    }
+
+    private JsonNode generateReport(String method, Map<String, String> parameters, String periodLabel)
+    {
+        int seed = Math.abs((method + periodLabel).hashCode() % 100);
+        if (method.startsWith("VisitsSummary.") || method.startsWith("VisitFrequency.")) {
+            ObjectNode metrics = OBJECT_MAPPER.createObjectNode();
+            String columns = parameters.get("columns");
+            for (int i = 0; i < VISITS_METRICS.length; i++) {
+                if (columns == null || columns.contains(VISITS_METRICS[i])) {
+                    metrics.put(VISITS_METRICS[i], (seed + 1) * (VISITS_METRICS.length - i));
+                }
+            }
+            // The getters of a single metric return the value alone.
+            return method.endsWith(".get") ? metrics : metrics.path(NB_VISITS);
+        }
+        ArrayNode report = OBJECT_MAPPER.createArrayNode();
+        int offset = Math.max(0, Integer.parseInt(parameters.getOrDefault("filter_offset", "0")));
+        int limit = Integer.parseInt(parameters.getOrDefault("filter_limit", "-1"));
+        int end = limit < 0 ? this.rows : Math.min(this.rows, offset + limit);
+        for (int i = offset; i < end; i++) {
+            ObjectNode row = report.addObject();
+            row.put(LABEL, "page-" + i);
+            row.put(NB_VISITS, (this.rows - i) * 10 + seed);
+            row.put("nb_hits", (this.rows - i) * 15 + seed);
+            row.put("sum_time_spent", (this.rows - i) * 60 + seed);
+            row.put("url", String.format("https://wiki.example.org/xwiki/bin/view/Space/Page%d/", i));
+        }
+        return report;
+    }
+
+    private List<String> getPeriods(String period, MatomoDateRange dateRange)
+    {
+        List<String> periods = new ArrayList<>();
+        if (RANGE.equals(period)) {
+            periods.add(dateRange.getStart() + "," + dateRange.getEnd());
+            return periods;
+        }
+        LocalDate start = dateRange.getStart();
+        while (!start.isAfter(dateRange.getEnd())) {
+            switch (period) {
+                case "week":
+                    periods.add(start + "," + start.plusDays(6));
+                    start = start.plusWeeks(1);
+                    break;
+                case "month":
+                    periods.add(start.toString().substring(0, 7));
+                    start = start.plusMonths(1);
+                    break;
+                case "year":
+                    periods.add(String.valueOf(start.getYear()));
+                    start = start.plusYears(1);
+                    break;
+                default:
+                    periods.add(start.toString());
+                    start = start.plusDays(1);
+            }
+        }
+        return periods;
+    }
+}
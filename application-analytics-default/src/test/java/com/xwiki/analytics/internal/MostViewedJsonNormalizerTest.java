@@ -19,9 +19,17 @@
  */
 package com.xwiki.analytics.internal;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -35,18 +43,25 @@ import org.slf4j.Logger;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
-import org.xwiki.security.authorization.ContextualAuthorizationManager;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
 import org.xwiki.url.ExtendedURL;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.xwiki.analytics.internal.cache.PageReferenceCache;
+import com.xwiki.analytics.internal.cache.PageReferenceCache.ResolvedPage;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -65,7 +80,10 @@ public class MostViewedJsonNormalizerTest extends JsonNormalizerTest
     private EntityReferenceResolver<String> urlToReferenceResolver;
 
     @MockComponent
-    private ContextualAuthorizationManager contextualAuthorizationManager;
+    private ViewRightsChecker viewRightsChecker;
+
+    @MockComponent
+    private PageReferenceCache pageReferenceCache;
 
     @MockComponent
     private Logger logger;
@@ -145,6 +163,113 @@ public class MostViewedJsonNormalizerTest extends JsonNormalizerTest
         assertEquals(node.get("JSON"), mostViewedJsonNormaliser.normaliseData(node.get("JSON").toString(), null));
     }
 
+    /**
+     * Will test if the normaliser works properly when the response is read from a stream.
+     */
+    @Test
+    void normalizeDataFromStream() throws IOException
+    {
+        JsonNode node = getTestJSONS("/mostViewedPages/normalizeDataWithObjectResponseWithoutFilters.json");
+        InputStream inputStream =
+            new ByteArrayInputStream(node.get("JSON").toString().getBytes(StandardCharsets.UTF_8));
+        assertEquals(node.get("Response"), mostViewedJsonNormaliser.normaliseData(inputStream, null));
+    }
+
+    /**
+     * Will test that the errors returned by Matomo are reported.
+     */
+    @Test
+    void normalizeDataWithMatomoError()
+    {
+        IOException exception = assertThrows(MatomoResponseException.class,
+            () -> mostViewedJsonNormaliser.normaliseData(new ByteArrayInputStream(
+                "{\"result\":\"error\",\"message\":\"Invalid token\"}".getBytes()), null));
+        assertEquals("Matomo returned an error: [Invalid token]", exception.getMessage());
+    }
+
+    /**
+     * Will test that the rights are checked only until the rows of the window are found, and that only these rows are
+     * copied.
+     */
+    @Test
+    void filterForCurrentUserWindow()
+    {
+        ArrayNode normalisedData = new ObjectMapper().createArrayNode();
+        for (int i = 0; i < 100; i++) {
+            normalisedData.addObject().put("url", "http://localhost:8080/xwiki/bin/view/Main/Page" + i);
+        }
+        when(urlToReferenceResolver.resolve(any(), any())).thenAnswer(
+            invocation -> new EntityReference(invocation.getArgument(0), EntityType.DOCUMENT));
+        // The user can't view the second page.
+        when(viewRightsChecker.getViewable(any())).thenAnswer(invocation -> {
+            Set<EntityReference> viewable = new HashSet<>(invocation.<Collection<EntityReference>>getArgument(0));
+            viewable.removeIf(reference -> reference.getName().endsWith("/Page1"));
+            return viewable;
+        });
+
+        JsonNode result = mostViewedJsonNormaliser.filterForCurrentUser(normalisedData, 1, 2);
+
+        assertEquals(99, result.get("totalRows").asInt());
+        assertEquals(2, result.get("rows").size());
+        assertEquals(normalisedData.get(2), result.get("rows").get(0));
+        assertEquals(normalisedData.get(3), result.get("rows").get(1));
+        assertNotSame(normalisedData.get(2), result.get("rows").get(0));
+        verify(viewRightsChecker).getViewable(argThat(references -> references.size() == 64));
+    }
+
+    /**
+     * Will test that the pages that the current user can't view are removed from the normalised data.
+     */
+    @Test
+    void filterForCurrentUserWithoutViewRight() throws IOException
+    {
+        JsonNode node = getTestJSONS("/mostViewedPages/normalizeDataWithObjectResponseWithoutFilters.json");
+        JsonNode normalisedData = mostViewedJsonNormaliser.normaliseData(node.get("JSON").toString(), null);
+        assertEquals(node.get("Response"), mostViewedJsonNormaliser.filterForCurrentUser(normalisedData));
+
+        when(viewRightsChecker.getViewable(any())).thenReturn(Collections.emptySet());
+        assertEquals(0, mostViewedJsonNormaliser.filterForCurrentUser(normalisedData).size());
+    }
+
+    /**
+     * Will test that the rights are checked only once for the pages listed for several dates.
+     */
+    @Test
+    void filterForCurrentUserChecksEachPageOnce()
+    {
+        ArrayNode normalisedData = new ObjectMapper().createArrayNode();
+        normalisedData.addObject().put("url", "http://localhost:8080/xwiki/bin/view/Main/").put("date", "2023-07");
+        normalisedData.addObject().put("url", "http://localhost:8080/xwiki/bin/view/Main/").put("date", "2023-08");
+
+        assertEquals(normalisedData, mostViewedJsonNormaliser.filterForCurrentUser(normalisedData));
+        verify(viewRightsChecker).getViewable(argThat(references -> references.size() == 1));
+    }
+
+    /**
+     * Will test that the longest filter that Matomo can apply is pushed in the request parameters.
+     */
+    @Test
+    void getServerSideFilterParameters()
+    {
+        Map<String, String> filters = new HashMap<>();
+        filters.put("label", "Main");
+        filters.put("url", "~localhost:8080");
+        filters.put("nb_hits", ">10000");
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("flat", "1");
+
+        Map<String, String> filterParameters =
+            mostViewedJsonNormaliser.getServerSideFilterParameters(filters, parameters);
+        assertEquals(2, filterParameters.size());
+        assertEquals("url", filterParameters.get("filter_column"));
+        assertEquals("localhost:8080", filterParameters.get("filter_pattern"));
+
+        parameters.remove("flat");
+        filterParameters = mostViewedJsonNormaliser.getServerSideFilterParameters(filters, parameters);
+        assertEquals("url", filterParameters.get("filter_column_recursive"));
+        assertEquals("localhost:8080", filterParameters.get("filter_pattern_recursive"));
+    }
+
     @BeforeEach
     void setupAnyURL() throws Exception
     {
@@ -152,6 +277,11 @@ public class MostViewedJsonNormalizerTest extends JsonNormalizerTest
 
         when(urlToReferenceResolver.resolve(any(), any())).thenReturn(
             new EntityReference("label", EntityType.DOCUMENT, parentReference, Collections.emptyMap()));
-        when(contextualAuthorizationManager.hasAccess(any(), any())).thenReturn(true);
+        when(viewRightsChecker.getViewable(any())).thenAnswer(
+            invocation -> new HashSet<>(invocation.<Collection<EntityReference>>getArgument(0)));
+        when(pageReferenceCache.get(any(), any())).thenAnswer(invocation -> {
+            Function<String, ResolvedPage> resolver = invocation.getArgument(1);
+            return resolver.apply(invocation.getArgument(0));
+        });
     }
 }
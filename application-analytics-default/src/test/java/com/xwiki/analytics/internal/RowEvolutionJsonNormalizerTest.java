@@ -21,6 +21,7 @@ package com.xwiki.analytics.internal;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.jupiter.api.Test;
 import org.xwiki.test.junit5.mockito.ComponentTest;
@@ -68,4 +69,36 @@ public class RowEvolutionJsonNormalizerTest extends JsonNormalizerTest
         assertEquals(node.get("response"),
             rowEvolutionJsonNormaliser.normaliseData(node.get("JSON").toString(), filters));
     }
+
+    @Test
+    void normalizeDataForSeveralRows() throws IOException
+    {
+        String json = "{\"2023-08-07\":[{\"label\":\"/A\",\"nb_hits\":1},{\"label\":\"/B\",\"nb_hits\":2}],"
+            + "\"2023-08-08\":[{\"label\":\"/C\",\"nb_hits\":5},{\"label\":\"/A\",\"nb_hits\":3}]}";
+        Map<String, String> filters = new HashMap<>();
+        filters.put("label", "/B\n/A");
+
+        JsonNode evolutions = this.rowEvolutionJsonNormaliser.normaliseData(json, filters);
+
+        assertEquals(2, evolutions.size());
+        assertEquals("[{\"label\":\"/B\",\"nb_hits\":2,\"date\":\"2023-08-07\"},{\"date\":\"2023-08-08\"}]",
+            evolutions.get(0).toString());
+        assertEquals("[{\"label\":\"/A\",\"nb_hits\":1,\"date\":\"2023-08-07\"},"
+            + "{\"label\":\"/A\",\"nb_hits\":3,\"date\":\"2023-08-08\"}]", evolutions.get(1).toString());
+    }
+
+    @Test
+    void normalizeDataForARepeatedRow() throws IOException
+    {
+        String json = "{\"2023-08-07\":[{\"label\":\"/A\",\"nb_hits\":1},{\"label\":\"/B\",\"nb_hits\":2}]}";
+        Map<String, String> filters = new HashMap<>();
+        filters.put("label", "/A\n/B\n/A");
+
+        JsonNode evolutions = this.rowEvolutionJsonNormaliser.normaliseData(json, filters);
+
+        assertEquals(3, evolutions.size());
+        assertEquals("[{\"label\":\"/A\",\"nb_hits\":1,\"date\":\"2023-08-07\"}]", evolutions.get(0).toString());
+        assertEquals("[{\"label\":\"/B\",\"nb_hits\":2,\"date\":\"2023-08-07\"}]", evolutions.get(1).toString());
+        assertEquals(evolutions.get(0), evolutions.get(2));
+    }
 }
@@ -0,0 +1,54 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test for {@link SizeLimitedInputStream}
+ *
+ * @version $Id$
+ */
+public class SizeLimitedInputStreamTest
+{
+    @Test
+    void readBelowLimit() throws IOException
+    {
+        SizeLimitedInputStream inputStream = new SizeLimitedInputStream(new ByteArrayInputStream(new byte[10]), 10);
+        assertEquals(10, IOUtils.toByteArray(inputStream).length);
+        assertEquals(10, inputStream.getCount());
+    }
+
+    @Test
+    void readAboveLimit()
+    {
+        InputStream inputStream = new SizeLimitedInputStream(new ByteArrayInputStream(new byte[11]), 10);
+        IOException exception = assertThrows(IOException.class, () -> IOUtils.toByteArray(inputStream));
+        assertEquals("The response exceeds the maximum allowed size of [10] bytes.", exception.getMessage());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ViewRightsChecker}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class ViewRightsCheckerTest
+{
+    private static final DocumentReference USER = new DocumentReference("xwiki", "XWiki", "User");
+
+    private static final DocumentReference PAGE = new DocumentReference("xwiki", "Space", "Page");
+
+    private static final DocumentReference HIDDEN_PAGE = new DocumentReference("xwiki", "Space", "Hidden");
+
+    @InjectMockComponents
+    private ViewRightsChecker viewRightsChecker;
+
+    @MockComponent
+    private AuthorizationManager authorizationManager;
+
+    @MockComponent
+    private DocumentAccessBridge documentAccessBridge;
+
+    @MockComponent
+    private Execution execution;
+
+    @BeforeEach
+    void setUp()
+    {
+        when(this.execution.getContext()).thenReturn(new ExecutionContext());
+        when(this.documentAccessBridge.getCurrentUserReference()).thenReturn(USER);
+        when(this.authorizationManager.hasAccess(Right.VIEW, USER, PAGE)).thenReturn(true);
+    }
+
+    @Test
+    void getViewableChecksEachPageOncePerRequest()
+    {
+        Set<?> viewable = this.viewRightsChecker.getViewable(Arrays.asList(PAGE, HIDDEN_PAGE, PAGE));
+        assertEquals(Collections.singleton(PAGE), viewable);
+        assertEquals(Collections.singleton(PAGE), this.viewRightsChecker.getViewable(Arrays.asList(PAGE, HIDDEN_PAGE)));
+
+        verify(this.authorizationManager, times(1)).hasAccess(Right.VIEW, USER, PAGE);
+        verify(this.authorizationManager, times(1)).hasAccess(Right.VIEW, USER, HIDDEN_PAGE);
+        verify(this.authorizationManager, times(1)).hasAccess(Right.ADMIN, USER, new WikiReference("xwiki"));
+    }
+
+    @Test
+    void getViewableForWikiAdministrators()
+    {
+        when(this.authorizationManager.hasAccess(Right.ADMIN, USER, new WikiReference("xwiki"))).thenReturn(true);
+
+        assertEquals(2, this.viewRightsChecker.getViewable(Arrays.asList(PAGE, HIDDEN_PAGE)).size());
+        verify(this.authorizationManager, never()).hasAccess(any(), any(), any(DocumentReference.class));
+    }
+}
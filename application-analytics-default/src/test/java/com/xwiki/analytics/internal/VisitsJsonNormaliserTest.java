@@ -26,7 +26,9 @@ import org.junit.jupiter.api.Test;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -48,4 +50,21 @@ public class VisitsJsonNormaliserTest extends JsonNormalizerTest
         assertEquals(node.get("response"),
             visitsJsonNormaliser.normaliseData(node.get("JSON").toString(), new HashMap<>()));
     }
+
+    @Test
+    void readTable() throws IOException
+    {
+        String json = "{\"2024-01-01\":{\"nb_visits\":3,\"bounce_rate\":\"50%\",\"nb_actions_per_visit\":2.5},"
+            + "\"2024-01-02\":[],\"2024-01-03\":{\"nb_visits\":7,\"bounce_rate\":\"10%\"}}";
+        try (JsonParser parser = new ObjectMapper().getFactory().createParser(json)) {
+            VisitsSummaryTable table = this.visitsJsonNormaliser.readTable(parser);
+
+            assertEquals(3, table.size());
+            assertEquals("{\"labels\":[\"2024-01-01\",\"2024-01-02\",\"2024-01-03\"],\"values\":[3,0,7]}",
+                table.getSeries("nb_visits").toString());
+            assertEquals("[50,0,10]", table.getSeries("bounce_rate").get("values").toString());
+            assertEquals("[2.5,0.0,0.0]", table.getSeries("nb_actions_per_visit").get("values").toString());
+            assertEquals("[0,0,0]", table.getSeries("max_actions").get("values").toString());
+        }
+    }
 }
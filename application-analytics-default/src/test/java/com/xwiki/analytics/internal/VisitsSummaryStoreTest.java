@@ -0,0 +1,172 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.xwiki.analytics.internal.MatomoRequestExecutor.ResponseReader;
+import com.xwiki.analytics.internal.cache.AnalyticsRequestKey;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache.CacheEntry;
+import com.xwiki.analytics.internal.configuration.MatomoEndpointManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link VisitsSummaryStore}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class VisitsSummaryStoreTest
+{
+    private static final String RESPONSE = "{\"2024-01-01\":{\"nb_visits\":3,\"nb_uniq_visitors\":2},"
+        + "\"2024-01-02\":{\"nb_visits\":5,\"nb_uniq_visitors\":4}}";
+
+    @InjectMockComponents
+    private VisitsSummaryStore visitsSummaryStore;
+
+    @MockComponent
+    private MatomoRequestExecutor requestExecutor;
+
+    @MockComponent
+    private MatomoEndpointManager endpointManager;
+
+    @MockComponent
+    private AnalyticsResponseCache responseCache;
+
+    private final VisitsJsonNormaliser jsonNormaliser = new VisitsJsonNormaliser();
+
+    private final Map<String, JsonNode> cachedTables = new HashMap<>();
+
+    private String response = RESPONSE;
+
+    @BeforeEach
+    void setUp() throws IOException
+    {
+        when(this.endpointManager.getCacheScope()).thenReturn("xwiki@https://matomo.example.org/");
+        doAnswer(invocation -> this.cachedTables.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(this.responseCache).put(any(), any(), eq(true));
+        when(this.responseCache.lookup(any())).thenAnswer(invocation -> {
+            JsonNode table = this.cachedTables.get(invocation.<String>getArgument(0));
+            CacheEntry cacheEntry = null;
+            if (table != null) {
+                cacheEntry = mock(CacheEntry.class);
+                when(cacheEntry.getValue()).thenReturn(table);
+            }
+            return cacheEntry;
+        });
+        when(this.requestExecutor.execute(any(), any(ResponseReader.class))).thenAnswer(invocation -> {
+            ResponseReader<?> reader = invocation.getArgument(1);
+            return reader.read(new ByteArrayInputStream(this.response.getBytes(StandardCharsets.UTF_8)));
+        });
+    }
+
+    @Test
+    void supports()
+    {
+        assertTrue(this.visitsSummaryStore.supports(getParameters("VisitsSummary.get", "nb_visits"),
+            this.jsonNormaliser));
+        assertTrue(this.visitsSummaryStore.supports(getParameters("VisitsSummary.getVisits", "values"),
+            this.jsonNormaliser));
+        assertFalse(this.visitsSummaryStore.supports(getParameters("VisitsSummary.get", "nb_visits,nb_actions"),
+            this.jsonNormaliser));
+
+        Map<String, String> parameters = getParameters("VisitsSummary.get", "nb_visits");
+        parameters.put("period", "range");
+        assertFalse(this.visitsSummaryStore.supports(parameters, this.jsonNormaliser));
+    }
+
+    @Test
+    void requestFetchesTheMetricSetOnce() throws IOException
+    {
+        JsonNode visits = this.visitsSummaryStore.request(getParameters("VisitsSummary.get", "nb_visits"),
+            this.jsonNormaliser);
+        JsonNode uniqueVisitors = this.visitsSummaryStore.request(
+            getParameters("VisitsSummary.getUniqueVisitors", "values"), this.jsonNormaliser);
+
+        assertEquals("[\"2024-01-01\",\"2024-01-02\"]", visits.get("labels").toString());
+        assertEquals("[3,5]", visits.get("values").toString());
+        assertEquals("[2,4]", uniqueVisitors.get("values").toString());
+        verify(this.requestExecutor, times(1)).execute(argThat(parameters -> parameters.get("columns") == null
+            && "VisitsSummary.get".equals(parameters.get("method"))), any(ResponseReader.class));
+        // The table is stored with the responses of the wiki, for the closed periods.
+        verify(this.responseCache).put(argThat(key -> key.startsWith(AnalyticsRequestKey.getKeyPrefix("xwiki@"))),
+            any(), eq(true));
+    }
+
+    @Test
+    void requestFetchesTheMetricSetAgainOnceCleared() throws IOException
+    {
+        Map<String, String> parameters = getParameters("VisitsSummary.get", "nb_visits");
+        this.visitsSummaryStore.request(parameters, this.jsonNormaliser);
+        this.cachedTables.clear();
+        this.visitsSummaryStore.request(parameters, this.jsonNormaliser);
+
+        verify(this.requestExecutor, times(2)).execute(any(), any(ResponseReader.class));
+    }
+
+    @Test
+    void requestFailureIsNotStored() throws IOException
+    {
+        this.response = "{\"result\":\"error\",\"message\":\"Invalid token.\"}";
+        Map<String, String> parameters = getParameters("VisitsSummary.get", "nb_visits");
+        assertThrows(IOException.class, () -> this.visitsSummaryStore.request(parameters, this.jsonNormaliser));
+
+        this.response = RESPONSE;
+        assertEquals("[3,5]", this.visitsSummaryStore.request(parameters, this.jsonNormaliser).get("values")
+            .toString());
+    }
+
+    private Map<String, String> getParameters(String method, String columns)
+    {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("module", "API");
+        parameters.put("format", "json");
+        parameters.put("idSite", "1");
+        parameters.put("period", "day");
+        parameters.put("date", "2024-01-01,2024-01-02");
+        parameters.put("method", method);
+        parameters.put("columns", columns);
+        return parameters;
+    }
+}
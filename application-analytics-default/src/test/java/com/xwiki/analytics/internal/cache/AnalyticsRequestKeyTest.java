@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.cache;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for {@link AnalyticsRequestKey}
+ *
+ * @version $Id$
+ */
+public class AnalyticsRequestKeyTest
+{
+    private static final LocalDate TODAY = LocalDate.of(2024, 3, 13);
+
+    private static final String HINT = "MostViewedPages";
+
+    private static final String SCOPE = "xwiki@https://matomo-url/";
+
+    @Test
+    void createIsScopedToTheWikiAndMatomoInstance()
+    {
+        Map<String, String> parameters = Collections.singletonMap("idSite", "3");
+
+        AnalyticsRequestKey key = AnalyticsRequestKey.create(SCOPE, parameters, null, HINT, TODAY);
+
+        assertEquals(key, AnalyticsRequestKey.create(SCOPE, parameters, null, HINT, TODAY));
+        assertNotEquals(key,
+            AnalyticsRequestKey.create("subwiki@https://matomo-url/", parameters, null, HINT, TODAY));
+        assertNotEquals(key,
+            AnalyticsRequestKey.create("xwiki@https://other-matomo-url/", parameters, null, HINT, TODAY));
+    }
+
+    @Test
+    void createIgnoresTheTokenAndTheParameterOrder()
+    {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("idSite", "3");
+        parameters.put("period", "day");
+        parameters.put("date", "yesterday");
+        Map<String, String> otherParameters = new HashMap<>(parameters);
+        otherParameters.put("token_auth", "secret");
+
+        assertEquals(AnalyticsRequestKey.create(SCOPE, parameters, null, HINT, TODAY),
+            AnalyticsRequestKey.create(SCOPE, otherParameters, null, HINT, TODAY));
+    }
+
+    @Test
+    void getKeyPrefix()
+    {
+        AnalyticsRequestKey key =
+            AnalyticsRequestKey.create(SCOPE, Collections.singletonMap("idSite", "3"), null, HINT, TODAY);
+
+        assertTrue(key.toString().startsWith(AnalyticsRequestKey.getKeyPrefix("xwiki@")));
+        assertFalse(key.toString().startsWith(AnalyticsRequestKey.getKeyPrefix("xwiki2@")));
+    }
+}
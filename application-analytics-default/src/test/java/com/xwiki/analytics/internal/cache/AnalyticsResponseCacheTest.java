@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link AnalyticsResponseCache}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class AnalyticsResponseCacheTest
+{
+    @InjectMockComponents
+    private AnalyticsResponseCache responseCache;
+
+    @MockComponent
+    private AnalyticsConfiguration configuration;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    private final JsonNode value = JsonNodeFactory.instance.arrayNode();
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        when(this.cacheManager.createNewLocalCache(any())).thenAnswer(invocation -> new MapCache<>(
+            invocation.<LRUCacheConfiguration>getArgument(0).getLRUEvictionConfiguration().getMaxEntries()));
+        when(this.configuration.getResponseCacheSize()).thenReturn(2);
+        when(this.configuration.getClosedPeriodCacheDuration()).thenReturn(3600);
+        when(this.configuration.getCurrentPeriodCacheDuration()).thenReturn(0);
+        this.responseCache.initialize();
+    }
+
+    @Test
+    void getCachedValue()
+    {
+        this.responseCache.put("key", this.value, true);
+        assertSame(this.value, this.responseCache.get("key"));
+        assertNull(this.responseCache.get("missing"));
+        assertEquals(1L, this.responseCache.getStatistics().get("hits"));
+        assertEquals(1L, this.responseCache.getStatistics().get("misses"));
+    }
+
+    @Test
+    void currentPeriodEntriesExpire() throws Exception
+    {
+        this.responseCache.put("key", this.value, false);
+        Thread.sleep(1);
+        assertNull(this.responseCache.get("key"));
+        assertEquals(1L, this.responseCache.getStatistics().get("expirations"));
+    }
+
+    @Test
+    void expiredEntriesCanBeIncluded() throws Exception
+    {
+        this.responseCache.put("key", this.value, false);
+        Thread.sleep(1);
+        assertSame(this.value, this.responseCache.lookup("key", true).getValue());
+        assertNull(this.responseCache.get("key"));
+        assertNull(this.responseCache.lookup("key", true));
+    }
+
+    @Test
+    void staleEntriesAreKept() throws Exception
+    {
+        when(this.configuration.getStaleCacheDuration()).thenReturn(3600);
+        this.responseCache.put("key", this.value, false);
+        Thread.sleep(1);
+
+        AnalyticsResponseCache.CacheEntry entry = this.responseCache.lookup("key");
+        assertSame(this.value, entry.getValue());
+        assertTrue(entry.isStale());
+        assertEquals(1L, this.responseCache.getStatistics().get("staleHits"));
+
+        this.responseCache.put("closed", this.value, true);
+        assertFalse(this.responseCache.lookup("closed").isStale());
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted()
+    {
+        this.responseCache.put("first", this.value, true);
+        this.responseCache.put("second", this.value, true);
+        this.responseCache.get("first");
+        this.responseCache.put("third", this.value, true);
+
+        assertNull(this.responseCache.get("second"));
+        assertSame(this.value, this.responseCache.get("first"));
+        assertSame(this.value, this.responseCache.get("third"));
+        assertEquals(2L, this.responseCache.getStatistics().get("maxSize"));
+    }
+}
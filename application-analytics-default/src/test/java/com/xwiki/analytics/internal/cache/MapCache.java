@@ -0,0 +1,183 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.cache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+
+/**
+ * In-memory {@link Cache} evicting its least recently used entries, used instead of the XWiki cache implementations in
+ * the unit tests. The listeners are notified of the added, modified and removed (including evicted) entries.
+ *
+ * @param <T> the type of the cached values
+ * @version $Id$
+ */
+public class MapCache<T> implements Cache<T>
+{
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final List<CacheEntryListener<T>> listeners = new ArrayList<>();
+
+    private final List<Map.Entry<String, T>> evictedEntries = new ArrayList<>();
+
+    private final Map<String, T> entries;
+
+    /**
+     * @param maxSize the maximum number of entries
+     */
+    public MapCache(int maxSize)
+    {
+        this.entries = new LinkedHashMap<String, T>(INITIAL_CAPACITY, LOAD_FACTOR, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest)
+            {
+                if (size() > maxSize) {
+                    MapCache.this.evictedEntries.add(Map.entry(eldest.getKey(), eldest.getValue()));
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public synchronized void set(String key, T value)
+    {
+        boolean modified = this.entries.containsKey(key);
+        this.entries.put(key, value);
+        for (CacheEntryListener<T> listener : this.listeners) {
+            if (modified) {
+                listener.cacheEntryModified(new Event(key, value));
+            } else {
+                listener.cacheEntryAdded(new Event(key, value));
+            }
+        }
+        List<Map.Entry<String, T>> evicted = new ArrayList<>(this.evictedEntries);
+        this.evictedEntries.clear();
+        for (Map.Entry<String, T> entry : evicted) {
+            notifyRemoved(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public synchronized T get(String key)
+    {
+        return this.entries.get(key);
+    }
+
+    @Override
+    public synchronized void remove(String key)
+    {
+        if (this.entries.containsKey(key)) {
+            notifyRemoved(key, this.entries.remove(key));
+        }
+    }
+
+    @Override
+    public synchronized void removeAll()
+    {
+        for (String key : new ArrayList<>(this.entries.keySet())) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public synchronized void addCacheEntryListener(CacheEntryListener<T> listener)
+    {
+        this.listeners.add(listener);
+    }
+
+    @Override
+    public synchronized void removeCacheEntryListener(CacheEntryListener<T> listener)
+    {
+        this.listeners.remove(listener);
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        this.entries.clear();
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    private void notifyRemoved(String key, T value)
+    {
+        for (CacheEntryListener<T> listener : this.listeners) {
+            listener.cacheEntryRemoved(new Event(key, value));
+        }
+    }
+
+    /**
+     * The event sent to the listeners, which is also the entry it is about.
+     */
+    private final class Event implements CacheEntryEvent<T>, CacheEntry<T>
+    {
+        private final String key;
+
+        private final T value;
+
+        Event(String key, T value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Cache<T> getCache()
+        {
+            return MapCache.this;
+        }
+
+        @Override
+        public CacheEntry<T> getEntry()
+        {
+            return this;
+        }
+
+        @Override
+        public String getKey()
+        {
+            return this.key;
+        }
+
+        @Override
+        public T getValue()
+        {
+            return this.value;
+        }
+    }
+}
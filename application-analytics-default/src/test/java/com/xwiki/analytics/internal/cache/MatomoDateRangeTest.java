@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.cache;
+
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for {@link MatomoDateRange}
+ *
+ * @version $Id$
+ */
+public class MatomoDateRangeTest
+{
+    private static final LocalDate TODAY = LocalDate.of(2024, 3, 13);
+
+    @Test
+    void resolveToday()
+    {
+        MatomoDateRange range = MatomoDateRange.resolve("day", "today", TODAY);
+        assertEquals("2024-03-13", range.toString());
+        assertFalse(range.isClosed(TODAY));
+    }
+
+    @Test
+    void resolveYesterday()
+    {
+        MatomoDateRange range = MatomoDateRange.resolve("day", "yesterday", TODAY);
+        assertEquals("2024-03-12", range.toString());
+        // The day may still be running in the timezone of the Matomo site.
+        assertFalse(range.isClosed(TODAY));
+        assertTrue(range.isClosed(TODAY.plusDays(1)));
+    }
+
+    @Test
+    void resolveSingleWeek()
+    {
+        MatomoDateRange range = MatomoDateRange.resolve("week", "2024-03-06", TODAY);
+        assertEquals("2024-03-04", range.toString());
+        assertEquals(LocalDate.of(2024, 3, 10), range.getEnd());
+        assertTrue(range.isClosed(TODAY));
+    }
+
+    @Test
+    void resolveLastDays()
+    {
+        MatomoDateRange range = MatomoDateRange.resolve("range", "last30", TODAY);
+        assertEquals("2024-02-13,2024-03-13", range.toString());
+        assertFalse(range.isClosed(TODAY));
+    }
+
+    @Test
+    void resolvePreviousMonths()
+    {
+        MatomoDateRange range = MatomoDateRange.resolve("month", "previous2", TODAY);
+        assertEquals("2024-01-01,2024-02-29", range.toString());
+        assertTrue(range.isClosed(TODAY));
+    }
+
+    @Test
+    void resolveRangeWithRelativeEnd()
+    {
+        MatomoDateRange range = MatomoDateRange.resolve("day", "2024-03-01,today", TODAY);
+        assertEquals("2024-03-01,2024-03-13", range.toString());
+        assertFalse(range.isClosed(TODAY));
+    }
+
+    @Test
+    void resolveInvalidDate()
+    {
+        assertNull(MatomoDateRange.resolve("day", "tomorrow", TODAY));
+        assertNull(MatomoDateRange.resolve("range", "2024-03-01", TODAY));
+        assertNull(MatomoDateRange.resolve(null, "today", TODAY));
+    }
+
+    @Test
+    void moveLastDays()
+    {
+        MatomoDateRange range =
+            MatomoDateRange.resolve("range", "last7", TODAY).moveTo("range", TODAY, TODAY.plusDays(2));
+        assertEquals("2024-03-09,2024-03-15", range.toString());
+        assertEquals("2024-03-02,2024-03-08", range.getPrevious("range").toString());
+    }
+
+    @Test
+    void moveSingleMonth()
+    {
+        MatomoDateRange range =
+            MatomoDateRange.resolve("month", "today", TODAY).moveTo("month", TODAY, LocalDate.of(2024, 4, 2));
+        assertEquals("2024-04-01", range.toString());
+        assertEquals(LocalDate.of(2024, 4, 30), range.getEnd());
+        MatomoDateRange previous = range.getPrevious("month");
+        assertEquals("2024-03-01", previous.toString());
+        assertEquals(LocalDate.of(2024, 3, 31), previous.getEnd());
+    }
+}
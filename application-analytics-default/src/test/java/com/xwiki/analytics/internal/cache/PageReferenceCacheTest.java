@@ -0,0 +1,107 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.cache.PageReferenceCache.ResolvedPage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link PageReferenceCache}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class PageReferenceCacheTest
+{
+    private static final String URL = "http://localhost:8080/xwiki/bin/view/Space/Page";
+
+    private static final DocumentReference REFERENCE = new DocumentReference("xwiki", "Space", "Page");
+
+    @InjectMockComponents
+    private PageReferenceCache pageReferenceCache;
+
+    @MockComponent
+    private AnalyticsConfiguration configuration;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    private final List<String> resolvedURLs = new ArrayList<>();
+
+    private final Function<String, ResolvedPage> resolver = url -> {
+        this.resolvedURLs.add(url);
+        return new ResolvedPage(REFERENCE, "Page");
+    };
+
+    @BeforeComponent
+    void configure() throws Exception
+    {
+        when(this.cacheManager.createNewLocalCache(any())).thenAnswer(invocation -> new MapCache<>(
+            invocation.<LRUCacheConfiguration>getArgument(0).getLRUEvictionConfiguration().getMaxEntries()));
+        when(this.configuration.getPageReferenceCacheSize()).thenReturn(1);
+    }
+
+    @Test
+    void getResolvesEachURLOnce()
+    {
+        ResolvedPage resolvedPage = this.pageReferenceCache.get(URL, this.resolver);
+        assertSame(resolvedPage, this.pageReferenceCache.get(URL, this.resolver));
+        assertEquals(1, this.resolvedURLs.size());
+    }
+
+    @Test
+    void getEvictsTheLeastRecentlyUsedURL()
+    {
+        this.pageReferenceCache.get(URL, this.resolver);
+        this.pageReferenceCache.get("http://localhost:8080/xwiki/bin/view/Space/Other", this.resolver);
+        this.pageReferenceCache.get(URL, this.resolver);
+        assertEquals(3, this.resolvedURLs.size());
+    }
+
+    @Test
+    void invalidateRemovesThePage()
+    {
+        this.pageReferenceCache.get(URL, this.resolver);
+        this.pageReferenceCache.get(URL, this.resolver);
+        assertEquals(1, this.resolvedURLs.size());
+
+        this.pageReferenceCache.invalidate(REFERENCE);
+        this.pageReferenceCache.get(URL, this.resolver);
+        assertEquals(2, this.resolvedURLs.size());
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xwiki.environment.Environment;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link PersistentResponseStore}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class PersistentResponseStoreTest
+{
+    private static final String KEY = "MostViewedPages|date=2024-03-01&period=month|";
+
+    @InjectMockComponents
+    private PersistentResponseStore persistentStore;
+
+    @MockComponent
+    private AnalyticsConfiguration configuration;
+
+    @MockComponent
+    private Environment environment;
+
+    @TempDir
+    private File permanentDirectory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    void setUp()
+    {
+        when(this.environment.getPermanentDirectory()).thenReturn(this.permanentDirectory);
+        when(this.configuration.getPersistentCacheSize()).thenReturn(1024L * 1024);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        this.persistentStore.dispose();
+    }
+
+    @Test
+    void putAndGetAfterRestart() throws IOException
+    {
+        this.persistentStore.initialize();
+        JsonNode value = this.objectMapper.readTree("[{\"label\":\"Main.WebHome\",\"nb_hits\":10}]");
+        this.persistentStore.put(KEY, value);
+        assertEquals(value, this.persistentStore.get(KEY));
+        assertNull(this.persistentStore.get("missing"));
+
+        this.persistentStore.dispose();
+        this.persistentStore.initialize();
+
+        assertEquals(value, this.persistentStore.get(KEY));
+        assertEquals(1L, this.persistentStore.getStatistics().get("persistentEntries"));
+    }
+
+    @Test
+    void ignoreCorruptedEnd() throws IOException
+    {
+        this.persistentStore.initialize();
+        JsonNode value = this.objectMapper.readTree("{\"nb_visits\":3}");
+        this.persistentStore.put(KEY, value);
+        this.persistentStore.dispose();
+        File segment = new File(this.permanentDirectory, "analytics/responses/segment-0.dat");
+        long segmentSize = segment.length();
+        try (FileOutputStream outputStream = new FileOutputStream(segment, true)) {
+            outputStream.write(new byte[] { 0, 0, 0, 5, 0 });
+        }
+
+        this.persistentStore.initialize();
+
+        assertEquals(value, this.persistentStore.get(KEY));
+        assertEquals(segmentSize, segment.length());
+    }
+
+    @Test
+    void compactKeepsTheReadResponses() throws IOException
+    {
+        when(this.configuration.getPersistentCacheSize()).thenReturn(4096L);
+        this.persistentStore.initialize();
+        JsonNode value = this.objectMapper.readTree("{\"label\":\"" + "x".repeat(200) + "\"}");
+        this.persistentStore.put("first", value);
+        this.persistentStore.put("second", value);
+        this.persistentStore.get("first");
+        for (int i = 0; i < 20; i++) {
+            this.persistentStore.put("key" + i, value);
+        }
+
+        assertEquals(value, this.persistentStore.get("first"));
+        assertNull(this.persistentStore.get("second"));
+        assertTrue(this.persistentStore.getStatistics().get("persistentSize") <= 4096L);
+        assertTrue(this.persistentStore.getStatistics().get("persistentEvictions") > 0);
+    }
+
+    @Test
+    void invalidateAfterRestart() throws IOException
+    {
+        this.persistentStore.initialize();
+        JsonNode value = this.objectMapper.readTree("{\"nb_visits\":3}");
+        this.persistentStore.put("xwiki%40https://matomo/|" + KEY, value);
+        this.persistentStore.put("subwiki%40https://matomo/|" + KEY, value);
+
+        this.persistentStore.invalidate("xwiki%40");
+        this.persistentStore.dispose();
+        this.persistentStore.initialize();
+
+        assertNull(this.persistentStore.get("xwiki%40https://matomo/|" + KEY));
+        assertEquals(value, this.persistentStore.get("subwiki%40https://matomo/|" + KEY));
+        assertEquals(1L, this.persistentStore.getStatistics().get("persistentEntries"));
+    }
+
+    @Test
+    void disabled()
+    {
+        when(this.configuration.getPersistentCacheSize()).thenReturn(0L);
+        this.persistentStore.initialize();
+        this.persistentStore.put(KEY, this.objectMapper.createObjectNode());
+        assertNull(this.persistentStore.get(KEY));
+    }
+}
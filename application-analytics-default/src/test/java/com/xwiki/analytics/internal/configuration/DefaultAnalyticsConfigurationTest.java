@@ -49,6 +49,10 @@ public class DefaultAnalyticsConfigurationTest
     @Named("analytics")
     private ConfigurationSource analyticsConfigurationSource;
 
+    @MockComponent
+    @Named("xwikiproperties")
+    private ConfigurationSource xwikiProperties;
+
     @MockComponent
     private Logger logger;
 
@@ -79,6 +83,21 @@ public class DefaultAnalyticsConfigurationTest
         when(this.analyticsConfigurationSource.getProperty("trackingCode", "")).thenReturn("TEST");
         assertEquals("TEST", this.defaultAnalyticsConfiguration.getTrackingCode());
     }
+
+    @Test
+    void getMaxConnections()
+    {
+        when(this.xwikiProperties.getProperty("analytics.http.maxConnections", 20)).thenReturn(50);
+        assertEquals(50, this.defaultAnalyticsConfiguration.getMaxConnections());
+    }
+
+    @Test
+    void getSocketTimeout()
+    {
+        when(this.xwikiProperties.getProperty("analytics.http.socketTimeout", 30000)).thenReturn(30000);
+        assertEquals(30000, this.defaultAnalyticsConfiguration.getSocketTimeout());
+    }
+
     @BeforeEach
     void setLogger()
     {
@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.configuration;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link MatomoEndpointManager}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class MatomoEndpointManagerTest
+{
+    @InjectMockComponents
+    private MatomoEndpointManager endpointManager;
+
+    @MockComponent
+    private AnalyticsConfiguration configuration;
+
+    @MockComponent
+    private ModelContext modelContext;
+
+    @BeforeEach
+    void setUp()
+    {
+        when(this.modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("xwiki"));
+        when(this.configuration.getRequestAddress()).thenReturn("https://matomo-url/");
+        when(this.configuration.getIdSite()).thenReturn("3");
+        when(this.configuration.getAuthenticationToken()).thenReturn("token");
+    }
+
+    @Test
+    void getEndpointReadsTheConfigurationOnce()
+    {
+        MatomoEndpoint endpoint = this.endpointManager.getEndpoint();
+        assertEquals("3", endpoint.getIdSite());
+        assertEquals("token", endpoint.getAuthenticationToken());
+        assertSame(endpoint, this.endpointManager.getEndpoint());
+        verify(this.configuration).getRequestAddress();
+    }
+
+    @Test
+    void invalidateReplacesTheEndpoint()
+    {
+        MatomoEndpoint endpoint = this.endpointManager.getEndpoint();
+        when(this.configuration.getIdSite()).thenReturn("4");
+
+        this.endpointManager.invalidate("otherwiki");
+        assertSame(endpoint, this.endpointManager.getEndpoint());
+
+        this.endpointManager.invalidate("xwiki");
+        MatomoEndpoint newEndpoint = this.endpointManager.getEndpoint();
+        assertNotSame(endpoint, newEndpoint);
+        assertEquals("4", newEndpoint.getIdSite());
+        verify(this.configuration, times(2)).getRequestAddress();
+    }
+
+    @Test
+    void getEndpointForEachWiki()
+    {
+        MatomoEndpoint endpoint = this.endpointManager.getEndpoint();
+        when(this.modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("otherwiki"));
+        when(this.configuration.getIdSite()).thenReturn("4");
+        assertEquals("4", this.endpointManager.getEndpoint().getIdSite());
+        assertEquals("3", endpoint.getIdSite());
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.configuration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit test for {@link MatomoEndpoint}
+ *
+ * @version $Id$
+ */
+public class MatomoEndpointTest
+{
+    @Test
+    void buildURI()
+    {
+        MatomoEndpoint endpoint = new MatomoEndpoint("https://matomo-url", "3", "to ken");
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("method", "Actions.getPageUrls");
+        parameters.put("idSite", "4");
+        parameters.put("filter_pattern", "{a}+é");
+        assertEquals("https://matomo-url/index.php?idSite=3&token_auth=to+ken&method=Actions.getPageUrls"
+            + "&filter_pattern=%7Ba%7D%2B%C3%A9", endpoint.buildURI(parameters).toString());
+        assertEquals("https://matomo-url/index.php", endpoint.getBaseURI().toString());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.filter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for {@link RowFilters}
+ *
+ * @version $Id$
+ */
+public class RowFiltersTest
+{
+    private static final String LABEL = "label";
+
+    private static final String HITS = "nb_hits";
+
+    private static final String BOUNCE_RATE = "bounce_rate";
+
+    private final ObjectNode row = new ObjectMapper().createObjectNode().put(LABEL, "/xwiki/bin/view/Main/WebHome")
+        .put(HITS, 150).put(BOUNCE_RATE, "45%");
+
+    private boolean matches(String column, String value)
+    {
+        return RowFilters.compile(Collections.singletonMap(column, value), false).matches(this.row);
+    }
+
+    @Test
+    void compileWithoutFilters()
+    {
+        assertSame(RowFilter.ALL, RowFilters.compile(null, false));
+        assertSame(RowFilter.ALL, RowFilters.compile(new HashMap<>(), true));
+    }
+
+    @Test
+    void compileTextFilters()
+    {
+        assertTrue(matches(LABEL, "Main"));
+        assertFalse(matches(LABEL, "main"));
+        assertTrue(matches(LABEL, "~main"));
+        assertTrue(matches(LABEL, "^/XWIKI/bin"));
+        assertFalse(matches(LABEL, "^Main"));
+        assertTrue(matches(LABEL, "=/xwiki/bin/view/Main/WebHome"));
+        assertFalse(matches(LABEL, "=Main"));
+        assertFalse(matches("missing", "Main"));
+    }
+
+    @Test
+    void compileNumericFilters()
+    {
+        assertTrue(matches(HITS, ">100"));
+        assertFalse(matches(HITS, ">150"));
+        assertTrue(matches(HITS, ">=150"));
+        assertTrue(matches(HITS, "<150.5"));
+        assertFalse(matches(HITS, "<=149"));
+        assertTrue(matches(HITS, "100..200"));
+        assertFalse(matches(HITS, "151..200"));
+        assertTrue(matches(BOUNCE_RATE, "40..50"));
+        assertTrue(matches(BOUNCE_RATE, "<45.5"));
+        assertFalse(matches(LABEL, ">0"));
+        // The operators followed by something else than a number are matched as text.
+        assertFalse(matches(LABEL, ">Main"));
+    }
+
+    @Test
+    void compileExactMatchFilters()
+    {
+        Map<String, String> filters = new HashMap<>();
+        filters.put(LABEL, "/xwiki/bin/view/Main/WebHome");
+        filters.put(HITS, "150");
+        assertTrue(RowFilters.compile(filters, true).matches(this.row));
+
+        filters.put(HITS, ">100");
+        assertFalse(RowFilters.compile(filters, true).matches(this.row));
+
+        filters.put(HITS, "10\n150");
+        assertTrue(RowFilters.compile(filters, true).matches(this.row));
+    }
+
+    @Test
+    void toMatomoPattern()
+    {
+        assertEquals("Main/Web\\.Home", RowFilters.toMatomoPattern("Main/Web.Home", false));
+        assertEquals("main", RowFilters.toMatomoPattern("~main", false));
+        assertEquals("^/xwiki", RowFilters.toMatomoPattern("^/xwiki", false));
+        assertEquals("^Main$", RowFilters.toMatomoPattern("=Main", false));
+        assertEquals("^\\^Main\\(1\\)$", RowFilters.toMatomoPattern("^Main(1)", true));
+        assertEquals("^(Main|Sandbox\\.Test)$", RowFilters.toMatomoPattern("Main\nSandbox.Test", true));
+        assertNull(RowFilters.toMatomoPattern(">100", false));
+        assertNull(RowFilters.toMatomoPattern("10..20", false));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.livedata;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.icon.IconManager;
+import org.xwiki.livedata.LiveData;
+import org.xwiki.livedata.LiveDataException;
+import org.xwiki.livedata.LiveDataQuery;
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xwiki.analytics.AnalyticsManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link AnalyticsLiveDataEntryStore}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+@ComponentList({ AnalyticsTableRegistry.class })
+public class AnalyticsLiveDataEntryStoreTest
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String HITS = "hits";
+
+    @InjectMockComponents
+    private AnalyticsLiveDataEntryStore entryStore;
+
+    @MockComponent
+    @Named("Matomo")
+    private AnalyticsManager analyticsManager;
+
+    @MockComponent
+    private IconManager iconManager;
+
+    @MockComponent
+    private ContextualLocalizationManager localization;
+
+    @MockComponent
+    private ContextualAuthorizationManager authorization;
+
+    @MockComponent
+    private ModelContext modelContext;
+
+    private final SpaceReference codeReference = new SpaceReference("wiki", "Analytics", "Code");
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        when(this.modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("wiki"));
+        when(this.authorization.hasAccess(Right.VIEW, this.codeReference)).thenReturn(true);
+        when(this.iconManager.renderHTML("eye")).thenReturn("<svg/>");
+        when(this.localization.getTranslationPlain("analytics.livedata.action.rowEvolution.title"))
+            .thenReturn("Evolution");
+        when(this.localization.getTranslationPlain("analytics.extension.warning.message.others")).thenReturn("Other");
+        this.entryStore.getParameters().put("table", "MostViewedPages");
+        this.entryStore.getParameters().put("period", "range");
+        this.entryStore.getParameters().put("date", "2024-01-01,2024-01-31");
+    }
+
+    @Test
+    void getSortsAndPagesTheWholeReport() throws Exception
+    {
+        when(this.analyticsManager.requestData(any(), any(), eq("MostViewedPages"))).thenReturn(OBJECT_MAPPER.readTree(
+            "[{\"label\":\"A\",\"url\":\"https://wiki/a\",\"nb_hits\":5,\"bounce_rate\":\"10%\"},"
+                + "{\"label\":\"B\",\"url\":\"https://wiki/b\",\"nb_hits\":20,\"bounce_rate\":\"30%\"},"
+                + "{\"label\":\"C & D\",\"nb_hits\":12,\"bounce_rate\":\"20%\"}]"));
+        LiveDataQuery query = new LiveDataQuery();
+        query.setOffset(1L);
+        query.setLimit(1);
+        query.setSort(List.of(new LiveDataQuery.SortEntry(HITS, true)));
+        query.setFilters(List.of(new LiveDataQuery.Filter("pageTitle", "startsWith", "c")));
+
+        LiveData liveData = this.entryStore.get(query);
+
+        assertEquals(3, liveData.getCount());
+        assertEquals(1, liveData.getEntries().size());
+        Map<String, Object> entry = liveData.getEntries().get(0);
+        assertEquals("<div title=\"Other\">C &#38; D</div>", entry.get("pageTitle"));
+        assertEquals("12", entry.get(HITS));
+        assertEquals("20%", entry.get("bounceRate"));
+        assertEquals("0:00:00:00", entry.get("timeSpent"));
+        verify(this.analyticsManager).requestData(
+            Map.of("method", "Actions.getPageUrls", "expanded", "1", "flat", "1", "filter_limit", "-1", "period",
+                "range", "date", "2024-01-01,2024-01-31"),
+            Map.of("label", "^c"), "MostViewedPages");
+    }
+
+    @Test
+    void getFormatsTheRows() throws Exception
+    {
+        when(this.analyticsManager.requestData(any(), any(), any())).thenReturn(OBJECT_MAPPER.readTree(
+            "[{\"label\":\"A\",\"url\":\"https://wiki/a?x=1&y=2\",\"nb_hits\":5,\"sum_time_spent\":90061}]"));
+
+        Map<String, Object> entry = this.entryStore.get(new LiveDataQuery()).getEntries().get(0);
+
+        assertEquals("<a href=\"https://wiki/a?x=1&#38;y=2\">A</a>", entry.get("pageTitle"));
+        assertEquals("1:01:01:01", entry.get("timeSpent"));
+        assertEquals("<div class=\"analyticsActions\"><div class=\"analyticsRowEvolution\" "
+            + "data-row-identifier=\"https://wiki/a?x=1&#38;y=2\"><a class=\"action\" title=\"Evolution\" href=\"#\">"
+            + "<span class=\"action-icon\"><svg/></span></a></div></div>", entry.get("rowEvolution"));
+    }
+
+    @Test
+    void getLinksOnlyTheWebPages() throws Exception
+    {
+        when(this.analyticsManager.requestData(any(), any(), any())).thenReturn(OBJECT_MAPPER.readTree(
+            "[{\"label\":\"A\",\"url\":\"javascript:alert(1)\"},{\"label\":\"B\",\"url\":\"HTTP://wiki/b\"}]"));
+
+        List<Map<String, Object>> entries = this.entryStore.get(new LiveDataQuery()).getEntries();
+
+        assertEquals("A", entries.get(0).get("pageTitle"));
+        assertEquals("<a href=\"HTTP://wiki/b\">B</a>", entries.get(1).get("pageTitle"));
+    }
+
+    @Test
+    void getIgnoresTheFiltersOfTheDurations() throws Exception
+    {
+        when(this.analyticsManager.requestData(any(), any(), any())).thenReturn(OBJECT_MAPPER.readTree("[]"));
+        LiveDataQuery query = new LiveDataQuery();
+        query.setFilters(List.of(new LiveDataQuery.Filter("timeSpent", "contains", "0:00:01:00")));
+
+        this.entryStore.get(query);
+
+        verify(this.analyticsManager).requestData(any(), eq(Map.of()), eq("MostViewedPages"));
+    }
+
+    @Test
+    void getWithoutViewRight()
+    {
+        when(this.authorization.hasAccess(Right.VIEW, this.codeReference)).thenReturn(false);
+        LiveDataException exception =
+            assertThrows(LiveDataException.class, () -> this.entryStore.get(new LiveDataQuery()));
+        assertEquals("You are not allowed to view the analytics data.", exception.getMessage());
+        verifyNoInteractions(this.analyticsManager);
+    }
+
+    @Test
+    void getWithUnknownTable()
+    {
+        this.entryStore.getParameters().put("table", "unknown");
+        LiveDataException exception =
+            assertThrows(LiveDataException.class, () -> this.entryStore.get(new LiveDataQuery()));
+        assertEquals("Unknown analytics table [unknown].", exception.getMessage());
+    }
+
+    @Test
+    void selectPageKeepsOnlyTheTopRows() throws Exception
+    {
+        JsonNode rows = OBJECT_MAPPER.readTree("[5, 1, 9, 3, 7, 3, 8]");
+        Comparator<JsonNode> comparator = Comparator.comparingInt(JsonNode::asInt);
+
+        assertEquals(Arrays.asList(3, 3, 5), getValues(AnalyticsLiveDataEntryStore.selectPage(rows, comparator, 1, 3)));
+        assertEquals(Arrays.asList(8, 9), getValues(AnalyticsLiveDataEntryStore.selectPage(rows, comparator, 5, 10)));
+        assertEquals(Arrays.asList(1, 9), getValues(AnalyticsLiveDataEntryStore.selectPage(rows, null, 1, 2)));
+        assertEquals(List.of(), getValues(AnalyticsLiveDataEntryStore.selectPage(rows, comparator, 10, 2)));
+    }
+
+    private List<Integer> getValues(List<JsonNode> rows)
+    {
+        return rows.stream().map(JsonNode::asInt).collect(Collectors.toList());
+    }
+}
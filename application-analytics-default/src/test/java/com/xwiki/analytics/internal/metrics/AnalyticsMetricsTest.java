@@ -0,0 +1,118 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for {@link AnalyticsMetrics}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class AnalyticsMetricsTest
+{
+    private static final String METHOD = "Actions.getPageUrls";
+
+    private static final String HINT = "MostViewedPages";
+
+    @InjectMockComponents
+    private AnalyticsMetrics metrics;
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @AfterEach
+    void tearDown()
+    {
+        this.metrics.dispose();
+    }
+
+    @Test
+    void matomoMetricsAreExposedThroughJmx() throws Exception
+    {
+        this.metrics.recordMatomoRequest(METHOD, TimeUnit.MILLISECONDS.toNanos(20), 1000, 4000, false);
+        this.metrics.recordMatomoRequest(METHOD, TimeUnit.MILLISECONDS.toNanos(40), 0, 0, true);
+
+        ObjectName name = new ObjectName("com.xwiki.analytics:type=Matomo,method=" + ObjectName.quote(METHOD));
+        assertEquals(2L, this.server.getAttribute(name, "RequestCount"));
+        assertEquals(1L, this.server.getAttribute(name, "FailureCount"));
+        assertEquals(1000L, this.server.getAttribute(name, "BytesReceived"));
+        assertEquals(4000L, this.server.getAttribute(name, "UncompressedBytes"));
+        assertEquals(4.0, this.server.getAttribute(name, "CompressionRatio"));
+        assertEquals(30.0, this.server.getAttribute(name, "MeanResponseTime"));
+
+        this.metrics.dispose();
+        assertFalse(this.server.isRegistered(name));
+    }
+
+    @Test
+    void normaliserMetricsAreExposedThroughJmx() throws Exception
+    {
+        this.metrics.recordRequest(HINT, METHOD, TimeUnit.MILLISECONDS.toNanos(10), false);
+        this.metrics.recordUserFiltering(HINT, METHOD, TimeUnit.MILLISECONDS.toNanos(2));
+        this.metrics.recordNormalisation(HINT, METHOD, TimeUnit.MILLISECONDS.toNanos(5), 100, 10);
+
+        ObjectName name = new ObjectName(String.format("com.xwiki.analytics:type=Normaliser,hint=%s,method=%s",
+            ObjectName.quote(HINT), ObjectName.quote(METHOD)));
+        assertTrue(this.server.isRegistered(name));
+        assertEquals(1L, this.server.getAttribute(name, "RequestCount"));
+        assertEquals(0L, this.server.getAttribute(name, "FailureCount"));
+        assertEquals(1L, this.server.getAttribute(name, "NormalisationCount"));
+        assertEquals(100L, this.server.getAttribute(name, "RowsIn"));
+        assertEquals(10L, this.server.getAttribute(name, "RowsOut"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void getMetrics()
+    {
+        this.metrics.recordMatomoRequest(METHOD, TimeUnit.MILLISECONDS.toNanos(20), 1000, 1000, false);
+        this.metrics.recordRequest(HINT, METHOD, TimeUnit.MILLISECONDS.toNanos(10), true);
+        this.metrics.recordRequest(HINT, null, TimeUnit.MILLISECONDS.toNanos(10), false);
+        this.metrics.recordRequest(HINT, "SitesManager.getSitesWithAdminAccess", 1, false);
+        this.metrics.recordRequest("custom", METHOD, 1, false);
+
+        Map<String, Object> result = this.metrics.getMetrics();
+
+        Map<String, Map<String, Number>> matomo = (Map<String, Map<String, Number>>) result.get("matomo");
+        assertEquals(1000L, matomo.get(METHOD).get("bytesReceived"));
+        assertEquals(1.0, matomo.get(METHOD).get("compressionRatio"));
+        Map<String, Map<String, Map<String, Number>>> normalisers =
+            (Map<String, Map<String, Map<String, Number>>>) result.get("normalisers");
+        assertEquals(1L, normalisers.get(HINT).get(METHOD).get("failureCount"));
+        // The unknown methods and hints share the same metrics.
+        assertEquals(2L, normalisers.get(HINT).get("other").get("requestCount"));
+        assertEquals(1L, normalisers.get("other").get(METHOD).get("requestCount"));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.metrics;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit test for {@link RowCountingParser}
+ *
+ * @version $Id$
+ */
+public class RowCountingParserTest
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Test
+    void countRowsOfASinglePeriod() throws IOException
+    {
+        assertEquals(3, countRows("[{\"label\":\"a\",\"subtable\":[{\"label\":\"a1\"}]},{\"label\":\"b\"},"
+            + "{\"label\":\"c\"}]"));
+    }
+
+    @Test
+    void countRowsOfSeveralPeriods() throws IOException
+    {
+        assertEquals(3, countRows("{\"2024-01-01\":[{\"label\":\"a\",\"subtable\":[{\"label\":\"a1\"}]}],"
+            + "\"2024-01-02\":[{\"label\":\"a\"},{\"label\":\"b\"}],\"2024-01-03\":[]}"));
+    }
+
+    @Test
+    void countMetricsOfSeveralPeriods() throws IOException
+    {
+        assertEquals(2, countRows("{\"2024-01-01\":{\"nb_visits\":1},\"2024-01-02\":{\"nb_visits\":2}}"));
+    }
+
+    @Test
+    void countSkippedRows() throws IOException
+    {
+        try (RowCountingParser parser = new RowCountingParser(
+            OBJECT_MAPPER.getFactory().createParser("[{\"label\":\"a\"},{\"label\":\"b\"}]")))
+        {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                parser.skipChildren();
+            }
+            assertEquals(2, parser.getRowCount());
+        }
+    }
+
+    private long countRows(String json) throws IOException
+    {
+        try (RowCountingParser parser = new RowCountingParser(OBJECT_MAPPER.getFactory().createParser(json))) {
+            parser.setCodec(OBJECT_MAPPER);
+            parser.readValueAsTree();
+            return parser.getRowCount();
+        }
+    }
+}
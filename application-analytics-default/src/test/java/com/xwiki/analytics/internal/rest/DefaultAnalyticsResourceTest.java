@@ -0,0 +1,187 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Named;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+import org.glassfish.jersey.internal.util.collection.MultivaluedStringMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xwiki.analytics.AnalyticsManager;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link DefaultAnalyticsResource}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class DefaultAnalyticsResourceTest
+{
+    private static final String HINT = "MostViewedPages";
+
+    private static final String WIKI = "xwiki";
+
+    @InjectMockComponents
+    private DefaultAnalyticsResource resource;
+
+    @MockComponent
+    @Named("Matomo")
+    private AnalyticsManager analyticsManager;
+
+    @MockComponent
+    private AnalyticsConfiguration configuration;
+
+    @MockComponent
+    private ContextualAuthorizationManager authorization;
+
+    @MockComponent
+    private ModelContext modelContext;
+
+    private final MultivaluedStringMap queryParameters = new MultivaluedStringMap();
+
+    private final Request request = mock(Request.class);
+
+    @BeforeEach
+    void setUp()
+    {
+        UriInfo uriInfo = mock(UriInfo.class);
+        when(uriInfo.getQueryParameters()).thenReturn(this.queryParameters);
+        ReflectionUtils.setFieldValue(this.resource, "uriInfo", uriInfo);
+        ReflectionUtils.setFieldValue(this.resource, "request", this.request);
+        when(this.authorization.hasAccess(Right.VIEW, new SpaceReference(WIKI, "Analytics", "Code"))).thenReturn(true);
+        when(this.configuration.getClosedPeriodCacheDuration()).thenReturn(3600);
+        when(this.configuration.getCurrentPeriodCacheDuration()).thenReturn(300);
+        this.queryParameters.putSingle("method", "Actions.getPageUrls");
+        this.queryParameters.putSingle("period", "day");
+        this.queryParameters.putSingle("date", "2020-01-01");
+    }
+
+    @Test
+    void getDataWritesTheWindowWithCacheHeaders() throws Exception
+    {
+        this.queryParameters.putSingle("offset", "10");
+        this.queryParameters.putSingle("limit", "5");
+        this.queryParameters.putSingle("filters.label", "~blog");
+        // The parameters that are not needed by the reports are not sent to Matomo.
+        this.queryParameters.putSingle("segment", "pageUrl=@secret");
+        this.queryParameters.putSingle("token_auth", "anonymous");
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("method", "Actions.getPageUrls");
+        parameters.put("period", "day");
+        parameters.put("date", "2020-01-01");
+        parameters.put("module", "API");
+        parameters.put("format", "json");
+        String data = "{\"totalRows\":12,\"rows\":[{\"label\":\"blog\"}]}";
+        when(this.analyticsManager.requestData(parameters, Map.of("label", "~blog"), HINT, 10, 5))
+            .thenReturn(new ObjectMapper().readTree(data));
+
+        Response response = this.resource.getData(WIKI, HINT);
+
+        verify(this.modelContext).setCurrentEntityReference(new WikiReference(WIKI));
+        assertEquals(200, response.getStatus());
+        CacheControl cacheControl = (CacheControl) response.getMetadata().getFirst(HttpHeaders.CACHE_CONTROL);
+        assertTrue(cacheControl.isPrivate());
+        assertEquals(3600, cacheControl.getMaxAge());
+        assertEquals(new EntityTag(Base64.getUrlEncoder().withoutPadding().encodeToString(
+            MessageDigest.getInstance("SHA-256").digest(data.getBytes(StandardCharsets.UTF_8))), true),
+            response.getMetadata().getFirst(HttpHeaders.ETAG));
+        assertEquals(data, write(response));
+    }
+
+    @Test
+    void getDataWithAMethodThatIsNotAReport()
+    {
+        this.queryParameters.putSingle("method", "UsersManager.getTokenAuth");
+        WebApplicationException exception =
+            assertThrows(WebApplicationException.class, () -> this.resource.getData(WIKI, HINT));
+        assertEquals(400, exception.getResponse().getStatus());
+        verifyNoInteractions(this.analyticsManager);
+    }
+
+    @Test
+    void getDataWithAMethodOfAnotherNormaliser()
+    {
+        this.queryParameters.putSingle("method", "VisitsSummary.get");
+        WebApplicationException exception =
+            assertThrows(WebApplicationException.class, () -> this.resource.getData(WIKI, HINT));
+        assertEquals(400, exception.getResponse().getStatus());
+    }
+
+    @Test
+    void getDataWithUnknownNormaliser()
+    {
+        WebApplicationException exception =
+            assertThrows(WebApplicationException.class, () -> this.resource.getData(WIKI, "unknown"));
+        assertEquals(404, exception.getResponse().getStatus());
+    }
+
+    @Test
+    void getDataWithoutViewRight()
+    {
+        when(this.authorization.hasAccess(any(), any())).thenReturn(false);
+        WebApplicationException exception =
+            assertThrows(WebApplicationException.class, () -> this.resource.getData(WIKI, HINT));
+        assertEquals(403, exception.getResponse().getStatus());
+    }
+
+    private String write(Response response) throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(outputStream);
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.rollup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xwiki.analytics.JsonNormaliser;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.MatomoRequestExecutor;
+import com.xwiki.analytics.internal.MatomoRequestExecutor.ResponseReader;
+import com.xwiki.analytics.internal.cache.AnalyticsRequestKey;
+import com.xwiki.analytics.internal.cache.MapCache;
+import com.xwiki.analytics.internal.configuration.MatomoEndpointManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link DailyRollupStore}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class DailyRollupStoreTest
+{
+    private static final String DATE = "date";
+
+    @InjectMockComponents
+    private DailyRollupStore rollupStore;
+
+    @MockComponent
+    private AnalyticsConfiguration configuration;
+
+    @MockComponent
+    private MatomoRequestExecutor requestExecutor;
+
+    @MockComponent
+    private JsonNormaliser jsonNormaliser;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private MatomoEndpointManager endpointManager;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final LocalDate firstDay = LocalDate.now().minusDays(3);
+
+    private final LocalDate secondDay = LocalDate.now().minusDays(2);
+
+    private String response;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        when(this.cacheManager.createNewLocalCache(any())).thenAnswer(invocation -> new MapCache<>(
+            invocation.<LRUCacheConfiguration>getArgument(0).getLRUEvictionConfiguration().getMaxEntries()));
+        when(this.configuration.getRollupMaxDays()).thenReturn(30);
+        when(this.endpointManager.getCacheScope()).thenReturn("xwiki@https://matomo.example.org/");
+        this.rollupStore.initialize();
+        when(this.requestExecutor.execute(any(), any(ResponseReader.class))).thenAnswer(invocation -> {
+            ResponseReader<?> reader = invocation.getArgument(1);
+            return reader.read(new ByteArrayInputStream(this.response.getBytes(StandardCharsets.UTF_8)));
+        });
+        when(this.jsonNormaliser.normaliseData(any(JsonParser.class), any())).thenAnswer(
+            invocation -> this.objectMapper.readTree((JsonParser) invocation.getArgument(0)));
+    }
+
+    @Test
+    void supports()
+    {
+        Map<String, String> parameters = getParameters();
+        assertTrue(this.rollupStore.supports(parameters));
+
+        parameters.put(DATE, LocalDate.now().minusDays(40) + "," + LocalDate.now());
+        assertFalse(this.rollupStore.supports(parameters));
+
+        parameters = getParameters();
+        parameters.remove("flat");
+        assertFalse(this.rollupStore.supports(parameters));
+
+        parameters = getParameters();
+        parameters.put("method", "Actions.getPageTitles");
+        assertFalse(this.rollupStore.supports(parameters));
+    }
+
+    @Test
+    void requestSumsTheDailyReports() throws Exception
+    {
+        this.response = String.format("{\"%s\":[{\"label\":\"Main.WebHome\",\"url\":\"https://wiki/Main\","
+            + "\"nb_visits\":2,\"nb_hits\":4,\"sum_time_spent\":40,\"entry_nb_visits\":2,\"entry_bounce_count\":1,"
+            + "\"avg_time_on_page\":10,\"bounce_rate\":\"50%%\"}],"
+            + "\"%s\":[{\"label\":\"Main.WebHome\",\"url\":\"https://wiki/Main\",\"nb_visits\":1,\"nb_hits\":1,"
+            + "\"sum_time_spent\":60,\"entry_nb_visits\":2,\"entry_bounce_count\":2,\"avg_time_on_page\":60,"
+            + "\"bounce_rate\":\"100%%\"},{\"label\":\"Sandbox.WebHome\",\"nb_visits\":5,\"nb_hits\":5,"
+            + "\"sum_time_spent\":5,\"avg_time_on_page\":1}]}", this.firstDay, this.secondDay);
+
+        JsonNode rows = this.rollupStore.request(getParameters(), Collections.emptyMap(), this.jsonNormaliser);
+
+        assertEquals(2, rows.size());
+        assertEquals("Sandbox.WebHome", rows.get(0).path("label").asText());
+        assertEquals(5, rows.get(0).path("nb_visits").asInt());
+        JsonNode mainPage = rows.get(1);
+        assertEquals("https://wiki/Main", mainPage.path("url").asText());
+        assertEquals(3, mainPage.path("nb_visits").asInt());
+        assertEquals(5, mainPage.path("nb_hits").asInt());
+        assertEquals(20, mainPage.path("avg_time_on_page").asInt());
+        assertEquals("75%", mainPage.path("bounce_rate").asText());
+
+        ArgumentCaptor<Map<String, String>> parametersCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(this.requestExecutor).execute(parametersCaptor.capture(), any(ResponseReader.class));
+        assertEquals("day", parametersCaptor.getValue().get("period"));
+        assertEquals(this.firstDay + "," + this.secondDay, parametersCaptor.getValue().get(DATE));
+        assertEquals("-1", parametersCaptor.getValue().get("filter_limit"));
+        assertFalse(parametersCaptor.getValue().containsKey("filter_sort_column"));
+
+        // The stored daily reports are reused, even when the rows are sorted differently.
+        Map<String, String> parameters = getParameters();
+        parameters.put("filter_sort_order", "asc");
+        rows = this.rollupStore.request(parameters, Collections.emptyMap(), this.jsonNormaliser);
+        assertEquals("Main.WebHome", rows.get(0).path("label").asText());
+        verify(this.requestExecutor, times(1)).execute(any(), any(ResponseReader.class));
+    }
+
+    @Test
+    void requestAggregatesTheMinimumsAndTheUniqueVisitors() throws Exception
+    {
+        this.response = String.format("{\"%s\":[{\"label\":\"Main.WebHome\",\"nb_visits\":2,"
+            + "\"nb_uniq_visitors\":2,\"min_time_generation\":30,\"max_time_generation\":50}],"
+            + "\"%s\":[{\"label\":\"Main.WebHome\",\"nb_visits\":3,\"nb_uniq_visitors\":1,"
+            + "\"min_time_generation\":10,\"max_time_generation\":40}]}", this.firstDay, this.secondDay);
+
+        JsonNode rows = this.rollupStore.request(getParameters(), Collections.emptyMap(), this.jsonNormaliser);
+
+        JsonNode mainPage = rows.get(0);
+        assertEquals(5, mainPage.path("nb_visits").asInt());
+        assertEquals(10, mainPage.path("min_time_generation").asInt());
+        assertEquals(50, mainPage.path("max_time_generation").asInt());
+        assertEquals(3, mainPage.path("sum_daily_nb_uniq_visitors").asInt());
+        assertFalse(mainPage.has("nb_uniq_visitors"));
+    }
+
+    @Test
+    void requestDoesNotTruncateTheFilteredRows() throws Exception
+    {
+        this.response = String.format("{\"%s\":[{\"label\":\"France\",\"nb_visits\":3},"
+            + "{\"label\":\"Romania\",\"nb_visits\":2}],\"%s\":[]}", this.firstDay, this.secondDay);
+        Map<String, String> parameters = getParameters();
+        parameters.put("method", "UserCountry.getCountry");
+        parameters.remove("flat");
+        parameters.put("filter_limit", "1");
+        parameters.put("filter_column_recursive", "label");
+        parameters.put("filter_pattern_recursive", "ia");
+
+        // The rows are filtered by the normaliser, after they are returned, so they must not be truncated before.
+        JsonNode rows = this.rollupStore.request(parameters, Collections.emptyMap(), this.jsonNormaliser);
+        assertEquals(2, rows.size());
+
+        parameters.remove("filter_column_recursive");
+        parameters.remove("filter_pattern_recursive");
+        rows = this.rollupStore.request(parameters, Collections.emptyMap(), this.jsonNormaliser);
+        assertEquals(1, rows.size());
+        assertEquals("France", rows.get(0).path("label").asText());
+    }
+
+    @Test
+    void invalidate() throws Exception
+    {
+        this.response = String.format("{\"%s\":[{\"label\":\"Main.WebHome\",\"nb_visits\":2}],\"%s\":[]}",
+            this.firstDay, this.secondDay);
+        this.rollupStore.request(getParameters(), Collections.emptyMap(), this.jsonNormaliser);
+
+        // The reports of the other wikis are kept.
+        this.rollupStore.invalidate(AnalyticsRequestKey.getKeyPrefix("subwiki@"));
+        this.rollupStore.request(getParameters(), Collections.emptyMap(), this.jsonNormaliser);
+        verify(this.requestExecutor, times(1)).execute(any(), any(ResponseReader.class));
+
+        this.rollupStore.invalidate(AnalyticsRequestKey.getKeyPrefix("xwiki@"));
+        this.rollupStore.request(getParameters(), Collections.emptyMap(), this.jsonNormaliser);
+        verify(this.requestExecutor, times(2)).execute(any(), any(ResponseReader.class));
+    }
+
+    @Test
+    void requestFailsOnMatomoError()
+    {
+        this.response = "{\"result\":\"error\",\"message\":\"Invalid token.\"}";
+
+        assertThrows(Exception.class,
+            () -> this.rollupStore.request(getParameters(), Collections.emptyMap(), this.jsonNormaliser));
+    }
+
+    private Map<String, String> getParameters()
+    {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("module", "API");
+        parameters.put("method", "Actions.getPageUrls");
+        parameters.put("idSite", "1");
+        parameters.put("period", "range");
+        parameters.put(DATE, this.firstDay + "," + this.secondDay);
+        parameters.put("format", "json");
+        parameters.put("flat", "1");
+        parameters.put("filter_limit", "-1");
+        parameters.put("filter_sort_column", "nb_visits");
+        parameters.put("filter_sort_order", "desc");
+        return parameters;
+    }
+}
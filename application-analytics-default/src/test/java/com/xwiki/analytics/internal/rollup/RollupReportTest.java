@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.internal.rollup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Unit test for {@link RollupReport}
+ *
+ * @version $Id$
+ */
+public class RollupReportTest
+{
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void translateToARebuiltReport() throws Exception
+    {
+        RollupReport report = new RollupReport();
+        DailyColumns evictedDay = report.createColumns(getRows("[{\"label\":\"Old\",\"nb_visits\":1}]"));
+        DailyColumns storedDay = report.createColumns(
+            getRows("[{\"label\":\"Sandbox\",\"url\":\"https://wiki/Sandbox\",\"nb_hits\":2,\"nb_visits\":3}]"));
+        assertEquals(2, report.getLabelCount());
+        assertEquals(1, report.getUsedLabelCount(Collections.singletonList(storedDay)));
+
+        RollupReport rebuiltReport = new RollupReport();
+        DailyColumns translatedDay = rebuiltReport.translate(storedDay);
+
+        assertSame(translatedDay, rebuiltReport.translate(translatedDay));
+        assertEquals(1, rebuiltReport.getLabelCount());
+        // The days that were being aggregated while the report was rebuilt can still be aggregated.
+        JsonNode rows = rebuiltReport.aggregate(Arrays.asList(translatedDay, evictedDay), null, false, -1);
+        assertEquals(2, rows.size());
+        assertEquals("Sandbox", rows.get(0).path("label").asText());
+        assertEquals("https://wiki/Sandbox", rows.get(0).path("url").asText());
+        assertEquals(3, rows.get(0).path("nb_visits").asInt());
+        assertEquals(2, rows.get(0).path("nb_hits").asInt());
+        assertEquals("Old", rows.get(1).path("label").asText());
+        assertEquals(0, rows.get(1).path("nb_hits").asInt());
+    }
+
+    private List<ObjectNode> getRows(String json) throws Exception
+    {
+        return Arrays.asList(this.objectMapper.readValue(json, ObjectNode[].class));
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.script;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.script.service.ScriptService;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectComponentManager;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.test.mockito.MockitoComponentManager;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.xwiki.analytics.AnalyticsRequest;
+import com.xwiki.analytics.AnalyticsResponse;
+import com.xwiki.analytics.configuration.AnalyticsConfiguration;
+import com.xwiki.analytics.internal.AnalyticsCacheWarmer;
+import com.xwiki.analytics.internal.AnalyticsTaskExecutor;
+import com.xwiki.analytics.internal.HttpClientBuilderFactory;
+import com.xwiki.analytics.internal.MatomoAnalyticsManager;
+import com.xwiki.analytics.internal.MatomoCallGuard;
+import com.xwiki.analytics.internal.MatomoRequestExecutor;
+import com.xwiki.analytics.internal.MatomoStandInServer;
+import com.xwiki.analytics.internal.MostViewedJsonNormaliser;
+import com.xwiki.analytics.internal.ViewRightsChecker;
+import com.xwiki.analytics.internal.VisitsJsonNormaliser;
+import com.xwiki.analytics.internal.VisitsSummaryStore;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache;
+import com.xwiki.analytics.internal.cache.MapCache;
+import com.xwiki.analytics.internal.cache.PageReferenceCache;
+import com.xwiki.analytics.internal.cache.PersistentResponseStore;
+import com.xwiki.analytics.internal.configuration.MatomoEndpointManager;
+import com.xwiki.analytics.internal.metrics.AnalyticsMetrics;
+import com.xwiki.analytics.internal.rollup.DailyRollupStore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * End-to-end load test of {@link AnalyticsScriptService}, running the whole request pipeline against a
+ * {@link MatomoStandInServer}. The load is small by default, so that the test stays fast, and can be increased with the
+ * {@code analytics.loadTest.*} system properties, e.g.
+ * {@code mvn test -Dtest=AnalyticsScriptServiceLoadTest -Danalytics.loadTest.requests=20000
+ * -Danalytics.loadTest.threads=64 -Danalytics.loadTest.latency=50}. The latency percentiles and the throughput are
+ * logged. The responses are cached by default; disabling the cache ({@code -Danalytics.loadTest.cacheSize=0}) makes
+ * each request reach the stand-in server.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+@ComponentList({
+    AnalyticsScriptService.class,
+    MatomoAnalyticsManager.class,
+    MatomoRequestExecutor.class,
+    HttpClientBuilderFactory.class,
+    AnalyticsResponseCache.class,
+    AnalyticsTaskExecutor.class,
+    PageReferenceCache.class,
+    MostViewedJsonNormaliser.class,
+    VisitsJsonNormaliser.class,
+    VisitsSummaryStore.class,
+    AnalyticsMetrics.class,
+    MatomoCallGuard.class,
+    MatomoEndpointManager.class
+})
+public class AnalyticsScriptServiceLoadTest
+{
+    private static final String PROPERTY_PREFIX = "analytics.loadTest.";
+
+    private static final int THREADS = Integer.getInteger(PROPERTY_PREFIX + "threads", 8);
+
+    private static final int REQUESTS = Integer.getInteger(PROPERTY_PREFIX + "requests", 400);
+
+    private static final int LATENCY = Integer.getInteger(PROPERTY_PREFIX + "latency", 5);
+
+    private static final int JITTER = Integer.getInteger(PROPERTY_PREFIX + "jitter", 3);
+
+    private static final int ROWS = Integer.getInteger(PROPERTY_PREFIX + "rows", 500);
+
+    private static final int CACHE_SIZE = Integer.getInteger(PROPERTY_PREFIX + "cacheSize", 100);
+
+    /**
+     * The directory holding the recorded Matomo responses, if any.
+     */
+    private static final String PAYLOADS = System.getProperty(PROPERTY_PREFIX + "payloads");
+
+    private static final String METHOD = "method";
+
+    private static final String PERIOD = "period";
+
+    private static final String DATE = "date";
+
+    private static final String PAGE_URLS = "Actions.getPageUrls";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AnalyticsScriptServiceLoadTest.class);
+
+    @InjectComponentManager
+    private MockitoComponentManager componentManager;
+
+    @MockComponent
+    private AnalyticsConfiguration configuration;
+
+    @MockComponent
+    private ViewRightsChecker viewRightsChecker;
+
+    @MockComponent
+    @Named("resource/standardURL")
+    private EntityReferenceResolver<String> urlResolver;
+
+    @MockComponent
+    private PersistentResponseStore persistentStore;
+
+    @MockComponent
+    private DailyRollupStore rollupStore;
+
+    @MockComponent
+    private AnalyticsCacheWarmer cacheWarmer;
+
+    @MockComponent
+    private Execution execution;
+
+    @MockComponent
+    private ExecutionContextManager executionContextManager;
+
+    @MockComponent
+    private ModelContext modelContext;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private ContextualAuthorizationManager contextualAuthorizationManager;
+
+    private MatomoStandInServer server;
+
+    private AnalyticsScriptService scriptService;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        this.server = new MatomoStandInServer();
+        this.server.setLatency(LATENCY, JITTER);
+        this.server.setRows(ROWS);
+        if (PAYLOADS != null) {
+            this.server.loadPayloads(Paths.get(PAYLOADS));
+        }
+
+        when(this.configuration.getRequestAddress()).thenReturn(this.server.getAddress());
+        when(this.configuration.getIdSite()).thenReturn("1");
+        when(this.configuration.getAuthenticationToken()).thenReturn("token");
+        when(this.configuration.getMaxConnections()).thenReturn(THREADS * 2);
+        when(this.configuration.getMaxConnectionsPerRoute()).thenReturn(THREADS * 2);
+        when(this.configuration.getConnectTimeout()).thenReturn(10000);
+        when(this.configuration.getSocketTimeout()).thenReturn(30000);
+        when(this.configuration.getConnectionRequestTimeout()).thenReturn(30000);
+        when(this.configuration.getIdleConnectionTimeout()).thenReturn(60000);
+        when(this.configuration.getKeepAliveDuration()).thenReturn(60000);
+        when(this.configuration.getMaxResponseSize()).thenReturn(100L * 1024 * 1024);
+        when(this.configuration.isHttpCompressionEnabled()).thenReturn(true);
+        when(this.configuration.getResponseCacheSize()).thenReturn(CACHE_SIZE);
+        when(this.configuration.getClosedPeriodCacheDuration()).thenReturn(CACHE_SIZE > 0 ? 3600 : 0);
+        when(this.configuration.getCurrentPeriodCacheDuration()).thenReturn(CACHE_SIZE > 0 ? 300 : 0);
+        when(this.configuration.getPageReferenceCacheSize()).thenReturn(Math.max(ROWS, 1));
+        when(this.configuration.getMaxConcurrentRequests()).thenReturn(THREADS);
+
+        when(this.cacheManager.createNewLocalCache(any())).thenAnswer(invocation -> new MapCache<>(
+            invocation.<LRUCacheConfiguration>getArgument(0).getLRUEvictionConfiguration().getMaxEntries()));
+
+        DocumentReference pageReference = new DocumentReference("xwiki", "Space", "Page");
+        when(this.urlResolver.resolve(any(), any())).thenReturn(pageReference);
+        when(this.viewRightsChecker.getViewable(any()))
+            .thenAnswer(invocation -> new HashSet<>(invocation.<Set<EntityReference>>getArgument(0)));
+
+        // The metrics are only returned to the administrators.
+        when(this.contextualAuthorizationManager.hasAccess(Right.ADMIN)).thenReturn(true);
+
+        this.scriptService = this.componentManager.getInstance(ScriptService.class, "analytics");
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        this.server.close();
+    }
+
+    @Test
+    void makeRequestUnderLoad() throws Exception
+    {
+        long[] latencies = new long[REQUESTS];
+        Set<String> distinctRequests = ConcurrentHashMap.newKeySet();
+        List<Future<?>> futures = new ArrayList<>(REQUESTS);
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < REQUESTS; i++) {
+                int index = i;
+                futures.add(executorService.submit(() -> {
+                    long requestStart = System.nanoTime();
+                    JsonNode result = makeRequest(index, distinctRequests);
+                    latencies[index] = System.nanoTime() - requestStart;
+                    return result;
+                }));
+            }
+            for (Future<?> future : futures) {
+                // Fails the test with the cause of the first failed request.
+                future.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        long duration = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        long apiCallCount = this.server.getApiCallCount();
+        LOGGER.info("Analytics load test: {} requests from {} threads, {} Matomo API calls in {} HTTP requests",
+            REQUESTS, THREADS, apiCallCount, this.server.getHttpRequestCount());
+        LOGGER.info(String.format("Latency: p50 %.2f ms, p99 %.2f ms, max %.2f ms; throughput %.1f requests/s",
+            toMillis(getPercentile(latencies, 0.5)), toMillis(getPercentile(latencies, 0.99)),
+            toMillis(latencies[REQUESTS - 1]), REQUESTS / (duration / (double) TimeUnit.SECONDS.toNanos(1))));
+        LOGGER.info("Metrics: {}", this.scriptService.getMetrics());
+
+        // Without the cache, the test only measures the latencies.
+        if (CACHE_SIZE >= distinctRequests.size()) {
+            // The identical requests made at the same time are coalesced and the next ones are served from the cache,
+            // so each distinct request reaches Matomo at most once (the visits of a day may already be stored).
+            assertTrue(apiCallCount <= distinctRequests.size(), String.format(
+                "[%d] Matomo API calls for [%d] distinct requests", apiCallCount, distinctRequests.size()));
+        }
+    }
+
+    @Test
+    void makeRequestReturnsTheNormalisedResponse()
+    {
+        JsonNode pages = this.scriptService.makeRequest(getPageUrlsParameters("last7"), new HashMap<>(),
+            MostViewedJsonNormaliser.HINT);
+        assertEquals(ROWS, pages.size());
+        assertEquals("Page", pages.get(0).get("label").asText());
+
+        JsonNode window = this.scriptService.makeRequest(getPageUrlsParameters("last7"), new HashMap<>(),
+            MostViewedJsonNormaliser.HINT, 0, 10);
+        assertEquals(Math.min(ROWS, 10), window.get("rows").size());
+
+        JsonNode series = this.scriptService.makeRequest(getVisitsParameters("last7"), new HashMap<>(),
+            VisitsJsonNormaliser.HINT);
+        assertEquals(7, series.get("labels").size());
+        assertEquals(7, series.get("values").size());
+    }
+
+    @Test
+    void makeRequestWhenMatomoFails()
+    {
+        this.server.setErrorRates(1, 0);
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> this.scriptService
+            .makeRequest(getPageUrlsParameters("last7"), new HashMap<>(), MostViewedJsonNormaliser.HINT));
+        assertEquals("Matomo responded with the [500] status code.", exception.getCause().getMessage());
+
+        this.server.setErrorRates(0, 1);
+        exception = assertThrows(RuntimeException.class, () -> this.scriptService
+            .makeRequest(getPageUrlsParameters("last7"), new HashMap<>(), MostViewedJsonNormaliser.HINT));
+        assertTrue(exception.getCause().getMessage().contains("Simulated failure of [Actions.getPageUrls]."));
+    }
+
+    @Test
+    void makeRequestWhenMatomoIsTooSlow()
+    {
+        this.server.setLatency(2000, 0);
+        when(this.configuration.getRequestDeadline()).thenReturn(100);
+        long start = System.nanoTime();
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> this.scriptService
+            .makeRequest(getPageUrlsParameters("last7"), new HashMap<>(), MostViewedJsonNormaliser.HINT));
+        assertEquals("The Matomo request was aborted after [100] milliseconds.", exception.getCause().getMessage());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    void makeBatchRequestSendsASingleBulkRequest()
+    {
+        this.server.setErrorRates(0, 0);
+        List<AnalyticsRequest> requests = Arrays.asList(
+            this.scriptService.createRequest(getPageUrlsParameters("last7"), Collections.emptyMap(),
+                MostViewedJsonNormaliser.HINT),
+            this.scriptService.createRequest(getPageUrlsParameters("last30"), Collections.emptyMap(),
+                MostViewedJsonNormaliser.HINT));
+
+        List<AnalyticsResponse> responses = this.scriptService.makeBatchRequest(requests);
+
+        assertEquals(1, this.server.getHttpRequestCount());
+        assertEquals(2, this.server.getApiCallCount());
+        for (AnalyticsResponse response : responses) {
+            assertTrue(response.isSuccessful());
+            assertFalse(response.getData().isEmpty());
+        }
+    }
+
+    /**
+     * Make one of the requests of a dashboard: the most viewed pages, a page of them as in a live data, or the visits
+     * graph, for a few different periods. A page of the most viewed pages is taken from the whole response, so it
+     * doesn't need another Matomo request.
+     */
+    private JsonNode makeRequest(int index, Set<String> distinctRequests)
+    {
+        String date = "last" + (7 + index % 4);
+        distinctRequests.add((index % 3 == 2 ? "visits" : "pages") + date);
+        switch (index % 3) {
+            case 0:
+                return this.scriptService.makeRequest(getPageUrlsParameters(date), new HashMap<>(),
+                    MostViewedJsonNormaliser.HINT);
+            case 1:
+                return this.scriptService.makeRequest(getPageUrlsParameters(date), new HashMap<>(),
+                    MostViewedJsonNormaliser.HINT, index % 5 * 10L, 10);
+            default:
+                return this.scriptService.makeRequest(getVisitsParameters(date), new HashMap<>(),
+                    VisitsJsonNormaliser.HINT);
+        }
+    }
+
+    private Map<String, String> getPageUrlsParameters(String date)
+    {
+        Map<String, String> parameters = getParameters(PAGE_URLS, "range", date);
+        parameters.put("flat", "1");
+        return parameters;
+    }
+
+    private Map<String, String> getVisitsParameters(String date)
+    {
+        Map<String, String> parameters = getParameters("VisitsSummary.get", "day", date);
+        parameters.put("columns", "nb_visits");
+        return parameters;
+    }
+
+    private Map<String, String> getParameters(String method, String period, String date)
+    {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("module", "API");
+        parameters.put("format", "JSON");
+        parameters.put(METHOD, method);
+        parameters.put(PERIOD, period);
+        parameters.put(DATE, date);
+        return parameters;
+    }
+
+    private long getPercentile(long[] sortedValues, double percentile)
+    {
+        return sortedValues[Math.max(0, (int) Math.ceil(percentile * sortedValues.length) - 1)];
+    }
+
+    private double toMillis(long nanos)
+    {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
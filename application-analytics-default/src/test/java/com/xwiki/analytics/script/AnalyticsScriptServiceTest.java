@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.analytics.script;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xwiki.analytics.AnalyticsManager;
+import com.xwiki.analytics.internal.MatomoCallGuard;
+import com.xwiki.analytics.internal.cache.AnalyticsResponseCache;
+import com.xwiki.analytics.internal.cache.PersistentResponseStore;
+import com.xwiki.analytics.internal.metrics.AnalyticsMetrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link AnalyticsScriptService}
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class AnalyticsScriptServiceTest
+{
+    @InjectMockComponents
+    private AnalyticsScriptService scriptService;
+
+    @MockComponent
+    @Named("Matomo")
+    private AnalyticsManager analyticsManager;
+
+    @MockComponent
+    private AnalyticsResponseCache responseCache;
+
+    @MockComponent
+    private PersistentResponseStore persistentStore;
+
+    @MockComponent
+    private AnalyticsMetrics metrics;
+
+    @MockComponent
+    private MatomoCallGuard callGuard;
+
+    @MockComponent
+    private ContextualAuthorizationManager contextualAuthorizationManager;
+
+    @Test
+    void diagnosticsWithoutAdminRight()
+    {
+        assertTrue(this.scriptService.getCacheStatistics().isEmpty());
+        assertTrue(this.scriptService.getMetrics().isEmpty());
+        assertTrue(this.scriptService.getMatomoAvailability().isEmpty());
+        verify(this.responseCache, never()).getStatistics();
+        verify(this.metrics, never()).getMetrics();
+        verify(this.callGuard, never()).getState();
+    }
+
+    @Test
+    void diagnosticsWithAdminRight()
+    {
+        when(this.contextualAuthorizationManager.hasAccess(Right.ADMIN)).thenReturn(true);
+        Map<String, Long> statistics = new HashMap<>();
+        statistics.put("hits", 1L);
+        when(this.responseCache.getStatistics()).thenReturn(statistics);
+        when(this.metrics.getMetrics()).thenReturn(Collections.singletonMap("matomo", Collections.emptyMap()));
+        when(this.callGuard.getState()).thenReturn(Collections.singletonMap("state", "CLOSED"));
+
+        assertEquals(1L, this.scriptService.getCacheStatistics().get("hits"));
+        assertTrue(this.scriptService.getMetrics().containsKey("matomo"));
+        assertEquals("CLOSED", this.scriptService.getMatomoAvailability().get("state"));
+    }
+}